@@ -3,6 +3,7 @@ import com.vanniktech.maven.publish.SonatypeHost
 plugins {
     id("java-library")
     id("com.vanniktech.maven.publish") version "0.31.0"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 java {
@@ -23,8 +24,9 @@ dependencies {
     implementation("com.zaxxer:HikariCP:5.1.0")
     implementation("com.fasterxml.jackson.core:jackson-databind:$jacksonVersion")
     implementation("com.fasterxml.jackson.datatype:jackson-datatype-jsr310:$jacksonVersion")
+    implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-smile:$jacksonVersion")
     implementation("io.github.resilience4j:resilience4j-retry:2.2.0")
-    implementation("com.github.kagkarlsson:db-scheduler:14.0.1")
+    implementation("com.github.kagkarlsson:db-scheduler:14.0.3")
     implementation("ch.qos.logback:logback-classic:1.5.6")
     implementation("net.bytebuddy:byte-buddy:1.17.2")
     // https://mvnrepository.com/artifact/com.google.flogger/flogger
@@ -40,7 +42,7 @@ dependencies {
     // https://mvnrepository.com/artifact/org.awaitility/awaitility
     implementation("org.awaitility:awaitility:4.3.0")
     // https://mvnrepository.com/artifact/org.jdbi/jdbi3-core
-    implementation("org.jdbi:jdbi3-core:$jdbiVersion")
+    api("org.jdbi:jdbi3-core:$jdbiVersion")
     // https://mvnrepository.com/artifact/org.jdbi/jdbi3-postgres
     testImplementation("org.jdbi:jdbi3-postgres:$jdbiVersion")
 
@@ -49,6 +51,7 @@ dependencies {
     testImplementation("org.testcontainers:junit-jupiter:$testcontainersVersion")
     // https://mvnrepository.com/artifact/org.testcontainers/postgresql
     testImplementation("org.testcontainers:postgresql:$testcontainersVersion")
+    jmh("org.testcontainers:postgresql:$testcontainersVersion")
 
 }
 
@@ -57,6 +60,15 @@ tasks.withType<Test> {
     useJUnitPlatform()
 }
 
+/* Payload codec and durability benchmarks, the latter needs Docker for its PostgreSQL container
+ * ./gradlew jmh
+ */
+jmh {
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
+
 tasks.jar {
     exclude("logback.xml")
 }
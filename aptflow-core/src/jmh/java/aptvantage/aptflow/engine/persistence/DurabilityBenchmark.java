@@ -0,0 +1,98 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.api.RunnableWorkflow;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.jdbi.v3.core.Jdbi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of execution passes of {@link #ACTIVITIES_PER_PASS} activities with each durability,
+ * against a PostgreSQL container. Start and completion of each activity are flushed as the executor
+ * flushes them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DurabilityBenchmark {
+
+    private static final int ACTIVITIES_PER_PASS = 10;
+
+    @Param({"DURABLE", "RELAXED", "EPHEMERAL"})
+    public Durability durability;
+
+    private PostgreSQLContainer<?> postgresqlContainer;
+    private HikariDataSource dataSource;
+    private StateWriter stateWriter;
+    private String workflowRunId;
+    private long activities;
+
+    @Setup
+    public void setUp() {
+        postgresqlContainer = new PostgreSQLContainer<>("postgres");
+        postgresqlContainer.start();
+
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(postgresqlContainer.getJdbcUrl());
+        config.setUsername(postgresqlContainer.getUsername());
+        config.setPassword(postgresqlContainer.getPassword());
+        dataSource = new HikariDataSource(config);
+        Flyway.configure()
+                .baselineVersion("0")
+                .baselineOnMigrate(true)
+                .dataSource(dataSource)
+                .load()
+                .migrate();
+
+        Jdbi jdbi = Jdbi.create(dataSource);
+        PayloadStore payloadStore = new PayloadStore(jdbi);
+        PayloadCompression compression = new PayloadCompression();
+        PayloadCodec codec = new JavaSerializationCodec();
+        stateWriter = new PostgresStateWriter(jdbi, payloadStore, compression, codec, null);
+
+        workflowRunId = stateWriter.scheduleRunForNewWorkflow("durability-" + durability, BenchmarkWorkflow.class, 0);
+        stateWriter.workflowRunStarted(workflowRunId, Instant.now());
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.close();
+        postgresqlContainer.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACTIVITIES_PER_PASS)
+    public void executionPass() {
+        UnitOfWork unitOfWork = stateWriter.beginUnitOfWork(durability);
+        for (int i = 0; i < ACTIVITIES_PER_PASS; i++) {
+            String name = "activity-" + activities++;
+            stateWriter.newActivityStarted(unitOfWork, workflowRunId, name, Instant.now());
+            unitOfWork.flush();
+            stateWriter.completeActivity(unitOfWork, workflowRunId, name, i, Instant.now());
+            unitOfWork.flush();
+        }
+        unitOfWork.close();
+    }
+
+    public static class BenchmarkWorkflow implements RunnableWorkflow<Integer, Integer> {
+
+        @Override
+        public Integer execute(Integer param) {
+            return param;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package aptvantage.aptflow.engine.persistence;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode cost of each payload codec, for a typical activity output. The encoded size of
+ * each codec is reported as the {@code encodedBytes} counter of the encode benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PayloadCodecBenchmark {
+
+    @Param({"java", "json", "smile"})
+    public String codecName;
+
+    private PayloadCodecs codecs;
+    private short codecId;
+    private SamplePayload payload;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        PayloadCodec codec = switch (codecName) {
+            case "java" -> new JavaSerializationCodec();
+            case "json" -> JacksonPayloadCodec.json();
+            case "smile" -> JacksonPayloadCodec.smile();
+            default -> throw new IllegalArgumentException(codecName);
+        };
+        codecs = new PayloadCodecs(codec);
+        codecId = codec.id();
+
+        List<String> tags = new ArrayList<>();
+        Map<String, Long> counters = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            tags.add("tag-" + i);
+            counters.put("counter-" + i, (long) i * 1000);
+        }
+        payload = new SamplePayload("order-42", 1234567L, "a customer note that is a bit longer than the rest",
+                Instant.parse("2025-03-01T12:00:00Z"), tags, counters);
+        encoded = codecs.encode(payload);
+    }
+
+    @Benchmark
+    public byte[] encode(EncodedSize encodedSize) {
+        byte[] bytes = codecs.encode(payload);
+        encodedSize.encodedBytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public Serializable decode() {
+        return codecs.decode(codecId, encoded);
+    }
+
+    /**
+     * The encoded size of the sample payload, set rather than added up so each iteration reports it as it
+     * is. The summary adds up the measurement iterations.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSize {
+
+        public long encodedBytes;
+    }
+
+    public record SamplePayload(
+            String id,
+            long amount,
+            String note,
+            Instant created,
+            List<String> tags,
+            Map<String, Long> counters) implements Serializable {
+    }
+}
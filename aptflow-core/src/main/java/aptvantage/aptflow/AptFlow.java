@@ -3,92 +3,362 @@ package aptvantage.aptflow;
 import aptvantage.aptflow.api.RunnableWorkflow;
 import aptvantage.aptflow.api.StepFunctions;
 import aptvantage.aptflow.api.WorkflowFunctions;
+import aptvantage.aptflow.engine.DbWorkflowScheduler;
+import aptvantage.aptflow.engine.InMemoryWorkflowScheduler;
+import aptvantage.aptflow.engine.ShardRouter;
 import aptvantage.aptflow.engine.WorkflowExecutor;
+import aptvantage.aptflow.engine.persistence.BlobStore;
+import aptvantage.aptflow.engine.persistence.CallerTransactions;
+import aptvantage.aptflow.engine.persistence.ConnectionPools;
+import aptvantage.aptflow.engine.persistence.Durability;
+import aptvantage.aptflow.engine.persistence.EventIds;
+import aptvantage.aptflow.engine.persistence.GroupCommitWriter;
+import aptvantage.aptflow.engine.persistence.InMemoryStateStore;
+import aptvantage.aptflow.engine.persistence.JavaSerializationCodec;
+import aptvantage.aptflow.engine.persistence.JournalStateStore;
+import aptvantage.aptflow.engine.persistence.JsonPathQueries;
+import aptvantage.aptflow.engine.persistence.NodeIdLease;
+import aptvantage.aptflow.engine.persistence.PayloadCodec;
+import aptvantage.aptflow.engine.persistence.PayloadCompression;
+import aptvantage.aptflow.engine.persistence.PayloadStore;
+import aptvantage.aptflow.engine.persistence.PostgresStateReader;
+import aptvantage.aptflow.engine.persistence.PostgresStateStore;
+import aptvantage.aptflow.engine.persistence.PostgresStateWriter;
+import aptvantage.aptflow.engine.persistence.ReplicaRouting;
 import aptvantage.aptflow.engine.persistence.StateReader;
+import aptvantage.aptflow.engine.persistence.StateStore;
 import aptvantage.aptflow.engine.persistence.StateWriter;
+import aptvantage.aptflow.engine.persistence.WorkflowArchiver;
+import aptvantage.aptflow.model.JsonPathPredicate;
+import aptvantage.aptflow.model.Page;
+import aptvantage.aptflow.model.ReadConsistency;
+import aptvantage.aptflow.model.RunCursor;
+import aptvantage.aptflow.model.RunFilter;
+import aptvantage.aptflow.model.RunPage;
 import aptvantage.aptflow.model.Workflow;
 import aptvantage.aptflow.model.WorkflowRun;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import org.flywaydb.core.Flyway;
+import org.jdbi.v3.core.Handle;
 import org.jdbi.v3.core.Jdbi;
 
 import javax.sql.DataSource;
 import java.io.Serializable;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class AptFlow {
 
-    private final WorkflowExecutor workflowExecutor;
+    private final List<Shard> shards;
+    private final ShardRouter shardRouter;
     private final AptWorkflowBuilder builder;
-    private final StateReader stateReader;
+    private final ExecutorService scatterExecutor;
 
     private AptFlow(
-            WorkflowExecutor workflowExecutor,
-            AptWorkflowBuilder builder,
-            StateReader stateReader
+            List<Shard> shards,
+            AptWorkflowBuilder builder
     ) {
-        this.workflowExecutor = workflowExecutor;
+        this.shards = List.copyOf(shards);
+        this.shardRouter = new ShardRouter(shards.size());
         this.builder = builder;
-        this.stateReader = stateReader;
+        // a thread per shard, so the queries of a scatter never wait on each other or on the common pool
+        AtomicInteger scatterThreads = new AtomicInteger();
+        this.scatterExecutor = shards.size() == 1 ? null : Executors.newFixedThreadPool(shards.size(), runnable -> {
+            Thread thread = new Thread(runnable, "aptflow-scatter-" + scatterThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public static AptWorkflowBuilder builder() {
         return new AptWorkflowBuilder();
     }
 
+    /**
+     * @return the index, in {@link AptWorkflowBuilder#shards(List)}, of the database holding the state of
+     * the workflow, the one to pass the transactions of the caller for it on
+     */
+    public int shardOf(String workflowId) {
+        return shardRouter.shardOf(workflowId);
+    }
+
+    private Shard shard(String workflowId) {
+        return shards.get(shardRouter.shardOf(workflowId));
+    }
+
     public <T extends Serializable> void signalWorkflow(String workflowId, String signalName, T signalValue) {
-        WorkflowRun<Serializable, Serializable> activeRun = stateReader.getActiveRunForWorkflowId(workflowId, null);
-        this.workflowExecutor.signalWorkflowRun(activeRun.getId(), signalName, signalValue);
+        Shard shard = shard(workflowId);
+        WorkflowRun<Serializable, Serializable> activeRun = shard.stateReader().getActiveRunForWorkflowId(workflowId, null);
+        shard.workflowExecutor().signalWorkflowRun(activeRun.getId(), signalName, signalValue);
+    }
+
+    /**
+     * Signal the workflow as part of the transaction the caller has in progress on the handle. The
+     * signal is delivered once the caller commits.
+     */
+    public <T extends Serializable> void signalWorkflow(Handle handle, String workflowId, String signalName, T signalValue) {
+        shard(workflowId).callerTransactions().useCallerTransaction(handle, () -> scheduleSignal(workflowId, signalName, signalValue));
+    }
+
+    /**
+     * Signal the workflow as part of the transaction the caller has in progress on the connection
+     * (auto-commit disabled). The signal is delivered once the caller commits.
+     */
+    public <T extends Serializable> void signalWorkflow(Connection connection, String workflowId, String signalName, T signalValue) {
+        shard(workflowId).callerTransactions().useCallerTransaction(connection, () -> scheduleSignal(workflowId, signalName, signalValue));
+    }
+
+    private <T extends Serializable> void scheduleSignal(String workflowId, String signalName, T signalValue) {
+        Shard shard = shard(workflowId);
+        WorkflowRun<Serializable, Serializable> activeRun = shard.stateReader().getActiveRunForWorkflowId(workflowId, null);
+        shard.workflowExecutor().scheduleSignal(activeRun.getId(), signalName, signalValue);
+    }
+
+    public <I extends Serializable, O extends Serializable> void runWorkflow(
+            Class<? extends RunnableWorkflow<I, O>> workflowClass,
+            I workflowInput,
+            String workflowId) {
+        shard(workflowId).workflowExecutor().runWorkflow(workflowClass, workflowInput, workflowId);
+    }
+
+    /**
+     * Start the workflow as part of the transaction the caller has in progress on the handle, so it only
+     * starts if the caller commits (outbox style)
+     */
+    public <I extends Serializable, O extends Serializable> void runWorkflow(
+            Handle handle,
+            Class<? extends RunnableWorkflow<I, O>> workflowClass,
+            I workflowInput,
+            String workflowId) {
+        Shard shard = shard(workflowId);
+        shard.callerTransactions().useCallerTransaction(handle, () -> shard.workflowExecutor().runWorkflow(workflowClass, workflowInput, workflowId));
     }
 
+    /**
+     * Start the workflow as part of the transaction the caller has in progress on the connection
+     * (auto-commit disabled), so it only starts if the caller commits (outbox style)
+     */
     public <I extends Serializable, O extends Serializable> void runWorkflow(
+            Connection connection,
             Class<? extends RunnableWorkflow<I, O>> workflowClass,
             I workflowInput,
             String workflowId) {
-        this.workflowExecutor.runWorkflow(workflowClass, workflowInput, workflowId);
+        Shard shard = shard(workflowId);
+        shard.callerTransactions().useCallerTransaction(connection, () -> shard.workflowExecutor().runWorkflow(workflowClass, workflowInput, workflowId));
     }
 
     public void reRunWorkflowFromStart(String workflowId) {
-        this.workflowExecutor.reRunWorkflowFromStart(workflowId);
+        shard(workflowId).workflowExecutor().reRunWorkflowFromStart(workflowId);
     }
 
     public void reRunWorkflowFromFailed(String workflowId) {
-        this.workflowExecutor.reRunWorkflowFromFailed(workflowId);
+        shard(workflowId).workflowExecutor().reRunWorkflowFromFailed(workflowId);
     }
 
 
     public WorkflowRun<Serializable, Serializable> getLatestRun(String workflowId) {
-        return stateReader.getActiveRunForWorkflowId(workflowId, null);
+        return getLatestRun(workflowId, ReadConsistency.PRIMARY);
+    }
+
+    public WorkflowRun<Serializable, Serializable> getLatestRun(String workflowId, ReadConsistency consistency) {
+        return shard(workflowId).stateReader(consistency).getActiveRunForWorkflowId(workflowId, null);
     }
 
     public <I extends Serializable, O extends Serializable>
     WorkflowRun<I, O> getLatestRun(String workflowId, Class<? extends RunnableWorkflow<I, O>> workflowClass) {
-        return stateReader.getActiveRunForWorkflowId(workflowId, workflowClass);
+        return getLatestRun(workflowId, workflowClass, ReadConsistency.PRIMARY);
+    }
+
+    public <I extends Serializable, O extends Serializable>
+    WorkflowRun<I, O> getLatestRun(String workflowId, Class<? extends RunnableWorkflow<I, O>> workflowClass, ReadConsistency consistency) {
+        return shard(workflowId).stateReader(consistency).getActiveRunForWorkflowId(workflowId, workflowClass);
     }
 
     public <I extends Serializable, O extends Serializable>
     Workflow<I, O> getWorkflowResult(String workflowId, Class<? extends RunnableWorkflow<I, O>> workflowClass) {
-        return stateReader.getWorkflow(workflowId, workflowClass);
+        return getWorkflowResult(workflowId, workflowClass, ReadConsistency.PRIMARY);
+    }
+
+    public <I extends Serializable, O extends Serializable>
+    Workflow<I, O> getWorkflowResult(String workflowId, Class<? extends RunnableWorkflow<I, O>> workflowClass, ReadConsistency consistency) {
+        return shard(workflowId).stateReader(consistency).getWorkflow(workflowId, workflowClass);
     }
 
     public Workflow<Serializable, Serializable> getWorkflowResult(String workflowId) {
-        return stateReader.getWorkflow(workflowId, null);
+        return getWorkflowResult(workflowId, ReadConsistency.PRIMARY);
+    }
+
+    public Workflow<Serializable, Serializable> getWorkflowResult(String workflowId, ReadConsistency consistency) {
+        return shard(workflowId).stateReader(consistency).getWorkflow(workflowId, null);
+    }
+
+    public List<Workflow<Serializable, Serializable>> findWorkflows(JsonPathPredicate predicate, Page page) {
+        return findWorkflows(predicate, page, ReadConsistency.PRIMARY);
+    }
+
+    /**
+     * Find workflows matching the predicate, in pages ordered by workflow id. The predicate is evaluated
+     * by Postgres over payloads stored with {@link aptvantage.aptflow.engine.persistence.JacksonPayloadCodec#json()}.
+     * <p>
+     * Sharded, every shard is queried in parallel and their pages are merged by workflow id compared as
+     * Java strings, the order each shard sorts them in whatever its collation (see
+     * {@link aptvantage.aptflow.engine.persistence.PostgresStateReader#findWorkflows}).
+     */
+    public List<Workflow<Serializable, Serializable>> findWorkflows(JsonPathPredicate predicate, Page page, ReadConsistency consistency) {
+        if (shards.size() == 1) {
+            return shards.get(0).jsonPathQueries(consistency).findWorkflows(predicate, page);
+        }
+        return scatter(shard -> shard.jsonPathQueries(consistency).findWorkflows(predicate, page)).stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparing(Workflow::getId))
+                .limit(page.size())
+                .toList();
+    }
+
+    public RunPage listRuns(RunFilter filter, RunCursor cursor, int limit) {
+        return listRuns(filter, cursor, limit, ReadConsistency.PRIMARY);
+    }
+
+    /**
+     * List runs matching the filter, newest first. Pass the {@link RunPage#next()} cursor of a page to get
+     * the following one, null for the first.
+     * <p>
+     * Sharded, every shard is queried in parallel and their pages are merged.
+     */
+    public RunPage listRuns(RunFilter filter, RunCursor cursor, int limit, ReadConsistency consistency) {
+        if (shards.size() == 1) {
+            return shards.get(0).stateReader(consistency).listRuns(filter, cursor, limit);
+        }
+        // every shard returns its first runs after the cursor, so the first of them all are the page
+        List<WorkflowRun<Serializable, Serializable>> runs = scatter(shard -> shard.stateReader(consistency).listRuns(filter, cursor, limit))
+                .stream()
+                .flatMap(page -> page.runs().stream())
+                .sorted(Comparator.comparing((WorkflowRun<Serializable, Serializable> run) -> run.getCreated())
+                        .thenComparing(WorkflowRun::getId)
+                        .reversed())
+                .toList();
+        if (runs.size() < limit) {
+            return new RunPage(runs, null);
+        }
+        List<WorkflowRun<Serializable, Serializable>> page = runs.subList(0, limit);
+        return new RunPage(page, RunCursor.after(page.get(limit - 1)));
+    }
+
+    private <R> List<R> scatter(Function<Shard, R> query) {
+        List<CompletableFuture<R>> results = shards.stream()
+                .map(shard -> CompletableFuture.supplyAsync(() -> query.apply(shard), scatterExecutor))
+                .toList();
+        return results.stream()
+                .map(CompletableFuture::join)
+                .toList();
+    }
+
+    /**
+     * @return the routing of reads to the read replica of each shard, with its metrics
+     */
+    public List<ReplicaRouting> getReplicaRouting() {
+        return shards.stream()
+                .map(Shard::replicaRouting)
+                .toList();
+    }
+
+    /**
+     * @return the connection pools of each shard, with their wait metrics, none when in memory
+     */
+    public List<ConnectionPools> getConnectionPools() {
+        return shards.stream()
+                .map(Shard::connectionPools)
+                .filter(Objects::nonNull)
+                .toList();
     }
 
     public void stop() {
-        this.workflowExecutor.stop();
+        shards.forEach(shard -> shard.workflowExecutor().stop());
+        if (scatterExecutor != null) {
+            scatterExecutor.shutdownNow();
+        }
         this.builder.stop();
     }
 
+    /**
+     * The engine of one database, owning the state and the scheduled tasks of the workflows routed to it
+     */
+    private record Shard(StateStore stateStore, WorkflowExecutor workflowExecutor, StepFunctions stepFunctions,
+                         ConnectionPools connectionPools, ReplicaRouting replicaRouting) {
+
+        StateReader stateReader() {
+            return stateStore.reader();
+        }
+
+        StateWriter stateWriter() {
+            return stateStore.writer();
+        }
+
+        StateReader stateReader(ReadConsistency consistency) {
+            return replicaRouting.readerFor(consistency);
+        }
+
+        CallerTransactions callerTransactions() {
+            if (stateWriter() instanceof CallerTransactions callerTransactions) {
+                return callerTransactions;
+            }
+            throw new IllegalStateException("joining the caller's transaction needs the state kept in Postgres");
+        }
+
+        JsonPathQueries jsonPathQueries(ReadConsistency consistency) {
+            if (stateReader(consistency) instanceof JsonPathQueries jsonPathQueries) {
+                return jsonPathQueries;
+            }
+            throw new IllegalStateException("finding workflows by JSON path needs the state kept in Postgres");
+        }
+    }
+
     public static class AptWorkflowBuilder {
 
         private final Set<Object> workflowDependencies = new HashSet<>();
-        private DataSource dataSource;
-
-        private boolean managedDataSource = false;
+        private List<ConnectionPools> connectionPools;
+        private boolean inMemory;
+        private Path journalDirectory;
+        private int journalSegmentBytes = JournalStateStore.DEFAULT_SEGMENT_BYTES;
+        private final List<JournalStateStore> journalStateStores = new ArrayList<>();
+
+        private final List<HikariDataSource> managedDataSources = new ArrayList<>();
+        private int executorThreads = 10;
+        private DataSource readReplica;
+        private Duration groupCommitMaxDelay;
+        private int groupCommitMaxBatchSize;
+        private final List<GroupCommitWriter> groupCommitWriters = new ArrayList<>();
+        private final List<PayloadStore> payloadStores = new ArrayList<>();
+        private BlobStore blobStore;
+        private int offloadThresholdBytes = Integer.MAX_VALUE;
+        private PayloadCompression payloadCompression = new PayloadCompression();
+        private PayloadCodec payloadCodec = new JavaSerializationCodec();
+        private Duration eventRetention;
+        private boolean dropExpiredEventPartitions;
+        private Duration workflowTtl;
+        private final Map<String, Duration> workflowTtlByClassName = new HashMap<>();
+        private boolean keepArchivedWorkflows = true;
+        private int archiveBatchSize = 100;
+        private int maxArchivedWorkflowsPerSecond = 500;
+        private final Map<String, Durability> durabilityByClassName = new HashMap<>();
+        private Integer nodeId;
+        private NodeIdLease nodeIdLease;
 
         private AptWorkflowBuilder() {
         }
@@ -102,28 +372,221 @@ public class AptFlow {
                     .migrate();
         }
 
-        private static HikariDataSource initializeDataSource(String username, String password, String url) {
+        private HikariDataSource initializeDataSource(String username, String password, String url,
+                                                      String poolName, int maximumPoolSize, boolean readOnly) {
             HikariConfig config = new HikariConfig();
+            config.setPoolName(poolName);
             config.setJdbcUrl(url);
             config.setUsername(username);
             config.setPassword(password);
             config.setDriverClassName("org.postgresql.Driver");
-            config.setMaximumPoolSize(10);
+            config.setMaximumPoolSize(maximumPoolSize);
+            config.setReadOnly(readOnly);
 
             // setting min idle prevents the datasource from eagerly creating max pool size
-            config.setMinimumIdle(2);
+            config.setMinimumIdle(Math.min(2, maximumPoolSize));
             config.setTransactionIsolation("TRANSACTION_READ_COMMITTED");
-            return new HikariDataSource(config);
+            HikariDataSource dataSource = new HikariDataSource(config);
+            managedDataSources.add(dataSource);
+            return dataSource;
         }
 
         public AptWorkflowBuilder dataSource(String username, String password, String url) {
-            this.dataSource = initializeDataSource(username, password, url);
-            this.managedDataSource = true;
-            return this;
+            return dataSource(initializeDataSource(username, password, url, "aptflow", 10, false));
+        }
+
+        /**
+         * Create a pool of each size for scheduling, state writes and state reads, see {@link ConnectionPools}
+         */
+        public AptWorkflowBuilder dataSource(String username, String password, String url,
+                                             int schedulingPoolSize, int writePoolSize, int readPoolSize) {
+            return connectionPools(new ConnectionPools(
+                    initializeDataSource(username, password, url, "aptflow-scheduling", schedulingPoolSize, false),
+                    initializeDataSource(username, password, url, "aptflow-writes", writePoolSize, false),
+                    initializeDataSource(username, password, url, "aptflow-reads", readPoolSize, true)));
         }
 
         public AptWorkflowBuilder dataSource(DataSource dataSource) {
-            this.dataSource = dataSource;
+            return connectionPools(ConnectionPools.shared(dataSource));
+        }
+
+        public AptWorkflowBuilder connectionPools(ConnectionPools connectionPools) {
+            this.connectionPools = List.of(connectionPools);
+            return this;
+        }
+
+        /**
+         * Serve API reads that allow it from the read replica, see {@link ReadConsistency}. Sharded, give
+         * each shard its replica with {@link ConnectionPools#withReplica(DataSource)} instead.
+         */
+        public AptWorkflowBuilder readReplica(DataSource replica) {
+            this.readReplica = replica;
+            return this;
+        }
+
+        /**
+         * {@link #readReplica(DataSource)} with a pool of {@code poolSize} connections to the replica
+         */
+        public AptWorkflowBuilder readReplica(String username, String password, String url, int poolSize) {
+            return readReplica(initializeDataSource(username, password, url, "aptflow-replica", poolSize, true));
+        }
+
+        /**
+         * Shard the workflows across the databases by a hash of their workflow id, see {@link ShardRouter}.
+         * Each database holds the whole state of the workflows it owns and runs its own scheduler. The
+         * databases and their order must stay the same for the lifetime of the workflows.
+         */
+        public AptWorkflowBuilder shards(List<DataSource> dataSources) {
+            return shardConnectionPools(dataSources.stream()
+                    .map(ConnectionPools::shared)
+                    .toList());
+        }
+
+        /**
+         * {@link #shards(List)} with separate connection pools for each database
+         */
+        public AptWorkflowBuilder shardConnectionPools(List<ConnectionPools> connectionPools) {
+            this.connectionPools = List.copyOf(connectionPools);
+            return this;
+        }
+
+        /**
+         * Keep the state of workflows in memory and run their tasks on a thread pool instead of in
+         * Postgres, see {@link InMemoryStateStore}. For test suites and workflows that need not survive a
+         * restart; the database options (data sources, replica, shards, group commit, blob store, event
+         * retention and archiving) do not apply, nor do caller transactions and JSON path searches.
+         */
+        public AptWorkflowBuilder inMemory() {
+            this.inMemory = true;
+            return this;
+        }
+
+        /**
+         * Keep the state of workflows in memory, journaled to segment files in the directory on local disk
+         * so it survives a restart, see {@link JournalStateStore}. For deployments without a Postgres
+         * server; the database options do not apply, except for archiving: workflows expired per
+         * {@link #archiveWorkflows(Duration, boolean)} are dropped from the journal, never kept.
+         */
+        public AptWorkflowBuilder journal(Path directory) {
+            this.journalDirectory = directory;
+            return this;
+        }
+
+        /**
+         * {@link #journal(Path)} with segment files of {@code segmentBytes}, 64 MiB by default. A segment
+         * must hold the largest payload.
+         */
+        public AptWorkflowBuilder journal(Path directory, int segmentBytes) {
+            this.journalSegmentBytes = segmentBytes;
+            return journal(directory);
+        }
+
+        /**
+         * Execute at most {@code threads} workflow passes and tasks at once on each shard, 10 by default.
+         * Each pass holds a write connection.
+         */
+        public AptWorkflowBuilder executorThreads(int threads) {
+            this.executorThreads = threads;
+            return this;
+        }
+
+        /**
+         * Commit step writes of all executions together, at most every {@code maxDelay} or every
+         * {@code maxBatchSize} writes. Callers still only continue once their writes are durable.
+         */
+        public AptWorkflowBuilder groupCommit(Duration maxDelay, int maxBatchSize) {
+            this.groupCommitMaxDelay = maxDelay;
+            this.groupCommitMaxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Store payloads (inputs, outputs and signal values) serialized to more than
+         * {@code offloadThresholdBytes} in the blob store, rather than in the database
+         */
+        public AptWorkflowBuilder blobStore(BlobStore blobStore, int offloadThresholdBytes) {
+            this.blobStore = blobStore;
+            this.offloadThresholdBytes = offloadThresholdBytes;
+            return this;
+        }
+
+        /**
+         * Compress stored payloads, see {@link PayloadCompression}. Keep a reference to it to read its
+         * compression metrics.
+         */
+        public AptWorkflowBuilder payloadCompression(PayloadCompression payloadCompression) {
+            this.payloadCompression = payloadCompression;
+            return this;
+        }
+
+        /**
+         * Encode stored payloads with the codec, Java serialization by default. Payloads already stored
+         * with another built-in codec remain readable.
+         */
+        public AptWorkflowBuilder payloadCodec(PayloadCodec payloadCodec) {
+            this.payloadCodec = payloadCodec;
+            return this;
+        }
+
+        /**
+         * Detach the monthly event partitions older than the retention once all the runs with events in
+         * them are terminal and none can be resumed from the point of failure, dropping them if
+         * {@code dropExpiredPartitions}. Without a retention events are kept forever.
+         * <p>
+         * The runs with events in a detached partition keep their status and output, but not their
+         * history: their event getters return null and they list no steps nor events. Archive workflows
+         * before their events expire (see {@link #archiveWorkflows(Duration, boolean)}) to keep them whole.
+         */
+        public AptWorkflowBuilder eventRetention(Duration retention, boolean dropExpiredPartitions) {
+            this.eventRetention = retention;
+            this.dropExpiredEventPartitions = dropExpiredPartitions;
+            return this;
+        }
+
+        /**
+         * Archive workflows once all their runs completed longer than {@code ttl} ago: move them to the
+         * archive tables if {@code keepArchive}, delete them otherwise. See {@link WorkflowArchiver}.
+         */
+        public AptWorkflowBuilder archiveWorkflows(Duration ttl, boolean keepArchive) {
+            this.workflowTtl = ttl;
+            this.keepArchivedWorkflows = keepArchive;
+            return this;
+        }
+
+        /**
+         * Archive the workflows of the class after {@code ttl} rather than the default of
+         * {@link #archiveWorkflows(Duration, boolean)}
+         */
+        public AptWorkflowBuilder archiveWorkflows(Class<? extends RunnableWorkflow<?, ?>> workflowClass, Duration ttl) {
+            this.workflowTtlByClassName.put(workflowClass.getName(), ttl);
+            return this;
+        }
+
+        /**
+         * Archive {@code batchSize} workflows per transaction and at most {@code maxWorkflowsPerSecond},
+         * 100 and 500 by default
+         */
+        public AptWorkflowBuilder archiveRate(int batchSize, int maxWorkflowsPerSecond) {
+            this.archiveBatchSize = batchSize;
+            this.maxArchivedWorkflowsPerSecond = maxWorkflowsPerSecond;
+            return this;
+        }
+
+        /**
+         * Write the state transitions of the workflows of the class with the durability, rather than
+         * {@link Durability#DURABLE}
+         */
+        public AptWorkflowBuilder durability(Class<? extends RunnableWorkflow<?, ?>> workflowClass, Durability durability) {
+            this.durabilityByClassName.put(workflowClass.getName(), durability);
+            return this;
+        }
+
+        /**
+         * Generate event ids with the node id, unique among the processes sharing the databases. Without
+         * one a node id is leased from the (first) database, see {@link NodeIdLease}.
+         */
+        public AptWorkflowBuilder nodeId(int nodeId) {
+            this.nodeId = nodeId;
             return this;
         }
 
@@ -133,34 +596,125 @@ public class AptFlow {
         }
 
         public AptFlow start() {
-            //TODO -- null check this.dataSource
-            runDatabaseMigration(this.dataSource);
-            Jdbi jdbi = Jdbi.create(this.dataSource);
+            List<Shard> shards;
+            if (inMemory || journalDirectory != null) {
+                shards = List.of(startInMemoryShard());
+            } else {
+                if (connectionPools == null || connectionPools.isEmpty()) {
+                    throw new IllegalStateException(
+                            "no state store configured: set a data source, connection pools, inMemory() or a journal");
+                }
+                if (readReplica != null) {
+                    if (connectionPools.size() != 1) {
+                        throw new IllegalStateException("sharded, the read replica of each shard is configured with ConnectionPools.withReplica");
+                    }
+                    connectionPools = List.of(connectionPools.get(0).withReplica(readReplica));
+                }
+                shards = connectionPools.stream()
+                        .map(this::startShard)
+                        .toList();
+                if (nodeId == null) {
+                    nodeIdLease = new NodeIdLease(Jdbi.create(connectionPools.get(0).writes()));
+                }
+            }
+            if (nodeId != null) {
+                EventIds.useNode(nodeId);
+            }
+
+            WorkflowFunctions.initialize(shards.stream()
+                    .map(Shard::stepFunctions)
+                    .toList());
+
+            // start the executors (last) after the rest of the app is completely initialized
+            shards.forEach(shard -> shard.workflowExecutor().start());
+            return new AptFlow(shards, this);
+        }
 
-            StateReader stateReader = new StateReader(jdbi);
-            StateWriter stateWriter = new StateWriter(jdbi, stateReader);
+        private Shard startShard(ConnectionPools pools) {
+            pools.checkSize(executorThreads);
+            runDatabaseMigration(pools.writes());
+            Jdbi jdbi = Jdbi.create(pools.writes());
+            // reads made within an execution pass or transaction reuse its write connection, see RunHandle
+            Jdbi readJdbi = Jdbi.create(pools.reads());
+
+            PayloadStore payloadStore = new PayloadStore(readJdbi, blobStore, offloadThresholdBytes);
+            // the shards share the blob store, the first one cleans it up for all of them
+            List<PayloadStore> blobPayloadStores = blobStore != null && payloadStores.isEmpty() ? payloadStores : null;
+            payloadStores.add(payloadStore);
+            PostgresStateReader stateReader = new PostgresStateReader(readJdbi, payloadStore, payloadCompression, payloadCodec);
+            ReplicaRouting replicaRouting = new ReplicaRouting(stateReader, null, null);
+            if (pools.replica() != null) {
+                Jdbi replicaJdbi = Jdbi.create(pools.replica());
+                PayloadStore replicaPayloadStore = new PayloadStore(replicaJdbi, blobStore, offloadThresholdBytes);
+                replicaRouting = new ReplicaRouting(stateReader,
+                        new PostgresStateReader(replicaJdbi, replicaPayloadStore, payloadCompression, payloadCodec), replicaJdbi);
+            }
+            GroupCommitWriter groupCommitWriter = null;
+            if (groupCommitMaxDelay != null) {
+                groupCommitWriter = new GroupCommitWriter(jdbi, groupCommitMaxDelay, groupCommitMaxBatchSize);
+                groupCommitWriter.start();
+                groupCommitWriters.add(groupCommitWriter);
+            }
+            PostgresStateWriter stateWriter = new PostgresStateWriter(jdbi, payloadStore, payloadCompression, payloadCodec, groupCommitWriter);
 
+            WorkflowArchiver workflowArchiver = workflowTtl == null && workflowTtlByClassName.isEmpty()
+                    ? null
+                    : new WorkflowArchiver(jdbi, workflowTtl, workflowTtlByClassName, keepArchivedWorkflows,
+                    archiveBatchSize, maxArchivedWorkflowsPerSecond);
+
+            // each shard injects its own step functions
+            Set<Object> shardDependencies = new HashSet<>(workflowDependencies);
             WorkflowExecutor executor = new WorkflowExecutor(
-                    this.dataSource,
                     stateWriter,
-                    workflowDependencies,
-                    stateReader);
+                    shardDependencies,
+                    stateReader,
+                    durabilityByClassName,
+                    workflowExecutor -> new DbWorkflowScheduler(
+                            pools.scheduling(),
+                            workflowExecutor,
+                            stateReader,
+                            stateWriter,
+                            eventRetention,
+                            dropExpiredEventPartitions,
+                            workflowArchiver,
+                            blobPayloadStores,
+                            executorThreads));
 
             StepFunctions stepFunctions = new StepFunctions(executor, stateReader, stateWriter);
-            workflowDependencies.add(stepFunctions);
-
-            WorkflowFunctions.initialize(stepFunctions);
-
-            // start this (last) after the rest of the app is completely initialized
-            executor.start();
-            return new AptFlow(executor, this, stateReader);
+            shardDependencies.add(stepFunctions);
+            return new Shard(new PostgresStateStore(stateReader, stateWriter), executor, stepFunctions, pools, replicaRouting);
         }
 
+        private Shard startInMemoryShard() {
+            InMemoryStateStore stateStore;
+            if (journalDirectory != null) {
+                JournalStateStore journalStateStore = new JournalStateStore(journalDirectory, journalSegmentBytes,
+                        payloadCodec, workflowTtl, workflowTtlByClassName, Duration.ofMinutes(1));
+                journalStateStores.add(journalStateStore);
+                stateStore = journalStateStore;
+            } else {
+                stateStore = new InMemoryStateStore(payloadCodec);
+            }
+            Set<Object> shardDependencies = new HashSet<>(workflowDependencies);
+            WorkflowExecutor executor = new WorkflowExecutor(
+                    stateStore,
+                    shardDependencies,
+                    stateStore,
+                    durabilityByClassName,
+                    workflowExecutor -> new InMemoryWorkflowScheduler(workflowExecutor, stateStore, executorThreads));
+
+            StepFunctions stepFunctions = new StepFunctions(executor, stateStore, stateStore);
+            shardDependencies.add(stepFunctions);
+            return new Shard(stateStore, executor, stepFunctions, null, new ReplicaRouting(stateStore, null, null));
+        }
 
         public void stop() {
-            if (managedDataSource) {
-                ((HikariDataSource) this.dataSource).close();
+            groupCommitWriters.forEach(GroupCommitWriter::stop);
+            if (nodeIdLease != null) {
+                nodeIdLease.close();
             }
+            managedDataSources.forEach(HikariDataSource::close);
+            journalStateStores.forEach(JournalStateStore::close);
         }
     }
 }
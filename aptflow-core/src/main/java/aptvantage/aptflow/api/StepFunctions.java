@@ -3,10 +3,12 @@ package aptvantage.aptflow.api;
 import aptvantage.aptflow.engine.*;
 import aptvantage.aptflow.engine.persistence.StateReader;
 import aptvantage.aptflow.engine.persistence.StateWriter;
+import aptvantage.aptflow.engine.persistence.UnitOfWork;
 import aptvantage.aptflow.model.ActivityFunction;
 import aptvantage.aptflow.model.ConditionFunction;
 import aptvantage.aptflow.model.SignalFunction;
 import aptvantage.aptflow.model.SleepFunction;
+import aptvantage.aptflow.model.WorkflowRunStatus;
 import com.google.common.flogger.FluentLogger;
 
 import java.io.Serializable;
@@ -33,11 +35,17 @@ public class StepFunctions {
         this.stateWriter = stateWriter;
     }
 
+    boolean isExecuting() {
+        return workflowExecutor.isExecuting();
+    }
+
     public void awaitCondition(String conditionIdentifier, Supplier<Boolean> conditionSupplier, Duration evaluationInterval) {
-        String workflowRunId = workflowExecutor.getExecutionContext().workflowRunId();
+        ExecutionContext executionContext = workflowExecutor.getExecutionContext();
+        String workflowRunId = executionContext.workflowRunId();
+        UnitOfWork unitOfWork = executionContext.unitOfWork();
         String conditionKey = "condition::%s::%s".formatted(workflowRunId, conditionIdentifier);
         logger.atFine().log("processing condition [%s]", conditionKey);
-        ConditionFunction<? extends Serializable, ? extends Serializable> conditionFunction = initializeCondition(workflowRunId, conditionIdentifier);
+        ConditionFunction<? extends Serializable, ? extends Serializable> conditionFunction = initializeCondition(unitOfWork, workflowRunId, conditionIdentifier);
         if (conditionFunction.isSatisfied()) {
             logger.atInfo().log("skipping previously satisfied condition [%s]", conditionKey);
             return;
@@ -45,34 +53,41 @@ public class StepFunctions {
         logger.atInfo().log("evaluating condition [%s]", conditionKey);
         if (conditionSupplier.get()) {
             logger.atInfo().log("satisfied condition [%s]", conditionKey);
-            stateWriter.conditionSatisfied(workflowRunId, conditionIdentifier, Instant.now());
+            stateWriter.conditionSatisfied(unitOfWork, workflowRunId, conditionIdentifier, Instant.now());
             return;
         }
+        // a condition waited on by an earlier pass has no new event to block the run on
+        stateWriter.runBlocked(unitOfWork, workflowRunId, WorkflowRunStatus.WAITING_FOR_CONDITION, conditionIdentifier);
         logger.atInfo().log("Scheduling reevaluation of condition [%s] of workflow [%s] in [%s]", conditionIdentifier, workflowRunId, evaluationInterval);
-        this.workflowExecutor.scheduleReevaluation(workflowRunId, conditionIdentifier, Instant.now().plus(evaluationInterval));
+        // the condition's state and its re-evaluation task commit together
+        unitOfWork.flushWith(() ->
+                this.workflowExecutor.scheduleReevaluation(workflowRunId, conditionIdentifier, Instant.now().plus(evaluationInterval)));
 
         throw new ConditionNotSatisfiedException(conditionIdentifier);
 
     }
 
     private <I extends Serializable, O extends Serializable>
-    ConditionFunction<I, O> initializeCondition(String workflowRunId, String conditionIdentifier) {
+    ConditionFunction<I, O> initializeCondition(UnitOfWork unitOfWork, String workflowRunId, String conditionIdentifier) {
         ConditionFunction<I, O> conditionFunction = stateReader.getConditionFunction(workflowRunId, conditionIdentifier);
         if (conditionFunction == null) {
-            stateWriter.newConditionWaiting(workflowRunId, conditionIdentifier, Instant.now());
-            conditionFunction = stateReader.getConditionFunction(workflowRunId, conditionIdentifier);
+            Long waitingEventId = stateWriter.newConditionWaiting(unitOfWork, workflowRunId, conditionIdentifier, Instant.now());
+            conditionFunction = new ConditionFunction<>(workflowRunId, conditionIdentifier, waitingEventId, null, stateReader);
         }
         return conditionFunction;
     }
 
     public void sleep(String identifier, Duration duration) {
-        String workflowRunId = workflowExecutor.getExecutionContext().workflowRunId();
+        ExecutionContext executionContext = workflowExecutor.getExecutionContext();
+        String workflowRunId = executionContext.workflowRunId();
         logger.atFine().log("processing workflow sleep [%s::%s]".formatted(workflowRunId, identifier));
         SleepFunction<? extends Serializable, ? extends Serializable> sleepFunction = stateReader.getSleepFunction(workflowRunId, identifier);
         if (sleepFunction == null) {
-            stateWriter.newSleepStarted(workflowRunId, identifier, duration, Instant.now());
+            stateWriter.newSleepStarted(executionContext.unitOfWork(), workflowRunId, identifier, duration, Instant.now());
             logger.atInfo().log("scheduling wake-up-call for sleep [%s::%s] in [%s]", workflowRunId, identifier, duration);
-            this.workflowExecutor.scheduleWakeUp(workflowRunId, identifier, Instant.now().plus(duration));
+            // the wake-up call completes the sleep, so the sleep and the call commit together
+            executionContext.unitOfWork().flushWith(() ->
+                    this.workflowExecutor.scheduleWakeUp(workflowRunId, identifier, Instant.now().plus(duration)));
             throw new WorkflowSleepingException(identifier, duration);
         }
         if (sleepFunction.isCompleted()) {
@@ -81,6 +96,7 @@ public class StepFunctions {
         }
 
         // If a sleeping workflow was signaled, it needs to continue sleeping until its wakeup call
+        stateWriter.runBlocked(executionContext.unitOfWork(), workflowRunId, WorkflowRunStatus.SLEEPING, identifier);
         Duration elapsedSleepTime = Duration.ofMillis(Instant.now().toEpochMilli() - sleepFunction.getStartedEvent().getTimestamp().toEpochMilli());
         throw new WorkflowStillSleepingException(identifier, elapsedSleepTime, duration);
     }
@@ -95,12 +111,13 @@ public class StepFunctions {
 
     public <I extends Serializable, O extends Serializable, S extends Serializable>
     S awaitSignal(String signalName, Class<S> returnType) {
-        String workflowRunId = workflowExecutor.getExecutionContext().workflowRunId();
+        ExecutionContext executionContext = workflowExecutor.getExecutionContext();
+        String workflowRunId = executionContext.workflowRunId();
         logger.atFine().log("processing signal [%s::%s]", workflowRunId, signalName);
         SignalFunction<I, O, S> signalFunction = stateReader.getSignalFunction(workflowRunId, signalName);
         if (signalFunction == null) {
             logger.atInfo().log("waiting for signal [%s::%s]", workflowRunId, signalName);
-            stateWriter.newSignalWaiting(workflowRunId, signalName, Instant.now());
+            stateWriter.newSignalWaiting(executionContext.unitOfWork(), workflowRunId, signalName, Instant.now());
             throw new AwaitingSignalException(signalName);
         }
         if (signalFunction.isReceived()) {
@@ -109,41 +126,50 @@ public class StepFunctions {
 
         // If a workflow woke from sleep, but is still waiting for a signal
         logger.atInfo().log("still waiting for signal [%s::%s]", workflowRunId, signalName);
+        stateWriter.runBlocked(executionContext.unitOfWork(), workflowRunId, WorkflowRunStatus.WAITING_FOR_SIGNAL, signalName);
         throw new AwaitingSignalException(signalName);
     }
 
     public <A extends Serializable> A activity(String activityName, Supplier<A> supplier) {
-        String workflowRunId = workflowExecutor.getExecutionContext().workflowRunId();
-        ActivityFunction<? extends Serializable, ? extends Serializable, A> activityFunction = initActivity(workflowRunId, activityName);
+        ExecutionContext executionContext = workflowExecutor.getExecutionContext();
+        UnitOfWork unitOfWork = executionContext.unitOfWork();
+        ActivityFunction<? extends Serializable, ? extends Serializable, A> activityFunction = initActivity(unitOfWork, executionContext.workflowRunId(), activityName);
 
         if (activityHasAlreadyExecuted(activityFunction)) {
             return activityFunction.getOutput();
         }
 
+        // everything up to (and including) the start of this activity must be durable before its side effect runs
+        unitOfWork.flush();
         try {
             A output = supplier.get();
-            completeActivity(activityFunction, output);
+            completeActivity(unitOfWork, activityFunction, output);
+            // the output must be durable before the workflow acts on it
+            unitOfWork.flush();
             return output;
         } catch (Exception e) {
             rethrowIfWorkflowPausedException(e);
-            failActivity(activityFunction, e);
+            failActivity(unitOfWork, activityFunction, e);
             throw new ActivityFailedException(activityFunction, e);
         }
     }
 
     public void activity(String activityName, Runnable runnable) {
-        String workflowRunId = workflowExecutor.getExecutionContext().workflowRunId();
+        ExecutionContext executionContext = workflowExecutor.getExecutionContext();
+        UnitOfWork unitOfWork = executionContext.unitOfWork();
         ActivityFunction<? extends Serializable, ? extends Serializable, ? extends Serializable>
-                activityFunction = initActivity(workflowRunId, activityName);
+                activityFunction = initActivity(unitOfWork, executionContext.workflowRunId(), activityName);
         if (activityHasAlreadyExecuted(activityFunction)) {
             return;
         }
+        unitOfWork.flush();
         try {
             runnable.run();
-            completeActivity(activityFunction, null);
+            completeActivity(unitOfWork, activityFunction, null);
+            unitOfWork.flush();
         } catch (Exception e) {
             rethrowIfWorkflowPausedException(e);
-            failActivity(activityFunction, e);
+            failActivity(unitOfWork, activityFunction, e);
             throw new ActivityFailedException(activityFunction, e);
         }
     }
@@ -155,13 +181,13 @@ public class StepFunctions {
     }
 
     private <I extends Serializable, O extends Serializable, A extends Serializable>
-    ActivityFunction<I, O, A> initActivity(String workflowRunId, String activityName) {
+    ActivityFunction<I, O, A> initActivity(UnitOfWork unitOfWork, String workflowRunId, String activityName) {
         ActivityFunction<I, O, A> activityFunction = stateReader.getActivityFunction(workflowRunId, activityName);
         logger.atFine().log("processing workflow activity [%s::%s]", workflowRunId, activityName);
         if (activityFunction == null) {
             logger.atInfo().log("starting activity [%s::%s]", workflowRunId, activityName);
-            stateWriter.newActivityStarted(workflowRunId, activityName, Instant.now());
-            activityFunction = stateReader.getActivityFunction(workflowRunId, activityName);
+            Long startedEventId = stateWriter.newActivityStarted(unitOfWork, workflowRunId, activityName, Instant.now());
+            activityFunction = new ActivityFunction<>(workflowRunId, activityName, startedEventId, null, null, stateReader);
         }
         return activityFunction;
     }
@@ -176,13 +202,13 @@ public class StepFunctions {
     }
 
     private <I extends Serializable, O extends Serializable, A extends Serializable>
-    void completeActivity(ActivityFunction<I, O, A> activity, A output) {
-        stateWriter.completeActivity(activity.getWorkflowRun().getId(), activity.getName(), output, Instant.now());
+    void completeActivity(UnitOfWork unitOfWork, ActivityFunction<I, O, A> activity, A output) {
+        stateWriter.completeActivity(unitOfWork, activity.getWorkflowRun().getId(), activity.getName(), output, Instant.now());
         logger.atInfo().log("completing activity [%s]", activity.getKey());
     }
 
-    private <I extends Serializable, O extends Serializable, A extends Serializable> void failActivity(ActivityFunction<I, O, A> activity, Exception e) {
-        stateWriter.failActivity(activity.getWorkflowRun().getId(), activity.getName(), Instant.now());
+    private <I extends Serializable, O extends Serializable, A extends Serializable> void failActivity(UnitOfWork unitOfWork, ActivityFunction<I, O, A> activity, Exception e) {
+        stateWriter.failActivity(unitOfWork, activity.getWorkflowRun().getId(), activity.getName(), Instant.now());
         logger.atSevere().withCause(e).log("activity [%s] failed", activity.getKey());
     }
 
@@ -4,6 +4,7 @@ import com.google.common.flogger.FluentLogger;
 
 import java.io.Serializable;
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 
@@ -11,39 +12,60 @@ public class WorkflowFunctions {
 
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
-    private static StepFunctions SINGLETON = null;
+    private static List<StepFunctions> SHARDS = List.of();
 
     public static void initialize(StepFunctions stepFunctionsSingleton) {
-        SINGLETON = stepFunctionsSingleton;
+        initialize(List.of(stepFunctionsSingleton));
+    }
+
+    /**
+     * With the step functions of every shard, calls are served by those of the shard executing the
+     * workflow
+     */
+    public static void initialize(List<StepFunctions> stepFunctionsByShard) {
+        SHARDS = List.copyOf(stepFunctionsByShard);
+    }
+
+    private static StepFunctions current() {
+        List<StepFunctions> shards = SHARDS;
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+        for (StepFunctions shard : shards) {
+            if (shard.isExecuting()) {
+                return shard;
+            }
+        }
+        throw new IllegalStateException("No execution context available. This method cannot be called outside of a RunnableWorkflow.execute call stack");
     }
 
     public static void sleep(String identifier, Duration duration) {
-        SINGLETON.sleep(identifier, duration);
+        current().sleep(identifier, duration);
     }
 
     public static <R extends Serializable> CompletableFuture<R> async(Supplier<R> supplier) {
-        return SINGLETON.async(supplier);
+        return current().async(supplier);
     }
 
     public static CompletableFuture<Void> async(Runnable runnable) {
-        return SINGLETON.async(runnable);
+        return current().async(runnable);
     }
 
     public static <R extends Serializable> R activity(String activityName, Supplier<R> supplier) {
-        return SINGLETON.activity(activityName, supplier);
+        return current().activity(activityName, supplier);
     }
 
     public static void activity(String activityName, Runnable runnable) {
-        SINGLETON.activity(activityName, runnable);
+        current().activity(activityName, runnable);
     }
 
     // TODO -- add an optional polling interval for condition reevaluation
     public static void awaitCondition(String conditionIdentifier, Supplier<Boolean> condition, Duration evaluationInternal) {
-        SINGLETON.awaitCondition(conditionIdentifier, condition, evaluationInternal);
+        current().awaitCondition(conditionIdentifier, condition, evaluationInternal);
     }
 
     public static <S extends Serializable> S awaitSignal(String signalName, Class<S> returnType) {
-        return SINGLETON.awaitSignal(signalName, returnType);
+        return current().awaitSignal(signalName, returnType);
     }
 
 
@@ -0,0 +1,168 @@
+package aptvantage.aptflow.engine;
+
+import aptvantage.aptflow.engine.persistence.PayloadStore;
+import aptvantage.aptflow.engine.persistence.PostgresStateReader;
+import aptvantage.aptflow.engine.persistence.PostgresStateWriter;
+import aptvantage.aptflow.engine.persistence.TransactionAwareDataSource;
+import aptvantage.aptflow.engine.persistence.WorkflowArchiver;
+import aptvantage.aptflow.model.ConditionFunction;
+import aptvantage.aptflow.model.SleepFunction;
+import com.github.kagkarlsson.scheduler.Scheduler;
+import com.github.kagkarlsson.scheduler.task.TaskInstance;
+import com.github.kagkarlsson.scheduler.task.helper.RecurringTask;
+import com.google.common.flogger.FluentLogger;
+
+import javax.sql.DataSource;
+import java.io.Serializable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Schedules the tasks of workflows kept in Postgres with db-scheduler, in the same database, so tasks
+ * scheduled within a StateWriter transaction commit together with it. Also runs the maintenance tasks
+ * of the database.
+ */
+public class DbWorkflowScheduler implements WorkflowScheduler {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    private final Scheduler scheduler;
+    private final PostgresStateReader stateReader;
+    private final PostgresStateWriter stateWriter;
+
+    private final CompleteSleepTask completeSleepTask;
+    private final ResumeStartedWorkflowTask resumeStartedWorkflowTask;
+    private final SignalWorkflowTask signalWorkflowTask;
+    private final StartWorkflowTask startWorkflowTask;
+
+    public DbWorkflowScheduler(
+            DataSource dataSource,
+            WorkflowExecutor workflowExecutor,
+            PostgresStateReader stateReader,
+            PostgresStateWriter stateWriter,
+            Duration eventRetention,
+            boolean dropExpiredEventPartitions,
+            WorkflowArchiver workflowArchiver,
+            List<PayloadStore> blobPayloadStores,
+            int threads
+    ) {
+        this.stateReader = stateReader;
+        this.stateWriter = stateWriter;
+        this.completeSleepTask = new CompleteSleepTask(workflowExecutor);
+        this.resumeStartedWorkflowTask = new ResumeStartedWorkflowTask(workflowExecutor);
+        this.startWorkflowTask = new StartWorkflowTask(workflowExecutor);
+        this.signalWorkflowTask = new SignalWorkflowTask(workflowExecutor);
+        List<RecurringTask<Void>> maintenanceTasks = new ArrayList<>();
+        maintenanceTasks.add(new EventPartitionMaintenanceTask(stateWriter, eventRetention, dropExpiredEventPartitions));
+        if (workflowArchiver != null) {
+            maintenanceTasks.add(new WorkflowArchiveTask(workflowArchiver, this));
+        }
+        if (blobPayloadStores != null) {
+            maintenanceTasks.add(new UnreferencedBlobCleanupTask(blobPayloadStores));
+        }
+        // tasks scheduled within a StateWriter transaction commit together with it
+        this.scheduler = Scheduler
+                .create(new TransactionAwareDataSource(dataSource),
+                        startWorkflowTask,
+                        completeSleepTask,
+                        signalWorkflowTask,
+                        resumeStartedWorkflowTask)
+                .startTasks(maintenanceTasks)
+                .threads(threads)
+                .pollingInterval(Duration.ofSeconds(1))
+                .enableImmediateExecution()
+                .build();
+    }
+
+    @Override
+    public void start() {
+        this.scheduler.start();
+        recoverRunsWithoutTasks();
+    }
+
+    /**
+     * Runs scheduled by older versions could lose their task to a crash between the state commit and
+     * the task commit. Give them their task back.
+     */
+    private void recoverRunsWithoutTasks() {
+        List<String> unstartedRunIds = stateReader.getScheduledRunIdsWithoutTask(startWorkflowTask.getName());
+        unstartedRunIds.forEach(workflowRunId -> scheduler.scheduleIfNotExists(startWorkflowTask.instance(
+                "workflow::%s".formatted(workflowRunId),
+                new RunWorkflowTaskInput(workflowRunId)), Instant.now()));
+
+        List<SleepFunction<Serializable, Serializable>> sleeps = stateReader.getSleepsWithoutWakeUpTask(completeSleepTask.getName());
+        sleeps.forEach(sleep -> scheduler.scheduleIfNotExists(completeSleepTask.instance(
+                        "sleep::%s::%s".formatted(sleep.getWorkflowRun().getId(), sleep.getId()),
+                        new CompleteSleepTaskInput(sleep.getWorkflowRun().getId(), sleep.getId())),
+                sleep.getStartedEvent().getTimestamp().plus(sleep.getDuration())));
+
+        // the evaluation interval is not persisted, so conditions are re-evaluated right away. Unlike the
+        // re-evaluations scheduled by a pass, the id is deterministic, so instances recovering at once
+        // schedule one task between them
+        List<ConditionFunction<Serializable, Serializable>> conditions = stateReader.getConditionsWithoutReevaluationTask(resumeStartedWorkflowTask.getName());
+        conditions.forEach(condition -> scheduler.scheduleIfNotExists(resumeStartedWorkflowTask.instance(
+                "condition::%s::%s".formatted(condition.getWorkflowRun().getId(), condition.getId()),
+                new RunWorkflowTaskInput(condition.getWorkflowRun().getId())), Instant.now()));
+
+        int recovered = unstartedRunIds.size() + sleeps.size() + conditions.size();
+        if (recovered > 0) {
+            logger.atWarning().log("Recovered [%s] runs, [%s] sleeps and [%s] conditions that had no scheduled task",
+                    unstartedRunIds.size(), sleeps.size(), conditions.size());
+        }
+    }
+
+    @Override
+    public void stop() {
+        this.scheduler.stop();
+    }
+
+    @Override
+    public void scheduleStart(String workflowRunId) {
+        schedule(startWorkflowTask.instance(
+                "workflow::%s".formatted(workflowRunId),
+                new RunWorkflowTaskInput(workflowRunId)), Instant.now());
+    }
+
+    @Override
+    public void scheduleWakeUp(String workflowRunId, String sleepId, Instant wakeUpTime) {
+        schedule(completeSleepTask.instance(
+                "sleep::%s::%s".formatted(workflowRunId, sleepId),
+                new CompleteSleepTaskInput(workflowRunId, sleepId)), wakeUpTime);
+    }
+
+    @Override
+    public void scheduleSignal(String workflowRunId, String signalName, Serializable signalValue) {
+        schedule(signalWorkflowTask.instance(
+                "signal::%s::%s".formatted(workflowRunId, signalName),
+                new SignalWorkflowTaskInput(workflowRunId, signalName, signalValue)), Instant.now());
+    }
+
+    @Override
+    public void scheduleReevaluation(String workflowRunId, String conditionId, Instant reevaluationTime) {
+        schedule(resumeStartedWorkflowTask.instance(
+                "%s::%s::%s".formatted(workflowRunId, conditionId, UUID.randomUUID().toString()),
+                new RunWorkflowTaskInput(workflowRunId)), reevaluationTime);
+    }
+
+    private <T> void schedule(TaskInstance<T> instance, Instant executionTime) {
+        scheduler.schedule(instance, executionTime);
+        if (!executionTime.isAfter(Instant.now())) {
+            // immediate execution checks before the task is committed, so check again once it is
+            stateWriter.afterCommit(scheduler::triggerCheckForDueExecutions);
+        }
+    }
+
+    /**
+     * Archive the expired workflows, with the leftovers of the tasks scheduled for them
+     */
+    void archiveExpiredWorkflows(WorkflowArchiver workflowArchiver) throws InterruptedException {
+        workflowArchiver.archiveExpired(
+                startWorkflowTask.getName(),
+                completeSleepTask.getName(),
+                signalWorkflowTask.getName(),
+                resumeStartedWorkflowTask.getName());
+    }
+}
@@ -0,0 +1,42 @@
+package aptvantage.aptflow.engine;
+
+import aptvantage.aptflow.engine.persistence.PostgresStateWriter;
+import com.github.kagkarlsson.scheduler.task.ExecutionContext;
+import com.github.kagkarlsson.scheduler.task.TaskInstance;
+import com.github.kagkarlsson.scheduler.task.helper.RecurringTask;
+import com.github.kagkarlsson.scheduler.task.schedule.Schedules;
+import com.google.common.flogger.FluentLogger;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Keeps the partitions of the coming months of the event table created and, when a retention is
+ * configured, detaches or drops the expired ones. Runs on a single node at a time, like every task.
+ */
+public class EventPartitionMaintenanceTask extends RecurringTask<Void> {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    // a failing run of the task leaves months of partitions to retry in
+    private static final int MONTHS_AHEAD = 3;
+
+    private final PostgresStateWriter stateWriter;
+    private final Duration retention;
+    private final boolean dropExpired;
+
+    public EventPartitionMaintenanceTask(PostgresStateWriter stateWriter, Duration retention, boolean dropExpired) {
+        super(EventPartitionMaintenanceTask.class.getSimpleName(), Schedules.fixedDelay(Duration.ofHours(6)), Void.class);
+        this.stateWriter = stateWriter;
+        this.retention = retention;
+        this.dropExpired = dropExpired;
+    }
+
+    @Override
+    public void executeRecurringly(TaskInstance<Void> taskInstance, ExecutionContext executionContext) {
+        List<String> detached = stateWriter.maintainEventPartitions(MONTHS_AHEAD, retention, dropExpired);
+        if (!detached.isEmpty()) {
+            logger.atFine().log("%s expired event partitions %s", dropExpired ? "dropped" : "detached", detached);
+        }
+    }
+}
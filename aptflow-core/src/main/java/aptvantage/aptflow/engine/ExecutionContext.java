@@ -1,4 +1,7 @@
 package aptvantage.aptflow.engine;
 
-public record ExecutionContext(String workflowRunId) {
+import aptvantage.aptflow.engine.persistence.ExecutionHandle;
+import aptvantage.aptflow.engine.persistence.UnitOfWork;
+
+public record ExecutionContext(String workflowRunId, UnitOfWork unitOfWork, ExecutionHandle executionHandle) {
 }
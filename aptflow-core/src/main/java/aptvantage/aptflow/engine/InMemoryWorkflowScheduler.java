@@ -0,0 +1,140 @@
+package aptvantage.aptflow.engine;
+
+import aptvantage.aptflow.engine.persistence.InMemoryStateStore;
+import aptvantage.aptflow.engine.persistence.JournalStateStore;
+import aptvantage.aptflow.model.SleepFunction;
+import aptvantage.aptflow.model.WorkflowRun;
+import com.google.common.flogger.FluentLogger;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the tasks of workflows kept in an in-memory store on a thread pool. Like db-scheduler, a task is
+ * not scheduled again while an instance with the same id is pending, and a task that fails is run again
+ * {@link #RETRY_DELAY} later, as db-scheduler retries one-time tasks by default. Tasks are not persisted:
+ * when the store survives a restart, see {@link JournalStateStore}, they are scheduled again on start from
+ * the status of the unfinished runs and the signals sent to them.
+ */
+public class InMemoryWorkflowScheduler implements WorkflowScheduler {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    private static final Duration RETRY_DELAY = Duration.ofMinutes(5);
+
+    private final WorkflowExecutor workflowExecutor;
+    private final InMemoryStateStore stateStore;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Map<String, Boolean> pendingTasks = new ConcurrentHashMap<>();
+
+    public InMemoryWorkflowScheduler(WorkflowExecutor workflowExecutor, InMemoryStateStore stateStore, int threads) {
+        this.workflowExecutor = workflowExecutor;
+        this.stateStore = stateStore;
+        this.executor = new ScheduledThreadPoolExecutor(threads);
+    }
+
+    @Override
+    public void start() {
+        recoverTasks();
+    }
+
+    /**
+     * Schedule the tasks of the runs the store recovered, and deliver the signals sent to them that they
+     * did not receive
+     */
+    private void recoverTasks() {
+        List<WorkflowRun<Serializable, Serializable>> unfinishedRuns = stateStore.getUnfinishedRuns();
+        for (WorkflowRun<Serializable, Serializable> run : unfinishedRuns) {
+            switch (run.getStatus()) {
+                case SCHEDULED -> scheduleStart(run.getId());
+                case SLEEPING -> {
+                    SleepFunction<Serializable, Serializable> sleep = stateStore.getSleepFunction(run.getId(), run.getBlockedOn());
+                    scheduleWakeUp(run.getId(), sleep.getId(),
+                            sleep.getStartedEvent().getTimestamp().plus(sleep.getDuration()));
+                }
+                // the evaluation interval is not persisted, so conditions are re-evaluated right away
+                case WAITING_FOR_CONDITION -> scheduleReevaluation(run.getId(), run.getBlockedOn(), Instant.now());
+                // replayed up to the step it was executing
+                case RUNNING -> scheduleReevaluation(run.getId(), "recovered", Instant.now());
+                default -> {
+                }
+            }
+            stateStore.getSentSignals(run.getId()).forEach((signalName, signalValue) ->
+                    scheduleDelivery(run.getId(), signalName, signalValue));
+        }
+        if (!unfinishedRuns.isEmpty()) {
+            logger.atWarning().log("Recovered the tasks of [%s] unfinished runs", unfinishedRuns.size());
+        }
+    }
+
+    @Override
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void scheduleStart(String workflowRunId) {
+        schedule("workflow::%s".formatted(workflowRunId), Instant.now(),
+                () -> workflowExecutor.startWorkflowRun(workflowRunId));
+    }
+
+    @Override
+    public void scheduleWakeUp(String workflowRunId, String sleepId, Instant wakeUpTime) {
+        schedule("sleep::%s::%s".formatted(workflowRunId, sleepId), wakeUpTime,
+                () -> workflowExecutor.wakeUp(workflowRunId, sleepId));
+    }
+
+    @Override
+    public void scheduleSignal(String workflowRunId, String signalName, Serializable signalValue) {
+        stateStore.signalSent(workflowRunId, signalName, signalValue);
+        scheduleDelivery(workflowRunId, signalName, signalValue);
+    }
+
+    private void scheduleDelivery(String workflowRunId, String signalName, Serializable signalValue) {
+        schedule("signal::%s::%s".formatted(workflowRunId, signalName), Instant.now(),
+                () -> workflowExecutor.receiveSignal(workflowRunId, signalName, signalValue));
+    }
+
+    @Override
+    public void scheduleReevaluation(String workflowRunId, String conditionId, Instant reevaluationTime) {
+        // re-evaluations are never deduplicated, as their db-scheduler instance ids are random
+        String taskInstanceId = "%s::%s".formatted(workflowRunId, conditionId);
+        executor.schedule(() -> run(taskInstanceId, () -> workflowExecutor.executeWorkflow(workflowRunId),
+                        () -> scheduleReevaluation(workflowRunId, conditionId, Instant.now().plus(RETRY_DELAY))),
+                delayMillis(reevaluationTime), TimeUnit.MILLISECONDS);
+    }
+
+    private void schedule(String taskInstanceId, Instant executionTime, Runnable task) {
+        if (pendingTasks.putIfAbsent(taskInstanceId, Boolean.TRUE) != null) {
+            logger.atFine().log("task [%s] is already scheduled", taskInstanceId);
+            return;
+        }
+        executor.schedule(() -> {
+            pendingTasks.remove(taskInstanceId);
+            run(taskInstanceId, task, () -> schedule(taskInstanceId, Instant.now().plus(RETRY_DELAY), task));
+        }, delayMillis(executionTime), TimeUnit.MILLISECONDS);
+    }
+
+    private void run(String taskInstanceId, Runnable task, Runnable retry) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            if (executor.isShutdown()) {
+                logger.atWarning().withCause(e).log("task [%s] failed while stopping", taskInstanceId);
+                return;
+            }
+            logger.atSevere().withCause(e).log("task [%s] failed, retrying in [%s]", taskInstanceId, RETRY_DELAY);
+            retry.run();
+        }
+    }
+
+    private static long delayMillis(Instant executionTime) {
+        return Math.max(0, Duration.between(Instant.now(), executionTime).toMillis());
+    }
+}
@@ -0,0 +1,36 @@
+package aptvantage.aptflow.engine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Routes workflows to the shard that owns their state by a hash of their workflow id, stable across
+ * JVMs and restarts. The runs, steps, events and scheduled tasks of a workflow live on its shard.
+ * <p>
+ * The number of shards must stay the same for the lifetime of the workflows: with another number most
+ * workflows hash to another shard than the one holding their state.
+ */
+public class ShardRouter {
+
+    private final int shards;
+
+    public ShardRouter(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("at least one shard is required, got [%s]".formatted(shards));
+        }
+        this.shards = shards;
+    }
+
+    public int shardOf(String workflowId) {
+        if (shards == 1) {
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(workflowId.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % shards);
+    }
+
+    public int getShards() {
+        return shards;
+    }
+}
@@ -1,27 +1,20 @@
 package aptvantage.aptflow.engine;
 
-import aptvantage.aptflow.engine.persistence.StateWriter;
 import com.github.kagkarlsson.scheduler.task.ExecutionContext;
 import com.github.kagkarlsson.scheduler.task.TaskInstance;
 import com.github.kagkarlsson.scheduler.task.helper.OneTimeTask;
 
-import java.time.Instant;
-
 public class SignalWorkflowTask extends OneTimeTask<SignalWorkflowTaskInput> {
-    private final StateWriter stateWriter;
     private final WorkflowExecutor workflowExecutor;
 
-    public SignalWorkflowTask(StateWriter stateWriter,
-                              WorkflowExecutor workflowExecutor) {
+    public SignalWorkflowTask(WorkflowExecutor workflowExecutor) {
         super(SignalWorkflowTask.class.getSimpleName(), SignalWorkflowTaskInput.class);
-        this.stateWriter = stateWriter;
         this.workflowExecutor = workflowExecutor;
     }
 
     @Override
     public void executeOnce(TaskInstance<SignalWorkflowTaskInput> taskInstance, ExecutionContext executionContext) {
         SignalWorkflowTaskInput data = taskInstance.getData();
-        stateWriter.signalReceived(data.workflowId(), data.signalName(), data.signalValue(), Instant.now());
-        workflowExecutor.executeWorkflow(data.workflowId());
+        workflowExecutor.receiveSignal(data.workflowId(), data.signalName(), data.signalValue());
     }
 }
@@ -0,0 +1,43 @@
+package aptvantage.aptflow.engine;
+
+import aptvantage.aptflow.engine.persistence.PayloadStore;
+import com.github.kagkarlsson.scheduler.task.ExecutionContext;
+import com.github.kagkarlsson.scheduler.task.TaskInstance;
+import com.github.kagkarlsson.scheduler.task.helper.RecurringTask;
+import com.github.kagkarlsson.scheduler.task.schedule.Schedules;
+import com.google.common.flogger.FluentLogger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Deletes the blobs of offloaded payloads no payload row refers to anymore, see
+ * {@link PayloadStore#deleteUnreferencedBlobs(List, Instant)}. Blobs put within the grace period are left
+ * alone, their payload row may not have committed yet: blobs are put just before the transaction writing
+ * their row, so the grace period only has to outlast that transaction.
+ */
+public class UnreferencedBlobCleanupTask extends RecurringTask<Void> {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    private static final Duration GRACE_PERIOD = Duration.ofHours(1);
+
+    private final List<PayloadStore> payloadStores;
+
+    /**
+     * @param payloadStores the payload stores of every shard
+     */
+    public UnreferencedBlobCleanupTask(List<PayloadStore> payloadStores) {
+        super(UnreferencedBlobCleanupTask.class.getSimpleName(), Schedules.fixedDelay(Duration.ofHours(1)), Void.class);
+        this.payloadStores = payloadStores;
+    }
+
+    @Override
+    public void executeRecurringly(TaskInstance<Void> taskInstance, ExecutionContext executionContext) {
+        int deleted = PayloadStore.deleteUnreferencedBlobs(payloadStores, Instant.now().minus(GRACE_PERIOD));
+        if (deleted > 0) {
+            logger.atFine().log("deleted [%s] unreferenced blobs", deleted);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package aptvantage.aptflow.engine;
+
+import aptvantage.aptflow.engine.persistence.WorkflowArchiver;
+import com.github.kagkarlsson.scheduler.task.ExecutionContext;
+import com.github.kagkarlsson.scheduler.task.TaskInstance;
+import com.github.kagkarlsson.scheduler.task.helper.RecurringTask;
+import com.github.kagkarlsson.scheduler.task.schedule.Schedules;
+
+import java.time.Duration;
+
+public class WorkflowArchiveTask extends RecurringTask<Void> {
+
+    private final WorkflowArchiver workflowArchiver;
+    private final DbWorkflowScheduler workflowScheduler;
+
+    public WorkflowArchiveTask(WorkflowArchiver workflowArchiver, DbWorkflowScheduler workflowScheduler) {
+        super(WorkflowArchiveTask.class.getSimpleName(), Schedules.fixedDelay(Duration.ofMinutes(5)), Void.class);
+        this.workflowArchiver = workflowArchiver;
+        this.workflowScheduler = workflowScheduler;
+    }
+
+    @Override
+    public void executeRecurringly(TaskInstance<Void> taskInstance, ExecutionContext executionContext) {
+        try {
+            workflowScheduler.archiveExpiredWorkflows(workflowArchiver);
+        } catch (InterruptedException e) {
+            // the scheduler is stopping, the next execution picks up where this one stopped
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,24 +1,26 @@
 package aptvantage.aptflow.engine;
 
 import aptvantage.aptflow.api.RunnableWorkflow;
+import aptvantage.aptflow.engine.persistence.Durability;
+import aptvantage.aptflow.engine.persistence.ExecutionHandle;
 import aptvantage.aptflow.engine.persistence.StateReader;
 import aptvantage.aptflow.engine.persistence.StateWriter;
+import aptvantage.aptflow.engine.persistence.UnitOfWork;
+import aptvantage.aptflow.model.Workflow;
 import aptvantage.aptflow.model.WorkflowRun;
-import com.github.kagkarlsson.scheduler.Scheduler;
-import com.github.kagkarlsson.scheduler.task.TaskInstance;
 import com.google.common.flogger.FluentLogger;
 import org.awaitility.Awaitility;
 
-import javax.sql.DataSource;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
-import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class WorkflowExecutor {
@@ -26,40 +28,30 @@ public class WorkflowExecutor {
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
     private final ThreadLocal<ExecutionContext> executionContext = new ThreadLocal<>();
+    private final AtomicLong poolCheckoutsAvoided = new AtomicLong();
 
-    private final Scheduler scheduler;
+    private final WorkflowScheduler scheduler;
     private final StateWriter stateWriter;
+    private final StateReader stateReader;
 
     private final Set<Object> workflowDependencies;
+    private final Map<String, Durability> durabilityByClassName;
 
-    private final CompleteSleepTask completeSleepTask;
-    private final StateReader stateReader;
-    private final ResumeStartedWorkflowTask resumeStartedWorkflowTask;
-    private final SignalWorkflowTask signalWorkflowTask;
-    private final StartWorkflowTask startWorkflowTask;
-
+    /**
+     * @param schedulerFactory creates the scheduler of the tasks of this executor, see {@link WorkflowScheduler}
+     */
     public WorkflowExecutor(
-            DataSource dataSource,
             StateWriter stateWriter,
             Set<Object> workflowDependencies,
-            StateReader stateReader
+            StateReader stateReader,
+            Map<String, Durability> durabilityByClassName,
+            Function<WorkflowExecutor, WorkflowScheduler> schedulerFactory
     ) {
-        this.completeSleepTask = new CompleteSleepTask(stateWriter, this);
         this.stateReader = stateReader;
-        this.resumeStartedWorkflowTask = new ResumeStartedWorkflowTask(this);
-        this.startWorkflowTask = new StartWorkflowTask(stateWriter, this);
-        this.signalWorkflowTask = new SignalWorkflowTask(stateWriter, this);
-        this.scheduler = Scheduler
-                .create(dataSource,
-                        startWorkflowTask,
-                        completeSleepTask,
-                        signalWorkflowTask,
-                        resumeStartedWorkflowTask)
-                .pollingInterval(Duration.ofSeconds(1))
-                .enableImmediateExecution()
-                .build();
         this.stateWriter = stateWriter;
         this.workflowDependencies = workflowDependencies;
+        this.durabilityByClassName = Map.copyOf(durabilityByClassName);
+        this.scheduler = schedulerFactory.apply(this);
     }
 
     /**
@@ -94,14 +86,60 @@ public class WorkflowExecutor {
         return ctx;
     }
 
+    /**
+     * @return whether the current thread executes a workflow of this executor
+     */
+    public boolean isExecuting() {
+        return executionContext.get() != null;
+    }
+
+    /**
+     * @return how many connection pool checkouts execution passes avoided by reusing their run handle
+     */
+    public long getPoolCheckoutsAvoided() {
+        return poolCheckoutsAvoided.get();
+    }
+
+    void startWorkflowRun(String workflowRunId) {
+        stateWriter.workflowRunStarted(workflowRunId, Instant.now());
+        executeWorkflow(workflowRunId);
+    }
+
+    void wakeUp(String workflowRunId, String sleepId) {
+        stateWriter.sleepCompleted(workflowRunId, sleepId, Instant.now());
+        executeWorkflow(workflowRunId);
+    }
+
+    void receiveSignal(String workflowRunId, String signalName, Serializable signalValue) {
+        stateWriter.signalReceived(workflowRunId, signalName, signalValue, Instant.now());
+        executeWorkflow(workflowRunId);
+    }
+
     void executeWorkflow(String workflowRunId) {
+        // every read and write of the pass, including lazy model loads, reuses this connection
+        ExecutionHandle executionHandle = stateWriter.openExecutionHandle();
+        executionHandle.bind();
+        try {
+            executePass(workflowRunId, executionHandle);
+        } finally {
+            executionHandle.unbind();
+            executionHandle.close();
+        }
+        poolCheckoutsAvoided.addAndGet(executionHandle.getCheckoutsAvoided());
+        logger.atFine().log("Execution pass of workflow [%s] avoided [%s] connection pool checkouts", workflowRunId, executionHandle.getCheckoutsAvoided());
+    }
+
+    private void executePass(String workflowRunId, ExecutionHandle executionHandle) {
         WorkflowRun workflowRun = stateReader.getWorkflowRun(workflowRunId);
+        Workflow<?, ?> workflow = workflowRun.getWorkflow();
+        UnitOfWork unitOfWork = stateWriter.beginUnitOfWork(
+                durabilityByClassName.getOrDefault(workflow.getClassName(), Durability.DURABLE));
 
         try {
-            executionContext.set(new ExecutionContext(workflowRunId));
-            RunnableWorkflow instance = instantiate(workflowRun.getWorkflow().getClassName());
-            Serializable output = instance.execute(workflowRun.getWorkflow().getInput());
-            this.stateWriter.workflowRunCompleted(workflowRunId, output, Instant.now());
+            executionContext.set(new ExecutionContext(workflowRunId, unitOfWork, executionHandle));
+            RunnableWorkflow instance = instantiate(workflow.getClassName());
+            Serializable output = instance.execute(workflow.getInput());
+            this.stateWriter.workflowRunCompleted(unitOfWork, workflowRunId, output, Instant.now());
             logger.atInfo().log("Workflow [%s] is complete", workflowRunId);
         } catch (AwaitingSignalException e) {
             logger.atInfo().log("Pausing execution of workflow [%s] to wait for signal [%s]", workflowRunId, e.getSignal());
@@ -114,9 +152,11 @@ public class WorkflowExecutor {
         } catch (Exception e) {
             // TODO -- save some kind of Failure data with the failed workflow
             logger.atSevere().withCause(e).log("Workflow [%s] execution failed", workflowRunId);
-            this.stateWriter.failWorkflowRun(workflowRunId, Instant.now());
+            this.stateWriter.failWorkflowRun(unitOfWork, workflowRunId, Instant.now());
         } finally {
             executionContext.remove();
+            // the pass has completed, paused or failed, commit everything it buffered
+            unitOfWork.close();
         }
     }
 
@@ -139,66 +179,77 @@ public class WorkflowExecutor {
         }
     }
 
+    /**
+     * Joins the caller's StateWriter transaction, if any
+     */
     public void scheduleReevaluation(String workflowId, String conditionId, Instant resumptionTime) {
-        RunWorkflowTaskInput input = new RunWorkflowTaskInput(workflowId);
-        String taskInstanceId = "%s::%s::%s".formatted(workflowId, conditionId, UUID.randomUUID().toString());
-        scheduler.schedule(this.resumeStartedWorkflowTask.instance(
-                taskInstanceId, input), resumptionTime);
+        scheduler.scheduleReevaluation(workflowId, conditionId, resumptionTime);
     }
 
+    /**
+     * Joins the caller's StateWriter transaction, if any
+     */
     public void scheduleWakeUp(String workflowId, String sleepId, Instant wakeupTime) {
-        CompleteSleepTaskInput input = new CompleteSleepTaskInput(workflowId, sleepId);
-        scheduler.schedule(this.completeSleepTask.instance(
-                "sleep::%s::%s".formatted(workflowId, sleepId), input
-        ), wakeupTime);
+        scheduler.scheduleWakeUp(workflowId, sleepId, wakeupTime);
     }
 
     public <T extends Serializable> void signalWorkflowRun(String workflowRunId, String signalName, T signalValue) {
-        logger.atInfo().log("received signal [%s::%s]", workflowRunId, signalName);
-        //TODO -- validate the signalValue is of the expected type
-        TaskInstance<SignalWorkflowTaskInput> instance = signalWorkflowTask.instance(
-                "signal::%s::%s".formatted(workflowRunId, signalName),
-                new SignalWorkflowTaskInput(workflowRunId, signalName, signalValue));
-        scheduler.schedule(instance, Instant.now());
+        scheduleSignal(workflowRunId, signalName, signalValue);
         //TODO - track signal sent in addition to signal received
         Awaitility.await().atMost(20, TimeUnit.SECONDS).until(() -> this.stateReader.getSignalFunction(workflowRunId, signalName).isReceived());
     }
 
+    /**
+     * Joins the caller's StateWriter transaction, if any. The signal is received once it commits.
+     */
+    public <T extends Serializable> void scheduleSignal(String workflowRunId, String signalName, T signalValue) {
+        logger.atInfo().log("received signal [%s::%s]", workflowRunId, signalName);
+        //TODO -- validate the signalValue is of the expected type
+        scheduler.scheduleSignal(workflowRunId, signalName, signalValue);
+    }
+
     public <I extends Serializable, O extends Serializable> void runWorkflow(Class<? extends RunnableWorkflow<I, O>> workflowClass, I workflowParam, String workflowId) {
         logger.atInfo().log("scheduling run for new workflow [%s] of type [%s]", workflowId, workflowClass.getName());
-        String workflowRunId = this.stateWriter.scheduleRunForNewWorkflow(workflowId, workflowClass, workflowParam);
-        startRun(workflowRunId);
+        stateWriter.useTransaction(() -> {
+            String workflowRunId = this.stateWriter.scheduleRunForNewWorkflow(workflowId, workflowClass, workflowParam);
+            startRun(workflowRunId);
+        });
     }
 
     public void reRunWorkflowFromStart(String workflowId) {
         logger.atInfo().log("scheduling re-run of existing workflow [%s]", workflowId);
-        String workflowRunId = stateWriter.scheduleNewRunForExistingWorkflow(workflowId, false);
-        startRun(workflowRunId);
+        stateWriter.useTransaction(() -> {
+            String workflowRunId = stateWriter.scheduleNewRunForExistingWorkflow(workflowId, false);
+            startRun(workflowRunId);
+        });
     }
 
     public void reRunWorkflowFromFailed(String workflowId) {
-        // TODO - test this should fail if workflow does not exist
-        // TODO - test this should fail if existing workflow's latest run is not in a failed state
         logger.atInfo().log("scheduling re-run from point of failure for workflow [%s]", workflowId);
-        String workflowRunId = stateWriter.scheduleNewRunForExistingWorkflow(workflowId, true);
-        startRun(workflowRunId);
+        stateWriter.useTransaction(() -> {
+            String workflowRunId = stateWriter.scheduleNewRunForExistingWorkflow(workflowId, true);
+            startRun(workflowRunId);
+        });
     }
 
     private void startRun(String workflowRunId) {
-        TaskInstance<RunWorkflowTaskInput> instance = startWorkflowTask.instance(
-                "workflow::%s".formatted(workflowRunId),
-                new RunWorkflowTaskInput(workflowRunId));
-        scheduler.schedule(instance,
-                Instant.now());
+        scheduler.scheduleStart(workflowRunId);
     }
 
     public <R extends Serializable> CompletableFuture<R> supplyAsync(Supplier<R> supplier) {
         ExecutionContext ctx = this.getExecutionContext();
         return CompletableFuture.supplyAsync(() -> {
             this.executionContext.set(ctx);
-            R r = supplier.get();
-            this.executionContext.remove();
-            return r;
+            try {
+                ctx.executionHandle().bind();
+                try {
+                    return supplier.get();
+                } finally {
+                    ctx.executionHandle().unbind();
+                }
+            } finally {
+                this.executionContext.remove();
+            }
         });
     }
 
@@ -206,8 +257,16 @@ public class WorkflowExecutor {
         ExecutionContext ctx = this.getExecutionContext();
         return CompletableFuture.runAsync(() -> {
             this.executionContext.set(ctx);
-            runnable.run();
-            this.executionContext.remove();
+            try {
+                ctx.executionHandle().bind();
+                try {
+                    runnable.run();
+                } finally {
+                    ctx.executionHandle().unbind();
+                }
+            } finally {
+                this.executionContext.remove();
+            }
         });
     }
 }
@@ -0,0 +1,24 @@
+package aptvantage.aptflow.engine;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * Runs the tasks that move workflows forward on the {@link WorkflowExecutor}: starting runs, waking them
+ * up, delivering signals and re-evaluating conditions. Scheduling joins the caller's StateWriter
+ * transaction, if any, when the scheduler keeps its tasks in the same database.
+ */
+public interface WorkflowScheduler {
+
+    void start();
+
+    void stop();
+
+    void scheduleStart(String workflowRunId);
+
+    void scheduleWakeUp(String workflowRunId, String sleepId, Instant wakeUpTime);
+
+    void scheduleSignal(String workflowRunId, String signalName, Serializable signalValue);
+
+    void scheduleReevaluation(String workflowRunId, String conditionId, Instant reevaluationTime);
+}
@@ -0,0 +1,28 @@
+package aptvantage.aptflow.engine.persistence;
+
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+/**
+ * Holds payloads too large to be stored in the database. Payloads are content-addressed, so a key is
+ * always written with the same data and writing it again need only record when it was put. Blobs no
+ * payload row refers to are deleted by {@link PayloadStore#deleteUnreferencedBlobs(java.util.List, Instant)} some time
+ * after they were last put, which leaves the writer time to commit its payload row.
+ */
+public interface BlobStore {
+
+    void put(String key, byte[] data);
+
+    /**
+     * @return a stream over the data stored under the key, to be closed by the caller
+     */
+    InputStream open(String key);
+
+    void delete(String key);
+
+    /**
+     * @return the keys of the blobs last put before the instant, a stream to be closed by the caller
+     */
+    Stream<String> keysStoredBefore(Instant storedBefore);
+}
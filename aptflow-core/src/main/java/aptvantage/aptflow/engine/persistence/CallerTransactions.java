@@ -0,0 +1,23 @@
+package aptvantage.aptflow.engine.persistence;
+
+import org.jdbi.v3.core.Handle;
+
+import java.sql.Connection;
+
+/**
+ * Joins the transaction the caller has in progress on its own connection to the database of the
+ * state, so the work commits or rolls back with the caller's writes. Implemented by
+ * {@link PostgresStateWriter}, stores without a database have no transaction to join.
+ */
+public interface CallerTransactions {
+
+    /**
+     * Run the work in the transaction the caller has in progress on the handle
+     */
+    void useCallerTransaction(Handle handle, Runnable work);
+
+    /**
+     * Run the work in the transaction the caller has in progress on the connection
+     */
+    void useCallerTransaction(Connection connection, Runnable work);
+}
@@ -0,0 +1,17 @@
+package aptvantage.aptflow.engine.persistence;
+
+import java.io.InputStream;
+
+/**
+ * Compresses stored payloads, see {@link PayloadCompression}. The id is written as the header byte of
+ * every payload compressed by the codec, so it must be stable and unique among the codecs in use, and
+ * between 1 and 31. Ids 1 and 2 are taken by {@link JdkCompressionCodec}.
+ */
+public interface CompressionCodec {
+
+    byte id();
+
+    byte[] compress(byte[] data);
+
+    InputStream decompress(InputStream compressed);
+}
@@ -0,0 +1,85 @@
+package aptvantage.aptflow.engine.persistence;
+
+import com.google.common.flogger.FluentLogger;
+
+import javax.sql.DataSource;
+
+/**
+ * The connection pools of one database, so that a burst of load on one does not stall the others:
+ * <ul>
+ *     <li>scheduling: the db-scheduler poller and the completion of its tasks</li>
+ *     <li>writes: execution passes, which hold a connection from start to end (async activities reuse it),
+ *     state transitions made outside of them and maintenance</li>
+ *     <li>reads: API reads such as the latest run of a workflow or the listing of runs</li>
+ *     <li>replica: optionally, API reads that allow a read replica, see {@link ReplicaRouting}</li>
+ * </ul>
+ * They may be the same pool, except for the replica. Checkouts from each are timed, see {@link MeteredDataSource}.
+ */
+public class ConnectionPools {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    private final MeteredDataSource scheduling;
+    private final MeteredDataSource writes;
+    private final MeteredDataSource reads;
+    private final MeteredDataSource replica;
+
+    public ConnectionPools(DataSource scheduling, DataSource writes, DataSource reads) {
+        this(scheduling, writes, reads, null);
+    }
+
+    /**
+     * @param replica pool of the read replica, null without one
+     */
+    public ConnectionPools(DataSource scheduling, DataSource writes, DataSource reads, DataSource replica) {
+        this.scheduling = new MeteredDataSource("scheduling", scheduling);
+        this.writes = new MeteredDataSource("writes", writes);
+        this.reads = new MeteredDataSource("reads", reads);
+        this.replica = replica == null ? null : new MeteredDataSource("replica", replica);
+    }
+
+    private ConnectionPools(ConnectionPools pools, MeteredDataSource replica) {
+        this.scheduling = pools.scheduling;
+        this.writes = pools.writes;
+        this.reads = pools.reads;
+        this.replica = replica;
+    }
+
+    public ConnectionPools withReplica(DataSource replica) {
+        return new ConnectionPools(this, new MeteredDataSource("replica", replica));
+    }
+
+    public static ConnectionPools shared(DataSource dataSource) {
+        return new ConnectionPools(dataSource, dataSource, dataSource);
+    }
+
+    /**
+     * Warn when there are more executor threads than write connections, as each execution holds one
+     */
+    public void checkSize(int executorThreads) {
+        int writeConnections = writes.maximumPoolSize();
+        if (writeConnections != -1 && executorThreads > writeConnections) {
+            logger.atWarning().log("[%s] executor threads share [%s] write connections, executions will wait for connections",
+                    executorThreads, writeConnections);
+        }
+    }
+
+    public MeteredDataSource scheduling() {
+        return scheduling;
+    }
+
+    public MeteredDataSource writes() {
+        return writes;
+    }
+
+    public MeteredDataSource reads() {
+        return reads;
+    }
+
+    /**
+     * @return the pool of the read replica, null without one
+     */
+    public MeteredDataSource replica() {
+        return replica;
+    }
+}
@@ -0,0 +1,35 @@
+package aptvantage.aptflow.engine.persistence;
+
+/**
+ * How durable the state transitions of the workflows of a class are, traded against the cost of
+ * writing them. Starting a workflow, and the tasks scheduled for it, are always durable: a workflow
+ * that was started is recovered by its start task whatever its tier, and replays from the state that
+ * survived.
+ */
+public enum Durability {
+
+    /**
+     * Transitions are durable before the workflow moves past them: an activity's start before its side
+     * effect runs, its output before the workflow acts on it. After a crash a run replays without running
+     * a completed activity again.
+     */
+    DURABLE,
+
+    /**
+     * Transitions are committed at the same points as {@link #DURABLE}, with
+     * {@code synchronous_commit = off}: commits no longer wait for the WAL flush, and bypass group commit
+     * as there is no flush to share. A database crash loses the transitions of the last moments (up to
+     * three times {@code wal_writer_delay}), never part of one, so the run replays from a consistent
+     * earlier point and activities completed in that window run again. An application crash loses
+     * nothing.
+     */
+    RELAXED,
+
+    /**
+     * Transitions are buffered for the whole execution pass and committed as {@link #RELAXED} when the
+     * pass completes or pauses (for a signal, condition or sleep). A crash of either the application or
+     * the database loses the pass in progress: the run replays from its last pause and runs every
+     * activity of the pass again. For short-lived, idempotent fan-out work.
+     */
+    EPHEMERAL
+}
@@ -0,0 +1,19 @@
+package aptvantage.aptflow.engine.persistence;
+
+import org.jdbi.v3.core.mapper.ColumnMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+class EventIdColumnMapper implements ColumnMapper<Long> {
+
+    @Override
+    public Long map(ResultSet r, int columnNumber, StatementContext ctx) throws SQLException {
+        long eventId = r.getLong(columnNumber);
+        if (r.wasNull()) {
+            return null;
+        }
+        return eventId;
+    }
+}
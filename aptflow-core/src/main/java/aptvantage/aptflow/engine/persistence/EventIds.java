@@ -0,0 +1,67 @@
+package aptvantage.aptflow.engine.persistence;
+
+import java.time.Instant;
+
+/**
+ * Time-ordered 64-bit event ids: milliseconds since {@link #EPOCH} in the high 41 bits, followed by
+ * a 10-bit node id and a 12-bit sequence.
+ * <p>
+ * The node id is configured, or leased from the database by {@link NodeIdLease}, so that processes
+ * writing to the same database never share one. Ids of a process only ever increase: a timestamp
+ * earlier than that of the last id is taken as the last one, and once the sequence of a millisecond is
+ * used up ids move on to the next millisecond.
+ */
+public final class EventIds {
+
+    static final Instant EPOCH = Instant.parse("2025-01-01T00:00:00Z");
+
+    static final int NODE_BITS = 10;
+    static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+
+    private static long node = 0;
+    private static long lastMillis = -1;
+    private static long sequence = 0;
+
+    private EventIds() {
+    }
+
+    public static synchronized void useNode(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE) {
+            throw new IllegalArgumentException("node id [%s] is not between 0 and %s".formatted(nodeId, MAX_NODE));
+        }
+        node = nodeId;
+    }
+
+    static synchronized int getNode() {
+        return (int) node;
+    }
+
+    static synchronized long newId(Instant timestamp) {
+        long millis = Math.max(timestamp.toEpochMilli() - EPOCH.toEpochMilli(), lastMillis);
+        if (millis == lastMillis) {
+            if (sequence == MAX_SEQUENCE) {
+                millis++;
+                sequence = 0;
+            } else {
+                sequence++;
+            }
+        } else {
+            sequence = 0;
+        }
+        lastMillis = millis;
+        return (millis << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence;
+    }
+
+    /**
+     * @return the lowest id of the events at the timestamp, for bounding ids by time
+     */
+    static long firstIdAt(Instant timestamp) {
+        return (timestamp.toEpochMilli() - EPOCH.toEpochMilli()) << (NODE_BITS + SEQUENCE_BITS);
+    }
+
+    static Instant timestampOf(long id) {
+        return Instant.ofEpochMilli(EPOCH.toEpochMilli() + (id >> (NODE_BITS + SEQUENCE_BITS)));
+    }
+}
@@ -0,0 +1,22 @@
+package aptvantage.aptflow.engine.persistence;
+
+/**
+ * Resources a workflow execution pass holds for its duration, bound to each thread that runs part of
+ * it, see {@link RunHandle}
+ */
+public interface ExecutionHandle {
+
+    /**
+     * Use this handle for persistence calls made on the current thread
+     */
+    void bind();
+
+    void unbind();
+
+    /**
+     * @return how many connection pool checkouts were served by this handle instead
+     */
+    int getCheckoutsAvoided();
+
+    void close();
+}
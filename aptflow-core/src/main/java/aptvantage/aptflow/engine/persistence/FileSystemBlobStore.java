@@ -0,0 +1,112 @@
+package aptvantage.aptflow.engine.persistence;
+
+import com.google.common.flogger.FluentLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+/**
+ * Stores each blob as a file under the root directory, fanned out into subdirectories by key prefix.
+ * The modification time of a file is when its blob was last put.
+ */
+public class FileSystemBlobStore implements BlobStore {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    private final Path root;
+
+    public FileSystemBlobStore(Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public void put(String key, byte[] data) {
+        Path file = pathOf(key);
+        try {
+            if (Files.exists(file)) {
+                // put again for a new payload row, so it is not taken for an orphan
+                Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+                return;
+            }
+            if (!Files.isDirectory(file.getParent())) {
+                Files.createDirectories(file.getParent());
+                syncDirectory(root);
+            }
+            // written aside and moved into place, so readers never see a partial blob
+            Path temporary = Files.createTempFile(file.getParent(), key, ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(data);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    // durable before the row referring to it commits
+                    channel.force(true);
+                }
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                // the move itself is only durable once the directory is
+                syncDirectory(file.getParent());
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream open(String key) {
+        try {
+            return Files.newInputStream(pathOf(key));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        try {
+            Files.deleteIfExists(pathOf(key));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Stream<String> keysStoredBefore(Instant storedBefore) {
+        if (!Files.isDirectory(root)) {
+            return Stream.empty();
+        }
+        try {
+            return Files.find(root, 2, (path, attributes) -> attributes.isRegularFile()
+                            && !path.getFileName().toString().endsWith(".tmp")
+                            && attributes.lastModifiedTime().toInstant().isBefore(storedBefore))
+                    .map(path -> path.getFileName().toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not every platform can open a directory, those that cannot persist the entry with the file
+            logger.atFine().withCause(e).log("could not sync blob directory [%s]", directory);
+        }
+    }
+
+    private Path pathOf(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key);
+    }
+}
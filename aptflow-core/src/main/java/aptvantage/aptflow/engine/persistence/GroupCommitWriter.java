@@ -0,0 +1,128 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.engine.persistence.PostgresUnitOfWork.PendingWrite;
+import com.google.common.flogger.FluentLogger;
+import org.jdbi.v3.core.Jdbi;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Commits the flushes of all in-flight executions together from a single writer thread, so the
+ * commit rate of the database no longer caps the step rate.
+ * <p>
+ * A group is committed once it holds {@code maxBatchSize} writes or {@code maxDelay} after its first
+ * flush arrived, whichever comes first. Every flush gets a future that completes once its writes are
+ * durable. If a group fails, its flushes are retried one transaction each so a single bad flush does
+ * not fail the others.
+ */
+public class GroupCommitWriter {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    private final Jdbi jdbi;
+    private final Duration maxDelay;
+    private final int maxBatchSize;
+    private final BlockingQueue<Submission> submissions = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private volatile boolean running = false;
+
+    public GroupCommitWriter(Jdbi jdbi, Duration maxDelay, int maxBatchSize) {
+        this.jdbi = jdbi;
+        this.maxDelay = maxDelay;
+        this.maxBatchSize = maxBatchSize;
+        this.writerThread = new Thread(this::run, "aptflow-group-commit");
+        this.writerThread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        writerThread.start();
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            writerThread.join(maxDelay.toMillis() + 5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // anything still queued is committed by the stopping thread
+        List<Submission> remaining = new ArrayList<>();
+        submissions.drainTo(remaining);
+        commit(remaining);
+    }
+
+    CompletableFuture<Void> submit(List<PendingWrite> writes) {
+        if (!running) {
+            throw new IllegalStateException("group commit writer is not running");
+        }
+        Submission submission = new Submission(writes, new CompletableFuture<>());
+        submissions.add(submission);
+        return submission.committed();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                commit(nextGroup());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.atSevere().withCause(e).log("group commit failed");
+            }
+        }
+    }
+
+    private List<Submission> nextGroup() throws InterruptedException {
+        List<Submission> group = new ArrayList<>();
+        // poll rather than block, so the thread notices when it is stopped
+        Submission first = submissions.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return group;
+        }
+        group.add(first);
+        int writeCount = first.writes().size();
+        long deadline = System.nanoTime() + maxDelay.toNanos();
+        while (writeCount < maxBatchSize) {
+            Submission next = submissions.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            group.add(next);
+            writeCount += next.writes().size();
+        }
+        return group;
+    }
+
+    private void commit(List<Submission> group) {
+        if (group.isEmpty()) {
+            return;
+        }
+        try {
+            // concatenated, so identical transitions of different executions share a JDBC batch
+            List<PendingWrite> writes = group.stream()
+                    .flatMap(submission -> submission.writes().stream())
+                    .toList();
+            jdbi.useTransaction(handle -> PostgresUnitOfWork.executeBatched(handle, writes));
+            group.forEach(submission -> submission.committed().complete(null));
+            logger.atFine().log("group committed [%s] writes of [%s] flushes", writes.size(), group.size());
+        } catch (Exception groupFailure) {
+            if (group.size() == 1) {
+                group.get(0).committed().completeExceptionally(groupFailure);
+                return;
+            }
+            logger.atWarning().withCause(groupFailure).log("group commit of [%s] flushes failed, committing them one at a time", group.size());
+            group.forEach(submission -> commit(List.of(submission)));
+        }
+    }
+
+    private record Submission(List<PendingWrite> writes, CompletableFuture<Void> committed) {
+    }
+}
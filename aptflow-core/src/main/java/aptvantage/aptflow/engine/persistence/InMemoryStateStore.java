@@ -0,0 +1,870 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.api.RunnableWorkflow;
+import aptvantage.aptflow.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the state of workflows in memory, for test suites and workflows that need not survive a restart.
+ * Reads see what Postgres would return: run status and blocked step follow the transitions as
+ * aptflow_append_event maintains them (see V15__run_status.sql), and runs resumed from the point of
+ * failure inherit the steps their ancestors completed without failing.
+ * <p>
+ * The runs of a workflow are guarded by one of {@link #STRIPES} read-write locks, picked by the hash of
+ * the workflow id, so transitions of different workflows do not contend. Each run indexes its steps by
+ * function id and keeps its events in sequence order, so replaying a step is a hash lookup.
+ * <p>
+ * Transitions apply as they are written: units of work have nothing to buffer, and transactions are not
+ * isolated nor rolled back. With no database, there is no {@link CallerTransactions caller transaction}
+ * to join nor {@link JsonPathQueries JSON path} to evaluate.
+ */
+public class InMemoryStateStore implements StateStore, StateReader, StateWriter {
+
+    private static final int STRIPES = 64;
+    private static final Duration PAYLOAD_GRACE_PERIOD = Duration.ofMinutes(1);
+
+    private static final Comparator<RunKey> NEWEST_FIRST = Comparator.comparing(RunKey::created)
+            .thenComparing(RunKey::runId)
+            .reversed();
+
+    private static final UnitOfWork IMMEDIATE = new ImmediateUnitOfWork();
+    private static final ExecutionHandle NO_HANDLE = new NoExecutionHandle();
+
+    private final ReadWriteLock[] stripes = new ReadWriteLock[STRIPES];
+    private final PayloadCodecs codecs;
+
+    private final Map<String, WorkflowState> workflows = new ConcurrentHashMap<>();
+    private final Map<String, RunState> runs = new ConcurrentHashMap<>();
+    private final Map<Long, EventState> events = new ConcurrentHashMap<>();
+    private final Map<String, StoredPayload> payloads = new ConcurrentHashMap<>();
+    private final NavigableMap<RunKey, RunState> runsNewestFirst = new ConcurrentSkipListMap<>(NEWEST_FIRST);
+
+    public InMemoryStateStore() {
+        this(new JavaSerializationCodec());
+    }
+
+    /**
+     * @param codec encodes the payloads, which are stored encoded so workflows never share mutable
+     *              instances with the store
+     */
+    public InMemoryStateStore(PayloadCodec codec) {
+        this.codecs = new PayloadCodecs(codec);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    @Override
+    public StateReader reader() {
+        return this;
+    }
+
+    @Override
+    public StateWriter writer() {
+        return this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Serializable> T getPayload(byte[] hash) {
+        if (hash == null) {
+            return null;
+        }
+        StoredPayload stored = payload(hash);
+        return (T) codecs.decode(stored.codec(), stored.data());
+    }
+
+    @Override
+    public InputStream openPayload(byte[] hash) {
+        if (hash == null) {
+            return null;
+        }
+        return new ByteArrayInputStream(payload(hash).data());
+    }
+
+    StoredPayload payload(byte[] hash) {
+        StoredPayload stored = payloads.get(HexFormat.of().formatHex(hash));
+        if (stored == null) {
+            throw new IllegalStateException("no payload stored for hash [%s]".formatted(HexFormat.of().formatHex(hash)));
+        }
+        return stored;
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    StepFunctionEvent<I, O> getStepFunctionEvent(Long id) {
+        if (id == null) {
+            return null;
+        }
+        EventState event = events.get(id);
+        return event == null ? null : toEvent(event);
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    List<StepFunctionEvent<I, O>> getStepFunctionEventsForWorkflowRun(String workflowRunId) {
+        RunState run = run(workflowRunId);
+        return read(run.workflowId, () -> {
+            List<RunState> lineage = lineage(run);
+            Map<String, VisibleStep> visibleSteps = visibleSteps(lineage);
+            List<StepFunctionEvent<I, O>> lineageEvents = new ArrayList<>();
+            // oldest ancestor first, each contributing the events of the steps it provides
+            for (int depth = lineage.size() - 1; depth >= 0; depth--) {
+                RunState ancestor = lineage.get(depth);
+                for (EventState event : ancestor.events) {
+                    VisibleStep visible = visibleSteps.get(event.functionId());
+                    if (depth == 0 || (visible != null && visible.step().workflowRunId.equals(ancestor.id))) {
+                        lineageEvents.add(toEvent(event));
+                    }
+                }
+            }
+            return lineageEvents;
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <I extends Serializable, O extends Serializable, A extends Serializable>
+    ActivityFunction<I, O, A> getActivityFunction(String workflowRunId, String name) {
+        return (ActivityFunction<I, O, A>) getStepFunction(workflowRunId, name, StepFunctionType.ACTIVITY);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <I extends Serializable, O extends Serializable>
+    SleepFunction<I, O> getSleepFunction(String workflowRunId, String identifier) {
+        return (SleepFunction<I, O>) getStepFunction(workflowRunId, identifier, StepFunctionType.SLEEP);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <I extends Serializable, O extends Serializable>
+    ConditionFunction<I, O> getConditionFunction(String workflowRunId, String identifier) {
+        return (ConditionFunction<I, O>) getStepFunction(workflowRunId, identifier, StepFunctionType.CONDITION);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <I extends Serializable, O extends Serializable, S extends Serializable>
+    SignalFunction<I, O, S> getSignalFunction(String workflowRunId, String name) {
+        return (SignalFunction<I, O, S>) getStepFunction(workflowRunId, name, StepFunctionType.SIGNAL);
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    List<StepFunction<I, O>> getFunctionsForWorkflowRun(String workflowRunId) {
+        RunState run = run(workflowRunId);
+        return read(run.workflowId, () -> visibleSteps(lineage(run)).values().stream()
+                .sorted(Comparator.comparing(VisibleStep::depth).reversed()
+                        .thenComparing(visible -> events.get(visible.step().startedEventId).seq()))
+                .map(visible -> this.<I, O>toStepFunction(visible.step()))
+                .toList());
+    }
+
+    @Override
+    public <O extends Serializable, I extends Serializable>
+    StepFunction<I, O> getStepFunctionForWorkflowRun(String workflowRunId, String functionId) {
+        return getStepFunction(workflowRunId, functionId, null);
+    }
+
+    private <I extends Serializable, O extends Serializable>
+    StepFunction<I, O> getStepFunction(String workflowRunId, String functionId, StepFunctionType functionType) {
+        RunState run = run(workflowRunId);
+        return read(run.workflowId, () -> {
+            List<RunState> lineage = lineage(run);
+            for (int depth = 0; depth < lineage.size(); depth++) {
+                StepState step = lineage.get(depth).steps.get(functionId);
+                if (step != null && (depth == 0 || completedWithoutFailing(step))) {
+                    return functionType == null || step.functionType == functionType ? toStepFunction(step) : null;
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    Workflow<I, O> getWorkflow(String id, Class<? extends RunnableWorkflow<I, O>> workflowClass) {
+        WorkflowState workflow = workflows.get(id);
+        if (workflow == null) {
+            throw new IllegalStateException("no workflow [%s]".formatted(id));
+        }
+        return new Workflow<>(workflow.id, workflow.className, getPayload(workflow.inputHash), this);
+    }
+
+    @Override
+    public RunPage listRuns(RunFilter filter, RunCursor cursor, int limit) {
+        NavigableMap<RunKey, RunState> candidates = cursor == null
+                ? runsNewestFirst
+                : runsNewestFirst.tailMap(new RunKey(cursor.created(), cursor.runId()), false);
+        List<WorkflowRun<Serializable, Serializable>> page = new ArrayList<>();
+        for (RunState run : candidates.values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            WorkflowRun<Serializable, Serializable> snapshot = read(run.workflowId, () -> matches(filter, run) ? toWorkflowRun(run) : null);
+            if (snapshot != null) {
+                page.add(snapshot);
+            }
+        }
+        RunCursor next = page.size() < limit ? null : RunCursor.after(page.get(page.size() - 1));
+        return new RunPage(page, next);
+    }
+
+    private boolean matches(RunFilter filter, RunState run) {
+        return (filter.workflowClassName() == null || filter.workflowClassName().equals(workflows.get(run.workflowId).className))
+                && (filter.statuses().isEmpty() || filter.statuses().contains(run.status))
+                && (filter.createdFrom() == null || !run.created.isBefore(filter.createdFrom()))
+                && (filter.createdUntil() == null || run.created.isBefore(filter.createdUntil()))
+                && (filter.includeArchived() || run.archived == null);
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    WorkflowRun<I, O> getActiveRunForWorkflowId(String workflowId, Class<? extends RunnableWorkflow<I, O>> workflowClass) {
+        WorkflowState workflow = workflows.get(workflowId);
+        if (workflow == null) {
+            return null;
+        }
+        return read(workflowId, () -> workflow.activeRunId == null ? null : toWorkflowRun(runs.get(workflow.activeRunId)));
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    List<WorkflowRun<I, O>> getRunsForWorkflow(String workflowId) {
+        WorkflowState workflow = workflows.get(workflowId);
+        if (workflow == null) {
+            return List.of();
+        }
+        return read(workflowId, () -> workflow.runIds.stream()
+                .map(runId -> this.<I, O>toWorkflowRun(runs.get(runId)))
+                .toList());
+    }
+
+    @Override
+    public <O extends Serializable, I extends Serializable>
+    WorkflowRun<I, O> getWorkflowRun(String id) {
+        RunState run = run(id);
+        return read(run.workflowId, () -> toWorkflowRun(run));
+    }
+
+    private RunState run(String workflowRunId) {
+        RunState run = runs.get(workflowRunId);
+        if (run == null) {
+            throw new IllegalStateException("no workflow run [%s]".formatted(workflowRunId));
+        }
+        return run;
+    }
+
+    /**
+     * @return the run and its ancestors, nearest first: the run has depth 0
+     */
+    private List<RunState> lineage(RunState run) {
+        List<RunState> lineage = new ArrayList<>();
+        for (RunState ancestor = run; ancestor != null; ancestor = ancestor.parentRunId == null ? null : runs.get(ancestor.parentRunId)) {
+            lineage.add(ancestor);
+        }
+        return lineage;
+    }
+
+    /**
+     * @return the steps of the run and those its ancestors completed without failing, by function id,
+     * the nearest run winning
+     */
+    private Map<String, VisibleStep> visibleSteps(List<RunState> lineage) {
+        Map<String, VisibleStep> visibleSteps = new LinkedHashMap<>();
+        for (int depth = 0; depth < lineage.size(); depth++) {
+            for (StepState step : lineage.get(depth).steps.values()) {
+                if (!visibleSteps.containsKey(step.functionId) && (depth == 0 || completedWithoutFailing(step))) {
+                    visibleSteps.put(step.functionId, new VisibleStep(step, depth));
+                }
+            }
+        }
+        return visibleSteps;
+    }
+
+    private boolean completedWithoutFailing(StepState step) {
+        return step.completedEventId != null
+                && events.get(step.completedEventId).status() != StepFunctionEventStatus.FAILED;
+    }
+
+    private <I extends Serializable, O extends Serializable> StepFunctionEvent<I, O> toEvent(EventState event) {
+        return new StepFunctionEvent<>(event.id(), event.workflowRunId(), event.seq(), event.category(),
+                event.status(), event.timestamp(), event.functionId(), this);
+    }
+
+    private <I extends Serializable, O extends Serializable> StepFunction<I, O> toStepFunction(StepState step) {
+        return switch (step.functionType) {
+            case WORKFLOW -> throw new IllegalStateException("WORKFLOW is not a StepFunction");
+            case ACTIVITY -> new ActivityFunction<>(step.workflowRunId, step.functionId, step.startedEventId,
+                    step.completedEventId, step.payloadHash, this);
+            case CONDITION -> new ConditionFunction<>(step.workflowRunId, step.functionId, step.startedEventId,
+                    step.completedEventId, this);
+            case SIGNAL -> new SignalFunction<>(step.workflowRunId, step.functionId, step.startedEventId,
+                    step.completedEventId, getPayload(step.payloadHash), this);
+            case SLEEP -> new SleepFunction<>(step.workflowRunId, step.functionId, step.startedEventId,
+                    step.completedEventId, step.durationMillis, this);
+        };
+    }
+
+    private <I extends Serializable, O extends Serializable> WorkflowRun<I, O> toWorkflowRun(RunState run) {
+        return new WorkflowRun<>(run.id, run.workflowId, run.scheduledEventId, run.startedEventId,
+                run.completedEventId, run.outputHash, run.archived, run.created, run.status, run.blockedOn, this);
+    }
+
+    @Override
+    public UnitOfWork beginUnitOfWork(Durability durability) {
+        return IMMEDIATE;
+    }
+
+    @Override
+    public ExecutionHandle openExecutionHandle() {
+        return NO_HANDLE;
+    }
+
+    @Override
+    public void useTransaction(Runnable work) {
+        work.run();
+    }
+
+    @Override
+    public void afterCommit(Runnable action) {
+        action.run();
+    }
+
+    @Override
+    public Long newActivityStarted(UnitOfWork unitOfWork, String workflowRunId, String name, Instant timestamp) {
+        return startStep(workflowRunId, name, StepFunctionType.ACTIVITY, StepFunctionEventStatus.STARTED, null, timestamp);
+    }
+
+    @Override
+    public void failActivity(UnitOfWork unitOfWork, String workflowRunId, String name, Instant timestamp) {
+        completeStep(workflowRunId, name, StepFunctionType.ACTIVITY, StepFunctionEventStatus.FAILED, null, timestamp);
+    }
+
+    @Override
+    public void completeActivity(UnitOfWork unitOfWork, String workflowRunId, String name, Serializable output, Instant timestamp) {
+        completeStep(workflowRunId, name, StepFunctionType.ACTIVITY, StepFunctionEventStatus.COMPLETED, storePayload(output), timestamp);
+    }
+
+    @Override
+    public Long newSignalWaiting(UnitOfWork unitOfWork, String workflowRunId, String name, Instant timestamp) {
+        return startStep(workflowRunId, name, StepFunctionType.SIGNAL, StepFunctionEventStatus.WAITING, null, timestamp);
+    }
+
+    @Override
+    public void signalReceived(UnitOfWork unitOfWork, String workflowRunId, String name, Serializable value, Instant timestamp) {
+        completeStep(workflowRunId, name, StepFunctionType.SIGNAL, StepFunctionEventStatus.RECEIVED, storePayload(value), timestamp);
+    }
+
+    @Override
+    public String scheduleNewRunForExistingWorkflow(String workflowId, boolean resumeFromPointOfFailure) {
+        WorkflowState workflow = workflows.get(workflowId);
+        if (workflow == null) {
+            throw new IllegalStateException("no workflow [%s]".formatted(workflowId));
+        }
+        // checked and scheduled under the lock of the workflow, as the Postgres store does under its row lock
+        return write(workflowId, () -> {
+            RunState activeRun = workflow.activeRunId == null ? null : runs.get(workflow.activeRunId);
+            if (activeRun != null && !activeRun.status.isTerminal()) {
+                throw new IllegalStateException("run [%s] of workflow [%s] is still %s".formatted(activeRun.id, workflowId, activeRun.status));
+            }
+            if (resumeFromPointOfFailure && (activeRun == null || activeRun.status != WorkflowRunStatus.FAILED)) {
+                throw new IllegalStateException("run [%s] of workflow [%s] did not fail".formatted(workflow.activeRunId, workflowId));
+            }
+            return scheduleRun(workflowId, resumeFromPointOfFailure, Instant.now());
+        });
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    String scheduleRunForNewWorkflow(String workflowId, Class<? extends RunnableWorkflow<I, O>> workflowClass, I input) {
+        createWorkflow(workflowId, workflowClass.getName(), storePayload(input));
+        return scheduleRun(workflowId, false, Instant.now());
+    }
+
+    @Override
+    public void workflowRunStarted(UnitOfWork unitOfWork, String workflowRunId, Instant timestamp) {
+        apply(new Transition(EventIds.newId(timestamp), workflowRunId, StepFunctionType.WORKFLOW,
+                StepFunctionEventStatus.STARTED, workflowRunId, timestamp, null, null));
+    }
+
+    @Override
+    public void workflowRunCompleted(UnitOfWork unitOfWork, String workflowRunId, Object output, Instant timestamp) {
+        apply(new Transition(EventIds.newId(timestamp), workflowRunId, StepFunctionType.WORKFLOW,
+                StepFunctionEventStatus.COMPLETED, workflowRunId, timestamp, storePayload(output), null));
+    }
+
+    @Override
+    public void failWorkflowRun(UnitOfWork unitOfWork, String workflowRunId, Instant timestamp) {
+        apply(new Transition(EventIds.newId(timestamp), workflowRunId, StepFunctionType.WORKFLOW,
+                StepFunctionEventStatus.FAILED, workflowRunId, timestamp, null, null));
+    }
+
+    @Override
+    public Long newConditionWaiting(UnitOfWork unitOfWork, String workflowRunId, String identifier, Instant timestamp) {
+        return startStep(workflowRunId, identifier, StepFunctionType.CONDITION, StepFunctionEventStatus.WAITING, null, timestamp);
+    }
+
+    @Override
+    public void conditionSatisfied(UnitOfWork unitOfWork, String workflowRunId, String identifier, Instant timestamp) {
+        completeStep(workflowRunId, identifier, StepFunctionType.CONDITION, StepFunctionEventStatus.SATISFIED, null, timestamp);
+    }
+
+    @Override
+    public Long newSleepStarted(UnitOfWork unitOfWork, String workflowRunId, String identifier, Duration duration, Instant timestamp) {
+        return startStep(workflowRunId, identifier, StepFunctionType.SLEEP, StepFunctionEventStatus.STARTED, duration.toMillis(), timestamp);
+    }
+
+    @Override
+    public void sleepCompleted(UnitOfWork unitOfWork, String workflowRunId, String identifier, Instant timestamp) {
+        completeStep(workflowRunId, identifier, StepFunctionType.SLEEP, StepFunctionEventStatus.COMPLETED, null, timestamp);
+    }
+
+    @Override
+    public void runBlocked(UnitOfWork unitOfWork, String workflowRunId, WorkflowRunStatus status, String functionId) {
+        block(workflowRunId, status, functionId);
+    }
+
+    /**
+     * @return whether the run was blocked on another step, or on none
+     */
+    boolean block(String workflowRunId, WorkflowRunStatus status, String functionId) {
+        RunState run = run(workflowRunId);
+        return write(run.workflowId, () -> {
+            if (run.completedEventId != null || functionId.equals(run.blockedOn)) {
+                return false;
+            }
+            block(run, status, functionId);
+            return true;
+        });
+    }
+
+    private Long startStep(String workflowRunId, String functionId, StepFunctionType functionType,
+                           StepFunctionEventStatus status, Long durationMillis, Instant timestamp) {
+        long eventId = EventIds.newId(timestamp);
+        apply(new Transition(eventId, workflowRunId, functionType, status, functionId, timestamp, null, durationMillis));
+        return eventId;
+    }
+
+    private void completeStep(String workflowRunId, String functionId, StepFunctionType functionType,
+                              StepFunctionEventStatus status, byte[] payloadHash, Instant timestamp) {
+        apply(new Transition(EventIds.newId(timestamp), workflowRunId, functionType, status, functionId, timestamp, payloadHash, null));
+    }
+
+    /**
+     * @return the hash the encoded payload is stored under
+     */
+    byte[] storePayload(Object payload) {
+        byte[] data = codecs.encode(payload);
+        byte[] hash = PayloadStore.hash(data);
+        storePayload(hash, codecs.writeCodecId(), data);
+        return hash;
+    }
+
+    void storePayload(byte[] hash, short codec, byte[] data) {
+        // replaced rather than kept, so the stored time tells forgetWorkflows the payload is in use
+        payloads.put(HexFormat.of().formatHex(hash), new StoredPayload(codec, data, Instant.now()));
+    }
+
+    void createWorkflow(String workflowId, String className, byte[] inputHash) {
+        if (workflows.putIfAbsent(workflowId, new WorkflowState(workflowId, className, inputHash)) != null) {
+            throw new IllegalStateException("workflow [%s] already exists".formatted(workflowId));
+        }
+    }
+
+    /**
+     * Archive the active run of the workflow, if any, and schedule the next one
+     *
+     * @return the id of the scheduled run
+     */
+    private String scheduleRun(String workflowId, boolean resumeFromPointOfFailure, Instant timestamp) {
+        String workflowRunId = createRun(workflowId, resumeFromPointOfFailure, timestamp);
+        apply(new Transition(EventIds.newId(timestamp), workflowRunId, StepFunctionType.WORKFLOW,
+                StepFunctionEventStatus.SCHEDULED, workflowRunId, timestamp, null, null));
+        return workflowRunId;
+    }
+
+    /**
+     * Archive the active run of the workflow, if any, and create the next one, without events
+     *
+     * @return the id of the created run
+     */
+    String createRun(String workflowId, boolean resumeFromPointOfFailure, Instant timestamp) {
+        WorkflowState workflow = workflows.get(workflowId);
+        return write(workflowId, () -> {
+            RunState activeRun = workflow.activeRunId == null ? null : runs.get(workflow.activeRunId);
+            if (activeRun != null) {
+                activeRun.archived = timestamp;
+            }
+            // a run resuming from the point of failure inherits the history of the archived run
+            String parentRunId = resumeFromPointOfFailure && activeRun != null ? activeRun.id : null;
+            RunState run = new RunState("%s::%s".formatted(workflowId, ++workflow.runCounter), workflowId, parentRunId, timestamp);
+            runs.put(run.id, run);
+            runsNewestFirst.put(new RunKey(run.created, run.id), run);
+            workflow.runIds.add(run.id);
+            workflow.activeRunId = run.id;
+            return run.id;
+        });
+    }
+
+    /**
+     * Append the event of the transition to its run and apply it to the run and its steps, as the
+     * transition procedures do
+     */
+    void apply(Transition transition) {
+        RunState run = run(transition.workflowRunId());
+        write(run.workflowId, () -> {
+            EventState event = new EventState(transition.eventId(), run.id, ++run.eventSeq, transition.category(),
+                    transition.status(), transition.timestamp(), transition.functionId());
+            run.events.add(event);
+            events.put(event.id(), event);
+            if (transition.category() == StepFunctionType.WORKFLOW) {
+                switch (transition.status()) {
+                    case SCHEDULED -> run.scheduledEventId = event.id();
+                    case STARTED -> run.startedEventId = event.id();
+                    case COMPLETED -> {
+                        run.completedEventId = event.id();
+                        run.outputHash = transition.payloadHash();
+                    }
+                    case FAILED -> run.completedEventId = event.id();
+                    default -> throw new IllegalStateException("unexpected run transition [%s]".formatted(transition.status()));
+                }
+            } else if (transition.status() == StepFunctionEventStatus.STARTED || transition.status() == StepFunctionEventStatus.WAITING) {
+                run.steps.put(transition.functionId(), new StepState(run.id, transition.functionId(), transition.category(),
+                        event.id(), transition.durationMillis()));
+            } else {
+                if (transition.category() == StepFunctionType.SIGNAL) {
+                    run.sentSignals.remove(transition.functionId());
+                }
+                // like the procedures, completing a step the run did not start only records the event
+                StepState step = run.steps.get(transition.functionId());
+                if (step != null) {
+                    step.completedEventId = event.id();
+                    if (transition.payloadHash() != null) {
+                        step.payloadHash = transition.payloadHash();
+                    }
+                }
+            }
+            updateStatus(run, event);
+            return null;
+        });
+    }
+
+    /**
+     * Record the signal sent to the run until the run receives it, so a restart can deliver it again. A
+     * signal already sent and not received yet is kept rather than replaced, as its delivery is.
+     */
+    public void signalSent(String workflowRunId, String signalName, Serializable value) {
+        signalSent(workflowRunId, signalName, storePayload(value));
+    }
+
+    /**
+     * @return false when the signal was already sent and not received yet
+     */
+    boolean signalSent(String workflowRunId, String signalName, byte[] valueHash) {
+        RunState run = run(workflowRunId);
+        return write(run.workflowId, () -> run.sentSignals.putIfAbsent(signalName, valueHash) == null);
+    }
+
+    /**
+     * @return the values of the signals sent to the run and not received yet, by signal name
+     */
+    public Map<String, Serializable> getSentSignals(String workflowRunId) {
+        RunState run = run(workflowRunId);
+        Map<String, byte[]> sentSignals = read(run.workflowId, () -> Map.copyOf(run.sentSignals));
+        Map<String, Serializable> values = new HashMap<>();
+        sentSignals.forEach((signalName, valueHash) -> values.put(signalName, getPayload(valueHash)));
+        return values;
+    }
+
+    /**
+     * @return the runs that are neither terminal nor archived, whose tasks a restart must schedule again
+     */
+    public List<WorkflowRun<Serializable, Serializable>> getUnfinishedRuns() {
+        List<WorkflowRun<Serializable, Serializable>> unfinished = new ArrayList<>();
+        for (RunState run : runs.values()) {
+            WorkflowRun<Serializable, Serializable> snapshot = read(run.workflowId,
+                    () -> run.completedEventId == null && run.archived == null ? toWorkflowRun(run) : null);
+            if (snapshot != null) {
+                unfinished.add(snapshot);
+            }
+        }
+        return unfinished;
+    }
+
+    boolean hasWorkflow(String workflowId) {
+        return workflows.containsKey(workflowId);
+    }
+
+    /**
+     * Drop the workflows whose runs all completed or failed longer than their time to live ago, with
+     * their runs and events, then the payloads no remaining workflow refers to
+     *
+     * @param ttlByClassName the time to live of the workflows of the class, null to keep them
+     * @return the ids of the dropped workflows
+     */
+    List<String> forgetExpiredWorkflows(Function<String, Duration> ttlByClassName, Instant now) {
+        List<String> forgotten = new ArrayList<>();
+        for (WorkflowState workflow : workflows.values()) {
+            Duration ttl = ttlByClassName.apply(workflow.className);
+            if (ttl != null && write(workflow.id, () -> terminalBefore(workflow, now.minus(ttl)) && forget(workflow))) {
+                forgotten.add(workflow.id);
+            }
+        }
+        if (!forgotten.isEmpty()) {
+            // payloads stored lately are kept, the transitions referring to them may not be applied yet
+            forgetUnreferencedPayloads(now.minus(PAYLOAD_GRACE_PERIOD));
+        }
+        return forgotten;
+    }
+
+    private boolean terminalBefore(WorkflowState workflow, Instant cutoff) {
+        for (String runId : workflow.runIds) {
+            RunState run = runs.get(runId);
+            if (run.completedEventId == null || !events.get(run.completedEventId).timestamp().isBefore(cutoff)) {
+                return false;
+            }
+        }
+        return !workflow.runIds.isEmpty();
+    }
+
+    /**
+     * Drop the workflow with its runs and events, leaving its payloads
+     */
+    void forgetWorkflow(String workflowId) {
+        write(workflowId, () -> forget(workflows.get(workflowId)));
+    }
+
+    private boolean forget(WorkflowState workflow) {
+        workflows.remove(workflow.id);
+        for (String runId : workflow.runIds) {
+            RunState run = runs.remove(runId);
+            runsNewestFirst.remove(new RunKey(run.created, run.id));
+            run.events.forEach(event -> events.remove(event.id()));
+        }
+        return true;
+    }
+
+    private void forgetUnreferencedPayloads(Instant storedBefore) {
+        Set<String> referenced = new HashSet<>();
+        for (WorkflowState workflow : workflows.values()) {
+            read(workflow.id, () -> {
+                referenced.add(HexFormat.of().formatHex(workflow.inputHash));
+                for (String runId : workflow.runIds) {
+                    RunState run = runs.get(runId);
+                    if (run.outputHash != null) {
+                        referenced.add(HexFormat.of().formatHex(run.outputHash));
+                    }
+                    run.steps.values().stream()
+                            .filter(step -> step.payloadHash != null)
+                            .forEach(step -> referenced.add(HexFormat.of().formatHex(step.payloadHash)));
+                    run.sentSignals.values().forEach(valueHash -> referenced.add(HexFormat.of().formatHex(valueHash)));
+                }
+                return null;
+            });
+        }
+        payloads.entrySet().removeIf(payload -> !referenced.contains(payload.getKey())
+                && payload.getValue().stored().isBefore(storedBefore));
+    }
+
+    private static void updateStatus(RunState run, EventState event) {
+        if (event.category() == StepFunctionType.WORKFLOW) {
+            run.status = switch (event.status()) {
+                case SCHEDULED -> WorkflowRunStatus.SCHEDULED;
+                case STARTED -> WorkflowRunStatus.RUNNING;
+                case COMPLETED -> WorkflowRunStatus.COMPLETED;
+                case FAILED -> WorkflowRunStatus.FAILED;
+                default -> run.status;
+            };
+            run.blockedOn = null;
+        } else if (event.category() == StepFunctionType.SIGNAL && event.status() == StepFunctionEventStatus.WAITING) {
+            block(run, WorkflowRunStatus.WAITING_FOR_SIGNAL, event.functionId());
+        } else if (event.category() == StepFunctionType.CONDITION && event.status() == StepFunctionEventStatus.WAITING) {
+            block(run, WorkflowRunStatus.WAITING_FOR_CONDITION, event.functionId());
+        } else if (event.category() == StepFunctionType.SLEEP && event.status() == StepFunctionEventStatus.STARTED) {
+            block(run, WorkflowRunStatus.SLEEPING, event.functionId());
+        } else if (event.functionId().equals(run.blockedOn)) {
+            // the step the run was blocked on completed
+            run.status = WorkflowRunStatus.RUNNING;
+            run.blockedOn = null;
+        }
+    }
+
+    private static void block(RunState run, WorkflowRunStatus status, String functionId) {
+        run.status = status;
+        run.blockedOn = functionId;
+    }
+
+    private <R> R read(String workflowId, Supplier<R> read) {
+        return locked(stripe(workflowId).readLock(), read);
+    }
+
+    <R> R write(String workflowId, Supplier<R> write) {
+        return locked(stripe(workflowId).writeLock(), write);
+    }
+
+    private static <R> R locked(Lock lock, Supplier<R> work) {
+        lock.lock();
+        try {
+            return work.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReadWriteLock stripe(String workflowId) {
+        return stripes[Math.floorMod(workflowId.hashCode(), STRIPES)];
+    }
+
+    /**
+     * A transition of a run, or of one of its steps when the category is not {@link StepFunctionType#WORKFLOW}
+     *
+     * @param payloadHash    the output of a completed run or activity, the value of a received signal
+     * @param durationMillis the duration of a started sleep
+     */
+    record Transition(long eventId, String workflowRunId, StepFunctionType category, StepFunctionEventStatus status,
+                      String functionId, Instant timestamp, byte[] payloadHash, Long durationMillis) {
+    }
+
+    record StoredPayload(short codec, byte[] data, Instant stored) {
+    }
+
+    private record RunKey(Instant created, String runId) {
+    }
+
+    private record EventState(long id, String workflowRunId, int seq, StepFunctionType category,
+                              StepFunctionEventStatus status, Instant timestamp, String functionId) {
+    }
+
+    private record VisibleStep(StepState step, int depth) {
+    }
+
+    // the mutable state below is guarded by the stripe of its workflow
+
+    private static final class WorkflowState {
+        final String id;
+        final String className;
+        final byte[] inputHash;
+        final List<String> runIds = new ArrayList<>();
+        int runCounter;
+        String activeRunId;
+
+        WorkflowState(String id, String className, byte[] inputHash) {
+            this.id = id;
+            this.className = className;
+            this.inputHash = inputHash;
+        }
+    }
+
+    private static final class RunState {
+        final String id;
+        final String workflowId;
+        final String parentRunId;
+        final Instant created;
+        final Map<String, StepState> steps = new HashMap<>();
+        final List<EventState> events = new ArrayList<>();
+        // signal name -> hash of the value, until received
+        final Map<String, byte[]> sentSignals = new HashMap<>();
+        int eventSeq;
+        Long scheduledEventId;
+        Long startedEventId;
+        Long completedEventId;
+        byte[] outputHash;
+        Instant archived;
+        WorkflowRunStatus status = WorkflowRunStatus.SCHEDULED;
+        String blockedOn;
+
+        RunState(String id, String workflowId, String parentRunId, Instant created) {
+            this.id = id;
+            this.workflowId = workflowId;
+            this.parentRunId = parentRunId;
+            this.created = created;
+        }
+    }
+
+    private static final class StepState {
+        final String workflowRunId;
+        final String functionId;
+        final StepFunctionType functionType;
+        final long startedEventId;
+        final Long durationMillis;
+        Long completedEventId;
+        byte[] payloadHash;
+
+        StepState(String workflowRunId, String functionId, StepFunctionType functionType, long startedEventId, Long durationMillis) {
+            this.workflowRunId = workflowRunId;
+            this.functionId = functionId;
+            this.functionType = functionType;
+            this.startedEventId = startedEventId;
+            this.durationMillis = durationMillis;
+        }
+    }
+
+    /**
+     * Transitions are applied as they are written, there is nothing to flush
+     */
+    private static class ImmediateUnitOfWork implements UnitOfWork {
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void flushWith(Runnable action) {
+            action.run();
+        }
+
+        @Override
+        public CompletableFuture<Void> flushAsync() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class NoExecutionHandle implements ExecutionHandle {
+
+        @Override
+        public void bind() {
+        }
+
+        @Override
+        public void unbind() {
+        }
+
+        @Override
+        public int getCheckoutsAvoided() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package aptvantage.aptflow.engine.persistence;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.TreeNode;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.jsontype.BasicPolymorphicTypeValidator;
+import com.fasterxml.jackson.databind.jsontype.PolymorphicTypeValidator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Encodes payloads as JSON or as Smile (binary JSON). Payloads are written with the class name of their
+ * root, as an {@code @class} property of objects, so they decode to the types they were written from;
+ * those must be (de)serializable by Jackson from their fields, i.e. records or classes with a no-arg
+ * constructor. Below the root, class names are only written where the declared type does not tell
+ * (fields of type {@code Object}, an interface or a non-final class), so payloads made of records and
+ * collections are plain JSON documents.
+ */
+public class JacksonPayloadCodec implements PayloadCodec {
+
+    public static final short JSON_ID = 2;
+    public static final short SMILE_ID = 3;
+
+    private final short id;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter rootWriter;
+
+    public JacksonPayloadCodec(short id, ObjectMapper objectMapper) {
+        this.id = id;
+        this.objectMapper = objectMapper;
+        // written as an Object, so the root carries its class name even when its class is final
+        this.rootWriter = objectMapper.writerFor(Object.class);
+    }
+
+    public static JacksonPayloadCodec json() {
+        return new JacksonPayloadCodec(JSON_ID, payloadObjectMapper(new JsonFactory()));
+    }
+
+    public static JacksonPayloadCodec smile() {
+        return new JacksonPayloadCodec(SMILE_ID, payloadObjectMapper(new SmileFactory()));
+    }
+
+    private static ObjectMapper payloadObjectMapper(JsonFactory jsonFactory) {
+        ObjectMapper objectMapper = new ObjectMapper(jsonFactory);
+        objectMapper.registerModule(new JavaTimeModule());
+        // state is in fields, as with Java serialization
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        objectMapper.setVisibility(PropertyAccessor.GETTER, JsonAutoDetect.Visibility.NONE);
+        objectMapper.setVisibility(PropertyAccessor.IS_GETTER, JsonAutoDetect.Visibility.NONE);
+        objectMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+        objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        // payloads are Serializable, so this trusts the same classes Java serialization would
+        objectMapper.setDefaultTyping(new UndeclaredTypes(
+                BasicPolymorphicTypeValidator.builder().allowIfSubType(Serializable.class).build())
+                .init(JsonTypeInfo.Id.CLASS, null)
+                .inclusion(JsonTypeInfo.As.PROPERTY));
+        return objectMapper;
+    }
+
+    @Override
+    public short id() {
+        return id;
+    }
+
+    @Override
+    public void encode(Object value, OutputStream out) throws IOException {
+        rootWriter.writeValue(out, value);
+    }
+
+    @Override
+    public Serializable decode(InputStream in) throws IOException {
+        return (Serializable) objectMapper.readValue(in, Object.class);
+    }
+
+    /**
+     * Writes class names for values whose declared type does not determine their class. Collections and
+     * maps are read back from their declared types, and final classes such as records, strings and
+     * boxed numbers need no class name unless declared as {@code Object}.
+     */
+    private static class UndeclaredTypes extends ObjectMapper.DefaultTypeResolverBuilder {
+
+        private static final long serialVersionUID = 1L;
+
+        UndeclaredTypes(PolymorphicTypeValidator typeValidator) {
+            super(ObjectMapper.DefaultTyping.NON_FINAL, typeValidator);
+        }
+
+        @Override
+        public boolean useForType(JavaType type) {
+            if (type.isJavaLangObject()) {
+                return true;
+            }
+            if (type.isContainerType() || type.isReferenceType() || type.isPrimitive() || type.isFinal()) {
+                return false;
+            }
+            return !TreeNode.class.isAssignableFrom(type.getRawClass());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package aptvantage.aptflow.engine.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * The default codec, and the one every payload stored before codecs were introduced was written with
+ */
+public class JavaSerializationCodec implements PayloadCodec {
+
+    public static final short ID = 1;
+
+    @Override
+    public short id() {
+        return ID;
+    }
+
+    @Override
+    public void encode(Object value, OutputStream out) throws IOException {
+        ObjectOutputStream objectOut = new ObjectOutputStream(out);
+        objectOut.writeObject(value);
+        objectOut.flush();
+    }
+
+    @Override
+    public Serializable decode(InputStream in) throws IOException {
+        try {
+            return (Serializable) new ObjectInputStream(in).readObject();
+        } catch (ClassNotFoundException e) {
+            InvalidClassException invalidClass = new InvalidClassException(e.getMessage());
+            invalidClass.initCause(e);
+            throw invalidClass;
+        }
+    }
+}
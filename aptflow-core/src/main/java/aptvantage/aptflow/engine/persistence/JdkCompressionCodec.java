@@ -0,0 +1,72 @@
+package aptvantage.aptflow.engine.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+public enum JdkCompressionCodec implements CompressionCodec {
+
+    DEFLATE((byte) 1) {
+        @Override
+        OutputStream compressing(OutputStream out) {
+            return new DeflaterOutputStream(out);
+        }
+
+        @Override
+        InputStream decompressing(InputStream in) {
+            return new InflaterInputStream(in);
+        }
+    },
+    GZIP((byte) 2) {
+        @Override
+        OutputStream compressing(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out);
+        }
+
+        @Override
+        InputStream decompressing(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+    };
+
+    private final byte id;
+
+    JdkCompressionCodec(byte id) {
+        this.id = id;
+    }
+
+    abstract OutputStream compressing(OutputStream out) throws IOException;
+
+    abstract InputStream decompressing(InputStream in) throws IOException;
+
+    @Override
+    public byte id() {
+        return id;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2);
+        try (OutputStream out = compressing(compressed)) {
+            out.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    @Override
+    public InputStream decompress(InputStream compressed) {
+        try {
+            return decompressing(compressed);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package aptvantage.aptflow.engine.persistence;
+
+import com.google.common.flogger.FluentLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of records in segment files of a fixed size, the segment appended to mapped into
+ * memory. Each record is framed by its length and CRC32, so recovery finds the end of the log, torn
+ * writes included, by scanning the last segment up to the first frame that does not check out.
+ * <p>
+ * Appending copies the record into the mapped segment, which survives a crash of the application but
+ * not of the machine. {@link #sync()} forces the appended records to the device; callers waiting while
+ * a force is in progress are covered together by the next one (group fsync).
+ * <p>
+ * Compaction rewrites the sealed segments into one holding the records still needed. The compacted
+ * segment takes the id of the newest segment it replaces and records the oldest, so the replaced
+ * segments are skipped on recovery should the application stop before deleting them.
+ */
+class Journal implements Closeable {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    private static final int MAGIC = 0x4150464a;
+    // magic, id of the oldest segment covered, padding
+    private static final int HEADER_BYTES = 16;
+    // length, CRC32
+    private static final int FRAME_BYTES = 8;
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final Object syncLock = new Object();
+
+    // guarded by this
+    private final List<Long> sealedSegmentIds = new ArrayList<>();
+    private Segment active;
+    private long appendedBytes;
+    private long appends;
+
+    // guarded by syncLock
+    private long syncedBytes;
+    private long syncs;
+
+    private Journal(Path directory, int segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Open the journal in the directory, creating it if need be, and pass each record found in it to
+     * the consumer, oldest first. A torn or corrupt tail of the last segment is truncated.
+     */
+    static Journal open(Path directory, int segmentBytes, Consumer<ByteBuffer> recordConsumer) throws IOException {
+        if (segmentBytes <= HEADER_BYTES + FRAME_BYTES) {
+            throw new IllegalArgumentException("segments of [%s] bytes cannot hold a record".formatted(segmentBytes));
+        }
+        Files.createDirectories(directory);
+        Journal journal = new Journal(directory, segmentBytes);
+        journal.recover(recordConsumer);
+        return journal;
+    }
+
+    private void recover(Consumer<ByteBuffer> recordConsumer) throws IOException {
+        // a compaction that did not complete left its segments in place
+        try (Stream<Path> compacting = Files.list(directory)) {
+            for (Path leftover : compacting.filter(path -> path.toString().endsWith(COMPACTING_SUFFIX)).toList()) {
+                Files.delete(leftover);
+            }
+        }
+        List<Long> segmentIds = liveSegmentIds();
+        for (int i = 0; i < segmentIds.size(); i++) {
+            long segmentId = segmentIds.get(i);
+            boolean last = i == segmentIds.size() - 1;
+            if (last && Files.size(segmentPath(segmentId)) == segmentBytes && coveredFrom(segmentId) == segmentId) {
+                active = openSegment(segmentId, false);
+                active.position = scan(active.buffer, recordConsumer);
+                active.syncedPosition = active.position;
+                truncateTail(active);
+            } else {
+                sealedSegmentIds.add(segmentId);
+                try (FileChannel channel = FileChannel.open(segmentPath(segmentId), StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    int end = scan(buffer, recordConsumer);
+                    // sealed segments were forced whole, only actual corruption ends them early
+                    if (end + FRAME_BYTES <= buffer.limit() && buffer.getInt(end) != 0) {
+                        logger.atSevere().log("journal segment [%s] is corrupt after offset [%s], its remaining records are lost",
+                                segmentId, end);
+                    }
+                }
+            }
+        }
+        if (active == null) {
+            long segmentId = segmentIds.isEmpty() ? 0 : segmentIds.get(segmentIds.size() - 1) + 1;
+            active = openSegment(segmentId, true);
+        }
+        logger.atInfo().log("opened journal [%s] with [%s] sealed segments", directory, sealedSegmentIds.size());
+    }
+
+    /**
+     * @return the ids of the segments to recover, oldest first, after deleting those a compacted
+     * segment replaces and a segment that was created without its header being written
+     */
+    private List<Long> liveSegmentIds() throws IOException {
+        List<Long> segmentIds;
+        try (Stream<Path> segments = Files.list(directory)) {
+            segmentIds = segments
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted(Comparator.reverseOrder())
+                    .toList();
+        }
+        List<Long> live = new ArrayList<>();
+        long coveredFrom = Long.MAX_VALUE;
+        for (long segmentId : segmentIds) {
+            if (segmentId >= coveredFrom) {
+                Files.delete(segmentPath(segmentId));
+                continue;
+            }
+            long segmentCoveredFrom = coveredFrom(segmentId);
+            if (segmentCoveredFrom < 0) {
+                if (!live.isEmpty()) {
+                    throw new IllegalStateException("journal segment [%s] has no valid header".formatted(segmentPath(segmentId)));
+                }
+                Files.delete(segmentPath(segmentId));
+                continue;
+            }
+            live.add(0, segmentId);
+            coveredFrom = segmentCoveredFrom;
+        }
+        return live;
+    }
+
+    /**
+     * @return the id of the oldest segment the segment covers, -1 if its header is not valid
+     */
+    private long coveredFrom(long segmentId) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segmentId), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+            }
+            return header.hasRemaining() || header.getInt(0) != MAGIC ? -1 : header.getLong(4);
+        }
+    }
+
+    /**
+     * Pass each valid record of the segment to the consumer
+     *
+     * @return the offset following the last valid record
+     */
+    private static int scan(ByteBuffer segment, Consumer<ByteBuffer> recordConsumer) {
+        int position = HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        while (position + FRAME_BYTES <= segment.limit()) {
+            int length = segment.getInt(position);
+            if (length <= 0 || length > segment.limit() - position - FRAME_BYTES) {
+                break;
+            }
+            ByteBuffer record = segment.slice(position + FRAME_BYTES, length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != segment.getInt(position + 4)) {
+                break;
+            }
+            recordConsumer.accept(record.asReadOnlyBuffer());
+            position += FRAME_BYTES + length;
+        }
+        return position;
+    }
+
+    /**
+     * Zero what follows the last valid record of the active segment, if anything does, so a record
+     * appended there is never followed by the remains of a torn one
+     */
+    private void truncateTail(Segment segment) {
+        if (segment.position + FRAME_BYTES > segmentBytes || segment.buffer.getInt(segment.position) == 0) {
+            return;
+        }
+        logger.atWarning().log("truncating journal segment [%s] at offset [%s], after its last valid record",
+                segment.id, segment.position);
+        for (int position = segment.position; position < segmentBytes; position++) {
+            segment.buffer.put(position, (byte) 0);
+        }
+        segment.buffer.force();
+    }
+
+    /**
+     * @throws IllegalArgumentException when the record does not fit in a segment, and so cannot be appended
+     */
+    void checkFits(byte[] record) {
+        if (HEADER_BYTES + FRAME_BYTES + record.length > segmentBytes) {
+            throw new IllegalArgumentException("a record of [%s] bytes does not fit in journal segments of [%s] bytes"
+                    .formatted(record.length, segmentBytes));
+        }
+    }
+
+    /**
+     * Append the record to the journal, in memory: {@link #sync()} to make it durable
+     */
+    void append(byte[] record) {
+        checkFits(record);
+        int frameBytes = FRAME_BYTES + record.length;
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        synchronized (this) {
+            if (active.position + frameBytes > segmentBytes) {
+                roll();
+            }
+            MappedByteBuffer buffer = active.buffer;
+            buffer.putInt(active.position + 4, (int) crc.getValue());
+            buffer.put(active.position + FRAME_BYTES, record);
+            buffer.putInt(active.position, record.length);
+            active.position += frameBytes;
+            appendedBytes += frameBytes;
+            appends++;
+        }
+    }
+
+    /**
+     * Seal the active segment and start the next one. The sealed segment is forced whole, so syncs only
+     * ever force the active one.
+     */
+    private void roll() {
+        try {
+            active.buffer.force();
+            active.channel.close();
+            sealedSegmentIds.add(active.id);
+            active = openSegment(active.id + 1, true);
+        } catch (IOException e) {
+            throw new IllegalStateException("could not roll journal segment [%s]".formatted(active.id), e);
+        }
+    }
+
+    /**
+     * Force the records appended so far to the device, together with those appended by other callers
+     * while waiting for the force in progress, if any
+     */
+    void sync() {
+        long appended;
+        synchronized (this) {
+            appended = appendedBytes;
+        }
+        synchronized (syncLock) {
+            if (syncedBytes >= appended) {
+                return;
+            }
+            Segment segment;
+            int position;
+            synchronized (this) {
+                segment = active;
+                position = segment.position;
+                appended = appendedBytes;
+            }
+            if (segment.syncedPosition < position) {
+                segment.buffer.force(segment.syncedPosition, position - segment.syncedPosition);
+                segment.syncedPosition = position;
+            }
+            syncedBytes = appended;
+            syncs++;
+        }
+    }
+
+    /**
+     * Rewrite the sealed segments into one, keeping the records the filter accepts, and delete them.
+     * Appends go on meanwhile, compactions must not overlap.
+     *
+     * @return the number of bytes reclaimed
+     */
+    long compact(Predicate<ByteBuffer> keep) throws IOException {
+        List<Long> segmentIds;
+        synchronized (this) {
+            segmentIds = List.copyOf(sealedSegmentIds);
+        }
+        if (segmentIds.isEmpty()) {
+            return 0;
+        }
+        long oldestId = segmentIds.get(0);
+        long newestId = segmentIds.get(segmentIds.size() - 1);
+        Path compacting = directory.resolve(newestId + COMPACTING_SUFFIX);
+        long bytesBefore = 0;
+        long bytesAfter;
+        try (FileChannel out = FileChannel.open(compacting, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            writeFully(out, header(oldestId));
+            CRC32 crc = new CRC32();
+            for (long segmentId : segmentIds) {
+                try (FileChannel in = FileChannel.open(segmentPath(segmentId), StandardOpenOption.READ)) {
+                    bytesBefore += in.size();
+                    scan(in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()), record -> {
+                        if (keep.test(record.duplicate())) {
+                            crc.reset();
+                            crc.update(record.duplicate());
+                            ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES)
+                                    .putInt(record.remaining())
+                                    .putInt((int) crc.getValue())
+                                    .flip();
+                            writeFully(out, frame);
+                            writeFully(out, record.duplicate());
+                        }
+                    });
+                }
+            }
+            bytesAfter = out.size();
+            out.force(true);
+        }
+        Files.move(compacting, segmentPath(newestId), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+        for (long segmentId : segmentIds.subList(0, segmentIds.size() - 1)) {
+            Files.delete(segmentPath(segmentId));
+        }
+        synchronized (this) {
+            sealedSegmentIds.removeAll(segmentIds.subList(0, segmentIds.size() - 1));
+        }
+        return bytesBefore - bytesAfter;
+    }
+
+    /**
+     * Make the rename of the compacted segment durable before deleting the segments it replaces, where
+     * the platform allows opening a directory
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.atFine().withCause(e).log("could not sync journal directory [%s]", directory);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) {
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("could not write compacted journal segment", e);
+        }
+    }
+
+    private Segment openSegment(long segmentId, boolean create) throws IOException {
+        FileChannel channel = create
+                ? FileChannel.open(segmentPath(segmentId), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(segmentPath(segmentId), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        Segment segment = new Segment(segmentId, channel, buffer);
+        if (create) {
+            buffer.put(0, header(segmentId), 0, HEADER_BYTES);
+            buffer.force(0, HEADER_BYTES);
+        }
+        return segment;
+    }
+
+    private static ByteBuffer header(long coveredFrom) {
+        return ByteBuffer.allocate(HEADER_BYTES)
+                .putInt(MAGIC)
+                .putLong(coveredFrom)
+                .putInt(0)
+                .flip();
+    }
+
+    private Path segmentPath(long segmentId) {
+        return directory.resolve("%016d%s".formatted(segmentId, SEGMENT_SUFFIX));
+    }
+
+    synchronized int getSealedSegments() {
+        return sealedSegmentIds.size();
+    }
+
+    synchronized long getAppends() {
+        return appends;
+    }
+
+    long getSyncs() {
+        synchronized (syncLock) {
+            return syncs;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            active.buffer.force();
+            active.channel.close();
+        }
+    }
+
+    private static final class Segment {
+        final long id;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        // guarded by the journal
+        int position = HEADER_BYTES;
+        // guarded by the sync lock of the journal
+        int syncedPosition = HEADER_BYTES;
+
+        Segment(long id, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.api.RunnableWorkflow;
+import aptvantage.aptflow.model.StepFunctionEventStatus;
+import aptvantage.aptflow.model.StepFunctionType;
+import aptvantage.aptflow.model.WorkflowRunStatus;
+import com.google.common.flogger.FluentLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the state of workflows in memory like {@link InMemoryStateStore}, appending every change to a
+ * {@link Journal} on local disk, so it survives a restart without a database. On startup the journal is
+ * replayed into memory; reads never touch it.
+ * <p>
+ * There is no index of the records of each run in the journal to read a run from on demand: the state
+ * and every payload of all the workflows not forgotten yet is held in memory, as much as the
+ * {@link InMemoryStateStore} holds, and a restart reads every record of the journal. A time to live
+ * bounds both.
+ * <p>
+ * Each record holds one change of one workflow, with the payload it introduces. It is encoded before the
+ * change is applied, so a change too large for a segment fails before it is applied, and appended under
+ * the lock of the workflow once applied: the journal orders the changes of a workflow as they were
+ * applied. Records
+ * are tagged with the incarnation of their workflow, so those of a forgotten workflow are not mistaken
+ * for those of a later workflow with the same id.
+ * <p>
+ * Units of work of {@link Durability#DURABLE} workflows sync the journal when flushed, syncs of
+ * concurrent executions being grouped; {@link Durability#RELAXED} and {@link Durability#EPHEMERAL} ones
+ * leave their records to the page cache, surviving a crash of the application but not of the machine.
+ * Starting runs and sending signals is always durable: a signal sent and not received before a crash
+ * is delivered again on restart.
+ * <p>
+ * Workflows whose runs are all terminal for longer than their time to live are forgotten, and their
+ * records dropped as the sealed segments of the journal are compacted every {@code compactionInterval}.
+ */
+public class JournalStateStore extends InMemoryStateStore implements AutoCloseable {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private static final byte WORKFLOW_RECORD = 1;
+    private static final byte RUN_RECORD = 2;
+    private static final byte TRANSITION_RECORD = 3;
+    private static final byte BLOCKED_RECORD = 4;
+    private static final byte SIGNAL_RECORD = 5;
+
+    private final Journal journal;
+    private final Duration defaultTtl;
+    private final Map<String, Duration> ttlByClassName;
+    private final ScheduledExecutorService compaction;
+    // workflow id -> id of the incarnation in memory, written under the lock of the workflow
+    private final Map<String, Long> incarnations = new ConcurrentHashMap<>();
+    private final UnitOfWork durableUnitOfWork = new SyncingUnitOfWork(true);
+    private final UnitOfWork relaxedUnitOfWork = new SyncingUnitOfWork(false);
+    private boolean compactionDue;
+
+    public JournalStateStore(Path directory) {
+        this(directory, DEFAULT_SEGMENT_BYTES, new JavaSerializationCodec(), null, Map.of(), Duration.ofMinutes(1));
+    }
+
+    /**
+     * @param segmentBytes       the size of the journal segments, which bounds the size of a payload
+     * @param defaultTtl         the time to live of workflows once all their runs are terminal, null to
+     *                           keep them forever
+     * @param ttlByClassName     the time to live of the workflows of the class, rather than the default
+     * @param compactionInterval how often to forget expired workflows and compact the journal
+     */
+    public JournalStateStore(Path directory, int segmentBytes, PayloadCodec codec, Duration defaultTtl,
+                             Map<String, Duration> ttlByClassName, Duration compactionInterval) {
+        super(codec);
+        this.defaultTtl = defaultTtl;
+        this.ttlByClassName = Map.copyOf(ttlByClassName);
+        try {
+            this.journal = Journal.open(directory, segmentBytes, this::replay);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not open journal [%s]".formatted(directory), e);
+        }
+        this.compaction = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aptflow-journal-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compaction.scheduleWithFixedDelay(this::compact,
+                compactionInterval.toMillis(), compactionInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Apply a record found in the journal, without journaling it again
+     */
+    private void replay(ByteBuffer record) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(record));
+            byte type = in.readByte();
+            String workflowId = in.readUTF();
+            long incarnation = in.readLong();
+            if (type == WORKFLOW_RECORD) {
+                String className = in.readUTF();
+                byte[] inputHash = readPayload(in);
+                if (hasWorkflow(workflowId)) {
+                    // the previous workflow with the id expired before the journal was compacted
+                    forgetWorkflow(workflowId);
+                }
+                super.createWorkflow(workflowId, className, inputHash);
+                incarnations.put(workflowId, incarnation);
+                return;
+            }
+            if (!isCurrent(workflowId, incarnation)) {
+                return;
+            }
+            switch (type) {
+                case RUN_RECORD -> super.createRun(workflowId, in.readBoolean(), readInstant(in));
+                case TRANSITION_RECORD -> super.apply(new Transition(
+                        in.readLong(),
+                        in.readUTF(),
+                        StepFunctionType.valueOf(in.readUTF()),
+                        StepFunctionEventStatus.valueOf(in.readUTF()),
+                        in.readUTF(),
+                        readInstant(in),
+                        readPayload(in),
+                        in.readBoolean() ? in.readLong() : null));
+                case BLOCKED_RECORD -> super.block(in.readUTF(), WorkflowRunStatus.valueOf(in.readUTF()), in.readUTF());
+                case SIGNAL_RECORD -> super.signalSent(in.readUTF(), in.readUTF(), readPayload(in));
+                default -> throw new IllegalStateException("unknown journal record type [%s]".formatted(type));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not read journal record", e);
+        }
+    }
+
+    @Override
+    void createWorkflow(String workflowId, String className, byte[] inputHash) {
+        write(workflowId, () -> {
+            long incarnation = EventIds.newId(Instant.now());
+            byte[] record = record(WORKFLOW_RECORD, workflowId, incarnation, out -> {
+                out.writeUTF(className);
+                writePayload(out, inputHash);
+            });
+            super.createWorkflow(workflowId, className, inputHash);
+            incarnations.put(workflowId, incarnation);
+            journal.append(record);
+            return null;
+        });
+    }
+
+    @Override
+    String createRun(String workflowId, boolean resumeFromPointOfFailure, Instant timestamp) {
+        return write(workflowId, () -> {
+            byte[] record = record(RUN_RECORD, workflowId, out -> {
+                out.writeBoolean(resumeFromPointOfFailure);
+                writeInstant(out, timestamp);
+            });
+            String workflowRunId = super.createRun(workflowId, resumeFromPointOfFailure, timestamp);
+            journal.append(record);
+            return workflowRunId;
+        });
+    }
+
+    @Override
+    void apply(Transition transition) {
+        String workflowId = workflowIdOf(transition.workflowRunId());
+        write(workflowId, () -> {
+            byte[] record = record(TRANSITION_RECORD, workflowId, out -> {
+                out.writeLong(transition.eventId());
+                out.writeUTF(transition.workflowRunId());
+                out.writeUTF(transition.category().name());
+                out.writeUTF(transition.status().name());
+                out.writeUTF(transition.functionId());
+                writeInstant(out, transition.timestamp());
+                writePayload(out, transition.payloadHash());
+                out.writeBoolean(transition.durationMillis() != null);
+                if (transition.durationMillis() != null) {
+                    out.writeLong(transition.durationMillis());
+                }
+            });
+            super.apply(transition);
+            journal.append(record);
+            return null;
+        });
+    }
+
+    @Override
+    boolean block(String workflowRunId, WorkflowRunStatus status, String functionId) {
+        String workflowId = workflowIdOf(workflowRunId);
+        return write(workflowId, () -> {
+            byte[] record = record(BLOCKED_RECORD, workflowId, out -> {
+                out.writeUTF(workflowRunId);
+                out.writeUTF(status.name());
+                out.writeUTF(functionId);
+            });
+            if (!super.block(workflowRunId, status, functionId)) {
+                return false;
+            }
+            journal.append(record);
+            return true;
+        });
+    }
+
+    @Override
+    boolean signalSent(String workflowRunId, String signalName, byte[] valueHash) {
+        String workflowId = workflowIdOf(workflowRunId);
+        return write(workflowId, () -> {
+            byte[] record = record(SIGNAL_RECORD, workflowId, out -> {
+                out.writeUTF(workflowRunId);
+                out.writeUTF(signalName);
+                writePayload(out, valueHash);
+            });
+            if (!super.signalSent(workflowRunId, signalName, valueHash)) {
+                return false;
+            }
+            journal.append(record);
+            return true;
+        });
+    }
+
+    @Override
+    public void signalSent(String workflowRunId, String signalName, Serializable value) {
+        super.signalSent(workflowRunId, signalName, value);
+        journal.sync();
+    }
+
+    @Override
+    public String scheduleNewRunForExistingWorkflow(String workflowId, boolean resumeFromPointOfFailure) {
+        String workflowRunId = super.scheduleNewRunForExistingWorkflow(workflowId, resumeFromPointOfFailure);
+        journal.sync();
+        return workflowRunId;
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    String scheduleRunForNewWorkflow(String workflowId, Class<? extends RunnableWorkflow<I, O>> workflowClass, I input) {
+        String workflowRunId = super.scheduleRunForNewWorkflow(workflowId, workflowClass, input);
+        journal.sync();
+        return workflowRunId;
+    }
+
+    @Override
+    public UnitOfWork beginUnitOfWork(Durability durability) {
+        return durability == Durability.DURABLE ? durableUnitOfWork : relaxedUnitOfWork;
+    }
+
+    /**
+     * Forget the expired workflows, then drop their records from the sealed segments of the journal.
+     * Without expired workflows, sealed segments are merged once there are several.
+     */
+    void compact() {
+        try {
+            List<String> forgotten = forgetExpiredWorkflows(
+                    className -> ttlByClassName.getOrDefault(className, defaultTtl), Instant.now());
+            forgotten.forEach(workflowId -> write(workflowId, () -> {
+                // unless a workflow with the same id was created since
+                if (!hasWorkflow(workflowId)) {
+                    incarnations.remove(workflowId);
+                }
+                return null;
+            }));
+            compactionDue |= !forgotten.isEmpty();
+            if (!compactionDue && journal.getSealedSegments() < 2) {
+                return;
+            }
+            long reclaimedBytes = journal.compact(record -> {
+                try {
+                    DataInputStream in = new DataInputStream(new ByteBufferInputStream(record));
+                    in.readByte();
+                    return isCurrent(in.readUTF(), in.readLong());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            compactionDue = false;
+            logger.atInfo().log("forgot [%s] expired workflows, compacting the journal reclaimed [%s] bytes",
+                    forgotten.size(), reclaimedBytes);
+        } catch (IOException | RuntimeException e) {
+            // retried at the next interval
+            logger.atSevere().withCause(e).log("journal compaction failed");
+        }
+    }
+
+    /**
+     * @return the records appended to the journal since it was opened
+     */
+    public long getAppends() {
+        return journal.getAppends();
+    }
+
+    /**
+     * @return the syncs of the journal to the device since it was opened, each covering the appends of
+     * any number of units of work
+     */
+    public long getSyncs() {
+        return journal.getSyncs();
+    }
+
+    @Override
+    public void close() {
+        compaction.shutdownNow();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.atWarning().withCause(e).log("could not close the journal");
+        }
+    }
+
+    private boolean isCurrent(String workflowId, long incarnation) {
+        Long current = incarnations.get(workflowId);
+        return current != null && current == incarnation;
+    }
+
+    private static String workflowIdOf(String workflowRunId) {
+        return workflowRunId.substring(0, workflowRunId.lastIndexOf("::"));
+    }
+
+    private byte[] record(byte type, String workflowId, RecordFields fields) {
+        return record(type, workflowId, incarnations.get(workflowId), fields);
+    }
+
+    /**
+     * Encode a record, before the change it holds is applied: a change is never applied that cannot be
+     * journaled
+     *
+     * @throws IllegalArgumentException when the record does not fit in a journal segment
+     */
+    private byte[] record(byte type, String workflowId, long incarnation, RecordFields fields) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            out.writeUTF(workflowId);
+            out.writeLong(incarnation);
+            fields.write(out);
+            out.flush();
+            byte[] record = bytes.toByteArray();
+            journal.checkFits(record);
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Payloads are written with each record that refers to them, so records stay independent of each
+     * other when the journal is compacted
+     */
+    private void writePayload(DataOutputStream out, byte[] hash) throws IOException {
+        out.writeBoolean(hash != null);
+        if (hash != null) {
+            StoredPayload payload = payload(hash);
+            out.writeShort(hash.length);
+            out.write(hash);
+            out.writeShort(payload.codec());
+            out.writeInt(payload.data().length);
+            out.write(payload.data());
+        }
+    }
+
+    private byte[] readPayload(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        byte[] hash = new byte[in.readUnsignedShort()];
+        in.readFully(hash);
+        short codec = in.readShort();
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        storePayload(hash, codec, data);
+        return hash;
+    }
+
+    private static void writeInstant(DataOutputStream out, Instant instant) throws IOException {
+        out.writeLong(instant.getEpochSecond());
+        out.writeInt(instant.getNano());
+    }
+
+    private static Instant readInstant(DataInput in) throws IOException {
+        return Instant.ofEpochSecond(in.readLong(), in.readInt());
+    }
+
+    private interface RecordFields {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+    }
+
+    /**
+     * The records of a unit of work are appended as its transitions are applied, a durable one syncs
+     * the journal when flushed
+     */
+    private class SyncingUnitOfWork implements UnitOfWork {
+
+        private final boolean durable;
+
+        SyncingUnitOfWork(boolean durable) {
+            this.durable = durable;
+        }
+
+        @Override
+        public void flush() {
+            if (durable) {
+                journal.sync();
+            }
+        }
+
+        @Override
+        public void flushWith(Runnable action) {
+            flush();
+            action.run();
+        }
+
+        @Override
+        public CompletableFuture<Void> flushAsync() {
+            flush();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.model.JsonPathPredicate;
+import aptvantage.aptflow.model.Page;
+import aptvantage.aptflow.model.Workflow;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Finds workflows by JSON path predicates over their payloads. Implemented by
+ * {@link PostgresStateReader}, which has Postgres evaluate them.
+ */
+public interface JsonPathQueries {
+
+    /**
+     * Find workflows matching the JSON path predicate, in pages ordered by workflow id
+     */
+    List<Workflow<Serializable, Serializable>> findWorkflows(JsonPathPredicate predicate, Page page);
+}
@@ -0,0 +1,119 @@
+package aptvantage.aptflow.engine.persistence;
+
+import com.google.common.flogger.FluentLogger;
+import org.jdbi.v3.core.Jdbi;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lease on the node id of the {@link EventIds} of this process, taken from the
+ * {@code event_id_node_lease} table and renewed until stopped. Should the lease be lost (the database
+ * was unreachable for longer than the lease) another node id is leased.
+ */
+public class NodeIdLease implements AutoCloseable {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    private static final Duration LEASE_DURATION = Duration.ofMinutes(5);
+    private static final Duration RENEWAL_INTERVAL = Duration.ofMinutes(1);
+    private static final int ATTEMPTS = 5;
+
+    private final Jdbi jdbi;
+    private final String owner = UUID.randomUUID().toString();
+    private final ScheduledExecutorService renewal;
+    private int nodeId;
+
+    public NodeIdLease(Jdbi jdbi) {
+        this.jdbi = jdbi;
+        this.nodeId = acquire();
+        EventIds.useNode(nodeId);
+        logger.atInfo().log("leased event id node [%s]", nodeId);
+        this.renewal = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aptflow-node-id-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.renewal.scheduleWithFixedDelay(this::renew,
+                RENEWAL_INTERVAL.toMillis(), RENEWAL_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized int getNodeId() {
+        return nodeId;
+    }
+
+    private int acquire() {
+        // two processes may pick the same free node id, the one whose insert loses picks again
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            Optional<Integer> leased = jdbi.withHandle(handle -> handle.createQuery("""
+                            INSERT INTO event_id_node_lease (node_id, owner, expires)
+                            SELECT n, :owner, now() + make_interval(secs => :leaseSeconds)
+                            FROM generate_series(0, :maxNode) n
+                            WHERE NOT EXISTS (SELECT 1
+                                              FROM event_id_node_lease l
+                                              WHERE l.node_id = n
+                                                AND l.expires > now())
+                            ORDER BY n
+                            LIMIT 1
+                            ON CONFLICT (node_id) DO UPDATE
+                                SET owner   = EXCLUDED.owner,
+                                    expires = EXCLUDED.expires
+                            WHERE event_id_node_lease.expires <= now()
+                            RETURNING node_id
+                            """)
+                    .bind("owner", owner)
+                    .bind("leaseSeconds", LEASE_DURATION.toSeconds())
+                    .bind("maxNode", EventIds.MAX_NODE)
+                    .mapTo(Integer.class)
+                    .findOne());
+            if (leased.isPresent()) {
+                return leased.get();
+            }
+        }
+        throw new IllegalStateException("could not lease an event id node, are all %s leased?"
+                .formatted(EventIds.MAX_NODE + 1));
+    }
+
+    private synchronized void renew() {
+        try {
+            int renewed = jdbi.withHandle(handle -> handle.createUpdate("""
+                            UPDATE event_id_node_lease
+                            SET expires = now() + make_interval(secs => :leaseSeconds)
+                            WHERE node_id = :nodeId
+                              AND owner = :owner
+                            """)
+                    .bind("leaseSeconds", LEASE_DURATION.toSeconds())
+                    .bind("nodeId", nodeId)
+                    .bind("owner", owner)
+                    .execute());
+            if (renewed == 0) {
+                int lostNodeId = nodeId;
+                nodeId = acquire();
+                EventIds.useNode(nodeId);
+                logger.atSevere().log("lost the lease on event id node [%s], leased node [%s] instead",
+                        lostNodeId, nodeId);
+            }
+        } catch (Exception e) {
+            logger.atWarning().withCause(e).log("failed to renew the lease on event id node [%s]", nodeId);
+        }
+    }
+
+    /**
+     * Stop renewing and release the node id
+     */
+    @Override
+    public synchronized void close() {
+        renewal.shutdownNow();
+        jdbi.useHandle(handle -> handle.createUpdate("""
+                        DELETE FROM event_id_node_lease
+                        WHERE node_id = :nodeId
+                          AND owner = :owner
+                        """)
+                .bind("nodeId", nodeId)
+                .bind("owner", owner)
+                .execute());
+    }
+}
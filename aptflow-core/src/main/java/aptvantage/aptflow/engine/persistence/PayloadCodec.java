@@ -0,0 +1,20 @@
+package aptvantage.aptflow.engine.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Encodes the inputs, outputs and signal values that are stored. The id of the codec that encoded a
+ * payload is stored with it, so payloads written with another codec remain readable; ids must be
+ * stable and unique. Ids 1 to 3 are taken by {@link JavaSerializationCodec} and {@link JacksonPayloadCodec}.
+ */
+public interface PayloadCodec {
+
+    short id();
+
+    void encode(Object value, OutputStream out) throws IOException;
+
+    Serializable decode(InputStream in) throws IOException;
+}
@@ -0,0 +1,91 @@
+package aptvantage.aptflow.engine.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes payloads with the configured codec and decodes them with the codec they were written with
+ */
+class PayloadCodecs {
+
+    // buffers grown beyond this are not kept, so one large payload does not pin memory on every thread
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ReusableBuffer> buffers = ThreadLocal.withInitial(ReusableBuffer::new);
+
+    private final PayloadCodec codec;
+    private final Map<Short, PayloadCodec> codecsById = new HashMap<>();
+
+    PayloadCodecs(PayloadCodec codec) {
+        this.codec = codec;
+        List.of(new JavaSerializationCodec(), JacksonPayloadCodec.json(), JacksonPayloadCodec.smile())
+                .forEach(known -> codecsById.put(known.id(), known));
+        // the configured codec wins over a built-in one with the same id
+        codecsById.put(codec.id(), codec);
+    }
+
+    short writeCodecId() {
+        return codec.id();
+    }
+
+    /**
+     * @return whether payloads are written as JSON, which the database stores as jsonb for searching
+     */
+    boolean writesJson() {
+        return codec.id() == JacksonPayloadCodec.JSON_ID;
+    }
+
+    byte[] encode(Object value) {
+        ReusableBuffer buffer = buffers.get();
+        buffer.reset();
+        try {
+            codec.encode(value, buffer);
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to encode payload of type [%s]".formatted(
+                    value == null ? null : value.getClass().getName()), e);
+        } finally {
+            if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+                buffers.remove();
+            }
+        }
+    }
+
+    Serializable decode(short codecId, byte[] data) {
+        return decode(codecId, new ByteArrayInputStream(data));
+    }
+
+    Serializable decode(short codecId, InputStream data) {
+        try (data) {
+            return codecOf(codecId).decode(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to decode payload with codec [%s]".formatted(codecId), e);
+        }
+    }
+
+    private PayloadCodec codecOf(short codecId) {
+        PayloadCodec codecOfPayload = codecsById.get(codecId);
+        if (codecOfPayload == null) {
+            throw new IllegalStateException("payload encoded with unknown codec [%s]".formatted(codecId));
+        }
+        return codecOfPayload;
+    }
+
+    private static class ReusableBuffer extends ByteArrayOutputStream {
+
+        ReusableBuffer() {
+            super(4096);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package aptvantage.aptflow.engine.persistence;
+
+import org.jdbi.v3.core.mapper.ColumnMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps a payload hash column to the payload it refers to
+ */
+class PayloadColumnMapper implements ColumnMapper<Serializable> {
+
+    private final PayloadStore payloadStore;
+    private final SerializableColumnMapper serializableColumnMapper;
+
+    PayloadColumnMapper(PayloadStore payloadStore, SerializableColumnMapper serializableColumnMapper) {
+        this.payloadStore = payloadStore;
+        this.serializableColumnMapper = serializableColumnMapper;
+    }
+
+    @Override
+    public Serializable map(ResultSet rs, int columnNumber, StatementContext ctx) throws SQLException {
+        byte[] hash = rs.getBytes(columnNumber);
+        if (hash == null) {
+            return null;
+        }
+        return serializableColumnMapper.deserialize(payloadStore.load(hash));
+    }
+}
@@ -0,0 +1,144 @@
+package aptvantage.aptflow.engine.persistence;
+
+import com.google.common.flogger.FluentLogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compresses encoded payloads of at least {@code thresholdBytes} with the codec, when that makes them
+ * smaller. A compressed payload starts with the id of its codec as header byte. Compression codec ids
+ * are control characters (1 to 31), which no payload encoding starts with (Java serialization starts
+ * with 0xAC, JSON with '[' or a value, Smile with ':'), so uncompressed payloads are stored as encoded
+ * and rows written before compression was enabled are read as they are.
+ * <p>
+ * Without a codec payloads are only decompressed, never compressed.
+ */
+public class PayloadCompression {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    private static final byte MIN_CODEC_ID = 1;
+    private static final byte MAX_CODEC_ID = 31;
+
+    private final CompressionCodec codec;
+    private final int thresholdBytes;
+    private final Map<Byte, CompressionCodec> codecsById = new HashMap<>();
+
+    private final AtomicLong compressedPayloads = new AtomicLong();
+    private final AtomicLong bytesBeforeCompression = new AtomicLong();
+    private final AtomicLong bytesAfterCompression = new AtomicLong();
+    private final AtomicLong compressionNanos = new AtomicLong();
+    private final AtomicLong decompressionNanos = new AtomicLong();
+
+    public PayloadCompression() {
+        this(null, Integer.MAX_VALUE);
+    }
+
+    public PayloadCompression(CompressionCodec codec, int thresholdBytes) {
+        this.codec = codec;
+        this.thresholdBytes = thresholdBytes;
+        Arrays.stream(JdkCompressionCodec.values()).forEach(this::register);
+        if (codec != null) {
+            register(codec);
+        }
+    }
+
+    private void register(CompressionCodec codec) {
+        if (codec.id() < MIN_CODEC_ID || codec.id() > MAX_CODEC_ID) {
+            throw new IllegalArgumentException("compression codec id [%s] is not between %s and %s".formatted(codec.id(), MIN_CODEC_ID, MAX_CODEC_ID));
+        }
+        codecsById.put(codec.id(), codec);
+    }
+
+    byte[] compress(byte[] serialized) {
+        if (codec == null || serialized.length < thresholdBytes) {
+            return serialized;
+        }
+        long start = System.nanoTime();
+        byte[] compressed = codec.compress(serialized);
+        compressionNanos.addAndGet(System.nanoTime() - start);
+        if (compressed.length + 1 >= serialized.length) {
+            return serialized;
+        }
+        byte[] payload = new byte[compressed.length + 1];
+        payload[0] = codec.id();
+        System.arraycopy(compressed, 0, payload, 1, compressed.length);
+        compressedPayloads.incrementAndGet();
+        bytesBeforeCompression.addAndGet(serialized.length);
+        bytesAfterCompression.addAndGet(payload.length);
+        logger.atFine().log("compressed payload of [%s] bytes to [%s] bytes", serialized.length, payload.length);
+        return payload;
+    }
+
+    byte[] decompress(byte[] payload) {
+        if (payload.length == 0 || !isCompressed(payload[0])) {
+            return payload;
+        }
+        long start = System.nanoTime();
+        try (InputStream decompressed = codecOf(payload[0]).decompress(new ByteArrayInputStream(payload, 1, payload.length - 1))) {
+            return decompressed.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            decompressionNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    InputStream decompress(InputStream payload) {
+        PushbackInputStream in = new PushbackInputStream(payload, 1);
+        try {
+            int header = in.read();
+            if (header == -1) {
+                return in;
+            }
+            if (!isCompressed((byte) header)) {
+                in.unread(header);
+                return in;
+            }
+            return codecOf((byte) header).decompress(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isCompressed(byte header) {
+        return header >= MIN_CODEC_ID && header <= MAX_CODEC_ID;
+    }
+
+    private CompressionCodec codecOf(byte id) {
+        CompressionCodec codecOfPayload = codecsById.get(id);
+        if (codecOfPayload == null) {
+            throw new IllegalStateException("payload compressed with unknown codec [%s]".formatted(id));
+        }
+        return codecOfPayload;
+    }
+
+    public long getCompressedPayloads() {
+        return compressedPayloads.get();
+    }
+
+    /**
+     * @return the size of the compressed payloads relative to their uncompressed size
+     */
+    public double getCompressionRatio() {
+        long before = bytesBeforeCompression.get();
+        return before == 0 ? 1.0 : (double) bytesAfterCompression.get() / before;
+    }
+
+    public long getCompressionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(compressionNanos.get());
+    }
+
+    public long getDecompressionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(decompressionNanos.get());
+    }
+}
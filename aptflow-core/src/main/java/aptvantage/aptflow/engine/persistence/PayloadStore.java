@@ -0,0 +1,242 @@
+package aptvantage.aptflow.engine.persistence;
+
+import org.jdbi.v3.core.Jdbi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Serialized inputs, outputs and signal values are stored once in the payload table, keyed by their
+ * SHA-256 hash, and referred to by that hash. Writers insert them if absent (see the transition
+ * procedures); readers resolve hashes here, through a small LRU cache of the most recently read payloads.
+ * <p>
+ * When a {@link BlobStore} is configured, payloads larger than the offload threshold are written to it
+ * instead, keyed by their hex hash, and their payload row holds no data. They are put only once the
+ * transaction writing their payload row is about to begin (see {@link PendingPayload}), so a blob is never
+ * older than the transaction that refers to it.
+ */
+public class PayloadStore {
+
+    private static final int CACHE_SIZE = 1024;
+    // large payloads would push the hot ones out of the cache
+    private static final int MAX_CACHED_PAYLOAD_SIZE = 64 * 1024;
+    private static final int BLOB_SWEEP_BATCH_SIZE = 1000;
+
+    private final Jdbi jdbi;
+    private final BlobStore blobStore;
+    private final int offloadThreshold;
+    private final Map<HashKey, StoredPayload> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<HashKey, StoredPayload> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    public PayloadStore(Jdbi jdbi) {
+        this(jdbi, null, Integer.MAX_VALUE);
+    }
+
+    public PayloadStore(Jdbi jdbi, BlobStore blobStore, int offloadThreshold) {
+        this.jdbi = jdbi;
+        this.blobStore = blobStore;
+        this.offloadThreshold = offloadThreshold;
+    }
+
+    static byte[] hash(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Offload the payload to the blob store when it is over the threshold
+     *
+     * @return the data to store in the payload row, null when it was offloaded
+     */
+    byte[] offload(byte[] hash, byte[] data) {
+        if (blobStore == null || data.length <= offloadThreshold) {
+            return data;
+        }
+        blobStore.put(new HashKey(hash).toString(), data);
+        return null;
+    }
+
+    /**
+     * @return the arguments with the data of every {@link PendingPayload} among them offloaded
+     */
+    static Map<String, Object> offloadPending(Map<String, Object> arguments) {
+        if (arguments.values().stream().noneMatch(PendingPayload.class::isInstance)) {
+            return arguments;
+        }
+        // a HashMap, as offloaded data is null
+        Map<String, Object> offloaded = new HashMap<>(arguments);
+        offloaded.replaceAll((name, value) -> value instanceof PendingPayload payload ? payload.offload() : value);
+        return offloaded;
+    }
+
+    StoredPayload load(byte[] hash) {
+        HashKey key = new HashKey(hash);
+        synchronized (cache) {
+            StoredPayload cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        StoredPayload stored = loadRow(key);
+        if (stored.data() == null) {
+            try (InputStream blob = blobStore.open(key.toString())) {
+                return new StoredPayload(stored.codec(), blob.readAllBytes());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (stored.data().length <= MAX_CACHED_PAYLOAD_SIZE) {
+            synchronized (cache) {
+                cache.put(key, stored);
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * @return a stream over the stored payload, read from the blob store without materializing it when
+     * the payload was offloaded
+     */
+    InputStream open(byte[] hash) {
+        HashKey key = new HashKey(hash);
+        synchronized (cache) {
+            StoredPayload cached = cache.get(key);
+            if (cached != null) {
+                return new ByteArrayInputStream(cached.data());
+            }
+        }
+        StoredPayload stored = loadRow(key);
+        if (stored.data() == null) {
+            return blobStore.open(key.toString());
+        }
+        return new ByteArrayInputStream(stored.data());
+    }
+
+    /**
+     * Delete the blobs last put before the instant that no payload row, archived or not, of any of the
+     * payload stores refers to: those of payloads deleted by the {@link WorkflowArchiver}, and those
+     * whose writer never committed its payload row. Sharded, the shards share the blob store, so the
+     * payload stores of all of them are given.
+     *
+     * @return the number of blobs deleted
+     */
+    public static int deleteUnreferencedBlobs(List<PayloadStore> payloadStores, Instant storedBefore) {
+        BlobStore blobStore = payloadStores.get(0).blobStore;
+        if (blobStore == null) {
+            return 0;
+        }
+        int deleted = 0;
+        try (Stream<String> keys = blobStore.keysStoredBefore(storedBefore)) {
+            Iterator<String> iterator = keys.iterator();
+            while (iterator.hasNext()) {
+                List<String> unreferenced = new ArrayList<>(BLOB_SWEEP_BATCH_SIZE);
+                while (iterator.hasNext() && unreferenced.size() < BLOB_SWEEP_BATCH_SIZE) {
+                    unreferenced.add(iterator.next());
+                }
+                for (PayloadStore payloadStore : payloadStores) {
+                    unreferenced = payloadStore.unreferencedBlobKeys(unreferenced);
+                }
+                unreferenced.forEach(blobStore::delete);
+                deleted += unreferenced.size();
+            }
+        }
+        return deleted;
+    }
+
+    private List<String> unreferencedBlobKeys(List<String> keys) {
+        if (keys.isEmpty()) {
+            return keys;
+        }
+        return RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery("""
+                                SELECT k
+                                FROM unnest(CAST(:keys AS text[])) k
+                                WHERE NOT EXISTS (SELECT 1 FROM payload p WHERE p.hash = decode(k, 'hex'))
+                                  AND NOT EXISTS (SELECT 1 FROM payload_archive pa WHERE pa.hash = decode(k, 'hex'))
+                                """)
+                        .bindArray("keys", String.class, keys)
+                        .mapTo(String.class)
+                        .list());
+    }
+
+    private StoredPayload loadRow(HashKey key) {
+        // JSON payloads are stored as jsonb rather than data, which is null for payloads offloaded to the blob store
+        StoredPayload stored = RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery("""
+                                SELECT
+                                    codec,
+                                    CASE WHEN json IS NULL THEN data ELSE convert_to(json::text, 'UTF8') END AS data
+                                FROM payload
+                                WHERE hash = :hash
+                                """)
+                        .bind("hash", key.hash())
+                        .map((rs, ctx) -> new StoredPayload(rs.getShort("codec"), rs.getBytes("data")))
+                        .findOne()
+                        .orElseThrow(() -> new IllegalStateException("no payload stored for hash [%s]".formatted(key))));
+        if (stored.data() == null && blobStore == null) {
+            throw new IllegalStateException("payload [%s] was offloaded but no blob store is configured".formatted(key));
+        }
+        return stored;
+    }
+
+    /**
+     * The data of a payload row not written yet, {@link #offload(byte[], byte[]) offloaded} just before it
+     * is rather than when the write is buffered, so the blob is not older than the transaction writing
+     * the row
+     */
+    record PendingPayload(PayloadStore payloadStore, byte[] hash, byte[] data) {
+
+        /**
+         * @return the data to store in the payload row, null when it was offloaded
+         */
+        byte[] offload() {
+            return payloadStore.offload(hash, data);
+        }
+    }
+
+    /**
+     * @param codec id of the {@link PayloadCodec} the payload was encoded with
+     */
+    record StoredPayload(short codec, byte[] data) {
+    }
+
+    private record HashKey(byte[] hash) {
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof HashKey key && MessageDigest.isEqual(hash, key.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            // the hash is uniformly distributed already
+            return (hash[0] & 0xff) << 24 | (hash[1] & 0xff) << 16 | (hash[2] & 0xff) << 8 | (hash[3] & 0xff);
+        }
+
+        @Override
+        public String toString() {
+            return HexFormat.of().formatHex(hash);
+        }
+    }
+}
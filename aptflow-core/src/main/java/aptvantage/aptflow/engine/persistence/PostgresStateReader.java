@@ -0,0 +1,689 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.api.RunnableWorkflow;
+import aptvantage.aptflow.model.*;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.Query;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.io.InputStream;
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PostgresStateReader implements StateReader, JsonPathQueries {
+
+    /*
+     * A run resumed from the point of failure inherits the history of its parent run instead of a copy
+     * of it: its steps are its own plus the steps its ancestors completed without failing, the nearest
+     * run winning. The lineage CTE walks the parent chain of :workflowRunId.
+     *
+     * The event table is partitioned by id, which is time-ordered: events of the lineage are no older
+     * than its oldest run, so bounding the id by it prunes the older partitions (the day of slack covers
+     * the session time zone of the created column and clock skew between nodes).
+     */
+    private static final String LINEAGE = """
+            WITH RECURSIVE lineage AS (
+                SELECT id, parent_run_id, created, 0 AS depth
+                FROM workflow_run
+                WHERE id = :workflowRunId
+                UNION ALL
+                SELECT parent.id, parent.parent_run_id, parent.created, lineage.depth + 1
+                FROM workflow_run parent
+                    JOIN lineage ON parent.id = lineage.parent_run_id
+            )
+            """;
+
+    private static final String LINEAGE_EVENT_ID_LOWER_BOUND = """
+            (SELECT aptflow_event_id_at(min(created) - interval '1 day') FROM lineage)
+            """;
+
+    private static final String VISIBLE_STEP_FUNCTION = LINEAGE + """
+            , visible_step_function AS (
+                SELECT DISTINCT ON (sf.function_id)
+                    sf.*,
+                    lineage.depth
+                FROM
+                    step_function sf
+                    JOIN lineage ON lineage.id = sf.workflow_run_id
+                    LEFT JOIN event completed ON completed.id = sf.completed_event_id
+                        AND completed.id >=\s""" + LINEAGE_EVENT_ID_LOWER_BOUND + """
+                WHERE
+                    lineage.depth = 0
+                    OR completed.status <> :failedStatus
+                ORDER BY sf.function_id, lineage.depth
+            )
+            """;
+
+    private static final short FAILED_STATUS = StepFunctionEventStatusMapper.toCode(StepFunctionEventStatus.FAILED);
+
+    private final StepFunctionTypeMapper stepFunctionTypeMapper = new StepFunctionTypeMapper();
+    private final StepFunctionEventStatusMapper stepFunctionEventStatusMapper = new StepFunctionEventStatusMapper();
+    private final InstantColumnMapper instantColumnMapper = new InstantColumnMapper();
+    private final EventIdColumnMapper eventIdColumnMapper = new EventIdColumnMapper();
+    private final WorkflowRunStatusMapper workflowRunStatusMapper = new WorkflowRunStatusMapper();
+
+    private final SerializableColumnMapper serializableColumnMapper;
+    private final PayloadColumnMapper payloadColumnMapper;
+
+    private final Jdbi jdbi;
+
+    private final PayloadStore payloadStore;
+    private final PayloadCompression compression;
+
+    public PostgresStateReader(Jdbi jdbi, PayloadStore payloadStore, PayloadCompression compression, PayloadCodec codec) {
+        this.jdbi = jdbi;
+        this.payloadStore = payloadStore;
+        this.compression = compression;
+        this.serializableColumnMapper = new SerializableColumnMapper(compression, new PayloadCodecs(codec));
+        this.payloadColumnMapper = new PayloadColumnMapper(payloadStore, serializableColumnMapper);
+    }
+
+    /**
+     * @return the payload stored under the hash, or null for a null hash
+     */
+    @Override
+    public <T extends Serializable> T getPayload(byte[] hash) {
+        if (hash == null) {
+            return null;
+        }
+        return (T) serializableColumnMapper.deserialize(payloadStore.load(hash));
+    }
+
+    /**
+     * @return a stream over the payload stored under the hash, as encoded by its codec, or null for a null hash
+     */
+    @Override
+    public InputStream openPayload(byte[] hash) {
+        if (hash == null) {
+            return null;
+        }
+        return compression.decompress(payloadStore.open(hash));
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    StepFunctionEvent<I, O> getStepFunctionEvent(Long id) {
+        if (id == null) {
+            return null;
+        }
+        return RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery("""
+                                SELECT
+                                    id,
+                                    workflow_run_id,
+                                    seq,
+                                    category,
+                                    status,
+                                    timestamp,
+                                    function_id
+                                FROM event
+                                WHERE id = :id
+                                """)
+                        .bind("id", id)
+                        .map((rs, ctx) ->
+                                new StepFunctionEvent<I, O>(
+                                        rs.getLong("id"),
+                                        rs.getString("workflow_run_id"),
+                                        rs.getInt("seq"),
+                                        stepFunctionTypeMapper.map(rs, "category", ctx),
+                                        stepFunctionEventStatusMapper.map(rs, "status", ctx),
+                                        instantColumnMapper.map(rs, "timestamp", ctx),
+                                        rs.getString("function_id"),
+                                        this
+                                )
+                        )
+                        .findOne()
+                        .orElse(null)
+        );
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    List<StepFunctionEvent<I, O>> getStepFunctionEventsForWorkflowRun(String workflowRunId) {
+        return RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery(VISIBLE_STEP_FUNCTION + """
+                                SELECT
+                                    e.id,
+                                    e.workflow_run_id,
+                                    e.seq,
+                                    e.category,
+                                    e.status,
+                                    e.timestamp,
+                                    e.function_id
+                                FROM
+                                    event e
+                                    JOIN lineage ON lineage.id = e.workflow_run_id
+                                WHERE
+                                    e.id >=\s""" + LINEAGE_EVENT_ID_LOWER_BOUND + """
+                                    AND (lineage.depth = 0
+                                    OR EXISTS (
+                                        SELECT 1
+                                        FROM visible_step_function vsf
+                                        WHERE vsf.workflow_run_id = e.workflow_run_id
+                                            AND vsf.function_id = e.function_id
+                                    ))
+                                ORDER BY lineage.depth DESC, e.seq
+                                """)
+                        .bind("workflowRunId", workflowRunId)
+                        .bind("failedStatus", FAILED_STATUS)
+                        .map((rs, ctx) ->
+                                new StepFunctionEvent<I, O>(
+                                        rs.getLong("id"),
+                                        rs.getString("workflow_run_id"),
+                                        rs.getInt("seq"),
+                                        stepFunctionTypeMapper.map(rs, "category", ctx),
+                                        stepFunctionEventStatusMapper.map(rs, "status", ctx),
+                                        instantColumnMapper.map(rs, "timestamp", ctx),
+                                        rs.getString("function_id"),
+                                        this
+                                )
+                        )
+                        .collectIntoList()
+        );
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable, A extends Serializable>
+    ActivityFunction<I, O, A> getActivityFunction(String workflowRunId, String name) {
+        return (ActivityFunction<I, O, A>) getStepFunction(workflowRunId, name, StepFunctionType.ACTIVITY);
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    SleepFunction<I, O> getSleepFunction(String workflowRunId, String identifier) {
+        return (SleepFunction<I, O>) getStepFunction(workflowRunId, identifier, StepFunctionType.SLEEP);
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    ConditionFunction<I, O> getConditionFunction(String workflowRunId, String identifier) {
+        return (ConditionFunction<I, O>) getStepFunction(workflowRunId, identifier, StepFunctionType.CONDITION);
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable, S extends Serializable>
+    SignalFunction<I, O, S> getSignalFunction(String workflowRunId, String name) {
+        return (SignalFunction<I, O, S>) getStepFunction(workflowRunId, name, StepFunctionType.SIGNAL);
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    List<StepFunction<I, O>> getFunctionsForWorkflowRun(String workflowRunId) {
+        return RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery(VISIBLE_STEP_FUNCTION + """
+                                SELECT
+                                    vsf.workflow_run_id,
+                                    vsf.function_id,
+                                    vsf.function_type,
+                                    vsf.started_event_id,
+                                    vsf.completed_event_id,
+                                    vsf.payload_hash,
+                                    vsf.duration_in_millis
+                                FROM
+                                    visible_step_function vsf
+                                    JOIN event started on started.id = vsf.started_event_id
+                                        AND started.id >=\s""" + LINEAGE_EVENT_ID_LOWER_BOUND + """
+                                ORDER BY vsf.depth DESC, started.seq
+                                """)
+                        .bind("workflowRunId", workflowRunId)
+                        .bind("failedStatus", FAILED_STATUS)
+                        .map((rs, ctx) -> this.<I, O>mapStepFunction(rs, ctx))
+                        .collectIntoList()
+        );
+    }
+
+    @Override
+    public <O extends Serializable, I extends Serializable>
+    StepFunction<I, O> getStepFunctionForWorkflowRun(String workflowRunId, String functionId) {
+        return getStepFunction(workflowRunId, functionId, null);
+    }
+
+    private <I extends Serializable, O extends Serializable>
+    StepFunction<I, O> getStepFunction(String workflowRunId, String functionId, StepFunctionType functionType) {
+        return RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery(LINEAGE + """
+                                SELECT
+                                    sf.workflow_run_id,
+                                    sf.function_id,
+                                    sf.function_type,
+                                    sf.started_event_id,
+                                    sf.completed_event_id,
+                                    sf.payload_hash,
+                                    sf.duration_in_millis
+                                FROM
+                                    step_function sf
+                                    JOIN lineage ON lineage.id = sf.workflow_run_id
+                                    LEFT JOIN event completed ON completed.id = sf.completed_event_id
+                                        AND completed.id >=\s""" + LINEAGE_EVENT_ID_LOWER_BOUND + """
+                                WHERE
+                                    sf.function_id = :functionId
+                                    AND (lineage.depth = 0 OR completed.status <> :failedStatus)
+                                ORDER BY lineage.depth
+                                LIMIT 1
+                                """)
+                        .bind("workflowRunId", workflowRunId)
+                        .bind("functionId", functionId)
+                        .bind("failedStatus", FAILED_STATUS)
+                        .map((rs, ctx) -> this.<I, O>mapStepFunction(rs, ctx))
+                        .findOne()
+                        .filter(stepFunction -> functionType == null || stepFunction.getStepFunctionType() == functionType)
+                        .orElse(null)
+        );
+    }
+
+    private <I extends Serializable, O extends Serializable>
+    StepFunction<I, O> mapStepFunction(ResultSet rs, StatementContext ctx) throws SQLException {
+        StepFunctionType functionType = stepFunctionTypeMapper.map(rs, "function_type", ctx);
+        return switch (functionType) {
+            case WORKFLOW -> throw new IllegalStateException("WORKFLOW is not a StepFunction");
+            case ACTIVITY -> new ActivityFunction<>(
+                    rs.getString("workflow_run_id"),
+                    rs.getString("function_id"),
+                    eventIdColumnMapper.map(rs, "started_event_id", ctx),
+                    eventIdColumnMapper.map(rs, "completed_event_id", ctx),
+                    rs.getBytes("payload_hash"),
+                    this
+            );
+            case CONDITION -> new ConditionFunction<>(
+                    rs.getString("workflow_run_id"),
+                    rs.getString("function_id"),
+                    eventIdColumnMapper.map(rs, "started_event_id", ctx),
+                    eventIdColumnMapper.map(rs, "completed_event_id", ctx),
+                    this
+            );
+            case SIGNAL -> new SignalFunction<>(
+                    rs.getString("workflow_run_id"),
+                    rs.getString("function_id"),
+                    eventIdColumnMapper.map(rs, "started_event_id", ctx),
+                    eventIdColumnMapper.map(rs, "completed_event_id", ctx),
+                    payloadColumnMapper.map(rs, "payload_hash", ctx),
+                    this
+            );
+            case SLEEP -> new SleepFunction<>(
+                    rs.getString("workflow_run_id"),
+                    rs.getString("function_id"),
+                    eventIdColumnMapper.map(rs, "started_event_id", ctx),
+                    eventIdColumnMapper.map(rs, "completed_event_id", ctx),
+                    rs.getLong("duration_in_millis"),
+                    this
+            );
+        };
+    }
+
+    /**
+     * @return ids of runs that were scheduled but have neither started nor a start task in the scheduler
+     */
+    public List<String> getScheduledRunIdsWithoutTask(String startTaskName) {
+        return RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery("""
+                                SELECT wr.id
+                                FROM workflow_run wr
+                                WHERE wr.archived IS NULL
+                                    AND wr.scheduled_event_id IS NOT NULL
+                                    AND wr.started_event_id IS NULL
+                                    AND NOT EXISTS (
+                                        SELECT 1
+                                        FROM scheduled_tasks st
+                                        WHERE st.task_name = :taskName
+                                            AND st.task_instance = 'workflow::' || wr.id
+                                    )
+                                """)
+                        .bind("taskName", startTaskName)
+                        .mapTo(String.class)
+                        .collectIntoList()
+        );
+    }
+
+    /**
+     * @return unfinished sleeps of active runs that have no wake-up task in the scheduler
+     */
+    public <I extends Serializable, O extends Serializable>
+    List<SleepFunction<I, O>> getSleepsWithoutWakeUpTask(String wakeUpTaskName) {
+        return RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery("""
+                                SELECT
+                                    sf.workflow_run_id,
+                                    sf.function_id,
+                                    sf.function_type,
+                                    sf.started_event_id,
+                                    sf.completed_event_id,
+                                    sf.payload_hash,
+                                    sf.duration_in_millis
+                                FROM
+                                    step_function sf
+                                    JOIN workflow_run wr on wr.id = sf.workflow_run_id
+                                WHERE
+                                    sf.function_type = :functionType
+                                    AND sf.completed_event_id IS NULL
+                                    AND wr.archived IS NULL
+                                    AND wr.completed_event_id IS NULL
+                                    AND NOT EXISTS (
+                                        SELECT 1
+                                        FROM scheduled_tasks st
+                                        WHERE st.task_name = :taskName
+                                            AND st.task_instance = 'sleep::' || sf.workflow_run_id || '::' || sf.function_id
+                                    )
+                                """)
+                        .bind("functionType", StepFunctionTypeMapper.toCode(StepFunctionType.SLEEP))
+                        .bind("taskName", wakeUpTaskName)
+                        .map((rs, ctx) -> (SleepFunction<I, O>) this.<I, O>mapStepFunction(rs, ctx))
+                        .collectIntoList()
+        );
+    }
+
+    /**
+     * @return unsatisfied conditions of active runs that have no re-evaluation task in the scheduler
+     */
+    public <I extends Serializable, O extends Serializable>
+    List<ConditionFunction<I, O>> getConditionsWithoutReevaluationTask(String reevaluationTaskName) {
+        return RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery("""
+                                SELECT
+                                    sf.workflow_run_id,
+                                    sf.function_id,
+                                    sf.function_type,
+                                    sf.started_event_id,
+                                    sf.completed_event_id,
+                                    sf.payload_hash,
+                                    sf.duration_in_millis
+                                FROM
+                                    step_function sf
+                                    JOIN workflow_run wr on wr.id = sf.workflow_run_id
+                                WHERE
+                                    sf.function_type = :functionType
+                                    AND sf.completed_event_id IS NULL
+                                    AND wr.archived IS NULL
+                                    AND wr.completed_event_id IS NULL
+                                    AND NOT EXISTS (
+                                        SELECT 1
+                                        FROM scheduled_tasks st
+                                        WHERE st.task_name = :taskName
+                                            AND (st.task_instance LIKE sf.workflow_run_id || '::' || sf.function_id || '::%'
+                                                OR st.task_instance = 'condition::' || sf.workflow_run_id || '::' || sf.function_id)
+                                    )
+                                """)
+                        .bind("functionType", StepFunctionTypeMapper.toCode(StepFunctionType.CONDITION))
+                        .bind("taskName", reevaluationTaskName)
+                        .map((rs, ctx) -> (ConditionFunction<I, O>) this.<I, O>mapStepFunction(rs, ctx))
+                        .collectIntoList()
+        );
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    Workflow<I, O> getWorkflow(String id, Class<? extends RunnableWorkflow<I, O>> workflowClass) {
+        return RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery("""
+                                SELECT id, class_name, input_hash
+                                FROM workflow
+                                WHERE id = :id
+                                """)
+                        .bind("id", id)
+                        .map((rs, ctx) ->
+                                new Workflow<I, O>(
+                                        rs.getString("id"),
+                                        rs.getString("class_name"),
+                                        (I) payloadColumnMapper.map(rs, "input_hash", ctx),
+                                        this
+                                ))
+                        .one()
+        );
+    }
+
+    /**
+     * Find workflows with the JSON path predicate pushed down to Postgres, where it is served by the GIN
+     * index over JSON payloads
+     */
+    @Override
+    public List<Workflow<Serializable, Serializable>> findWorkflows(JsonPathPredicate predicate, Page page) {
+        String matchingWorkflowIds = switch (predicate.target()) {
+            case INPUT -> """
+                    SELECT w.id
+                    FROM workflow w
+                        JOIN payload p ON p.hash = w.input_hash
+                    WHERE p.json @@ CAST(:jsonPath AS jsonpath)
+                    """;
+            case OUTPUT -> """
+                    SELECT wr.workflow_id
+                    FROM workflow_run wr
+                        JOIN payload p ON p.hash = wr.output_hash
+                    WHERE wr.archived IS NULL
+                        AND p.json @@ CAST(:jsonPath AS jsonpath)
+                    """;
+            case ACTIVITY_OUTPUT -> """
+                    SELECT wr.workflow_id
+                    FROM step_function sf
+                        JOIN payload p ON p.hash = sf.payload_hash
+                        JOIN workflow_run wr ON wr.id = sf.workflow_run_id
+                    WHERE sf.function_id = :activityName
+                        AND sf.function_type = :activityType
+                        AND wr.archived IS NULL
+                        AND p.json @@ CAST(:jsonPath AS jsonpath)
+                    """;
+        };
+        return RunHandle.withHandle(jdbi, handle -> {
+            Query query = handle.createQuery("""
+                            SELECT id, class_name, input_hash
+                            FROM workflow
+                            WHERE id IN (%s)
+                                AND (CAST(:after AS VARCHAR) IS NULL OR id COLLATE "C" > :after)
+                            -- byte order, which is how the pages of shards are merged whatever the database collation
+                            ORDER BY id COLLATE "C"
+                            LIMIT :size
+                            """.formatted(matchingWorkflowIds))
+                    .bind("jsonPath", predicate.jsonPath())
+                    .bind("after", page.after())
+                    .bind("size", page.size());
+            if (predicate.target() == JsonPathPredicate.Target.ACTIVITY_OUTPUT) {
+                query.bind("activityName", predicate.activityName())
+                        .bind("activityType", StepFunctionTypeMapper.toCode(StepFunctionType.ACTIVITY));
+            }
+            return query
+                    .map((rs, ctx) ->
+                            new Workflow<Serializable, Serializable>(
+                                    rs.getString("id"),
+                                    rs.getString("class_name"),
+                                    payloadColumnMapper.map(rs, "input_hash", ctx),
+                                    this
+                            ))
+                    .collectIntoList();
+        });
+    }
+
+    /**
+     * List runs newest first, a page of at most {@code limit} runs after the cursor. Only the conditions
+     * of the filter that are set are part of the query, so it is served by the status or created index.
+     */
+    @Override
+    public RunPage listRuns(RunFilter filter, RunCursor cursor, int limit) {
+        List<String> conditions = new ArrayList<>();
+        if (filter.workflowClassName() != null) {
+            conditions.add("w.class_name = :className");
+        }
+        if (!filter.statuses().isEmpty()) {
+            conditions.add("wr.status = ANY (CAST(:statuses AS smallint[]))");
+        }
+        if (filter.createdFrom() != null) {
+            conditions.add("wr.created >= CAST(:createdFrom AS TIMESTAMP)");
+        }
+        if (filter.createdUntil() != null) {
+            conditions.add("wr.created < CAST(:createdUntil AS TIMESTAMP)");
+        }
+        if (!filter.includeArchived()) {
+            conditions.add("wr.archived IS NULL");
+        }
+        if (cursor != null) {
+            conditions.add("(wr.created, wr.id) < (CAST(:cursorCreated AS TIMESTAMP), :cursorRunId)");
+        }
+        List<WorkflowRun<Serializable, Serializable>> runs = RunHandle.withHandle(jdbi, handle -> {
+            Query query = handle.createQuery("""
+                            SELECT
+                                wr.id,
+                                wr.workflow_id,
+                                wr.scheduled_event_id,
+                                wr.started_event_id,
+                                wr.completed_event_id,
+                                wr.output_hash,
+                                wr.archived,
+                                wr.created,
+                                wr.status,
+                                wr.blocked_on
+                            FROM
+                                workflow_run wr
+                                JOIN workflow w ON w.id = wr.workflow_id
+                            WHERE %s
+                            ORDER BY wr.created DESC, wr.id DESC
+                            LIMIT :limit
+                            """.formatted(conditions.isEmpty() ? "TRUE" : String.join("\n    AND ", conditions)))
+                    .bind("limit", limit);
+            if (filter.workflowClassName() != null) {
+                query.bind("className", filter.workflowClassName());
+            }
+            if (!filter.statuses().isEmpty()) {
+                query.bindArray("statuses", Integer.class, filter.statuses().stream()
+                        .map(status -> (int) WorkflowRunStatusMapper.toCode(status))
+                        .toList());
+            }
+            if (filter.createdFrom() != null) {
+                query.bind("createdFrom", filter.createdFrom());
+            }
+            if (filter.createdUntil() != null) {
+                query.bind("createdUntil", filter.createdUntil());
+            }
+            if (cursor != null) {
+                query.bind("cursorCreated", cursor.created())
+                        .bind("cursorRunId", cursor.runId());
+            }
+            return query
+                    .map((rs, ctx) -> this.<Serializable, Serializable>mapWorkflowRun(rs, ctx))
+                    .collectIntoList();
+        });
+        RunCursor next = runs.size() < limit ? null : RunCursor.after(runs.get(runs.size() - 1));
+        return new RunPage(runs, next);
+    }
+
+    /**
+     * @return the run the workflow points to as its active run, without reading its other runs
+     */
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    WorkflowRun<I, O> getActiveRunForWorkflowId(String workflowId, Class<? extends RunnableWorkflow<I, O>> workflowClass) {
+        return RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery("""
+                                SELECT
+                                    wr.id,
+                                    wr.workflow_id,
+                                    wr.scheduled_event_id,
+                                    wr.started_event_id,
+                                    wr.completed_event_id,
+                                    wr.output_hash,
+                                    wr.archived,
+                                    wr.created,
+                                    wr.status,
+                                    wr.blocked_on
+                                FROM
+                                    workflow w
+                                    JOIN workflow_run wr ON wr.id = w.active_run_id
+                                WHERE
+                                    w.id = :workflowId
+                                """)
+                        .bind("workflowId", workflowId)
+                        .map((rs, ctx) -> this.<I, O>mapWorkflowRun(rs, ctx))
+                        .findOne()
+                        .orElse(null)
+        );
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    List<WorkflowRun<I, O>> getRunsForWorkflow(String workflowId) {
+        return RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery("""
+                                SELECT
+                                    id,
+                                    workflow_id,
+                                    scheduled_event_id,
+                                    started_event_id,
+                                    completed_event_id,
+                                    output_hash,
+                                    archived,
+                                    created,
+                                    status,
+                                    blocked_on
+                                FROM
+                                    workflow_run
+                                WHERE
+                                    workflow_id = :workflowId
+                                ORDER BY created
+                                """)
+                        .bind("workflowId", workflowId)
+                        .map((rs, ctx) -> this.<I, O>mapWorkflowRun(rs, ctx))
+                        .collectIntoList()
+        );
+    }
+
+//    private  <I extends Serializable, O extends Serializable> WorkflowRun<I,O> mapResultSet(ResultSet rs, StatementContext ctx) {
+//        try {
+//            return new WorkflowRun<I, O>(
+//                    rs.getString("id"),
+//                    rs.getString("workflow_run_id"),
+//                    eventIdColumnMapper.map(rs, "scheduled_event_id", ctx),
+//                    eventIdColumnMapper.map(rs, "started_event_id", ctx),
+//                    eventIdColumnMapper.map(rs, "completed_event_id", ctx),
+//                    (O) serializableColumnMapper.map(rs, "output", ctx),
+//                    instantColumnMapper.map(rs, "archived", ctx),
+//                    workflowRepository
+//            );
+//        } catch (SQLException e) {
+//            throw new RuntimeException(e);
+//        }
+//    }
+
+    @Override
+    public <O extends Serializable, I extends Serializable>
+    WorkflowRun<I, O> getWorkflowRun(String id) {
+        return RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery("""
+                                SELECT
+                                    id,
+                                    workflow_id,
+                                    scheduled_event_id,
+                                    started_event_id,
+                                    completed_event_id,
+                                    output_hash,
+                                    archived,
+                                    created,
+                                    status,
+                                    blocked_on
+                                FROM
+                                    workflow_run
+                                WHERE
+                                    id = :id
+                                """)
+                        .bind("id", id)
+                        .map((rs, ctx) -> this.<I, O>mapWorkflowRun(rs, ctx))
+                        .one()
+        );
+    }
+
+    private <I extends Serializable, O extends Serializable>
+    WorkflowRun<I, O> mapWorkflowRun(ResultSet rs, StatementContext ctx) throws SQLException {
+        return new WorkflowRun<I, O>(
+                rs.getString("id"),
+                rs.getString("workflow_id"),
+                eventIdColumnMapper.map(rs, "scheduled_event_id", ctx),
+                eventIdColumnMapper.map(rs, "started_event_id", ctx),
+                eventIdColumnMapper.map(rs, "completed_event_id", ctx),
+                rs.getBytes("output_hash"),
+                instantColumnMapper.map(rs, "archived", ctx),
+                instantColumnMapper.map(rs, "created", ctx),
+                workflowRunStatusMapper.map(rs, "status", ctx),
+                rs.getString("blocked_on"),
+                this
+        );
+    }
+
+}
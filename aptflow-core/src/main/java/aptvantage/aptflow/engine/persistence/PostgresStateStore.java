@@ -0,0 +1,8 @@
+package aptvantage.aptflow.engine.persistence;
+
+/**
+ * State kept in Postgres, the tasks of its workflows scheduled in the same database so they commit with
+ * the transitions that schedule them
+ */
+public record PostgresStateStore(PostgresStateReader reader, PostgresStateWriter writer) implements StateStore {
+}
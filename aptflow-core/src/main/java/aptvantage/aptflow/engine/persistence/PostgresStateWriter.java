@@ -0,0 +1,431 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.api.RunnableWorkflow;
+import aptvantage.aptflow.model.*;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes state transitions by calling the transition procedures (see V6__step_transition_procedures.sql)
+ * through a {@link PostgresUnitOfWork}. Transactions span the scheduler's writes too, see {@link RunHandle}.
+ */
+public class PostgresStateWriter implements StateWriter, CallerTransactions {
+
+    private final Jdbi jdbi;
+    private final PayloadStore payloadStore;
+    private final PayloadCompression compression;
+    private final PayloadCodecs codecs;
+    private final GroupCommitWriter groupCommitWriter;
+    private final WorkflowRunStatusMapper workflowRunStatusMapper = new WorkflowRunStatusMapper();
+
+    public PostgresStateWriter(
+            Jdbi jdbi,
+            PayloadStore payloadStore,
+            PayloadCompression compression,
+            PayloadCodec codec,
+            GroupCommitWriter groupCommitWriter
+    ) {
+        this.jdbi = jdbi;
+        this.payloadStore = payloadStore;
+        this.compression = compression;
+        this.codecs = new PayloadCodecs(codec);
+        this.groupCommitWriter = groupCommitWriter;
+    }
+
+    @Override
+    public UnitOfWork beginUnitOfWork(Durability durability) {
+        return new PostgresUnitOfWork(jdbi, groupCommitWriter, durability);
+    }
+
+    @Override
+    public ExecutionHandle openExecutionHandle() {
+        return new RunHandle(jdbi.open());
+    }
+
+    @Override
+    public void useTransaction(Runnable work) {
+        RunHandle.useTransaction(jdbi, handle -> work.run());
+    }
+
+    @Override
+    public void useCallerTransaction(Handle handle, Runnable work) {
+        RunHandle.useCallerTransaction(handle, work);
+    }
+
+    @Override
+    public void useCallerTransaction(Connection connection, Runnable work) {
+        RunHandle.useCallerTransaction(connection, work);
+    }
+
+    @Override
+    public void afterCommit(Runnable action) {
+        RunHandle.afterCommit(action);
+    }
+
+    @Override
+    public Long newActivityStarted(UnitOfWork unitOfWork, String workflowRunId, String name, Instant timestamp) {
+        Long eventId = EventIds.newId(timestamp);
+        pending(unitOfWork).add("""
+                        CALL aptflow_start_activity(:eventId, :workflowRunId, :name, CAST(:timestamp AS TIMESTAMP))
+                        """,
+                Map.of(
+                        "eventId", eventId,
+                        "workflowRunId", workflowRunId,
+                        "name", name,
+                        "timestamp", timestamp));
+        return eventId;
+    }
+
+    @Override
+    public void failActivity(UnitOfWork unitOfWork, String workflowRunId, String name, Instant timestamp) {
+        Long eventId = EventIds.newId(timestamp);
+        pending(unitOfWork).add("""
+                        CALL aptflow_fail_activity(:eventId, :workflowRunId, :name, CAST(:timestamp AS TIMESTAMP))
+                        """,
+                Map.of(
+                        "eventId", eventId,
+                        "workflowRunId", workflowRunId,
+                        "name", name,
+                        "timestamp", timestamp));
+    }
+
+    @Override
+    public void completeActivity(UnitOfWork unitOfWork, String workflowRunId, String name, Serializable output, Instant timestamp) {
+        Long eventId = EventIds.newId(timestamp);
+        pending(unitOfWork).add("""
+                        CALL aptflow_complete_activity(:eventId, :workflowRunId, :name, :outputHash, :outputCodec, CAST(:output AS bytea), CAST(:timestamp AS TIMESTAMP))
+                        """,
+                withPayload(Map.of(
+                        "eventId", eventId,
+                        "workflowRunId", workflowRunId,
+                        "name", name,
+                        "timestamp", timestamp), "output", output));
+    }
+
+    @Override
+    public Long newSignalWaiting(UnitOfWork unitOfWork, String workflowRunId, String name, Instant timestamp) {
+        Long eventId = EventIds.newId(timestamp);
+        pending(unitOfWork).add("""
+                        CALL aptflow_await_signal(:eventId, :workflowRunId, :name, CAST(:timestamp AS TIMESTAMP))
+                        """,
+                Map.of(
+                        "eventId", eventId,
+                        "workflowRunId", workflowRunId,
+                        "name", name,
+                        "timestamp", timestamp));
+        return eventId;
+    }
+
+    @Override
+    public void signalReceived(UnitOfWork unitOfWork, String workflowRunId, String name, Serializable value, Instant timestamp) {
+        Long eventId = EventIds.newId(timestamp);
+        pending(unitOfWork).add("""
+                        CALL aptflow_receive_signal(:eventId, :workflowRunId, :name, :valueHash, :valueCodec, CAST(:value AS bytea), CAST(:timestamp AS TIMESTAMP))
+                        """,
+                withPayload(Map.of(
+                        "eventId", eventId,
+                        "workflowRunId", workflowRunId,
+                        "name", name,
+                        "timestamp", timestamp), "value", value));
+    }
+
+    @Override
+    public String scheduleNewRunForExistingWorkflow(String workflowId, boolean resumeFromPointOfFailure) {
+        AtomicReference<String> nextRunId = new AtomicReference<>();
+        RunHandle.useTransaction(jdbi, handle -> {
+            // the workflow row lock serializes concurrent reruns, so each archives the run the one before scheduled
+            ActiveRun activeRun = handle.createQuery("""
+                            SELECT w.active_run_id, w.class_name, wr.status
+                            FROM workflow w
+                                LEFT JOIN workflow_run wr ON wr.id = w.active_run_id
+                            WHERE w.id = :workflowId
+                            FOR UPDATE OF w
+                            """)
+                    .bind("workflowId", workflowId)
+                    .map((rs, ctx) -> new ActiveRun(
+                            rs.getString("active_run_id"),
+                            rs.getString("class_name"),
+                            workflowRunStatusMapper.map(rs, "status", ctx)))
+                    .findOne()
+                    .orElseThrow(() -> new IllegalStateException("no workflow [%s]".formatted(workflowId)));
+            activeRun.checkRerunnable(workflowId, resumeFromPointOfFailure);
+
+            handle.createUpdate("""
+                            UPDATE workflow_run
+                            SET archived = :archived
+                            WHERE id = :activeRunId
+                            """)
+                    .bind("archived", Instant.now())
+                    .bind("activeRunId", activeRun.id())
+                    .execute();
+
+            // a run resuming from the point of failure inherits the history of the failed run rather than
+            // copying it, see PostgresStateReader
+            String parentRunId = resumeFromPointOfFailure ? activeRun.id() : null;
+            nextRunId.set(scheduleWorkflowRun(workflowId, workflowClassFromClassName(activeRun.className()), parentRunId, handle));
+        });
+
+        return nextRunId.get();
+
+    }
+
+    @Override
+    public <I extends Serializable, O extends Serializable>
+    String scheduleRunForNewWorkflow(
+            String workflowId,
+            Class<? extends RunnableWorkflow<I, O>> workflowClass,
+            I input) {
+
+        AtomicReference<String> workflowRunId = new AtomicReference<>();
+        RunHandle.useTransaction(jdbi, handle -> {
+
+            Map<String, Object> payload = PayloadStore.offloadPending(withPayload(Map.of(), "input", input));
+            handle.createUpdate("""
+                            CALL aptflow_store_payload(:inputHash, :inputCodec, CAST(:input AS bytea))
+                            """)
+                    .bindMap(payload)
+                    .execute();
+            handle.createUpdate("""
+                            INSERT INTO workflow(id, class_name, input_hash)
+                            VALUES (:id, :className, :inputHash)
+                            """)
+                    .bind("id", workflowId)
+                    .bind("className", workflowClass.getName())
+                    .bind("inputHash", payload.get("inputHash"))
+                    .execute();
+
+            workflowRunId.set(scheduleWorkflowRun(workflowId, workflowClass, null, handle));
+        });
+        return workflowRunId.get();
+
+    }
+
+    @Override
+    public void workflowRunStarted(UnitOfWork unitOfWork, String workflowRunId, Instant timestamp) {
+        Long eventId = EventIds.newId(timestamp);
+        pending(unitOfWork).add("""
+                        CALL aptflow_start_workflow_run(:eventId, :workflowRunId, CAST(:timestamp AS TIMESTAMP))
+                        """,
+                Map.of(
+                        "eventId", eventId,
+                        "workflowRunId", workflowRunId,
+                        "timestamp", timestamp));
+    }
+
+    @Override
+    public void workflowRunCompleted(UnitOfWork unitOfWork, String workflowRunId, Object output, Instant timestamp) {
+        Long eventId = EventIds.newId(timestamp);
+        pending(unitOfWork).add("""
+                        CALL aptflow_complete_workflow_run(:eventId, :workflowRunId, :outputHash, :outputCodec, CAST(:output AS bytea), CAST(:timestamp AS TIMESTAMP))
+                        """,
+                withPayload(Map.of(
+                        "eventId", eventId,
+                        "workflowRunId", workflowRunId,
+                        "timestamp", timestamp), "output", output));
+    }
+
+    @Override
+    public void failWorkflowRun(UnitOfWork unitOfWork, String workflowRunId, Instant timestamp) {
+        Long eventId = EventIds.newId(timestamp);
+        pending(unitOfWork).add("""
+                        CALL aptflow_fail_workflow_run(:eventId, :workflowRunId, CAST(:timestamp AS TIMESTAMP))
+                        """,
+                Map.of(
+                        "eventId", eventId,
+                        "workflowRunId", workflowRunId,
+                        "timestamp", timestamp));
+    }
+
+    @Override
+    public Long newConditionWaiting(UnitOfWork unitOfWork, String workflowRunId, String identifier, Instant timestamp) {
+        Long eventId = EventIds.newId(timestamp);
+        pending(unitOfWork).add("""
+                        CALL aptflow_await_condition(:eventId, :workflowRunId, :identifier, CAST(:timestamp AS TIMESTAMP))
+                        """,
+                Map.of(
+                        "eventId", eventId,
+                        "workflowRunId", workflowRunId,
+                        "identifier", identifier,
+                        "timestamp", timestamp));
+        return eventId;
+    }
+
+    @Override
+    public void conditionSatisfied(UnitOfWork unitOfWork, String workflowRunId, String identifier, Instant timestamp) {
+        Long eventId = EventIds.newId(timestamp);
+        pending(unitOfWork).add("""
+                        CALL aptflow_satisfy_condition(:eventId, :workflowRunId, :identifier, CAST(:timestamp AS TIMESTAMP))
+                        """,
+                Map.of(
+                        "eventId", eventId,
+                        "workflowRunId", workflowRunId,
+                        "identifier", identifier,
+                        "timestamp", timestamp));
+    }
+
+    @Override
+    public Long newSleepStarted(UnitOfWork unitOfWork, String workflowRunId, String identifier, Duration duration, Instant timestamp) {
+        Long eventId = EventIds.newId(timestamp);
+        pending(unitOfWork).add("""
+                        CALL aptflow_start_sleep(:eventId, :workflowRunId, :identifier, :durationInMillis, CAST(:timestamp AS TIMESTAMP))
+                        """,
+                Map.of(
+                        "eventId", eventId,
+                        "workflowRunId", workflowRunId,
+                        "identifier", identifier,
+                        "durationInMillis", duration.toMillis(),
+                        "timestamp", timestamp));
+        return eventId;
+    }
+
+    @Override
+    public void sleepCompleted(UnitOfWork unitOfWork, String workflowRunId, String identifier, Instant timestamp) {
+        Long eventId = EventIds.newId(timestamp);
+        pending(unitOfWork).add("""
+                        CALL aptflow_complete_sleep(:eventId, :workflowRunId, :identifier, CAST(:timestamp AS TIMESTAMP))
+                        """,
+                Map.of(
+                        "eventId", eventId,
+                        "workflowRunId", workflowRunId,
+                        "identifier", identifier,
+                        "timestamp", timestamp));
+    }
+
+    @Override
+    public void runBlocked(UnitOfWork unitOfWork, String workflowRunId, WorkflowRunStatus status, String functionId) {
+        // usually the run is blocked on the step already, which leaves its row alone
+        pending(unitOfWork).add("""
+                        UPDATE workflow_run
+                        SET status = :status, blocked_on = :functionId
+                        WHERE id = :workflowRunId
+                            AND completed_event_id IS NULL
+                            AND blocked_on IS DISTINCT FROM :functionId
+                        """,
+                Map.of(
+                        "workflowRunId", workflowRunId,
+                        "status", WorkflowRunStatusMapper.toCode(status),
+                        "functionId", functionId));
+    }
+
+    /**
+     * The active run of a workflow as locked to schedule the next one, its status null for a run with no
+     * events
+     */
+    private record ActiveRun(String id, String className, WorkflowRunStatus status) {
+
+        void checkRerunnable(String workflowId, boolean resumeFromPointOfFailure) {
+            if (status != null && !status.isTerminal()) {
+                throw new IllegalStateException("run [%s] of workflow [%s] is still %s".formatted(id, workflowId, status));
+            }
+            if (resumeFromPointOfFailure && status != WorkflowRunStatus.FAILED) {
+                throw new IllegalStateException("run [%s] of workflow [%s] did not fail".formatted(id, workflowId));
+            }
+        }
+    }
+
+    private static PostgresUnitOfWork pending(UnitOfWork unitOfWork) {
+        return (PostgresUnitOfWork) unitOfWork;
+    }
+
+    /**
+     * @return the arguments plus the hash of the encoded payload, its codec and its data, the data being
+     * {@link PayloadStore.PendingPayload pending} until the write is flushed
+     */
+    private Map<String, Object> withPayload(Map<String, Object> arguments, String name, Object payload) {
+        byte[] encoded = codecs.encode(payload);
+        // JSON payloads are stored as jsonb, which Postgres compresses itself
+        byte[] data = codecs.writesJson() ? encoded : compression.compress(encoded);
+        byte[] hash = PayloadStore.hash(data);
+        Map<String, Object> withPayload = new HashMap<>(arguments);
+        withPayload.put(name + "Hash", hash);
+        withPayload.put(name + "Codec", codecs.writeCodecId());
+        withPayload.put(name, new PayloadStore.PendingPayload(payloadStore, hash, data));
+        return withPayload;
+    }
+
+    private <I extends Serializable, O extends Serializable>
+    Class<? extends RunnableWorkflow<I, O>> workflowClassFromClassName(String className) {
+        try {
+            return (Class<? extends RunnableWorkflow<I, O>>) Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private <I extends Serializable, O extends Serializable>
+    String scheduleWorkflowRun(
+            String workflowId,
+            Class<? extends RunnableWorkflow<I, O>> workflowClass,
+            String parentRunId,
+            Handle handle) {
+
+        // the workflow row lock serializes concurrent reruns, the new run becomes the active one
+        String workflowRunId = handle.createQuery("""
+                        UPDATE workflow
+                        SET run_counter   = run_counter + 1,
+                            active_run_id = id || '::' || (run_counter + 1)
+                        WHERE id = :workflowId
+                        RETURNING active_run_id
+                        """)
+                .bind("workflowId", workflowId)
+                .mapTo(String.class)
+                .one();
+
+        handle.createUpdate("""
+                        INSERT INTO workflow_run (id, workflow_id, parent_run_id)
+                        VALUES (:id, :workflowId, :parentRunId)
+                        """)
+                .bind("id", workflowRunId)
+                .bind("workflowId", workflowId)
+                .bind("parentRunId", parentRunId)
+                .execute();
+
+        PostgresUnitOfWork unitOfWork = pending(beginUnitOfWork());
+        Instant timestamp = Instant.now();
+        Long eventId = EventIds.newId(timestamp);
+        unitOfWork.add("""
+                        CALL aptflow_schedule_workflow_run(:eventId, :workflowRunId, CAST(:timestamp AS TIMESTAMP))
+                        """,
+                Map.of(
+                        "eventId", eventId,
+                        "workflowRunId", workflowRunId,
+                        "timestamp", timestamp));
+        unitOfWork.flush(handle);
+
+        return workflowRunId;
+
+    }
+
+    /**
+     * Create the event partitions of the coming months and, with a retention, detach the partitions past
+     * it whose runs are all terminal (see V12__partitioned_event.sql)
+     *
+     * @param retention     null to only create partitions
+     * @param dropExpired   drop the detached partitions rather than leave them as standalone tables
+     * @return the detached partitions
+     */
+    public List<String> maintainEventPartitions(int monthsAhead, Duration retention, boolean dropExpired) {
+        return RunHandle.withHandle(jdbi, handle ->
+                handle.createQuery("""
+                                SELECT aptflow_maintain_event_partitions(
+                                    :monthsAhead,
+                                    make_interval(secs => CAST(:retentionSeconds AS double precision)),
+                                    :dropExpired)
+                                """)
+                        .bind("monthsAhead", monthsAhead)
+                        .bind("retentionSeconds", retention == null ? null : retention.toSeconds())
+                        .bind("dropExpired", dropExpired)
+                        .mapTo(String.class)
+                        .list());
+    }
+
+}
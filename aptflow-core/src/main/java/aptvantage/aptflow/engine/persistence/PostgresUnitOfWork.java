@@ -0,0 +1,189 @@
+package aptvantage.aptflow.engine.persistence;
+
+import com.google.common.flogger.FluentLogger;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * The {@link UnitOfWork} of {@link PostgresStateWriter}: buffers the state transitions of a single workflow execution pass so they can be committed
+ * together at safe points instead of in one transaction per step transition.
+ * <p>
+ * Shared by every thread of the pass (async activities included). Once closed it writes through,
+ * so writes from async activities that outlive the pass are not lost.
+ * <p>
+ * When a {@link GroupCommitWriter} is configured, flushes are committed by it together with those of
+ * other executions.
+ * <p>
+ * Flushes are committed as the {@link Durability} of the workflow requires: relaxed ones without
+ * waiting for the WAL flush, ephemeral ones only once the pass completes or pauses.
+ */
+class PostgresUnitOfWork implements UnitOfWork {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    private final Jdbi jdbi;
+    private final GroupCommitWriter groupCommitWriter;
+    private final Durability durability;
+    private final List<PendingWrite> pendingWrites = new ArrayList<>();
+    private boolean closed = false;
+
+    PostgresUnitOfWork(Jdbi jdbi, GroupCommitWriter groupCommitWriter, Durability durability) {
+        this.jdbi = jdbi;
+        // relaxed commits do not wait for a WAL flush, so there is nothing for them to share
+        this.groupCommitWriter = durability == Durability.DURABLE ? groupCommitWriter : null;
+        this.durability = durability;
+    }
+
+    synchronized void add(String sql, Map<String, Object> arguments) {
+        pendingWrites.add(new PendingWrite(sql, arguments));
+        flushIfClosed();
+    }
+
+    /**
+     * Commit everything buffered so far in a single transaction, returning once it is durable
+     */
+    @Override
+    public synchronized void flush() {
+        if (durability == Durability.EPHEMERAL && !closed) {
+            return;
+        }
+        // a transaction bound by the caller is joined, even with group commit
+        if (groupCommitWriter == null || RunHandle.inTransaction()) {
+            if (!isEmpty()) {
+                useTransaction(this::flush);
+            }
+            return;
+        }
+        try {
+            flushAsync().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Commit everything buffered so far in one transaction with whatever the action writes, scheduler
+     * tasks included
+     */
+    @Override
+    public synchronized void flushWith(Runnable action) {
+        // the lock on this unit of work is taken before the run handle, as in flush()
+        useTransaction(handle -> {
+            flush(handle);
+            action.run();
+        });
+    }
+
+    private void useTransaction(Consumer<Handle> work) {
+        // a transaction of the caller is joined as it is, its commit is not ours to relax
+        boolean relaxed = durability != Durability.DURABLE && !RunHandle.inTransaction();
+        RunHandle.useTransaction(jdbi, handle -> {
+            if (relaxed) {
+                handle.execute("SET LOCAL synchronous_commit = off");
+            }
+            work.accept(handle);
+        });
+    }
+
+    /**
+     * Hand everything buffered so far to the group commit writer, or commit it right away when there
+     * is none
+     *
+     * @return a future completed once the writes are durable
+     */
+    @Override
+    public synchronized CompletableFuture<Void> flushAsync() {
+        if (isEmpty() || (durability == Durability.EPHEMERAL && !closed)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (groupCommitWriter == null || RunHandle.inTransaction()) {
+            flush();
+            return CompletableFuture.completedFuture(null);
+        }
+        offloadPayloads();
+        CompletableFuture<Void> committed = groupCommitWriter.submit(List.copyOf(pendingWrites));
+        pendingWrites.clear();
+        return committed;
+    }
+
+    /**
+     * Execute everything buffered so far on the given handle, as part of the caller's transaction
+     */
+    synchronized void flush(Handle handle) {
+        if (isEmpty()) {
+            return;
+        }
+        int writeCount = pendingWrites.size();
+        offloadPayloads();
+        executeBatched(handle, pendingWrites);
+        pendingWrites.clear();
+        logger.atFine().log("flushed [%s] state transitions", writeCount);
+    }
+
+    /**
+     * Flush anything still buffered and write through from now on
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        flush();
+    }
+
+    /**
+     * Put the blobs of the payloads buffered so far, just before their rows are written rather than when
+     * they were buffered: a pass may buffer for longer than the grace period of
+     * {@code UnreferencedBlobCleanupTask}
+     */
+    private void offloadPayloads() {
+        pendingWrites.replaceAll(PendingWrite::offloadPayloads);
+    }
+
+    private boolean isEmpty() {
+        return pendingWrites.isEmpty();
+    }
+
+    private void flushIfClosed() {
+        if (closed) {
+            flush();
+        }
+    }
+
+    static void executeBatched(Handle handle, List<PendingWrite> writes) {
+        PreparedBatch batch = null;
+        String batchSql = null;
+        for (PendingWrite write : writes) {
+            if (!write.sql().equals(batchSql)) {
+                execute(batch);
+                batch = handle.prepareBatch(write.sql());
+                batchSql = write.sql();
+            }
+            batch.add(write.arguments());
+        }
+        execute(batch);
+    }
+
+    private static void execute(PreparedBatch batch) {
+        if (batch != null) {
+            batch.execute();
+        }
+    }
+
+    record PendingWrite(String sql, Map<String, Object> arguments) {
+
+        PendingWrite offloadPayloads() {
+            Map<String, Object> offloaded = PayloadStore.offloadPending(arguments);
+            return offloaded == arguments ? this : new PendingWrite(sql, offloaded);
+        }
+    }
+}
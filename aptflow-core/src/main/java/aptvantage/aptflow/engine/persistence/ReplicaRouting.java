@@ -0,0 +1,91 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.model.ReadConsistency;
+import com.google.common.flogger.FluentLogger;
+import org.jdbi.v3.core.Jdbi;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes API reads to the reader of the primary or of the read replica, as their
+ * {@link ReadConsistency} allows. Reads made within an execution pass or a transaction are not
+ * affected: they reuse its connection to the primary (see {@link RunHandle}), so replays always read
+ * what they wrote.
+ * <p>
+ * The lag of the replica is measured at most once per {@link #LAG_CHECK_INTERVAL}. When it cannot be
+ * measured, reads bounded by a maximum lag are served by the primary.
+ */
+public class ReplicaRouting {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    static final Duration LAG_CHECK_INTERVAL = Duration.ofSeconds(1);
+
+    private final StateReader primary;
+    private final StateReader replica;
+    private final Jdbi replicaJdbi;
+
+    private volatile long lagMillis = Long.MAX_VALUE;
+    private volatile long lagMeasuredAtNanos;
+    private volatile boolean lagMeasured = false;
+
+    private final AtomicLong replicaReads = new AtomicLong();
+    private final AtomicLong primaryFallbacks = new AtomicLong();
+
+    /**
+     * @param replica     reader of the replica, null without one
+     * @param replicaJdbi to measure the lag of the replica with, null without one
+     */
+    public ReplicaRouting(StateReader primary, StateReader replica, Jdbi replicaJdbi) {
+        this.primary = primary;
+        this.replica = replica;
+        this.replicaJdbi = replicaJdbi;
+    }
+
+    public StateReader readerFor(ReadConsistency consistency) {
+        if (replica == null || !consistency.replica()) {
+            return primary;
+        }
+        if (consistency.maxLag() != null && replicaLagMillis() > consistency.maxLag().toMillis()) {
+            primaryFallbacks.incrementAndGet();
+            return primary;
+        }
+        replicaReads.incrementAndGet();
+        return replica;
+    }
+
+    private long replicaLagMillis() {
+        if (lagMeasured && System.nanoTime() - lagMeasuredAtNanos < LAG_CHECK_INTERVAL.toNanos()) {
+            return lagMillis;
+        }
+        try {
+            // a replica that replayed everything it received is not behind, however old its last replayed transaction
+            lagMillis = replicaJdbi.withHandle(handle -> handle.createQuery("""
+                            SELECT CASE
+                                WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                                ELSE CAST(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 AS bigint)
+                            END
+                            """)
+                    .mapTo(Long.class)
+                    .one());
+        } catch (RuntimeException e) {
+            logger.atWarning().withCause(e).log("failed to measure the lag of the read replica, reading from the primary");
+            lagMillis = Long.MAX_VALUE;
+        }
+        lagMeasuredAtNanos = System.nanoTime();
+        lagMeasured = true;
+        return lagMillis;
+    }
+
+    public long getReplicaReads() {
+        return replicaReads.get();
+    }
+
+    /**
+     * @return how many reads allowed on the replica were served by the primary, the replica lagging too much
+     */
+    public long getPrimaryFallbacks() {
+        return primaryFallbacks.get();
+    }
+}
@@ -0,0 +1,170 @@
+package aptvantage.aptflow.engine.persistence;
+
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.HandleCallback;
+import org.jdbi.v3.core.HandleConsumer;
+import org.jdbi.v3.core.Handles;
+import org.jdbi.v3.core.Jdbi;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A connection held for the duration of a workflow execution pass. While it is bound to a thread, the
+ * StateReader, StateWriter and UnitOfWork calls made on that thread reuse it instead of checking a
+ * connection out of the pool.
+ * <p>
+ * Async activities of the pass bind it on their own threads, so use of the handle is serialized. Once
+ * closed, calls fall back to the pool.
+ * <p>
+ * Transactions opened while no run handle is bound get a short-lived one, so everything called within
+ * the transaction (the scheduler included, see {@link TransactionAwareDataSource}) joins it.
+ */
+public class RunHandle implements ExecutionHandle {
+
+    private static final ThreadLocal<RunHandle> boundRunHandle = new ThreadLocal<>();
+
+    private final Handle handle;
+    private int checkoutsAvoided = 0;
+    private boolean closed = false;
+
+    RunHandle(Handle handle) {
+        this.handle = handle;
+    }
+
+    static <R, X extends Exception> R withHandle(Jdbi jdbi, HandleCallback<R, X> callback) throws X {
+        RunHandle runHandle = boundRunHandle.get();
+        if (runHandle != null) {
+            synchronized (runHandle) {
+                if (!runHandle.closed) {
+                    runHandle.checkoutsAvoided++;
+                    return callback.withHandle(runHandle.handle);
+                }
+            }
+        }
+        return jdbi.withHandle(callback);
+    }
+
+    static <X extends Exception> void useTransaction(Jdbi jdbi, HandleConsumer<X> callback) throws X {
+        RunHandle runHandle = boundRunHandle.get();
+        if (runHandle != null) {
+            synchronized (runHandle) {
+                if (!runHandle.closed) {
+                    runHandle.checkoutsAvoided++;
+                    runHandle.handle.useTransaction(callback);
+                    return;
+                }
+            }
+        }
+        try (Handle handle = jdbi.open()) {
+            RunHandle transactionHandle = new RunHandle(handle);
+            transactionHandle.bind();
+            try {
+                handle.useTransaction(callback);
+            } finally {
+                if (runHandle == null) {
+                    transactionHandle.unbind();
+                } else {
+                    runHandle.bind();
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the work with the caller's handle bound, so it joins the caller's transaction
+     */
+    static void useCallerTransaction(Handle handle, Runnable work) {
+        if (!handle.isInTransaction()) {
+            throw new IllegalStateException("the caller's handle must have a transaction in progress");
+        }
+        RunHandle previous = boundRunHandle.get();
+        new RunHandle(handle).bind();
+        try {
+            work.run();
+        } finally {
+            if (previous == null) {
+                boundRunHandle.remove();
+            } else {
+                previous.bind();
+            }
+        }
+    }
+
+    static void useCallerTransaction(Connection connection, Runnable work) {
+        try {
+            if (connection.getAutoCommit()) {
+                throw new IllegalStateException("the caller's connection must have a transaction in progress (auto-commit disabled)");
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        // the caller ends the transaction and closes the connection, not the handle
+        try (Handle handle = Jdbi.create(TransactionAwareDataSource.nonClosing(connection)).open()) {
+            handle.getConfig(Handles.class).setForceEndTransactions(false);
+            useCallerTransaction(handle, work);
+        }
+    }
+
+    static boolean inTransaction() {
+        return boundTransaction() != null;
+    }
+
+    /**
+     * @return the connection of the transaction bound to the current thread, or null when there is none
+     */
+    static Connection boundTransactionConnection() {
+        Handle handle = boundTransaction();
+        return handle == null ? null : handle.getConnection();
+    }
+
+    /**
+     * Run the action once the transaction bound to the current thread commits, or right away when there
+     * is none
+     */
+    static void afterCommit(Runnable action) {
+        Handle handle = boundTransaction();
+        if (handle == null) {
+            action.run();
+        } else {
+            handle.afterCommit(action);
+        }
+    }
+
+    private static Handle boundTransaction() {
+        RunHandle runHandle = boundRunHandle.get();
+        if (runHandle == null) {
+            return null;
+        }
+        synchronized (runHandle) {
+            return !runHandle.closed && runHandle.handle.isInTransaction() ? runHandle.handle : null;
+        }
+    }
+
+    /**
+     * Use this handle for persistence calls made on the current thread
+     */
+    @Override
+    public void bind() {
+        boundRunHandle.set(this);
+    }
+
+    @Override
+    public void unbind() {
+        boundRunHandle.remove();
+    }
+
+    /**
+     * @return how many pool checkouts were served by this handle instead
+     */
+    @Override
+    public synchronized int getCheckoutsAvoided() {
+        return checkoutsAvoided;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        handle.close();
+    }
+}
@@ -0,0 +1,13 @@
+package aptvantage.aptflow.engine.persistence;
+
+/**
+ * Where the state of workflows lives: {@link PostgresStateStore}, {@link InMemoryStateStore} for tests
+ * and workflows that need not survive a restart, or {@link JournalStateStore} for deployments without a
+ * database
+ */
+public interface StateStore {
+
+    StateReader reader();
+
+    StateWriter writer();
+}
@@ -1,420 +1,174 @@
 package aptvantage.aptflow.engine.persistence;
 
 import aptvantage.aptflow.api.RunnableWorkflow;
-import aptvantage.aptflow.model.*;
-import org.jdbi.v3.core.Handle;
-import org.jdbi.v3.core.Jdbi;
+import aptvantage.aptflow.model.WorkflowRunStatus;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
-public class StateWriter {
+/**
+ * Writes the state transitions of workflow runs. Transitions given a {@link UnitOfWork} are durable once
+ * it is flushed, the others once they return.
+ */
+public interface StateWriter {
 
-    private final Jdbi jdbi;
-    private final StateReader stateReader;
-
-    public StateWriter(
-            Jdbi jdbi,
-            StateReader stateReader
-    ) {
-        this.jdbi = jdbi;
-        this.stateReader = stateReader;
+    default UnitOfWork beginUnitOfWork() {
+        return beginUnitOfWork(Durability.DURABLE);
     }
 
-    private static String newEvent(
-            Handle handle,
-            String workflowRunId,
-            StepFunctionType type,
-            StepFunctionEventStatus status,
-            Instant timestamp
-    ) {
-        String eventId = UUID.randomUUID().toString();
-        handle.createUpdate("""
-                        INSERT INTO event (id, workflow_run_id, category, status, timestamp)
-                        VALUES (:id, :workflow_run_id, :category, :status, :timestamp)
-                        """)
-                .bind("id", eventId)
-                .bind("workflow_run_id", workflowRunId)
-                .bind("category", type)
-                .bind("status", status)
-                .bind("timestamp", timestamp)
-                .execute();
-        return eventId;
-    }
+    UnitOfWork beginUnitOfWork(Durability durability);
 
-    public void newActivityStarted(String workflowRunId, String name, Instant timestamp) {
-        jdbi.useTransaction(handle -> {
-            newActivityStarted(handle, workflowRunId, name, timestamp);
-        });
-    }
+    /**
+     * @return the handle an execution pass binds to the threads it runs on
+     */
+    ExecutionHandle openExecutionHandle();
 
-    public void newActivityStarted(Handle handle, String workflowRunId, String name, Instant timestamp) {
-        String eventId = newEvent(handle, workflowRunId, StepFunctionType.ACTIVITY, StepFunctionEventStatus.STARTED, timestamp);
-        handle.createUpdate("""
-                        INSERT INTO activity(workflow_run_id, name, started_event_id)
-                        VALUES (:workflowRunId, :name, :eventId)
-                        """)
-                .bind("workflowRunId", workflowRunId)
-                .bind("name", name)
-                .bind("eventId", eventId)
-                .execute();
-    }
+    /**
+     * Run the work in one transaction, joined by every StateWriter call and scheduler operation it makes
+     */
+    void useTransaction(Runnable work);
 
-    public void failActivity(String workflowRunId, String name, Instant timestamp) {
-        jdbi.useTransaction(handle -> {
-            String eventId = newEvent(handle, workflowRunId, StepFunctionType.ACTIVITY, StepFunctionEventStatus.FAILED, timestamp);
-
-            handle.createUpdate("""
-                            UPDATE activity
-                            SET completed_event_id = :eventId
-                            WHERE workflow_run_id = :workflowRunId and name = :name
-                            """)
-                    .bind("workflowRunId", workflowRunId)
-                    .bind("name", name)
-                    .bind("eventId", eventId)
-                    .execute();
-
-        });
+    default <R> R inTransaction(Supplier<R> work) {
+        AtomicReference<R> result = new AtomicReference<>();
+        useTransaction(() -> result.set(work.get()));
+        return result.get();
     }
 
-    public void completeActivity(String workflowRunId, String name, Serializable output, Instant timestamp) {
-        jdbi.useTransaction(handle -> {
-            completeActivity(handle, workflowRunId, name, output, timestamp);
-        });
-    }
+    /**
+     * Run the action once the current transaction commits, or right away when there is none
+     */
+    void afterCommit(Runnable action);
 
-    public void completeActivity(Handle handle, String workflowRunId, String name, Serializable output, Instant timestamp) {
-        String eventId = newEvent(handle, workflowRunId, StepFunctionType.ACTIVITY, StepFunctionEventStatus.COMPLETED, timestamp);
-
-        handle.createUpdate("""
-                        UPDATE activity
-                        SET output = :output,
-                            completed_event_id = :eventId
-                        WHERE workflow_run_id = :workflowRunId and name = :name
-                        """)
-                .bind("workflowRunId", workflowRunId)
-                .bind("name", name)
-                .bind("eventId", eventId)
-                .bind("output", serialize(output))
-                .execute();
+    default void newActivityStarted(String workflowRunId, String name, Instant timestamp) {
+        UnitOfWork unitOfWork = beginUnitOfWork();
+        newActivityStarted(unitOfWork, workflowRunId, name, timestamp);
+        unitOfWork.flush();
     }
 
-    public void newSignalWaiting(String workflowRunId, String name, Instant timestamp) {
-        jdbi.useTransaction(handle -> {
-            newSignalWaiting(handle, workflowRunId, name, timestamp);
-        });
-    }
+    /**
+     * @return the id of the started event
+     */
+    Long newActivityStarted(UnitOfWork unitOfWork, String workflowRunId, String name, Instant timestamp);
 
-    public void newSignalWaiting(Handle handle, String workflowRunId, String name, Instant timestamp) {
-        String eventId = newEvent(handle, workflowRunId, StepFunctionType.SIGNAL, StepFunctionEventStatus.WAITING, Instant.now());
-
-        handle.createUpdate("""
-                        INSERT INTO signal(workflow_run_id, name, waiting_event_id)
-                        VALUES (:workflowRunId, :name, :eventId)
-                        """)
-                .bind("workflowRunId", workflowRunId)
-                .bind("name", name)
-                .bind("eventId", eventId)
-                .execute();
+    default void failActivity(String workflowRunId, String name, Instant timestamp) {
+        UnitOfWork unitOfWork = beginUnitOfWork();
+        failActivity(unitOfWork, workflowRunId, name, timestamp);
+        unitOfWork.flush();
     }
 
-    public void signalReceived(String workflowRunId, String name, Serializable value, Instant timestamp) {
-        jdbi.useTransaction(handle -> {
-            signalReceived(handle, workflowRunId, name, value, timestamp);
-        });
-    }
+    void failActivity(UnitOfWork unitOfWork, String workflowRunId, String name, Instant timestamp);
 
-    public void signalReceived(Handle handle, String workflowRunId, String name, Serializable value, Instant timestamp) {
-        String eventId = newEvent(handle, workflowRunId, StepFunctionType.SIGNAL, StepFunctionEventStatus.RECEIVED, timestamp);
-
-        handle.createUpdate("""
-                        UPDATE signal
-                        SET value = :value,
-                            received_event_id = :eventId
-                        WHERE workflow_run_id = :workflowRunId and name = :name
-                        """)
-                .bind("workflowRunId", workflowRunId)
-                .bind("name", name)
-                .bind("eventId", eventId)
-                .bind("value", serialize(value))
-                .execute();
+    default void completeActivity(String workflowRunId, String name, Serializable output, Instant timestamp) {
+        UnitOfWork unitOfWork = beginUnitOfWork();
+        completeActivity(unitOfWork, workflowRunId, name, output, timestamp);
+        unitOfWork.flush();
     }
 
-    public String scheduleNewRunForExistingWorkflow(String workflowId, boolean resumeFromPointOfFailure) {
-        // TODO - test this should fail if workflow does not exist
-        // TODO - test this should fail if existing workflow's latest run is not in a terminal state
-        WorkflowRun<Serializable, Serializable> currentRun = stateReader.getActiveRunForWorkflowId(workflowId, null);
-
-        AtomicReference<String> nextRunId = new AtomicReference<>();
-        jdbi.useTransaction(handle -> {
-            // archive existing run
-            handle.createUpdate("""
-                            UPDATE workflow_run
-                            SET archived = :archived
-                            WHERE id = :activeRunId
-                            """)
-                    .bind("archived", Instant.now())
-                    .bind("activeRunId", currentRun.getId())
-                    .execute();
-
-            //schedule new run
-            nextRunId.set(scheduleWorkflowRun(workflowId, workflowClassFromClassName(currentRun.getWorkflow().getClassName()), handle));
-
-            if (resumeFromPointOfFailure) {
-                // copy "unfailed" events from current run to next run
-                currentRun.getFunctions()
-                        .stream()
-                        .filter(step -> !step.hasFailed())
-                        .forEach(step -> {
-                            StepFunctionType stepType = step.getStepFunctionType();
-                            switch (stepType) {
-                                case WORKFLOW -> {
-                                    throw new IllegalStateException("WORKFLOW is not a StepFunction");
-                                }
-                                case ACTIVITY -> {
-                                    ActivityFunction currentActivity = (ActivityFunction) step;
-                                    newActivityStarted(handle, nextRunId.get(), currentActivity.getName(), currentActivity.getStartedEvent().getTimestamp());
-                                    completeActivity(handle, nextRunId.get(), currentActivity.getName(), currentActivity.getOutput(), currentActivity.getCompletedEvent().getTimestamp());
-                                }
-                                case CONDITION -> {
-                                    newConditionWaiting(handle, nextRunId.get(), step.getId(), step.getStartedEvent().getTimestamp());
-                                    conditionSatisfied(handle, nextRunId.get(), step.getId(), step.getCompletedEvent().getTimestamp());
-                                }
-                                case SIGNAL -> {
-                                    SignalFunction currentSignal = (SignalFunction) step;
-                                    newSignalWaiting(handle, nextRunId.get(), step.getId(), step.getStartedEvent().getTimestamp());
-                                    signalReceived(handle, nextRunId.get(), step.getId(), currentSignal.getValue(), step.getCompletedEvent().getTimestamp());
-                                }
-                                case SLEEP -> {
-                                    SleepFunction currentSleep = (SleepFunction) step;
-                                    newSleepStarted(handle, nextRunId.get(), step.getId(), currentSleep.getDuration(), step.getStartedEvent().getTimestamp());
-                                    sleepCompleted(handle, nextRunId.get(), step.getId(), step.getCompletedEvent().getTimestamp());
-                                }
-                            }
-                        });
-            }
-
-        });
-
-        return nextRunId.get();
+    void completeActivity(UnitOfWork unitOfWork, String workflowRunId, String name, Serializable output, Instant timestamp);
 
+    default void newSignalWaiting(String workflowRunId, String name, Instant timestamp) {
+        UnitOfWork unitOfWork = beginUnitOfWork();
+        newSignalWaiting(unitOfWork, workflowRunId, name, timestamp);
+        unitOfWork.flush();
     }
 
-    public <I extends Serializable, O extends Serializable>
-    String scheduleRunForNewWorkflow(
-            String workflowId,
-            Class<? extends RunnableWorkflow<I, O>> workflowClass,
-            I input) {
-
-        AtomicReference<String> workflowRunId = new AtomicReference<>();
-        jdbi.useTransaction(handle -> {
-
-            handle.createUpdate("""
-                            INSERT INTO workflow(id, class_name, input)
-                            VALUES (:id, :className, :input)
-                            """)
-                    .bind("id", workflowId)
-                    .bind("className", workflowClass.getName())
-                    .bind("input", serialize(input))
-                    .execute();
-
-            workflowRunId.set(scheduleWorkflowRun(workflowId, workflowClass, handle));
-        });
-        return workflowRunId.get();
+    /**
+     * @return the id of the waiting event
+     */
+    Long newSignalWaiting(UnitOfWork unitOfWork, String workflowRunId, String name, Instant timestamp);
 
+    default void signalReceived(String workflowRunId, String name, Serializable value, Instant timestamp) {
+        UnitOfWork unitOfWork = beginUnitOfWork();
+        signalReceived(unitOfWork, workflowRunId, name, value, timestamp);
+        unitOfWork.flush();
     }
 
-    public void workflowRunStarted(String workflowRunId, Instant timestamp) {
-        jdbi.useTransaction(handle -> {
-            workflowRunStarted(handle, workflowRunId, timestamp);
-        });
-    }
+    void signalReceived(UnitOfWork unitOfWork, String workflowRunId, String name, Serializable value, Instant timestamp);
 
-    public void workflowRunStarted(Handle handle, String workflowRunId, Instant timestamp) {
-        String eventId = newEvent(handle, workflowRunId, StepFunctionType.WORKFLOW, StepFunctionEventStatus.STARTED, timestamp);
+    /**
+     * Archive the active run of the workflow and schedule a new one, which inherits the history of the
+     * archived run when resuming from the point of failure
+     *
+     * @return the id of the new run
+     * @throws IllegalStateException when there is no such workflow, its active run is not terminal, or
+     *                               it did not fail when resuming from the point of failure
+     */
+    String scheduleNewRunForExistingWorkflow(String workflowId, boolean resumeFromPointOfFailure);
 
-        handle.createUpdate("""
-                        UPDATE workflow_run
-                        SET started_event_id = :eventId
-                        WHERE id = :workflowRunId""")
-                .bind("eventId", eventId)
-                .bind("workflowRunId", workflowRunId)
-                .execute();
-    }
+    /**
+     * @return the id of the first run of the new workflow
+     */
+    <I extends Serializable, O extends Serializable>
+    String scheduleRunForNewWorkflow(String workflowId, Class<? extends RunnableWorkflow<I, O>> workflowClass, I input);
 
-    public void workflowRunCompleted(String workflowRunId, Object output, Instant timestamp) {
-        jdbi.useTransaction(handle -> {
-            String eventId = newEvent(handle, workflowRunId, StepFunctionType.WORKFLOW, StepFunctionEventStatus.COMPLETED, timestamp);
-
-            handle.createUpdate("""
-                            UPDATE workflow_run
-                            SET completed_event_id = :eventId,
-                                output = :output
-                            WHERE id = :workflowRunId""")
-                    .bind("eventId", eventId)
-                    .bind("output", serialize(output))
-                    .bind("workflowRunId", workflowRunId)
-                    .execute();
-
-        });
+    default void workflowRunStarted(String workflowRunId, Instant timestamp) {
+        UnitOfWork unitOfWork = beginUnitOfWork();
+        workflowRunStarted(unitOfWork, workflowRunId, timestamp);
+        unitOfWork.flush();
     }
 
-    public void failWorkflowRun(String workflowRunId, Instant timestamp) {
-        jdbi.useTransaction(handle -> {
-            String eventId = newEvent(handle, workflowRunId, StepFunctionType.WORKFLOW, StepFunctionEventStatus.FAILED, timestamp);
-
-            handle.createUpdate("""
-                            UPDATE workflow_run
-                            SET completed_event_id = :eventId
-                            WHERE id = :workflowRunId""")
-                    .bind("eventId", eventId)
-                    .bind("workflowRunId", workflowRunId)
-                    .execute();
+    void workflowRunStarted(UnitOfWork unitOfWork, String workflowRunId, Instant timestamp);
 
-        });
+    default void workflowRunCompleted(String workflowRunId, Object output, Instant timestamp) {
+        UnitOfWork unitOfWork = beginUnitOfWork();
+        workflowRunCompleted(unitOfWork, workflowRunId, output, timestamp);
+        unitOfWork.flush();
     }
 
-    public void newConditionWaiting(String workflowRunId, String identifier, Instant timestamp) {
-        jdbi.useTransaction(handle -> {
-            newConditionWaiting(handle, workflowRunId, identifier, timestamp);
-        });
-    }
+    void workflowRunCompleted(UnitOfWork unitOfWork, String workflowRunId, Object output, Instant timestamp);
 
-    public void newConditionWaiting(Handle handle, String workflowRunId, String identifier, Instant timestamp) {
-        String eventId = newEvent(handle, workflowRunId, StepFunctionType.CONDITION, StepFunctionEventStatus.WAITING, timestamp);
-        handle.createUpdate("""
-                        INSERT INTO "condition"(workflow_run_id, identifier, waiting_event_id)
-                        VALUES (:workflowRunId, :identifier, :eventId)
-                        """)
-                .bind("workflowRunId", workflowRunId)
-                .bind("identifier", identifier)
-                .bind("eventId", eventId)
-                .execute();
+    default void failWorkflowRun(String workflowRunId, Instant timestamp) {
+        UnitOfWork unitOfWork = beginUnitOfWork();
+        failWorkflowRun(unitOfWork, workflowRunId, timestamp);
+        unitOfWork.flush();
     }
 
-    public void conditionSatisfied(String workflowRunId, String identifier, Instant timestamp) {
-        jdbi.useTransaction(handle -> {
-            conditionSatisfied(handle, workflowRunId, identifier, timestamp);
-        });
-    }
+    void failWorkflowRun(UnitOfWork unitOfWork, String workflowRunId, Instant timestamp);
 
-    public void conditionSatisfied(Handle handle, String workflowRunId, String identifier, Instant timestamp) {
-        String eventId = newEvent(handle, workflowRunId, StepFunctionType.CONDITION, StepFunctionEventStatus.SATISFIED, timestamp);
-
-        handle.createUpdate("""
-                        UPDATE "condition"
-                        SET satisfied_event_id = :eventId
-                        WHERE workflow_run_id = :workflowRunId
-                            AND identifier = :identifier""")
-                .bind("eventId", eventId)
-                .bind("identifier", identifier)
-                .bind("workflowRunId", workflowRunId)
-                .execute();
+    default void newConditionWaiting(String workflowRunId, String identifier, Instant timestamp) {
+        UnitOfWork unitOfWork = beginUnitOfWork();
+        newConditionWaiting(unitOfWork, workflowRunId, identifier, timestamp);
+        unitOfWork.flush();
     }
 
-    public void newSleepStarted(String workflowRunId, String identifier, Duration duration, Instant timestamp) {
-        jdbi.useTransaction(handle -> {
-            newSleepStarted(handle, workflowRunId, identifier, duration, timestamp);
-        });
-    }
+    /**
+     * @return the id of the waiting event
+     */
+    Long newConditionWaiting(UnitOfWork unitOfWork, String workflowRunId, String identifier, Instant timestamp);
 
-    public void newSleepStarted(Handle handle, String workflowRunId, String identifier, Duration duration, Instant timestamp) {
-        String eventId = newEvent(handle, workflowRunId, StepFunctionType.SLEEP, StepFunctionEventStatus.STARTED, timestamp);
-        handle.createUpdate("""
-                        INSERT INTO sleep(workflow_run_id, identifier, duration_in_millis, started_event_id)
-                        VALUES (:workflowRunId, :identifier, :durationInMillis, :eventId)
-                        """)
-                .bind("workflowRunId", workflowRunId)
-                .bind("identifier", identifier)
-                .bind("durationInMillis", duration.toMillis())
-                .bind("eventId", eventId)
-                .execute();
+    default void conditionSatisfied(String workflowRunId, String identifier, Instant timestamp) {
+        UnitOfWork unitOfWork = beginUnitOfWork();
+        conditionSatisfied(unitOfWork, workflowRunId, identifier, timestamp);
+        unitOfWork.flush();
     }
 
-    public void sleepCompleted(String workflowRunId, String identifier, Instant timestamp) {
-        jdbi.useTransaction(handle -> {
-            sleepCompleted(handle, workflowRunId, identifier, timestamp);
-        });
-    }
+    void conditionSatisfied(UnitOfWork unitOfWork, String workflowRunId, String identifier, Instant timestamp);
 
-    public void sleepCompleted(Handle handle, String workflowRunId, String identifier, Instant timestamp) {
-        String eventId = newEvent(handle, workflowRunId, StepFunctionType.SLEEP, StepFunctionEventStatus.COMPLETED, timestamp);
-
-        handle.createUpdate("""
-                        UPDATE sleep
-                        SET completed_event_id = :eventId
-                        WHERE workflow_run_id = :workflowRunId
-                            AND identifier = :identifier""")
-                .bind("eventId", eventId)
-                .bind("identifier", identifier)
-                .bind("workflowRunId", workflowRunId)
-                .execute();
+    default void newSleepStarted(String workflowRunId, String identifier, Duration duration, Instant timestamp) {
+        UnitOfWork unitOfWork = beginUnitOfWork();
+        newSleepStarted(unitOfWork, workflowRunId, identifier, duration, timestamp);
+        unitOfWork.flush();
     }
 
-    private byte[] serialize(Object obj) {
-        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        try (ObjectOutputStream objectStream = new ObjectOutputStream(byteStream)) {
-            objectStream.writeObject(obj);
-        } catch (IOException e) {
-            // Handle exception
-        }
-        return byteStream.toByteArray();
-    }
+    /**
+     * @return the id of the started event
+     */
+    Long newSleepStarted(UnitOfWork unitOfWork, String workflowRunId, String identifier, Duration duration, Instant timestamp);
 
-    private <I extends Serializable, O extends Serializable>
-    Class<? extends RunnableWorkflow<I, O>> workflowClassFromClassName(String className) {
-        try {
-            return (Class<? extends RunnableWorkflow<I, O>>) Class.forName(className);
-        } catch (ClassNotFoundException e) {
-            throw new IllegalStateException(e);
-        }
+    default void sleepCompleted(String workflowRunId, String identifier, Instant timestamp) {
+        UnitOfWork unitOfWork = beginUnitOfWork();
+        sleepCompleted(unitOfWork, workflowRunId, identifier, timestamp);
+        unitOfWork.flush();
     }
 
-    private <I extends Serializable, O extends Serializable>
-    String scheduleWorkflowRun(
-            String workflowId,
-            Class<? extends RunnableWorkflow<I, O>> workflowClass,
-            Handle handle) {
-
-        int existingRunCount = handle.createQuery("""
-                        SELECT count(id)
-                        FROM workflow_run
-                        WHERE workflow_id = :workflowId
-                        """)
-                .bind("workflowId", workflowId)
-                .map((rs, ctx) ->
-                        rs.getInt(1)
-                )
-                .one();
-
-        String workflowRunId = "%s::%s".formatted(workflowId, ++existingRunCount);
-
-        handle.createUpdate("""
-                        INSERT INTO workflow_run (id, workflow_id)
-                        VALUES (:id, :workflowId)
-                        """)
-                .bind("id", workflowRunId)
-                .bind("workflowId", workflowId)
-                .execute();
-
-        String eventId = newEvent(handle, workflowRunId, StepFunctionType.WORKFLOW, StepFunctionEventStatus.SCHEDULED, Instant.now());
-
-        handle.createUpdate("""
-                        UPDATE workflow_run
-                        SET scheduled_event_id = :eventId
-                        WHERE id = :workflowRunId""")
-                .bind("eventId", eventId)
-                .bind("workflowRunId", workflowRunId)
-                .execute();
-
-        return workflowRunId;
-
-    }
+    void sleepCompleted(UnitOfWork unitOfWork, String workflowRunId, String identifier, Instant timestamp);
 
+    /**
+     * Mark the run blocked on a step still pending from an earlier pass, which the pass pauses on without
+     * an event: completing another step or restarting the run left it {@link WorkflowRunStatus#RUNNING}
+     */
+    void runBlocked(UnitOfWork unitOfWork, String workflowRunId, WorkflowRunStatus status, String functionId);
 }
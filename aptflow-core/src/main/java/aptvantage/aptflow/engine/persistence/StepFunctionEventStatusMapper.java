@@ -9,12 +9,37 @@ import java.sql.SQLException;
 
 public class StepFunctionEventStatusMapper implements ColumnMapper<StepFunctionEventStatus> {
 
+    static short toCode(StepFunctionEventStatus status) {
+        return switch (status) {
+            case STARTED -> 1;
+            case COMPLETED -> 2;
+            case FAILED -> 3;
+            case RECEIVED -> 4;
+            case WAITING -> 5;
+            case SCHEDULED -> 6;
+            case SATISFIED -> 7;
+        };
+    }
+
+    static StepFunctionEventStatus fromCode(short code) {
+        return switch (code) {
+            case 1 -> StepFunctionEventStatus.STARTED;
+            case 2 -> StepFunctionEventStatus.COMPLETED;
+            case 3 -> StepFunctionEventStatus.FAILED;
+            case 4 -> StepFunctionEventStatus.RECEIVED;
+            case 5 -> StepFunctionEventStatus.WAITING;
+            case 6 -> StepFunctionEventStatus.SCHEDULED;
+            case 7 -> StepFunctionEventStatus.SATISFIED;
+            default -> throw new IllegalStateException("unknown step function event status code [%s]".formatted(code));
+        };
+    }
+
     @Override
     public StepFunctionEventStatus map(ResultSet r, int columnNumber, StatementContext ctx) throws SQLException {
-        String stringValue = r.getString(columnNumber);
-        if (stringValue == null) {
+        short code = r.getShort(columnNumber);
+        if (r.wasNull()) {
             return null;
         }
-        return StepFunctionEventStatus.valueOf(stringValue);
+        return fromCode(code);
     }
 }
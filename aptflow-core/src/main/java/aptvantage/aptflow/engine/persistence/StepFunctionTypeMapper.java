@@ -9,12 +9,33 @@ import java.sql.SQLException;
 
 class StepFunctionTypeMapper implements ColumnMapper<StepFunctionType> {
 
+    static short toCode(StepFunctionType type) {
+        return switch (type) {
+            case WORKFLOW -> 1;
+            case ACTIVITY -> 2;
+            case CONDITION -> 3;
+            case SIGNAL -> 4;
+            case SLEEP -> 5;
+        };
+    }
+
+    static StepFunctionType fromCode(short code) {
+        return switch (code) {
+            case 1 -> StepFunctionType.WORKFLOW;
+            case 2 -> StepFunctionType.ACTIVITY;
+            case 3 -> StepFunctionType.CONDITION;
+            case 4 -> StepFunctionType.SIGNAL;
+            case 5 -> StepFunctionType.SLEEP;
+            default -> throw new IllegalStateException("unknown step function type code [%s]".formatted(code));
+        };
+    }
+
     @Override
     public StepFunctionType map(ResultSet r, int columnNumber, StatementContext ctx) throws SQLException {
-        String stringValue = r.getString(columnNumber);
-        if (stringValue == null) {
+        short code = r.getShort(columnNumber);
+        if (r.wasNull()) {
             return null;
         }
-        return StepFunctionType.valueOf(stringValue);
+        return fromCode(code);
     }
 }
@@ -0,0 +1,96 @@
+package aptvantage.aptflow.engine.persistence;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Hands out the connection of the transaction bound to the calling thread (see {@link RunHandle}),
+ * and pooled connections otherwise. Given to the scheduler, so that tasks scheduled from within a
+ * StateWriter transaction are inserted and committed together with the state they belong to.
+ */
+public class TransactionAwareDataSource implements DataSource {
+
+    // the transaction owner decides when the connection is committed and released
+    private static final Set<String> SUPPRESSED_METHODS = Set.of("close", "commit", "rollback", "setAutoCommit");
+
+    private final DataSource dataSource;
+
+    public TransactionAwareDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection connection = RunHandle.boundTransactionConnection();
+        if (connection == null) {
+            return dataSource.getConnection();
+        }
+        return nonClosing(connection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return dataSource.getConnection(username, password);
+    }
+
+    /**
+     * @return a view of the connection that leaves closing, committing and rolling back to its owner
+     */
+    static Connection nonClosing(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (SUPPRESSED_METHODS.contains(method.getName())) {
+                        return null;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return dataSource.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return dataSource.isWrapperFor(iface);
+    }
+}
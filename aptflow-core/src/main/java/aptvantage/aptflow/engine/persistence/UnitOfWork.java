@@ -0,0 +1,32 @@
+package aptvantage.aptflow.engine.persistence;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The state transitions of a single workflow execution pass, committed together at safe points instead
+ * of one at a time. Shared by every thread of the pass (async activities included); once closed it
+ * writes through.
+ */
+public interface UnitOfWork {
+
+    /**
+     * Commit everything buffered so far, returning once it is durable
+     */
+    void flush();
+
+    /**
+     * Commit everything buffered so far together with whatever the action writes, scheduler tasks
+     * included
+     */
+    void flushWith(Runnable action);
+
+    /**
+     * @return a future completed once everything buffered so far is durable
+     */
+    CompletableFuture<Void> flushAsync();
+
+    /**
+     * Flush anything still buffered and write through from now on
+     */
+    void close();
+}
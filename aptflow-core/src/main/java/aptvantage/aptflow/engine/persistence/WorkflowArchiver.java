@@ -0,0 +1,188 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.model.StepFunctionType;
+import com.google.common.flogger.FluentLogger;
+import org.jdbi.v3.core.Jdbi;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Moves workflows whose runs all completed longer than their time to live ago to the *_archive tables,
+ * or deletes them, together with their runs, steps, events, payloads nothing else refers to and their
+ * leftover scheduled tasks (see V13__workflow_archive.sql).
+ * <p>
+ * Workflows are archived {@code batchSize} at a time, one transaction each, locking them with
+ * {@code FOR UPDATE SKIP LOCKED} so concurrent archivers and writers never wait on each other, and at
+ * most {@code maxWorkflowsPerSecond} so archiving stays out of the way of running workflows.
+ * <p>
+ * Blobs of deleted payloads offloaded to a {@link BlobStore} are deleted later, by
+ * {@link PayloadStore#deleteUnreferencedBlobs(List, Instant)}; archived payloads keep theirs.
+ */
+public class WorkflowArchiver {
+
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    private final Jdbi jdbi;
+    private final Duration defaultTtl;
+    private final Map<String, Duration> ttlByClassName;
+    private final boolean keepArchive;
+    private final int batchSize;
+    private final int maxWorkflowsPerSecond;
+
+    private final AtomicLong archivedWorkflows = new AtomicLong();
+
+    /**
+     * @param defaultTtl     time to live of the workflows of classes without one in ttlByClassName, null
+     *                       to keep them forever
+     * @param ttlByClassName time to live by workflow class name
+     * @param keepArchive    move the workflows to the archive tables rather than delete them
+     */
+    public WorkflowArchiver(Jdbi jdbi,
+                            Duration defaultTtl,
+                            Map<String, Duration> ttlByClassName,
+                            boolean keepArchive,
+                            int batchSize,
+                            int maxWorkflowsPerSecond) {
+        this.jdbi = jdbi;
+        this.defaultTtl = defaultTtl;
+        this.ttlByClassName = Map.copyOf(ttlByClassName);
+        this.keepArchive = keepArchive;
+        this.batchSize = batchSize;
+        this.maxWorkflowsPerSecond = maxWorkflowsPerSecond;
+    }
+
+    /**
+     * Archive every expired workflow, with the names of the tasks whose leftovers to remove
+     *
+     * @return the number of workflows archived
+     */
+    public int archiveExpired(String startTaskName, String wakeUpTaskName, String signalTaskName, String reevaluationTaskName)
+            throws InterruptedException {
+        ScheduledTaskNames taskNames = new ScheduledTaskNames(startTaskName, wakeUpTaskName, signalTaskName, reevaluationTaskName);
+        int archived = 0;
+        for (Map.Entry<String, Duration> classTtl : ttlByClassName.entrySet()) {
+            archived += archiveExpired(List.of(classTtl.getKey()), false, classTtl.getValue(), taskNames);
+        }
+        if (defaultTtl != null) {
+            archived += archiveExpired(new ArrayList<>(ttlByClassName.keySet()), true, defaultTtl, taskNames);
+        }
+        if (archived > 0) {
+            logger.atFine().log("%s [%s] expired workflows", keepArchive ? "archived" : "deleted", archived);
+        }
+        return archived;
+    }
+
+    private int archiveExpired(List<String> classNames, boolean otherClasses, Duration ttl, ScheduledTaskNames taskNames)
+            throws InterruptedException {
+        long completedBeforeEventId = EventIds.firstIdAt(Instant.now().minus(ttl));
+        int archived = 0;
+        int batch;
+        do {
+            long start = System.nanoTime();
+            batch = archiveBatch(classNames, otherClasses, completedBeforeEventId, taskNames);
+            archived += batch;
+            archivedWorkflows.addAndGet(batch);
+            // pace the batches so they take at least as long as archiving them at the maximum rate
+            long minimumMillis = batch * 1000L / maxWorkflowsPerSecond;
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            if (minimumMillis > elapsedMillis) {
+                Thread.sleep(minimumMillis - elapsedMillis);
+            }
+        } while (batch == batchSize);
+        return archived;
+    }
+
+    private int archiveBatch(List<String> classNames, boolean otherClasses, long completedBeforeEventId, ScheduledTaskNames taskNames) {
+        AtomicReference<List<String>> workflowIds = new AtomicReference<>();
+        RunHandle.useTransaction(jdbi, handle -> {
+            // a workflow is expired once all its runs completed before the cutoff, which the time-ordered
+            // event ids tell without reading the events
+            workflowIds.set(handle.createQuery("""
+                            SELECT w.id
+                            FROM workflow w
+                            WHERE (w.class_name = ANY (:classNames)) <> :otherClasses
+                                AND NOT EXISTS (
+                                    SELECT 1
+                                    FROM workflow_run wr
+                                    WHERE wr.workflow_id = w.id
+                                        AND (wr.completed_event_id IS NULL OR wr.completed_event_id >= :completedBefore)
+                                )
+                            LIMIT :batchSize
+                            FOR UPDATE SKIP LOCKED
+                            """)
+                    .bindArray("classNames", String.class, classNames)
+                    .bind("otherClasses", otherClasses)
+                    .bind("completedBefore", completedBeforeEventId)
+                    .bind("batchSize", batchSize)
+                    .mapTo(String.class)
+                    .list());
+            if (workflowIds.get().isEmpty()) {
+                return;
+            }
+
+            // one-time tasks are removed once they ran, what is left are tasks that kept failing or were
+            // never needed, like the re-evaluation of a condition the run no longer waits on
+            handle.createUpdate("""
+                            WITH archived_run AS (
+                                SELECT id FROM workflow_run WHERE workflow_id = ANY (:workflowIds)
+                            ), archived_step AS (
+                                SELECT sf.workflow_run_id, sf.function_id, sf.function_type
+                                FROM step_function sf
+                                    JOIN archived_run ON archived_run.id = sf.workflow_run_id
+                            )
+                            DELETE FROM scheduled_tasks
+                            WHERE NOT picked
+                                AND (
+                                    (task_name, task_instance) IN (
+                                        SELECT CAST(:startTask AS text), 'workflow::' || id FROM archived_run
+                                        UNION ALL
+                                        SELECT CAST(:wakeUpTask AS text), 'sleep::' || workflow_run_id || '::' || function_id
+                                        FROM archived_step WHERE function_type = :sleepType
+                                        UNION ALL
+                                        SELECT CAST(:signalTask AS text), 'signal::' || workflow_run_id || '::' || function_id
+                                        FROM archived_step WHERE function_type = :signalType
+                                        UNION ALL
+                                        -- re-evaluations recovered at start up
+                                        SELECT CAST(:reevaluationTask AS text), 'condition::' || workflow_run_id || '::' || function_id
+                                        FROM archived_step WHERE function_type = :conditionType
+                                    )
+                                    -- re-evaluation task instances end with '::' and a random UUID
+                                    OR (task_name = :reevaluationTask AND left(task_instance, -38) IN (
+                                        SELECT workflow_run_id || '::' || function_id
+                                        FROM archived_step WHERE function_type = :conditionType
+                                    ))
+                                )
+                            """)
+                    .bindArray("workflowIds", String.class, workflowIds.get())
+                    .bind("startTask", taskNames.start())
+                    .bind("wakeUpTask", taskNames.wakeUp())
+                    .bind("signalTask", taskNames.signal())
+                    .bind("reevaluationTask", taskNames.reevaluation())
+                    .bind("sleepType", StepFunctionTypeMapper.toCode(StepFunctionType.SLEEP))
+                    .bind("signalType", StepFunctionTypeMapper.toCode(StepFunctionType.SIGNAL))
+                    .bind("conditionType", StepFunctionTypeMapper.toCode(StepFunctionType.CONDITION))
+                    .execute();
+
+            handle.createUpdate("""
+                            CALL aptflow_archive_workflows(:workflowIds, :keepArchive)
+                            """)
+                    .bindArray("workflowIds", String.class, workflowIds.get())
+                    .bind("keepArchive", keepArchive)
+                    .execute();
+        });
+        return workflowIds.get().size();
+    }
+
+    public long getArchivedWorkflows() {
+        return archivedWorkflows.get();
+    }
+
+    private record ScheduledTaskNames(String start, String wakeUp, String signal, String reevaluation) {
+    }
+}
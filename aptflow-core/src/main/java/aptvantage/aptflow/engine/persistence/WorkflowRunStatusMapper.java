@@ -0,0 +1,48 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.model.WorkflowRunStatus;
+import org.jdbi.v3.core.mapper.ColumnMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Codes of the workflow_run status column, maintained by aptflow_append_event (see V15__run_status.sql)
+ */
+class WorkflowRunStatusMapper implements ColumnMapper<WorkflowRunStatus> {
+
+    static short toCode(WorkflowRunStatus status) {
+        return switch (status) {
+            case SCHEDULED -> 1;
+            case RUNNING -> 2;
+            case WAITING_FOR_SIGNAL -> 3;
+            case WAITING_FOR_CONDITION -> 4;
+            case SLEEPING -> 5;
+            case COMPLETED -> 6;
+            case FAILED -> 7;
+        };
+    }
+
+    static WorkflowRunStatus fromCode(short code) {
+        return switch (code) {
+            case 1 -> WorkflowRunStatus.SCHEDULED;
+            case 2 -> WorkflowRunStatus.RUNNING;
+            case 3 -> WorkflowRunStatus.WAITING_FOR_SIGNAL;
+            case 4 -> WorkflowRunStatus.WAITING_FOR_CONDITION;
+            case 5 -> WorkflowRunStatus.SLEEPING;
+            case 6 -> WorkflowRunStatus.COMPLETED;
+            case 7 -> WorkflowRunStatus.FAILED;
+            default -> throw new IllegalStateException("unknown workflow run status code [%s]".formatted(code));
+        };
+    }
+
+    @Override
+    public WorkflowRunStatus map(ResultSet r, int columnNumber, StatementContext ctx) throws SQLException {
+        short code = r.getShort(columnNumber);
+        if (r.wasNull()) {
+            return null;
+        }
+        return fromCode(code);
+    }
+}
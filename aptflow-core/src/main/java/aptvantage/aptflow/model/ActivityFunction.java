@@ -2,30 +2,33 @@ package aptvantage.aptflow.model;
 
 import aptvantage.aptflow.engine.persistence.StateReader;
 
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 public class ActivityFunction<I extends Serializable, O extends Serializable, A extends Serializable> implements StepFunction<I, O> {
 
     private final String workflowRunId;
     private final String name;
-    private final String startedEventId;
-    private final String completedEventId;
-    private final A output;
+    private final Long startedEventId;
+    private final Long completedEventId;
+    private final byte[] outputHash;
     private final StateReader stateReader;
 
     public ActivityFunction(
             String workflowRunId,
             String name,
-            String startedEventId,
-            String completedEventId,
-            A output,
+            Long startedEventId,
+            Long completedEventId,
+            byte[] outputHash,
             StateReader stateReader
     ) {
         this.workflowRunId = workflowRunId;
         this.name = name;
         this.startedEventId = startedEventId;
         this.completedEventId = completedEventId;
-        this.output = output;
+        this.outputHash = outputHash;
         this.stateReader = stateReader;
     }
 
@@ -59,7 +62,21 @@ public class ActivityFunction<I extends Serializable, O extends Serializable, A
     }
 
     public A getOutput() {
-        return output;
+        return stateReader.getPayload(outputHash);
+    }
+
+    /**
+     * Stream the serialized output rather than materializing it, for large outputs
+     *
+     * @return the output as encoded by its payload codec, or null before the activity completed
+     */
+    public InputStream openOutputStream() {
+        return stateReader.openPayload(outputHash);
+    }
+
+    public ReadableByteChannel openOutputChannel() {
+        InputStream output = openOutputStream();
+        return output == null ? null : Channels.newChannel(output);
     }
 
     public String getKey() {
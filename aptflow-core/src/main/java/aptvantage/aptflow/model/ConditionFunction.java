@@ -8,16 +8,16 @@ public class ConditionFunction<I extends Serializable, O extends Serializable> i
 
     private final String workflowRunId;
     private final String identifier;
-    private final String waitingEventId;
-    private final String satisfiedEventId;
+    private final Long waitingEventId;
+    private final Long satisfiedEventId;
     private final StateReader stateReader;
 
 
     public ConditionFunction(
             String workflowRunId,
             String identifier,
-            String waitingEventId,
-            String satisfiedEventId,
+            Long waitingEventId,
+            Long satisfiedEventId,
             StateReader stateReader
     ) {
         this.workflowRunId = workflowRunId;
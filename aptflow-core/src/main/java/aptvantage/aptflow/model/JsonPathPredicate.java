@@ -0,0 +1,28 @@
+package aptvantage.aptflow.model;
+
+/**
+ * A SQL/JSON path predicate (e.g. {@code $.customerId == "X"}), evaluated by Postgres against the JSON
+ * of a workflow's input, of its latest run's output, or of one of that run's activity outputs.
+ * <p>
+ * Only payloads stored with the JSON payload codec can match.
+ */
+public record JsonPathPredicate(Target target, String activityName, String jsonPath) {
+
+    public enum Target {
+        INPUT,
+        OUTPUT,
+        ACTIVITY_OUTPUT
+    }
+
+    public static JsonPathPredicate input(String jsonPath) {
+        return new JsonPathPredicate(Target.INPUT, null, jsonPath);
+    }
+
+    public static JsonPathPredicate output(String jsonPath) {
+        return new JsonPathPredicate(Target.OUTPUT, null, jsonPath);
+    }
+
+    public static JsonPathPredicate activityOutput(String activityName, String jsonPath) {
+        return new JsonPathPredicate(Target.ACTIVITY_OUTPUT, activityName, jsonPath);
+    }
+}
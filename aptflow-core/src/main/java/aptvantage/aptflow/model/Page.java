@@ -0,0 +1,15 @@
+package aptvantage.aptflow.model;
+
+/**
+ * A page of results ordered by id, starting after the given id (keyset pagination)
+ */
+public record Page(String after, int size) {
+
+    public static Page first(int size) {
+        return new Page(null, size);
+    }
+
+    public Page next(String lastId) {
+        return new Page(lastId, size);
+    }
+}
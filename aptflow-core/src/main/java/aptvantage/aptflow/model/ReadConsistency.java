@@ -0,0 +1,18 @@
+package aptvantage.aptflow.model;
+
+import java.time.Duration;
+
+/**
+ * Where an API read may be served from: the primary, which has every committed write, or the read
+ * replica, which may lag behind it. With a maximum lag, the replica is only read while it lags less,
+ * the primary otherwise. Without a replica configured every read is served by the primary.
+ */
+public record ReadConsistency(boolean replica, Duration maxLag) {
+
+    public static final ReadConsistency PRIMARY = new ReadConsistency(false, null);
+    public static final ReadConsistency REPLICA = new ReadConsistency(true, null);
+
+    public static ReadConsistency replicaWithin(Duration maxLag) {
+        return new ReadConsistency(true, maxLag);
+    }
+}
@@ -0,0 +1,13 @@
+package aptvantage.aptflow.model;
+
+import java.time.Instant;
+
+/**
+ * Position after which the next page of runs starts, runs being listed newest first (keyset pagination)
+ */
+public record RunCursor(Instant created, String runId) {
+
+    public static RunCursor after(WorkflowRun<?, ?> run) {
+        return new RunCursor(run.getCreated(), run.getId());
+    }
+}
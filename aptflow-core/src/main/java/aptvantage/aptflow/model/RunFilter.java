@@ -0,0 +1,37 @@
+package aptvantage.aptflow.model;
+
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * Selects the runs to list: of a workflow class, in one of the statuses, created within
+ * [createdFrom, createdUntil). Null (or empty statuses) matches any. Runs superseded by a rerun are
+ * left out unless includeArchived.
+ */
+public record RunFilter(
+        String workflowClassName,
+        Set<WorkflowRunStatus> statuses,
+        Instant createdFrom,
+        Instant createdUntil,
+        boolean includeArchived) {
+
+    public static RunFilter any() {
+        return new RunFilter(null, Set.of(), null, null, false);
+    }
+
+    public RunFilter withWorkflowClass(Class<?> workflowClass) {
+        return new RunFilter(workflowClass.getName(), statuses, createdFrom, createdUntil, includeArchived);
+    }
+
+    public RunFilter withStatuses(WorkflowRunStatus... statuses) {
+        return new RunFilter(workflowClassName, Set.of(statuses), createdFrom, createdUntil, includeArchived);
+    }
+
+    public RunFilter createdBetween(Instant from, Instant until) {
+        return new RunFilter(workflowClassName, statuses, from, until, includeArchived);
+    }
+
+    public RunFilter withArchived() {
+        return new RunFilter(workflowClassName, statuses, createdFrom, createdUntil, true);
+    }
+}
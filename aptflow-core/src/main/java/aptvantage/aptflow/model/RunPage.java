@@ -0,0 +1,10 @@
+package aptvantage.aptflow.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * @param next the cursor of the following page, null on the last page
+ */
+public record RunPage(List<WorkflowRun<Serializable, Serializable>> runs, RunCursor next) {
+}
@@ -8,16 +8,16 @@ public class SignalFunction<I extends Serializable, O extends Serializable, S ex
 
     private final String workflowRunId;
     private final String name;
-    private final String waitingEventId;
-    private final String receivedEventId;
+    private final Long waitingEventId;
+    private final Long receivedEventId;
     private final S value;
     private final StateReader stateReader;
 
     public SignalFunction(
             String workflowRunId,
             String name,
-            String waitingEventId,
-            String receivedEventId,
+            Long waitingEventId,
+            Long receivedEventId,
             S value,
             StateReader stateReader
     ) {
@@ -9,16 +9,16 @@ public class SleepFunction<I extends Serializable, O extends Serializable> imple
 
     private final String workflowRunId;
     private final String identifier;
-    private final String startedEventId;
-    private final String completedEventId;
+    private final Long startedEventId;
+    private final Long completedEventId;
     private final Long durationInMillis;
     private final StateReader stateReader;
 
     public SleepFunction(
             String workflowRunId,
             String identifier,
-            String startedEventId,
-            String completedEventId,
+            Long startedEventId,
+            Long completedEventId,
             Long durationInMillis,
             StateReader stateReader
     ) {
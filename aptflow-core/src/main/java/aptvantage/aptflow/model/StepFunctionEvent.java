@@ -7,16 +7,18 @@ import java.time.Instant;
 
 public class StepFunctionEvent<I extends Serializable, O extends Serializable> {
 
-    private final String id;
+    private final Long id;
     private final String workflowRunId;
+    private final int sequence;
     private final StepFunctionType stepFunctionType;
     private final StepFunctionEventStatus stepFunctionEventStatus;
     private final Instant timestamp;
     private final String functionId;
     private final StateReader stateReader;
 
-    public StepFunctionEvent(String id,
+    public StepFunctionEvent(Long id,
                              String workflowRunId,
+                             int sequence,
                              StepFunctionType stepFunctionType,
                              StepFunctionEventStatus stepFunctionEventStatus,
                              Instant timestamp,
@@ -24,6 +26,7 @@ public class StepFunctionEvent<I extends Serializable, O extends Serializable> {
                              StateReader stateReader) {
         this.id = id;
         this.workflowRunId = workflowRunId;
+        this.sequence = sequence;
         this.stepFunctionType = stepFunctionType;
         this.stepFunctionEventStatus = stepFunctionEventStatus;
         this.timestamp = timestamp;
@@ -32,10 +35,17 @@ public class StepFunctionEvent<I extends Serializable, O extends Serializable> {
         this.stateReader = stateReader;
     }
 
-    public String getId() {
+    public Long getId() {
         return id;
     }
 
+    /**
+     * @return the position of this event in its workflow run, starting at 1
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
     public StepFunction<I, O> getStepFunction() {
         return stateReader.getStepFunctionForWorkflowRun(workflowRunId, functionId);
     }
@@ -2,7 +2,10 @@ package aptvantage.aptflow.model;
 
 import aptvantage.aptflow.engine.persistence.StateReader;
 
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.time.Instant;
 import java.util.List;
 
@@ -12,34 +15,46 @@ public class WorkflowRun<I extends Serializable, O extends Serializable> {
 
     private final String workflowId;
 
-    private final String scheduledEventId;
+    private final Long scheduledEventId;
 
-    private final String startedEventId;
+    private final Long startedEventId;
 
-    private final String completedEventId;
+    private final Long completedEventId;
 
-    private final O output;
+    private final byte[] outputHash;
 
     private final Instant archived;
+
+    private final Instant created;
+
+    private final WorkflowRunStatus status;
+
+    private final String blockedOn;
     private final StateReader stateReader;
 
 
     public WorkflowRun(
             String id,
             String workflowId,
-            String scheduledEventId,
-            String startedEventId,
-            String completedEventId,
-            O output,
+            Long scheduledEventId,
+            Long startedEventId,
+            Long completedEventId,
+            byte[] outputHash,
             Instant archived,
+            Instant created,
+            WorkflowRunStatus status,
+            String blockedOn,
             StateReader stateReader) {
         this.id = id;
         this.workflowId = workflowId;
         this.scheduledEventId = scheduledEventId;
         this.startedEventId = startedEventId;
         this.completedEventId = completedEventId;
-        this.output = output;
+        this.outputHash = outputHash;
         this.archived = archived;
+        this.created = created;
+        this.status = status;
+        this.blockedOn = blockedOn;
         this.stateReader = stateReader;
     }
 
@@ -52,7 +67,21 @@ public class WorkflowRun<I extends Serializable, O extends Serializable> {
     }
 
     public O getOutput() {
-        return output;
+        return stateReader.getPayload(outputHash);
+    }
+
+    /**
+     * Stream the serialized output rather than materializing it, for large outputs
+     *
+     * @return the output as encoded by its payload codec, or null before the run completed
+     */
+    public InputStream openOutputStream() {
+        return stateReader.openPayload(outputHash);
+    }
+
+    public ReadableByteChannel openOutputChannel() {
+        InputStream output = openOutputStream();
+        return output == null ? null : Channels.newChannel(output);
     }
 
     public StepFunctionEvent<I, O> getScheduledEvent() {
@@ -71,6 +100,24 @@ public class WorkflowRun<I extends Serializable, O extends Serializable> {
         return archived;
     }
 
+    public Instant getCreated() {
+        return created;
+    }
+
+    /**
+     * @return the status as of when this run was read
+     */
+    public WorkflowRunStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the id of the signal, condition or sleep the run waits on, null when it is not waiting
+     */
+    public String getBlockedOn() {
+        return blockedOn;
+    }
+
     public List<StepFunction<I, O>> getFunctions() {
         return stateReader.getFunctionsForWorkflowRun(id);
     }
@@ -89,8 +136,14 @@ public class WorkflowRun<I extends Serializable, O extends Serializable> {
         return completedEventId != null;
     }
 
+    /**
+     * @return whether a signal of the run has not been received yet, also while the run is blocked on
+     * something else, e.g. sleeping while it awaits a signal asynchronously
+     */
     public boolean isWaitingForSignal() {
-        return getActiveFunctions().stream()
+        // the status only tells what the run is blocked on
+        return status == WorkflowRunStatus.WAITING_FOR_SIGNAL
+                || getActiveFunctions().stream()
                 .anyMatch(stepFunction -> stepFunction.getStepFunctionType() == StepFunctionType.SIGNAL);
     }
 
@@ -99,7 +152,6 @@ public class WorkflowRun<I extends Serializable, O extends Serializable> {
     }
 
     public boolean hasFailed() {
-        return hasCompleted() &&
-                getCompletedEvent().getStatus() == StepFunctionEventStatus.FAILED;
+        return status == WorkflowRunStatus.FAILED;
     }
 }
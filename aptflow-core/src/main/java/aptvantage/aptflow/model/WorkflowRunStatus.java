@@ -0,0 +1,9 @@
+package aptvantage.aptflow.model;
+
+public enum WorkflowRunStatus {
+    SCHEDULED, RUNNING, WAITING_FOR_SIGNAL, WAITING_FOR_CONDITION, SLEEPING, COMPLETED, FAILED;
+
+    public boolean isTerminal() {
+        return COMPLETED == this || FAILED == this;
+    }
+}
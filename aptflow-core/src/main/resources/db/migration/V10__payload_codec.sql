@@ -0,0 +1,88 @@
+-- Every payload records the id of the PayloadCodec it was encoded with. Payloads stored so far were
+-- Java-serialized (JavaSerializationCodec.ID).
+
+ALTER TABLE payload ADD COLUMN codec smallint NOT NULL DEFAULT 1;
+ALTER TABLE payload ALTER COLUMN codec DROP DEFAULT;
+
+DROP PROCEDURE aptflow_store_payload(bytea, bytea);
+DROP PROCEDURE aptflow_complete_step(bigint, varchar, varchar, smallint, smallint, bytea, bytea, timestamp);
+DROP PROCEDURE aptflow_complete_activity(bigint, varchar, varchar, bytea, bytea, timestamp);
+DROP PROCEDURE aptflow_receive_signal(bigint, varchar, varchar, bytea, bytea, timestamp);
+DROP PROCEDURE aptflow_complete_workflow_run(bigint, varchar, bytea, bytea, timestamp);
+
+CREATE PROCEDURE aptflow_store_payload(payload_hash bytea, payload_codec smallint, payload_data bytea)
+    LANGUAGE sql
+AS
+$$
+INSERT INTO payload (hash, codec, data)
+VALUES (payload_hash, payload_codec, payload_data)
+ON CONFLICT DO NOTHING;
+$$;
+
+CREATE PROCEDURE aptflow_complete_step(event_id bigint, run_id varchar, step_id varchar, step_type smallint,
+                                       status smallint, step_payload_hash bytea, step_payload_codec smallint,
+                                       step_payload bytea, ts timestamp)
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    CALL aptflow_append_event(event_id, run_id, step_id, step_type, status, ts);
+    IF step_payload_hash IS NOT NULL THEN
+        CALL aptflow_store_payload(step_payload_hash, step_payload_codec, step_payload);
+    END IF;
+    UPDATE step_function
+    SET completed_event_id = event_id,
+        payload_hash       = COALESCE(step_payload_hash, payload_hash)
+    WHERE workflow_run_id = run_id
+      AND function_id = step_id;
+END;
+$$;
+
+CREATE PROCEDURE aptflow_complete_activity(event_id bigint, run_id varchar, name varchar, output_hash bytea,
+                                           output_codec smallint, output bytea, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, name, 2::smallint, 2::smallint, output_hash, output_codec, output, ts);
+$$;
+
+CREATE OR REPLACE PROCEDURE aptflow_fail_activity(event_id bigint, run_id varchar, name varchar, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, name, 2::smallint, 3::smallint, NULL, NULL, NULL, ts);
+$$;
+
+CREATE OR REPLACE PROCEDURE aptflow_satisfy_condition(event_id bigint, run_id varchar, identifier varchar, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, identifier, 3::smallint, 7::smallint, NULL, NULL, NULL, ts);
+$$;
+
+CREATE PROCEDURE aptflow_receive_signal(event_id bigint, run_id varchar, name varchar, value_hash bytea,
+                                        value_codec smallint, value bytea, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, name, 4::smallint, 4::smallint, value_hash, value_codec, value, ts);
+$$;
+
+CREATE OR REPLACE PROCEDURE aptflow_complete_sleep(event_id bigint, run_id varchar, identifier varchar, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, identifier, 5::smallint, 2::smallint, NULL, NULL, NULL, ts);
+$$;
+
+CREATE PROCEDURE aptflow_complete_workflow_run(event_id bigint, run_id varchar, run_output_hash bytea,
+                                               run_output_codec smallint, run_output bytea, ts timestamp)
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    CALL aptflow_append_event(event_id, run_id, run_id, 1::smallint, 2::smallint, ts);
+    CALL aptflow_store_payload(run_output_hash, run_output_codec, run_output);
+    UPDATE workflow_run SET completed_event_id = event_id, output_hash = run_output_hash WHERE id = run_id;
+END;
+$$;
@@ -0,0 +1,37 @@
+-- Payloads encoded by the JSON payload codec (JacksonPayloadCodec.JSON_ID) are stored as jsonb rather
+-- than bytea, so workflows can be searched by their inputs and outputs (see StateReader.findWorkflows).
+-- JSON payloads offloaded to the blob store are not searchable.
+
+ALTER TABLE payload ADD COLUMN json jsonb;
+
+-- jsonb cannot hold \u0000, so JSON payloads containing it are kept as bytea and are not searchable either.
+CREATE FUNCTION aptflow_payload_json(payload_codec smallint, payload_data bytea) RETURNS jsonb
+    LANGUAGE sql
+    IMMUTABLE
+AS
+$$
+SELECT CASE
+           WHEN payload_codec = 2 AND position('\x5c7530303030'::bytea IN payload_data) = 0
+               THEN convert_from(payload_data, 'UTF8')::jsonb
+           END;
+$$;
+
+UPDATE payload
+SET json = aptflow_payload_json(codec, data),
+    data = NULL
+WHERE codec = 2
+  AND data IS NOT NULL
+  AND get_byte(data, 0) > 31
+  AND aptflow_payload_json(codec, data) IS NOT NULL;
+
+CREATE INDEX payload_json_idx ON payload USING GIN (json jsonb_path_ops);
+
+CREATE OR REPLACE PROCEDURE aptflow_store_payload(payload_hash bytea, payload_codec smallint, payload_data bytea)
+    LANGUAGE sql
+AS
+$$
+INSERT INTO payload (hash, codec, data, json)
+SELECT payload_hash, payload_codec, CASE WHEN stored.json IS NULL THEN payload_data END, stored.json
+FROM (SELECT aptflow_payload_json(payload_codec, payload_data) AS json) stored
+ON CONFLICT DO NOTHING;
+$$;
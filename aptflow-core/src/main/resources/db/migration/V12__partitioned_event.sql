@@ -0,0 +1,113 @@
+-- Events are range-partitioned by month. Event ids are time-ordered (milliseconds since 2025-01-01 in
+-- their high 41 bits, see EventIds), so the partitions are ranges of ids: the primary key stays the id
+-- and lookups by id prune to a single partition. Expired partitions are detached (or dropped) rather
+-- than deleted from, see aptflow_maintain_event_partitions.
+--
+-- The existing table becomes the event_legacy partition, covering everything up to the end of the
+-- current month.
+
+CREATE FUNCTION aptflow_event_id_at(ts timestamp) RETURNS bigint
+    LANGUAGE sql
+    IMMUTABLE
+AS
+$$
+SELECT (floor(extract(EPOCH FROM ts) * 1000)::bigint - 1735689600000) << 22
+$$;
+
+ALTER TABLE event RENAME TO event_legacy;
+ALTER TABLE event_legacy RENAME CONSTRAINT event_pkey TO event_legacy_pkey;
+-- uniqueness of the sequence is kept by the run row lock taken to allocate it (aptflow_append_event)
+DROP INDEX event_workflow_run_id_seq_idx;
+
+CREATE TABLE event (LIKE event_legacy INCLUDING DEFAULTS) PARTITION BY RANGE (id);
+ALTER TABLE event ADD PRIMARY KEY (id);
+CREATE INDEX event_workflow_run_id_seq_idx ON event (workflow_run_id, seq);
+
+DO
+$$
+    BEGIN
+        EXECUTE format('ALTER TABLE event ATTACH PARTITION event_legacy FOR VALUES FROM (MINVALUE) TO (%s)',
+                       aptflow_event_id_at(date_trunc('month', now() AT TIME ZONE 'UTC') + interval '1 month'));
+    END
+$$;
+
+-- catches events outside every partition, which maintenance keeps from happening by creating
+-- partitions ahead of time
+CREATE TABLE event_default PARTITION OF event DEFAULT;
+
+-- Creates the partitions of the coming months and, when a retention is given, detaches the partitions
+-- whose events are all older than the retention and belong to terminal runs only. Failed runs that are
+-- the latest of their workflow can still be resumed from the point of failure, and runs resumed by a
+-- live run read their history, so both count as live. Returns the detached partitions.
+CREATE FUNCTION aptflow_maintain_event_partitions(months_ahead int, retention interval, drop_expired boolean)
+    RETURNS SETOF text
+    LANGUAGE plpgsql
+AS
+$$
+DECLARE
+    month_start   timestamp;
+    expired_until bigint;
+    event_partition record;
+    upper_bound   bigint;
+    has_live_runs boolean;
+BEGIN
+    FOR i IN 0..months_ahead
+        LOOP
+            month_start := date_trunc('month', now() AT TIME ZONE 'UTC') + make_interval(months => i);
+            BEGIN
+                EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF event FOR VALUES FROM (%s) TO (%s)',
+                               'event_' || to_char(month_start, 'YYYY_MM'),
+                               aptflow_event_id_at(month_start),
+                               aptflow_event_id_at(month_start + interval '1 month'));
+            EXCEPTION
+                WHEN invalid_object_definition THEN
+                    -- the month is covered already, by event_legacy
+                    NULL;
+                WHEN check_violation THEN
+                    -- events of the month were written to event_default, so they stay there; the next
+                    -- months are still created
+                    RAISE WARNING 'event_default holds events of %, no partition was created for it',
+                        to_char(month_start, 'YYYY-MM');
+            END;
+        END LOOP;
+
+    IF retention IS NULL THEN
+        RETURN;
+    END IF;
+
+    expired_until := aptflow_event_id_at((now() AT TIME ZONE 'UTC') - retention);
+    FOR event_partition IN
+        SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) AS bound
+        FROM pg_inherits i
+                 JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'event'::regclass
+        LOOP
+            CONTINUE WHEN event_partition.bound = 'DEFAULT';
+            upper_bound := substring(event_partition.bound FROM 'TO \(''?(-?[0-9]+)''?\)')::bigint;
+            CONTINUE WHEN upper_bound IS NULL OR upper_bound > expired_until;
+
+            EXECUTE format('
+                WITH RECURSIVE live_run AS (
+                    SELECT wr.id, wr.parent_run_id
+                    FROM workflow_run wr
+                    WHERE wr.completed_event_id IS NULL
+                       OR (wr.archived IS NULL
+                        AND EXISTS (SELECT 1 FROM event e WHERE e.id = wr.completed_event_id AND e.status = 3))
+                    UNION
+                    SELECT parent.id, parent.parent_run_id
+                    FROM workflow_run parent JOIN live_run ON parent.id = live_run.parent_run_id
+                )
+                SELECT EXISTS (SELECT 1 FROM %I e JOIN live_run ON live_run.id = e.workflow_run_id)',
+                           event_partition.relname) INTO has_live_runs;
+            CONTINUE WHEN has_live_runs;
+
+            EXECUTE format('ALTER TABLE event DETACH PARTITION %I', event_partition.relname);
+            IF drop_expired THEN
+                EXECUTE format('DROP TABLE %I', event_partition.relname);
+            END IF;
+            RETURN NEXT event_partition.relname;
+        END LOOP;
+END;
+$$;
+
+SELECT aptflow_maintain_event_partitions(3, NULL, false);
@@ -0,0 +1,89 @@
+-- Terminal workflows past their retention are moved, with their runs, steps, events and payloads, to
+-- the *_archive tables or deleted (see WorkflowArchiver). The archive tables have the columns of their
+-- hot table in the same order, so rows are moved with SELECT *, and no foreign keys: they are cold
+-- storage for audits, not read by the engine.
+
+CREATE TABLE workflow_archive (LIKE workflow INCLUDING DEFAULTS);
+ALTER TABLE workflow_archive ADD PRIMARY KEY (id);
+
+CREATE TABLE workflow_run_archive (LIKE workflow_run INCLUDING DEFAULTS);
+ALTER TABLE workflow_run_archive ADD PRIMARY KEY (id);
+
+CREATE TABLE step_function_archive (LIKE step_function INCLUDING DEFAULTS);
+ALTER TABLE step_function_archive ADD PRIMARY KEY (workflow_run_id, function_id);
+
+CREATE TABLE event_archive (LIKE event INCLUDING DEFAULTS);
+ALTER TABLE event_archive ADD PRIMARY KEY (id);
+
+CREATE TABLE payload_archive (LIKE payload INCLUDING DEFAULTS);
+ALTER TABLE payload_archive ADD PRIMARY KEY (hash);
+
+-- payloads are shared, so one is only deleted once nothing refers to it anymore
+CREATE INDEX workflow_input_hash_idx ON workflow (input_hash);
+CREATE INDEX workflow_run_output_hash_idx ON workflow_run (output_hash);
+CREATE INDEX step_function_payload_hash_idx ON step_function (payload_hash);
+
+-- A payload that exists already is locked until the writer referring to it commits, so the archiver
+-- cannot delete it in between. The archiver deleting it first makes the writer store it again.
+CREATE OR REPLACE PROCEDURE aptflow_store_payload(payload_hash bytea, payload_codec smallint, payload_data bytea)
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    LOOP
+        INSERT INTO payload (hash, codec, data, json)
+        SELECT payload_hash, payload_codec, CASE WHEN stored.json IS NULL THEN payload_data END, stored.json
+        FROM (SELECT aptflow_payload_json(payload_codec, payload_data) AS json) stored
+        ON CONFLICT DO NOTHING;
+        EXIT WHEN FOUND;
+        PERFORM 1 FROM payload WHERE hash = payload_hash FOR KEY SHARE;
+        EXIT WHEN FOUND;
+    END LOOP;
+END;
+$$;
+
+-- Archives (or deletes) the workflows, which the caller has locked. Payloads being referred to by a
+-- writer are skipped rather than waited for.
+CREATE PROCEDURE aptflow_archive_workflows(workflow_ids varchar[], keep_archive boolean)
+    LANGUAGE plpgsql
+AS
+$$
+DECLARE
+    run_ids        varchar[];
+    payload_hashes bytea[];
+BEGIN
+    SELECT array_agg(id) INTO run_ids FROM workflow_run WHERE workflow_id = ANY (workflow_ids);
+
+    SELECT array_agg(DISTINCT hash)
+    INTO payload_hashes
+    FROM (SELECT input_hash AS hash FROM workflow WHERE id = ANY (workflow_ids)
+          UNION ALL
+          SELECT output_hash FROM workflow_run WHERE id = ANY (run_ids)
+          UNION ALL
+          SELECT payload_hash FROM step_function WHERE workflow_run_id = ANY (run_ids)) referenced
+    WHERE hash IS NOT NULL;
+
+    IF keep_archive THEN
+        INSERT INTO workflow_archive SELECT * FROM workflow WHERE id = ANY (workflow_ids) ON CONFLICT DO NOTHING;
+        INSERT INTO workflow_run_archive SELECT * FROM workflow_run WHERE id = ANY (run_ids) ON CONFLICT DO NOTHING;
+        INSERT INTO step_function_archive SELECT * FROM step_function WHERE workflow_run_id = ANY (run_ids) ON CONFLICT DO NOTHING;
+        INSERT INTO event_archive SELECT * FROM event WHERE workflow_run_id = ANY (run_ids) ON CONFLICT DO NOTHING;
+        INSERT INTO payload_archive SELECT * FROM payload WHERE hash = ANY (payload_hashes) ON CONFLICT DO NOTHING;
+    END IF;
+
+    DELETE FROM event WHERE workflow_run_id = ANY (run_ids);
+    DELETE FROM step_function WHERE workflow_run_id = ANY (run_ids);
+    DELETE FROM workflow_run WHERE id = ANY (run_ids);
+    DELETE FROM workflow WHERE id = ANY (workflow_ids);
+
+    DELETE
+    FROM payload
+    WHERE hash IN (SELECT p.hash
+                   FROM payload p
+                   WHERE p.hash = ANY (payload_hashes)
+                     AND NOT EXISTS (SELECT 1 FROM workflow w WHERE w.input_hash = p.hash)
+                     AND NOT EXISTS (SELECT 1 FROM workflow_run wr WHERE wr.output_hash = p.hash)
+                     AND NOT EXISTS (SELECT 1 FROM step_function sf WHERE sf.payload_hash = p.hash)
+                   FOR UPDATE SKIP LOCKED);
+END;
+$$;
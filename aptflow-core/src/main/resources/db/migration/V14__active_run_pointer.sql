@@ -0,0 +1,24 @@
+-- The workflow row points to its active run and counts its runs, so finding the active run and
+-- allocating the next run id read one row however often the workflow was rerun. Allocating takes the
+-- workflow row lock, which serializes concurrent reruns.
+--
+-- active_run_id has no foreign key so the archiver can delete runs and workflows in any order.
+
+ALTER TABLE workflow
+    ADD COLUMN active_run_id VARCHAR,
+    ADD COLUMN run_counter   integer NOT NULL DEFAULT 0;
+
+UPDATE workflow w
+SET run_counter   = runs.run_count,
+    active_run_id = runs.active_run_id
+FROM (SELECT workflow_id,
+             count(*) AS run_count,
+             (array_agg(id ORDER BY created DESC) FILTER (WHERE archived IS NULL))[1] AS active_run_id
+      FROM workflow_run
+      GROUP BY workflow_id) runs
+WHERE runs.workflow_id = w.id;
+
+-- archived workflows keep the columns of workflow in the same order (see V13__workflow_archive.sql)
+ALTER TABLE workflow_archive
+    ADD COLUMN active_run_id VARCHAR,
+    ADD COLUMN run_counter   integer NOT NULL DEFAULT 0;
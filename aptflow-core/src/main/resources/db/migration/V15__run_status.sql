@@ -0,0 +1,72 @@
+-- Runs carry their status (WorkflowRunStatusMapper codes) and the step they are blocked on, so they
+-- can be listed by status without reading their steps and events. Both are maintained by
+-- aptflow_append_event, in the same statement that allocates the event sequence, and set again by
+-- StateWriter.runBlocked when a pass pauses on a step pending from an earlier pass:
+--   1 scheduled, 2 running, 3 waiting for a signal, 4 waiting for a condition, 5 sleeping,
+--   6 completed, 7 failed
+
+ALTER TABLE workflow_run
+    ADD COLUMN status     smallint NOT NULL DEFAULT 1,
+    ADD COLUMN blocked_on VARCHAR;
+
+UPDATE workflow_run wr
+SET status = CASE
+                 WHEN wr.completed_event_id IS NOT NULL THEN
+                     CASE (SELECT e.status FROM event e WHERE e.id = wr.completed_event_id) WHEN 3 THEN 7 ELSE 6 END
+                 WHEN wr.started_event_id IS NOT NULL THEN 2
+                 ELSE 1
+    END;
+
+UPDATE workflow_run wr
+SET status     = CASE sf.function_type WHEN 4 THEN 3 WHEN 3 THEN 4 ELSE 5 END,
+    blocked_on = sf.function_id
+FROM step_function sf
+WHERE sf.workflow_run_id = wr.id
+  AND wr.status = 2
+  AND sf.completed_event_id IS NULL
+  AND sf.function_type IN (3, 4, 5);
+
+-- listing newest first, by status or overall (see StateReader.listRuns)
+CREATE INDEX workflow_run_status_created_idx ON workflow_run (status, created DESC, id DESC);
+CREATE INDEX workflow_run_created_idx ON workflow_run (created DESC, id DESC);
+
+-- archived runs keep the columns of workflow_run in the same order (see V13__workflow_archive.sql)
+ALTER TABLE workflow_run_archive
+    ADD COLUMN status     smallint NOT NULL DEFAULT 1,
+    ADD COLUMN blocked_on VARCHAR;
+
+CREATE OR REPLACE PROCEDURE aptflow_append_event(event_id bigint, run_id varchar, event_function_id varchar,
+                                                 event_category smallint, event_status smallint, ts timestamp)
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    -- the run row lock taken to allocate the sequence also serializes concurrent writers of the run
+    WITH run AS (
+        UPDATE workflow_run
+        SET event_seq  = event_seq + 1,
+            status     = CASE
+                             -- the run itself: scheduled, started, completed or failed
+                             WHEN event_category = 1 THEN
+                                 CASE event_status WHEN 6 THEN 1 WHEN 1 THEN 2 WHEN 2 THEN 6 WHEN 3 THEN 7 ELSE status END
+                             WHEN event_category = 4 AND event_status = 5 THEN 3
+                             WHEN event_category = 3 AND event_status = 5 THEN 4
+                             WHEN event_category = 5 AND event_status = 1 THEN 5
+                             -- the step the run was blocked on completed
+                             WHEN blocked_on = event_function_id THEN 2
+                             ELSE status
+                END,
+            blocked_on = CASE
+                             WHEN event_category IN (3, 4) AND event_status = 5 THEN event_function_id
+                             WHEN event_category = 5 AND event_status = 1 THEN event_function_id
+                             WHEN event_category = 1 OR blocked_on = event_function_id THEN NULL
+                             ELSE blocked_on
+                END
+        WHERE id = run_id
+        RETURNING event_seq
+    )
+    INSERT INTO event (id, workflow_run_id, seq, function_id, category, status, timestamp)
+    SELECT event_id, run_id, run.event_seq, event_function_id, event_category, event_status, ts
+    FROM run;
+END;
+$$;
@@ -0,0 +1,10 @@
+-- Each process writing events leases the node id of its event ids (see NodeIdLease), so processes
+-- sharing the database never generate the same id. A lease that is not renewed expires and its node id
+-- is leased again.
+
+CREATE TABLE event_id_node_lease
+(
+    node_id SMALLINT PRIMARY KEY,
+    owner   VARCHAR NOT NULL,
+    expires TIMESTAMP WITH TIME ZONE NOT NULL
+);
@@ -0,0 +1,141 @@
+-- Expand phase of the compact schema: time-ordered bigint event ids, smallint type/status codes,
+-- a per-run event sequence and primary keys on the step tables (completed by V3).
+--
+-- This migration only adds nullable columns, supporting indexes and the backfill procedure, so it
+-- can be applied while the previous version is still running. Large deployments can then backfill
+-- online, in committed batches, before upgrading:
+--
+--   flyway -target=2 migrate
+--   CALL aptflow_backfill_compact_schema(10000, true);
+--
+-- To avoid blocking writes while the indexes below are built, create them beforehand with
+-- CREATE INDEX CONCURRENTLY using the same names. V3 re-runs the backfill for anything written
+-- in the meantime, so the online step is optional.
+
+CREATE SEQUENCE IF NOT EXISTS aptflow_event_id_backfill_seq;
+
+ALTER TABLE event
+    ADD COLUMN IF NOT EXISTS v2_id       bigint,
+    ADD COLUMN IF NOT EXISTS v2_category smallint,
+    ADD COLUMN IF NOT EXISTS v2_status   smallint,
+    ADD COLUMN IF NOT EXISTS seq         integer;
+
+ALTER TABLE workflow_run
+    ADD COLUMN IF NOT EXISTS v2_scheduled_event_id bigint,
+    ADD COLUMN IF NOT EXISTS v2_started_event_id   bigint,
+    ADD COLUMN IF NOT EXISTS v2_completed_event_id bigint,
+    ADD COLUMN IF NOT EXISTS event_seq             integer;
+
+ALTER TABLE activity
+    ADD COLUMN IF NOT EXISTS v2_started_event_id   bigint,
+    ADD COLUMN IF NOT EXISTS v2_completed_event_id bigint;
+
+ALTER TABLE signal
+    ADD COLUMN IF NOT EXISTS v2_waiting_event_id  bigint,
+    ADD COLUMN IF NOT EXISTS v2_received_event_id bigint;
+
+ALTER TABLE "condition"
+    ADD COLUMN IF NOT EXISTS v2_waiting_event_id   bigint,
+    ADD COLUMN IF NOT EXISTS v2_satisfied_event_id bigint;
+
+ALTER TABLE sleep
+    ADD COLUMN IF NOT EXISTS v2_started_event_id   bigint,
+    ADD COLUMN IF NOT EXISTS v2_completed_event_id bigint;
+
+CREATE INDEX IF NOT EXISTS event_workflow_run_id_idx ON event (workflow_run_id);
+CREATE INDEX IF NOT EXISTS activity_workflow_run_id_idx ON activity (workflow_run_id);
+CREATE INDEX IF NOT EXISTS signal_workflow_run_id_idx ON signal (workflow_run_id);
+CREATE INDEX IF NOT EXISTS condition_workflow_run_id_idx ON "condition" (workflow_run_id);
+CREATE INDEX IF NOT EXISTS sleep_workflow_run_id_idx ON sleep (workflow_run_id);
+
+-- Walks workflow_run in primary key order, batch_size runs at a time, and fills the v2 columns of
+-- the runs, their events and their steps. Rows that are already backfilled keep their values, so
+-- the procedure can be interrupted and re-run at any time.
+CREATE OR REPLACE PROCEDURE aptflow_backfill_compact_schema(batch_size integer, commit_batches boolean)
+    LANGUAGE plpgsql
+AS
+$$
+DECLARE
+    last_run_id VARCHAR := '';
+    run_ids     VARCHAR[];
+BEGIN
+    LOOP
+        SELECT array_agg(batch.id ORDER BY batch.id)
+        INTO run_ids
+        FROM (SELECT id
+              FROM workflow_run
+              WHERE id > last_run_id
+              ORDER BY id
+              LIMIT batch_size) batch;
+
+        EXIT WHEN run_ids IS NULL;
+        last_run_id := run_ids[array_upper(run_ids, 1)];
+
+        -- ids use the same layout as the application: milliseconds since 2025-01-01 in the high bits
+        UPDATE event
+        SET v2_id       = ((floor(extract(EPOCH FROM event.timestamp) * 1000)::bigint - 1735689600000) << 22)
+                              | (nextval('aptflow_event_id_backfill_seq') & 4194303),
+            v2_category = CASE category
+                              WHEN 'WORKFLOW' THEN 1
+                              WHEN 'ACTIVITY' THEN 2
+                              WHEN 'CONDITION' THEN 3
+                              WHEN 'SIGNAL' THEN 4
+                              WHEN 'SLEEP' THEN 5
+                END,
+            v2_status   = CASE status
+                              WHEN 'STARTED' THEN 1
+                              WHEN 'COMPLETED' THEN 2
+                              WHEN 'FAILED' THEN 3
+                              WHEN 'RECEIVED' THEN 4
+                              WHEN 'WAITING' THEN 5
+                              WHEN 'SCHEDULED' THEN 6
+                              WHEN 'SATISFIED' THEN 7
+                END
+        WHERE workflow_run_id = ANY (run_ids)
+          AND v2_id IS NULL;
+
+        -- events without a sequence are numbered after the highest sequence already assigned in their run
+        UPDATE event
+        SET seq = numbered.seq
+        FROM (SELECT e.id,
+                     e.seq IS NULL AS missing,
+                     COALESCE(max(e.seq) OVER (PARTITION BY e.workflow_run_id), 0)
+                         + row_number() OVER (PARTITION BY e.workflow_run_id, e.seq IS NULL ORDER BY e.timestamp, e.id) AS seq
+              FROM event e
+              WHERE e.workflow_run_id = ANY (run_ids)) numbered
+        WHERE event.id = numbered.id
+          AND numbered.missing;
+
+        UPDATE workflow_run wr
+        SET event_seq             = (SELECT COALESCE(max(e.seq), 0) FROM event e WHERE e.workflow_run_id = wr.id),
+            v2_scheduled_event_id = (SELECT e.v2_id FROM event e WHERE e.id = wr.scheduled_event_id),
+            v2_started_event_id   = (SELECT e.v2_id FROM event e WHERE e.id = wr.started_event_id),
+            v2_completed_event_id = (SELECT e.v2_id FROM event e WHERE e.id = wr.completed_event_id)
+        WHERE wr.id = ANY (run_ids);
+
+        UPDATE activity a
+        SET v2_started_event_id   = (SELECT e.v2_id FROM event e WHERE e.id = a.started_event_id),
+            v2_completed_event_id = (SELECT e.v2_id FROM event e WHERE e.id = a.completed_event_id)
+        WHERE a.workflow_run_id = ANY (run_ids);
+
+        UPDATE signal s
+        SET v2_waiting_event_id  = (SELECT e.v2_id FROM event e WHERE e.id = s.waiting_event_id),
+            v2_received_event_id = (SELECT e.v2_id FROM event e WHERE e.id = s.received_event_id)
+        WHERE s.workflow_run_id = ANY (run_ids);
+
+        UPDATE "condition" c
+        SET v2_waiting_event_id   = (SELECT e.v2_id FROM event e WHERE e.id = c.waiting_event_id),
+            v2_satisfied_event_id = (SELECT e.v2_id FROM event e WHERE e.id = c.satisfied_event_id)
+        WHERE c.workflow_run_id = ANY (run_ids);
+
+        UPDATE sleep s
+        SET v2_started_event_id   = (SELECT e.v2_id FROM event e WHERE e.id = s.started_event_id),
+            v2_completed_event_id = (SELECT e.v2_id FROM event e WHERE e.id = s.completed_event_id)
+        WHERE s.workflow_run_id = ANY (run_ids);
+
+        IF commit_batches THEN
+            COMMIT;
+        END IF;
+    END LOOP;
+END;
+$$;
@@ -0,0 +1,255 @@
+-- Contract phase of the compact schema (see V2__compact_schema_expand.sql).
+-- Finishes the backfill for anything written since it last ran, then swaps the v2 columns in.
+
+CALL aptflow_backfill_compact_schema(10000, false);
+
+DROP VIEW v_workflow_run_event;
+DROP VIEW v_event_function_id;
+DROP VIEW v_workflow_run_function;
+DROP VIEW v_workflow_run_step_function;
+
+-- Rows that cannot be carried over are moved to a quarantine table named after the migration and the
+-- table, for inspection, with a warning giving their count; nothing is deleted unseen. Also used by
+-- V5__event_function_id.sql, which drops it.
+CREATE FUNCTION aptflow_quarantine(source_table text, quarantine_table text, row_condition text) RETURNS bigint
+    LANGUAGE plpgsql AS
+$$
+DECLARE
+    quarantined bigint;
+BEGIN
+    EXECUTE format('CREATE TABLE %I AS SELECT * FROM %I t WHERE %s', quarantine_table, source_table, row_condition);
+    EXECUTE format('DELETE FROM %I t WHERE %s', source_table, row_condition);
+    GET DIAGNOSTICS quarantined = ROW_COUNT;
+    IF quarantined = 0 THEN
+        EXECUTE format('DROP TABLE %I', quarantine_table);
+    ELSE
+        RAISE WARNING 'moved % rows of % to %', quarantined, source_table, quarantine_table;
+    END IF;
+    RETURN quarantined;
+END;
+$$;
+
+-- event: bigint time-ordered ids, smallint codes and a per-run sequence
+
+-- events that never belonged to a run cannot be backfilled
+SELECT aptflow_quarantine('event', 'aptflow_quarantine_v3_event', 't.v2_id IS NULL');
+
+ALTER TABLE event
+    DROP COLUMN id,
+    DROP COLUMN category,
+    DROP COLUMN status;
+
+ALTER TABLE event RENAME COLUMN v2_id TO id;
+ALTER TABLE event RENAME COLUMN v2_category TO category;
+ALTER TABLE event RENAME COLUMN v2_status TO status;
+
+ALTER TABLE event
+    ADD PRIMARY KEY (id),
+    ALTER COLUMN category SET NOT NULL,
+    ALTER COLUMN status SET NOT NULL,
+    ALTER COLUMN seq SET NOT NULL;
+
+CREATE UNIQUE INDEX event_workflow_run_id_seq_idx ON event (workflow_run_id, seq);
+DROP INDEX event_workflow_run_id_idx;
+
+-- workflow_run
+
+ALTER TABLE workflow_run
+    DROP COLUMN scheduled_event_id,
+    DROP COLUMN started_event_id,
+    DROP COLUMN completed_event_id;
+
+ALTER TABLE workflow_run RENAME COLUMN v2_scheduled_event_id TO scheduled_event_id;
+ALTER TABLE workflow_run RENAME COLUMN v2_started_event_id TO started_event_id;
+ALTER TABLE workflow_run RENAME COLUMN v2_completed_event_id TO completed_event_id;
+
+ALTER TABLE workflow_run
+    ALTER COLUMN event_seq SET DEFAULT 0,
+    ALTER COLUMN event_seq SET NOT NULL;
+
+CREATE INDEX workflow_run_workflow_id_idx ON workflow_run (workflow_id);
+
+-- step tables: bigint event references and composite primary keys
+
+-- duplicates (the v1 step tables had no key) keep the first row
+SELECT aptflow_quarantine('activity', 'aptflow_quarantine_v3_activity', 'EXISTS (SELECT 1 FROM activity b
+    WHERE b.workflow_run_id = t.workflow_run_id AND b.name = t.name AND b.ctid < t.ctid)');
+
+ALTER TABLE activity
+    DROP COLUMN started_event_id,
+    DROP COLUMN completed_event_id;
+ALTER TABLE activity RENAME COLUMN v2_started_event_id TO started_event_id;
+ALTER TABLE activity RENAME COLUMN v2_completed_event_id TO completed_event_id;
+ALTER TABLE activity ADD PRIMARY KEY (workflow_run_id, name);
+DROP INDEX activity_workflow_run_id_idx;
+
+SELECT aptflow_quarantine('signal', 'aptflow_quarantine_v3_signal', 'EXISTS (SELECT 1 FROM signal b
+    WHERE b.workflow_run_id = t.workflow_run_id AND b.name = t.name AND b.ctid < t.ctid)');
+
+ALTER TABLE signal
+    DROP COLUMN waiting_event_id,
+    DROP COLUMN received_event_id;
+ALTER TABLE signal RENAME COLUMN v2_waiting_event_id TO waiting_event_id;
+ALTER TABLE signal RENAME COLUMN v2_received_event_id TO received_event_id;
+ALTER TABLE signal ADD PRIMARY KEY (workflow_run_id, name);
+DROP INDEX signal_workflow_run_id_idx;
+
+SELECT aptflow_quarantine('condition', 'aptflow_quarantine_v3_condition', 'EXISTS (SELECT 1 FROM "condition" b
+    WHERE b.workflow_run_id = t.workflow_run_id AND b.identifier = t.identifier AND b.ctid < t.ctid)');
+
+ALTER TABLE "condition"
+    DROP COLUMN waiting_event_id,
+    DROP COLUMN satisfied_event_id;
+ALTER TABLE "condition" RENAME COLUMN v2_waiting_event_id TO waiting_event_id;
+ALTER TABLE "condition" RENAME COLUMN v2_satisfied_event_id TO satisfied_event_id;
+ALTER TABLE "condition" ADD PRIMARY KEY (workflow_run_id, identifier);
+DROP INDEX condition_workflow_run_id_idx;
+
+SELECT aptflow_quarantine('sleep', 'aptflow_quarantine_v3_sleep', 'EXISTS (SELECT 1 FROM sleep b
+    WHERE b.workflow_run_id = t.workflow_run_id AND b.identifier = t.identifier AND b.ctid < t.ctid)');
+
+ALTER TABLE sleep
+    DROP COLUMN started_event_id,
+    DROP COLUMN completed_event_id;
+ALTER TABLE sleep RENAME COLUMN v2_started_event_id TO started_event_id;
+ALTER TABLE sleep RENAME COLUMN v2_completed_event_id TO completed_event_id;
+ALTER TABLE sleep ADD PRIMARY KEY (workflow_run_id, identifier);
+DROP INDEX sleep_workflow_run_id_idx;
+
+DROP PROCEDURE aptflow_backfill_compact_schema(integer, boolean);
+DROP SEQUENCE aptflow_event_id_backfill_seq;
+
+-- views, recreated over the new column types (function types are StepFunctionType codes)
+
+CREATE
+OR REPLACE VIEW v_event_function_id AS
+(
+SELECT name AS function_id, started_event_id AS event_id
+FROM activity
+UNION
+    SELECT name AS function_id, completed_event_id AS event_id
+    FROM activity
+UNION
+    SELECT identifier AS function_id, waiting_event_id AS event_id
+    FROM "condition"
+UNION
+    SELECT identifier AS function_id, satisfied_event_id AS event_id
+    FROM "condition"
+UNION
+    SELECT name, waiting_event_id AS event_id
+    FROM signal
+UNION
+    SELECT name, received_event_id AS event_id
+    FROM signal
+UNION
+    SELECT identifier AS function_id, started_event_id AS event_id
+    FROM sleep
+UNION
+    SELECT identifier AS function_id, completed_event_id AS event_id
+    FROM sleep
+UNION
+    SELECT id AS function_id, scheduled_event_id AS event_id
+    FROM workflow_run
+UNION
+   SELECT id AS function_id, started_event_id AS event_id
+   FROM workflow_run
+UNION
+   SELECT id AS function_id, completed_event_id AS event_id
+   FROM workflow_run
+);
+
+CREATE
+OR REPLACE VIEW v_workflow_run_event as
+SELECT event.*,
+       efi.function_id
+FROM event
+         INNER JOIN v_event_function_id efi
+                    ON event.id = efi.event_id;
+
+
+CREATE
+OR REPLACE VIEW v_workflow_run_function AS (
+SELECT
+    a.workflow_run_id,
+    a.name AS function_id,
+    2::smallint AS category,
+    started.timestamp AS started,
+    completed.timestamp AS completed
+FROM activity a
+LEFT JOIN event started on a.started_event_id = started.id
+LEFT JOIN event completed on a.completed_event_id = completed.id
+
+UNION
+SELECT
+    c.workflow_run_id,
+    c.identifier AS function_id,
+    3::smallint AS category,
+    started.timestamp AS started,
+    completed.timestamp AS completed
+FROM "condition" c
+LEFT JOIN event started on c.waiting_event_id = started.id
+LEFT JOIN event completed on c.satisfied_event_id = completed.id
+
+UNION
+SELECT
+    s.workflow_run_id,
+    s.name AS function_id,
+    4::smallint AS category,
+    started.timestamp AS started,
+    completed.timestamp AS completed
+FROM signal s
+         LEFT JOIN event started on s.waiting_event_id = started.id
+         LEFT JOIN event completed on s.received_event_id = completed.id
+
+UNION
+SELECT
+    s.workflow_run_id,
+    s.identifier AS function_id,
+    5::smallint AS category,
+    started.timestamp AS started,
+    completed.timestamp AS completed
+FROM sleep s
+         LEFT JOIN event started on s.started_event_id = started.id
+         LEFT JOIN event completed on s.completed_event_id = completed.id
+
+);
+
+
+CREATE
+OR REPLACE VIEW v_workflow_run_step_function AS (
+SELECT
+    a.workflow_run_id,
+    a.name AS function_id,
+    2::smallint AS function_type,
+    a.started_event_id AS started_event_id,
+    a.completed_event_id AS completed_event_id
+FROM activity a
+
+UNION
+SELECT
+    c.workflow_run_id,
+    c.identifier AS function_id,
+    3::smallint AS function_type,
+    c.waiting_event_id AS started_event_id,
+    c.satisfied_event_id AS completed_event_id
+FROM "condition" c
+
+UNION
+SELECT
+    s.workflow_run_id,
+    s.name AS function_id,
+    4::smallint AS function_type,
+    s.waiting_event_id AS started_event_id,
+    s.received_event_id AS completed_event_id
+FROM signal s
+
+UNION
+SELECT
+    s.workflow_run_id,
+    s.identifier AS function_id,
+    5::smallint AS function_type,
+    s.started_event_id AS started_event_id,
+    s.completed_event_id AS completed_event_id
+FROM sleep s
+
+);
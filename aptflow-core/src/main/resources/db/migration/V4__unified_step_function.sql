@@ -0,0 +1,99 @@
+-- A single step_function table replaces activity, "condition", signal and sleep, and the UNION
+-- views over them. function_type holds StepFunctionType codes, payload holds the activity output
+-- or the signal value.
+
+CREATE TABLE step_function
+(
+    workflow_run_id    VARCHAR   NOT NULL,
+    function_id        VARCHAR   NOT NULL,
+    function_type      smallint  NOT NULL,
+    started_event_id   bigint,
+    completed_event_id bigint,
+    payload            bytea,
+    duration_in_millis bigint,
+    created            TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (workflow_run_id, function_id)
+);
+
+-- Steps are identified by their id within a run whatever their type, so a run with steps of different
+-- types sharing an id cannot be carried over; fail rather than drop one of them.
+DO
+$$
+DECLARE
+    collisions bigint;
+BEGIN
+    SELECT count(*)
+    INTO collisions
+    FROM (SELECT workflow_run_id, function_id
+          FROM (SELECT workflow_run_id, name AS function_id FROM activity
+                UNION ALL
+                SELECT workflow_run_id, identifier FROM "condition"
+                UNION ALL
+                SELECT workflow_run_id, name FROM signal
+                UNION ALL
+                SELECT workflow_run_id, identifier FROM sleep) steps
+          GROUP BY workflow_run_id, function_id
+          HAVING count(*) > 1) colliding;
+    IF collisions > 0 THEN
+        RAISE EXCEPTION '% step ids are used by steps of different types within a run', collisions
+            USING HINT = 'rename or remove the colliding activity, condition, signal or sleep rows, then migrate again';
+    END IF;
+END;
+$$;
+
+INSERT INTO step_function (workflow_run_id, function_id, function_type, started_event_id, completed_event_id, payload, created)
+SELECT workflow_run_id, name, 2, started_event_id, completed_event_id, output, created
+FROM activity;
+
+INSERT INTO step_function (workflow_run_id, function_id, function_type, started_event_id, completed_event_id, created)
+SELECT workflow_run_id, identifier, 3, waiting_event_id, satisfied_event_id, created
+FROM "condition";
+
+INSERT INTO step_function (workflow_run_id, function_id, function_type, started_event_id, completed_event_id, payload, created)
+SELECT workflow_run_id, name, 4, waiting_event_id, received_event_id, value, created
+FROM signal;
+
+INSERT INTO step_function (workflow_run_id, function_id, function_type, started_event_id, completed_event_id, duration_in_millis, created)
+SELECT workflow_run_id, identifier, 5, started_event_id, completed_event_id, duration_in_millis, created
+FROM sleep;
+
+DROP VIEW v_workflow_run_event;
+DROP VIEW v_event_function_id;
+DROP VIEW v_workflow_run_function;
+DROP VIEW v_workflow_run_step_function;
+
+DROP TABLE activity;
+DROP TABLE "condition";
+DROP TABLE signal;
+DROP TABLE sleep;
+
+-- kept for event reads until the function id is stored on the event itself
+CREATE VIEW v_event_function_id AS
+(
+SELECT function_id, started_event_id AS event_id
+FROM step_function
+WHERE started_event_id IS NOT NULL
+UNION ALL
+SELECT function_id, completed_event_id AS event_id
+FROM step_function
+WHERE completed_event_id IS NOT NULL
+UNION ALL
+SELECT id AS function_id, scheduled_event_id AS event_id
+FROM workflow_run
+WHERE scheduled_event_id IS NOT NULL
+UNION ALL
+SELECT id AS function_id, started_event_id AS event_id
+FROM workflow_run
+WHERE started_event_id IS NOT NULL
+UNION ALL
+SELECT id AS function_id, completed_event_id AS event_id
+FROM workflow_run
+WHERE completed_event_id IS NOT NULL
+);
+
+CREATE VIEW v_workflow_run_event AS
+SELECT event.*,
+       efi.function_id
+FROM event
+         INNER JOIN v_event_function_id efi
+                    ON event.id = efi.event_id;
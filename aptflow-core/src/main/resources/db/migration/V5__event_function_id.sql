@@ -0,0 +1,18 @@
+-- Events carry the id of the function they belong to (the run id for WORKFLOW events), so event
+-- reads no longer join against v_event_function_id.
+
+ALTER TABLE event ADD COLUMN function_id VARCHAR;
+
+UPDATE event
+SET function_id = efi.function_id
+FROM v_event_function_id efi
+WHERE event.id = efi.event_id;
+
+-- events no function refers to were never visible through v_workflow_run_event
+SELECT aptflow_quarantine('event', 'aptflow_quarantine_v5_event', 't.function_id IS NULL');
+DROP FUNCTION aptflow_quarantine(text, text, text);
+
+ALTER TABLE event ALTER COLUMN function_id SET NOT NULL;
+
+DROP VIEW v_workflow_run_event;
+DROP VIEW v_event_function_id;
@@ -0,0 +1,159 @@
+-- One procedure per state transition, so each transition is a single statement and round trip.
+-- Event ids are generated by the application (EventIds) and passed in. Type and status codes are
+-- those of StepFunctionTypeMapper and StepFunctionEventStatusMapper.
+--
+-- These are procedures rather than functions so they can be executed in JDBC batches.
+
+CREATE PROCEDURE aptflow_append_event(event_id bigint, run_id varchar, event_function_id varchar,
+                                      event_category smallint, event_status smallint, ts timestamp)
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    -- the run row lock taken to allocate the sequence also serializes concurrent writers of the run
+    WITH run AS (
+        UPDATE workflow_run
+        SET event_seq = event_seq + 1
+        WHERE id = run_id
+        RETURNING event_seq
+    )
+    INSERT INTO event (id, workflow_run_id, seq, function_id, category, status, timestamp)
+    SELECT event_id, run_id, run.event_seq, event_function_id, event_category, event_status, ts
+    FROM run;
+END;
+$$;
+
+-- steps
+
+CREATE PROCEDURE aptflow_start_step(event_id bigint, run_id varchar, step_id varchar, step_type smallint,
+                                    status smallint, step_duration_in_millis bigint, ts timestamp)
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    CALL aptflow_append_event(event_id, run_id, step_id, step_type, status, ts);
+    INSERT INTO step_function (workflow_run_id, function_id, function_type, started_event_id, duration_in_millis)
+    VALUES (run_id, step_id, step_type, event_id, step_duration_in_millis);
+END;
+$$;
+
+CREATE PROCEDURE aptflow_complete_step(event_id bigint, run_id varchar, step_id varchar, step_type smallint,
+                                       status smallint, step_payload bytea, ts timestamp)
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    CALL aptflow_append_event(event_id, run_id, step_id, step_type, status, ts);
+    UPDATE step_function
+    SET completed_event_id = event_id,
+        payload            = COALESCE(step_payload, payload)
+    WHERE workflow_run_id = run_id
+      AND function_id = step_id;
+END;
+$$;
+
+CREATE PROCEDURE aptflow_start_activity(event_id bigint, run_id varchar, name varchar, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_start_step(event_id, run_id, name, 2::smallint, 1::smallint, NULL, ts);
+$$;
+
+CREATE PROCEDURE aptflow_complete_activity(event_id bigint, run_id varchar, name varchar, output bytea, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, name, 2::smallint, 2::smallint, output, ts);
+$$;
+
+CREATE PROCEDURE aptflow_fail_activity(event_id bigint, run_id varchar, name varchar, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, name, 2::smallint, 3::smallint, NULL, ts);
+$$;
+
+CREATE PROCEDURE aptflow_await_condition(event_id bigint, run_id varchar, identifier varchar, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_start_step(event_id, run_id, identifier, 3::smallint, 5::smallint, NULL, ts);
+$$;
+
+CREATE PROCEDURE aptflow_satisfy_condition(event_id bigint, run_id varchar, identifier varchar, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, identifier, 3::smallint, 7::smallint, NULL, ts);
+$$;
+
+CREATE PROCEDURE aptflow_await_signal(event_id bigint, run_id varchar, name varchar, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_start_step(event_id, run_id, name, 4::smallint, 5::smallint, NULL, ts);
+$$;
+
+CREATE PROCEDURE aptflow_receive_signal(event_id bigint, run_id varchar, name varchar, value bytea, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, name, 4::smallint, 4::smallint, value, ts);
+$$;
+
+CREATE PROCEDURE aptflow_start_sleep(event_id bigint, run_id varchar, identifier varchar, duration_in_millis bigint,
+                                     ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_start_step(event_id, run_id, identifier, 5::smallint, 1::smallint, duration_in_millis, ts);
+$$;
+
+CREATE PROCEDURE aptflow_complete_sleep(event_id bigint, run_id varchar, identifier varchar, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, identifier, 5::smallint, 2::smallint, NULL, ts);
+$$;
+
+-- workflow runs
+
+CREATE PROCEDURE aptflow_schedule_workflow_run(event_id bigint, run_id varchar, ts timestamp)
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    CALL aptflow_append_event(event_id, run_id, run_id, 1::smallint, 6::smallint, ts);
+    UPDATE workflow_run SET scheduled_event_id = event_id WHERE id = run_id;
+END;
+$$;
+
+CREATE PROCEDURE aptflow_start_workflow_run(event_id bigint, run_id varchar, ts timestamp)
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    CALL aptflow_append_event(event_id, run_id, run_id, 1::smallint, 1::smallint, ts);
+    UPDATE workflow_run SET started_event_id = event_id WHERE id = run_id;
+END;
+$$;
+
+CREATE PROCEDURE aptflow_complete_workflow_run(event_id bigint, run_id varchar, run_output bytea, ts timestamp)
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    CALL aptflow_append_event(event_id, run_id, run_id, 1::smallint, 2::smallint, ts);
+    UPDATE workflow_run SET completed_event_id = event_id, output = run_output WHERE id = run_id;
+END;
+$$;
+
+CREATE PROCEDURE aptflow_fail_workflow_run(event_id bigint, run_id varchar, ts timestamp)
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    CALL aptflow_append_event(event_id, run_id, run_id, 1::smallint, 3::smallint, ts);
+    UPDATE workflow_run SET completed_event_id = event_id WHERE id = run_id;
+END;
+$$;
@@ -0,0 +1,4 @@
+-- A run resumed from the point of failure refers to the run it resumes instead of copying its steps.
+-- Steps the parent completed without failing are read through to it (see StateReader).
+
+ALTER TABLE workflow_run ADD COLUMN parent_run_id VARCHAR REFERENCES workflow_run (id);
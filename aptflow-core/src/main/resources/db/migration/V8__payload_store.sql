@@ -0,0 +1,112 @@
+-- Serialized inputs, outputs and signal values are stored once, keyed by their SHA-256 hash, and
+-- referred to by hash. Identical payloads (the same input given to many workflows, outputs inherited
+-- by reruns) are no longer stored again.
+
+CREATE TABLE payload
+(
+    hash    bytea     NOT NULL PRIMARY KEY,
+    data    bytea     NOT NULL,
+    created TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+INSERT INTO payload (hash, data)
+SELECT sha256(input), input FROM workflow WHERE input IS NOT NULL
+UNION
+SELECT sha256(output), output FROM workflow_run WHERE output IS NOT NULL
+UNION
+SELECT sha256(payload), payload FROM step_function WHERE payload IS NOT NULL;
+
+ALTER TABLE workflow ADD COLUMN input_hash bytea REFERENCES payload (hash);
+UPDATE workflow SET input_hash = sha256(input) WHERE input IS NOT NULL;
+ALTER TABLE workflow DROP COLUMN input;
+
+ALTER TABLE workflow_run ADD COLUMN output_hash bytea REFERENCES payload (hash);
+UPDATE workflow_run SET output_hash = sha256(output) WHERE output IS NOT NULL;
+ALTER TABLE workflow_run DROP COLUMN output;
+
+ALTER TABLE step_function ADD COLUMN payload_hash bytea REFERENCES payload (hash);
+UPDATE step_function SET payload_hash = sha256(payload) WHERE payload IS NOT NULL;
+ALTER TABLE step_function DROP COLUMN payload;
+
+-- transitions carrying a payload take its hash and its data, and store the data if absent
+
+CREATE PROCEDURE aptflow_store_payload(payload_hash bytea, payload_data bytea)
+    LANGUAGE sql
+AS
+$$
+INSERT INTO payload (hash, data)
+VALUES (payload_hash, payload_data)
+ON CONFLICT DO NOTHING;
+$$;
+
+DROP PROCEDURE aptflow_complete_step(bigint, varchar, varchar, smallint, smallint, bytea, timestamp);
+DROP PROCEDURE aptflow_complete_activity(bigint, varchar, varchar, bytea, timestamp);
+DROP PROCEDURE aptflow_receive_signal(bigint, varchar, varchar, bytea, timestamp);
+DROP PROCEDURE aptflow_complete_workflow_run(bigint, varchar, bytea, timestamp);
+
+CREATE PROCEDURE aptflow_complete_step(event_id bigint, run_id varchar, step_id varchar, step_type smallint,
+                                       status smallint, step_payload_hash bytea, step_payload bytea, ts timestamp)
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    CALL aptflow_append_event(event_id, run_id, step_id, step_type, status, ts);
+    IF step_payload_hash IS NOT NULL THEN
+        CALL aptflow_store_payload(step_payload_hash, step_payload);
+    END IF;
+    UPDATE step_function
+    SET completed_event_id = event_id,
+        payload_hash       = COALESCE(step_payload_hash, payload_hash)
+    WHERE workflow_run_id = run_id
+      AND function_id = step_id;
+END;
+$$;
+
+CREATE PROCEDURE aptflow_complete_activity(event_id bigint, run_id varchar, name varchar, output_hash bytea,
+                                           output bytea, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, name, 2::smallint, 2::smallint, output_hash, output, ts);
+$$;
+
+CREATE OR REPLACE PROCEDURE aptflow_fail_activity(event_id bigint, run_id varchar, name varchar, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, name, 2::smallint, 3::smallint, NULL, NULL, ts);
+$$;
+
+CREATE OR REPLACE PROCEDURE aptflow_satisfy_condition(event_id bigint, run_id varchar, identifier varchar, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, identifier, 3::smallint, 7::smallint, NULL, NULL, ts);
+$$;
+
+CREATE PROCEDURE aptflow_receive_signal(event_id bigint, run_id varchar, name varchar, value_hash bytea,
+                                        value bytea, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, name, 4::smallint, 4::smallint, value_hash, value, ts);
+$$;
+
+CREATE OR REPLACE PROCEDURE aptflow_complete_sleep(event_id bigint, run_id varchar, identifier varchar, ts timestamp)
+    LANGUAGE sql
+AS
+$$
+CALL aptflow_complete_step(event_id, run_id, identifier, 5::smallint, 2::smallint, NULL, NULL, ts);
+$$;
+
+CREATE PROCEDURE aptflow_complete_workflow_run(event_id bigint, run_id varchar, run_output_hash bytea,
+                                               run_output bytea, ts timestamp)
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    CALL aptflow_append_event(event_id, run_id, run_id, 1::smallint, 2::smallint, ts);
+    CALL aptflow_store_payload(run_output_hash, run_output);
+    UPDATE workflow_run SET completed_event_id = event_id, output_hash = run_output_hash WHERE id = run_id;
+END;
+$$;
@@ -0,0 +1,4 @@
+-- Payloads over the configured offload threshold are kept in the blob store, keyed by their hex hash.
+-- Their payload row holds no data.
+
+ALTER TABLE payload ALTER COLUMN data DROP NOT NULL;
@@ -7,9 +7,6 @@ import org.awaitility.Awaitility;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.parallel.Execution;
 import org.junit.jupiter.api.parallel.ExecutionMode;
-import org.testcontainers.containers.PostgreSQLContainer;
-import org.testcontainers.junit.jupiter.Container;
-import org.testcontainers.junit.jupiter.Testcontainers;
 
 import java.io.Serializable;
 import java.util.List;
@@ -17,28 +14,29 @@ import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
-@Testcontainers
-public class AcceptanceTest {
+/**
+ * Runs the workflows against each state store, the subclasses starting the engine on theirs
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public abstract class AcceptanceTest {
 
-    @Container
-    private static final PostgreSQLContainer postgresqlContainer = new PostgreSQLContainer("postgres")
-            .withDatabaseName("test-database")
-            .withUsername("test-user")
-            .withPassword("test-password");
+    AptFlow aptFlow;
+    TestCounterService testCounterService = new TestCounterService();
 
-    static AptFlow aptFlow;
-    static TestCounterService testCounterService = new TestCounterService();
+    /**
+     * @return the builder of the engine under test, its workflow dependencies still to register
+     */
+    protected abstract AptFlow.AptWorkflowBuilder builder();
 
     @BeforeAll
-    static void setup() {
-        aptFlow = AptFlow.builder()
-                .dataSource("test-user", "test-password", postgresqlContainer.getJdbcUrl())
+    void setup() {
+        aptFlow = builder()
                 .registerWorkflowDependencies(new ExampleService(), testCounterService)
                 .start();
     }
 
     @AfterAll
-    static void destroy() {
+    void destroy() {
         aptFlow.stop();
     }
 
@@ -127,6 +125,14 @@ public class AcceptanceTest {
         assertTrue(functionsHaveSameValues(firstRunFunctions.get(0), lastRunFunctions.get(0)));
         assertTrue(functionsHaveSameValues(firstRunFunctions.get(1), lastRunFunctions.get(1)));
 
+        // and the completed functions are inherited from the first run rather than copied
+        assertEquals(firstRun.getId(), lastRunFunctions.get(0).getStartedEvent().getWorkflowRun().getId());
+        assertEquals(firstRun.getId(), lastRunFunctions.get(1).getStartedEvent().getWorkflowRun().getId());
+
+        // and only the re-run activity is written to the 2nd run, with its output
+        ActivityFunction<?, ?, ?> reRunActivity = (ActivityFunction<?, ?, ?>) lastRunFunctions.get(2);
+        assertEquals(lastRun.getId(), reRunActivity.getStartedEvent().getWorkflowRun().getId());
+        assertEquals(2, reRunActivity.getOutput());
 
     }
 
@@ -145,6 +151,30 @@ public class AcceptanceTest {
     }
 
 
+    @Test
+    @Execution(ExecutionMode.CONCURRENT)
+    public void testReRunNeedsATerminalRun() throws Exception {
+        // a workflow that does not exist cannot be re-run
+        assertThrows(IllegalStateException.class, () -> aptFlow.reRunWorkflowFromStart("testReRunNeedsATerminalRun-missing"));
+
+        // given a workflow waiting for a signal
+        String workflowId = "testReRunNeedsATerminalRun";
+        aptFlow.runWorkflow(ExampleWorkflowWithSignal.class, 777, workflowId);
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                aptFlow.getLatestRun(workflowId).isWaitingForSignal());
+
+        // then it cannot be re-run while its run is not terminal
+        assertThrows(IllegalStateException.class, () -> aptFlow.reRunWorkflowFromStart(workflowId));
+        assertThrows(IllegalStateException.class, () -> aptFlow.reRunWorkflowFromFailed(workflowId));
+
+        // and once it completed, it cannot be re-run from a failure it did not have
+        aptFlow.signalWorkflow(workflowId, "multiplyBy", 10);
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                aptFlow.getLatestRun(workflowId).hasCompleted());
+        assertThrows(IllegalStateException.class, () -> aptFlow.reRunWorkflowFromFailed(workflowId));
+        assertEquals("testReRunNeedsATerminalRun::1", aptFlow.getLatestRun(workflowId).getId());
+    }
+
     @Test
     @Execution(ExecutionMode.CONCURRENT)
     public void testSimpleWorkflow() throws Exception {
@@ -183,6 +213,7 @@ public class AcceptanceTest {
         Awaitility.await().atMost(10, TimeUnit.SECONDS).until(
                 () -> aptFlow.getLatestRun(workflowId).isWaitingForSignal()
         );
+        assertEquals("multiplyBy", aptFlow.getLatestRun(workflowId).getBlockedOn());
 
         // and when the signal is sent
         aptFlow.signalWorkflow(workflowId, "multiplyBy", 10);
@@ -204,6 +235,45 @@ public class AcceptanceTest {
         assertTrue(eventMatches(events.get(3), StepFunctionType.SIGNAL, StepFunctionEventStatus.RECEIVED));
         assertTrue(eventMatches(events.get(4), StepFunctionType.WORKFLOW, StepFunctionEventStatus.COMPLETED));
 
+        // and the run is listed among the completed runs of its class, and no longer blocked
+        RunPage completedRuns = aptFlow.listRuns(
+                RunFilter.any().withWorkflowClass(workflowClass).withStatuses(WorkflowRunStatus.COMPLETED), null, 100);
+        WorkflowRun<Serializable, Serializable> listedRun = completedRuns.runs().stream()
+                .filter(run -> run.getId().equals("testWorkflowWithSignal::1"))
+                .findFirst()
+                .orElseThrow();
+        assertNull(listedRun.getBlockedOn());
+
+    }
+
+    @Test
+    @Execution(ExecutionMode.CONCURRENT)
+    public void testWorkflowWokenWhileWaitingForSignal() throws Exception {
+        // given a workflow waiting for a signal and sleeping
+        String workflowId = "testWorkflowWokenWhileWaitingForSignal";
+        Class<? extends RunnableWorkflow<Integer, String>> workflowClass = ExampleWorkflowWithSignalDuringSleep.class;
+        aptFlow.runWorkflow(workflowClass, 42, workflowId);
+
+        // then it is waiting for the signal while it sleeps
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                aptFlow.getLatestRun(workflowId).getStatus() == WorkflowRunStatus.SLEEPING);
+        assertTrue(aptFlow.getLatestRun(workflowId).isWaitingForSignal());
+
+        // when it wakes up, it is listed as waiting for the signal again
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() -> {
+            WorkflowRun<Integer, String> run = aptFlow.getLatestRun(workflowId, workflowClass);
+            return run.getFunctionEvents().stream().anyMatch(event ->
+                    eventMatches(event, StepFunctionType.SLEEP, StepFunctionEventStatus.COMPLETED))
+                    && run.getStatus() == WorkflowRunStatus.WAITING_FOR_SIGNAL;
+        });
+        assertEquals("multiplyBy", aptFlow.getLatestRun(workflowId).getBlockedOn());
+
+        // and when the signal is sent, the workflow completes
+        aptFlow.signalWorkflow(workflowId, "multiplyBy", 10);
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                aptFlow.getLatestRun(workflowId).hasCompleted());
+        assertEquals("420", aptFlow.getLatestRun(workflowId, workflowClass).getOutput());
+        assertNull(aptFlow.getLatestRun(workflowId).getBlockedOn());
     }
 
     @Test
@@ -0,0 +1,23 @@
+package aptvantage.aptflow;
+
+import aptvantage.aptflow.examples.ExampleSimpleWorkflow;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryAcceptanceTest extends AcceptanceTest {
+
+    @Override
+    protected AptFlow.AptWorkflowBuilder builder() {
+        return AptFlow.builder().inMemory();
+    }
+
+    @Test
+    public void testCallerTransactionsNeedPostgres() {
+        // the in-memory store has no transaction of the caller to join
+        assertThrows(IllegalStateException.class, () ->
+                aptFlow.runWorkflow((Connection) null, ExampleSimpleWorkflow.class, 555, "testCallerTransactionsNeedPostgres"));
+    }
+}
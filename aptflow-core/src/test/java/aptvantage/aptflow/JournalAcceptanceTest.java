@@ -0,0 +1,16 @@
+package aptvantage.aptflow;
+
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+public class JournalAcceptanceTest extends AcceptanceTest {
+
+    @TempDir
+    static Path journalDirectory;
+
+    @Override
+    protected AptFlow.AptWorkflowBuilder builder() {
+        return AptFlow.builder().journal(journalDirectory);
+    }
+}
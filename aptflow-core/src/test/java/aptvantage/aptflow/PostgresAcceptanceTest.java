@@ -0,0 +1,66 @@
+package aptvantage.aptflow;
+
+import aptvantage.aptflow.api.RunnableWorkflow;
+import aptvantage.aptflow.examples.ExampleSimpleWorkflow;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Testcontainers
+public class PostgresAcceptanceTest extends AcceptanceTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> postgresqlContainer = new PostgreSQLContainer<>("postgres")
+            .withDatabaseName("test-database")
+            .withUsername("test-user")
+            .withPassword("test-password");
+
+    @Override
+    protected AptFlow.AptWorkflowBuilder builder() {
+        return AptFlow.builder()
+                .dataSource("test-user", "test-password", postgresqlContainer.getJdbcUrl());
+    }
+
+    @Test
+    @Execution(ExecutionMode.CONCURRENT)
+    public void testRunWorkflowInCallerTransaction() throws Exception {
+        Class<? extends RunnableWorkflow<Integer, String>> workflowClass = ExampleSimpleWorkflow.class;
+
+        // given a workflow started in a caller transaction that is rolled back
+        String rolledBackWorkflowId = "testRunWorkflowInCallerTransaction-rolledBack";
+        try (Connection connection = DriverManager.getConnection(postgresqlContainer.getJdbcUrl(), "test-user", "test-password")) {
+            connection.setAutoCommit(false);
+            aptFlow.runWorkflow(connection, workflowClass, 555, rolledBackWorkflowId);
+            connection.rollback();
+        }
+
+        // then the workflow was never created
+        assertNull(aptFlow.getLatestRun(rolledBackWorkflowId));
+
+        // and when a workflow is started in a caller transaction that commits
+        String workflowId = "testRunWorkflowInCallerTransaction";
+        try (Connection connection = DriverManager.getConnection(postgresqlContainer.getJdbcUrl(), "test-user", "test-password")) {
+            connection.setAutoCommit(false);
+            aptFlow.runWorkflow(connection, workflowClass, 555, workflowId);
+
+            // then it is not visible before the commit
+            assertNull(aptFlow.getLatestRun(workflowId));
+            connection.commit();
+        }
+
+        // and it eventually completes after the commit
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                aptFlow.getLatestRun(workflowId).hasCompleted());
+        assertEquals("555", aptFlow.getLatestRun(workflowId, workflowClass).getOutput());
+    }
+}
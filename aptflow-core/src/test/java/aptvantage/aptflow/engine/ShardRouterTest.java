@@ -0,0 +1,46 @@
+package aptvantage.aptflow.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardRouterTest {
+
+    @Test
+    public void testWorkflowsAreRoutedByTheCrc32OfTheirId() {
+        ShardRouter router = new ShardRouter(4);
+
+        // fixed values: the shard of a workflow must not change across JVMs and releases
+        assertEquals(3, router.shardOf("order-1")); // a CRC32 over Integer.MAX_VALUE
+        assertEquals(1, router.shardOf("order-2"));
+        assertEquals(0, router.shardOf("workflow-42"));
+        assertEquals(1, new ShardRouter(3).shardOf("order-1"));
+    }
+
+    @Test
+    public void testEveryShardGetsWorkflows() {
+        ShardRouter router = new ShardRouter(4);
+        Set<Integer> shards = new HashSet<>();
+
+        for (int i = 0; i < 100; i++) {
+            int shard = router.shardOf("workflow-" + i);
+            assertTrue(shard >= 0 && shard < 4);
+            shards.add(shard);
+        }
+
+        assertEquals(Set.of(0, 1, 2, 3), shards);
+    }
+
+    @Test
+    public void testASingleShardOwnsEveryWorkflow() {
+        assertEquals(0, new ShardRouter(1).shardOf("order-1"));
+    }
+
+    @Test
+    public void testAtLeastOneShardIsRequired() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardRouter(0));
+    }
+}
@@ -0,0 +1,79 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.AptFlow;
+import aptvantage.aptflow.examples.ExampleSimpleWorkflow;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Testcontainers
+public class ConnectionPoolsTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> postgresqlContainer = new PostgreSQLContainer<>("postgres")
+            .withDatabaseName("test-database")
+            .withUsername("test-user")
+            .withPassword("test-password");
+
+    static AptFlow aptFlow;
+
+    @BeforeAll
+    static void setup() {
+        aptFlow = AptFlow.builder()
+                .dataSource("test-user", "test-password", postgresqlContainer.getJdbcUrl(), 2, 4, 2)
+                .start();
+    }
+
+    @AfterAll
+    static void destroy() {
+        aptFlow.stop();
+    }
+
+    @Test
+    public void testEachKindOfWorkChecksOutOfItsOwnPool() {
+        ConnectionPools pools = aptFlow.getConnectionPools().get(0);
+        long readsBefore = pools.reads().getCheckouts();
+
+        aptFlow.runWorkflow(ExampleSimpleWorkflow.class, 2201, "testEachKindOfWorkChecksOutOfItsOwnPool");
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                aptFlow.getLatestRun("testEachKindOfWorkChecksOutOfItsOwnPool").hasCompleted());
+
+        // the poller and the execution pass
+        assertTrue(pools.scheduling().getCheckouts() > 0);
+        assertTrue(pools.writes().getCheckouts() > 0);
+        // the reads of the API, awaiting the completion
+        assertTrue(pools.reads().getCheckouts() > readsBefore);
+        assertNull(pools.replica());
+    }
+
+    @Test
+    public void testReplicaIsAddedToTheSamePools() {
+        ConnectionPools pools = aptFlow.getConnectionPools().get(0);
+
+        ConnectionPools withReplica = pools.withReplica(pools.reads());
+
+        // the pools and their metrics are shared
+        assertSame(pools.scheduling(), withReplica.scheduling());
+        assertSame(pools.writes(), withReplica.writes());
+        assertSame(pools.reads(), withReplica.reads());
+        assertEquals("replica", withReplica.replica().getName());
+    }
+
+    @Test
+    public void testSharedPoolsAreMeteredApart() {
+        ConnectionPools shared = ConnectionPools.shared(aptFlow.getConnectionPools().get(0).writes());
+
+        assertEquals("scheduling", shared.scheduling().getName());
+        assertEquals("writes", shared.writes().getName());
+        assertEquals("reads", shared.reads().getName());
+        assertNotSame(shared.writes(), shared.reads());
+    }
+}
@@ -0,0 +1,68 @@
+package aptvantage.aptflow.engine.persistence;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventIdsTest {
+
+    @AfterEach
+    void resetNode() {
+        EventIds.useNode(0);
+    }
+
+    @Test
+    public void testIdsIncreaseWhenTheSequenceOfAMillisecondIsUsedUp() {
+        Instant timestamp = Instant.now();
+        long previous = EventIds.newId(timestamp);
+        // a millisecond has 4096 ids
+        for (int i = 0; i < 10_000; i++) {
+            long id = EventIds.newId(timestamp);
+            assertTrue(id > previous, "id %s after %s".formatted(id, previous));
+            previous = id;
+        }
+        // ids moved on to the following milliseconds rather than wrapping around
+        assertTrue(EventIds.timestampOf(previous).isAfter(timestamp));
+    }
+
+    @Test
+    public void testIdsIncreaseWhenTheClockGoesBackwards() {
+        Instant now = Instant.now();
+        long id = EventIds.newId(now);
+
+        long earlier = EventIds.newId(now.minusSeconds(5));
+
+        assertTrue(earlier > id);
+        assertFalse(EventIds.timestampOf(earlier).isBefore(now.truncatedTo(ChronoUnit.MILLIS)));
+    }
+
+    @Test
+    public void testIdsCarryTheNodeId() {
+        EventIds.useNode(5);
+        long node5 = EventIds.newId(Instant.now());
+        EventIds.useNode(6);
+        long node6 = EventIds.newId(Instant.now());
+
+        assertEquals(5, (node5 >> 12) & EventIds.MAX_NODE);
+        assertEquals(6, (node6 >> 12) & EventIds.MAX_NODE);
+    }
+
+    @Test
+    public void testNodeIdMustFitItsBits() {
+        assertThrows(IllegalArgumentException.class, () -> EventIds.useNode(EventIds.MAX_NODE + 1));
+        assertThrows(IllegalArgumentException.class, () -> EventIds.useNode(-1));
+    }
+
+    @Test
+    public void testFirstIdAtBoundsTheIdsByTime() {
+        long id = EventIds.newId(Instant.now());
+        Instant timestamp = EventIds.timestampOf(id);
+
+        assertTrue(EventIds.firstIdAt(timestamp) <= id);
+        assertTrue(EventIds.firstIdAt(timestamp.plusMillis(1)) > id);
+    }
+}
@@ -0,0 +1,146 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.AptFlow;
+import aptvantage.aptflow.examples.ExampleWorkflowWithActivity;
+import aptvantage.aptflow.examples.ExampleWorkflowWithFailedSupplierActivity;
+import aptvantage.aptflow.model.WorkflowRun;
+import aptvantage.aptflow.model.WorkflowRunStatus;
+import org.awaitility.Awaitility;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.Serializable;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Testcontainers
+public class EventPartitionMaintenanceTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> postgresqlContainer = new PostgreSQLContainer<>("postgres")
+            .withDatabaseName("test-database")
+            .withUsername("test-user")
+            .withPassword("test-password");
+
+    static AptFlow aptFlow;
+    static Jdbi jdbi;
+
+    @BeforeAll
+    static void setup() {
+        aptFlow = AptFlow.builder()
+                .dataSource("test-user", "test-password", postgresqlContainer.getJdbcUrl())
+                .start();
+        jdbi = Jdbi.create(postgresqlContainer.getJdbcUrl(), "test-user", "test-password");
+    }
+
+    @AfterAll
+    static void destroy() {
+        aptFlow.stop();
+    }
+
+    @Test
+    public void testPartitionsWithEventsOfResumableRunsAreKept() {
+        String workflowId = "testPartitionsWithEventsOfResumableRunsAreKept";
+        aptFlow.runWorkflow(ExampleWorkflowWithFailedSupplierActivity.class, 1, workflowId);
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                aptFlow.getLatestRun(workflowId).hasFailed());
+        List<String> partitions = partitionsOf(aptFlow.getLatestRun(workflowId).getId());
+
+        // a negative retention expires every partition, the current month's included
+        List<String> detached = maintain(0, "-400 days");
+
+        // the failed run is the latest of its workflow, so it can still be resumed from its events
+        assertTrue(detached.stream().noneMatch(partitions::contains));
+
+        // once a newer run replaced it, it cannot
+        jdbi.useHandle(handle -> handle.createUpdate("UPDATE workflow_run SET archived = now() WHERE workflow_id = :workflowId")
+                .bind("workflowId", workflowId)
+                .execute());
+
+        assertTrue(maintain(0, "-400 days").containsAll(partitions));
+        // so the events of the next runs have a partition of their month again
+        maintain(0, null);
+    }
+
+    @Test
+    public void testRunsWithDetachedEventsKeepTheirStatusAndOutput() {
+        String workflowId = "testRunsWithDetachedEventsKeepTheirStatusAndOutput";
+        aptFlow.runWorkflow(ExampleWorkflowWithActivity.class, 777, workflowId);
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                aptFlow.getLatestRun(workflowId).hasCompleted());
+        String runId = aptFlow.getLatestRun(workflowId).getId();
+        List<String> partitions = partitionsOf(runId);
+
+        assertTrue(maintain(0, "-400 days").containsAll(partitions));
+        maintain(0, null);
+
+        // status and output are kept on the run, its steps are read through the events that went with the partition
+        WorkflowRun<Serializable, Serializable> run = aptFlow.getLatestRun(workflowId);
+        assertEquals(WorkflowRunStatus.COMPLETED, run.getStatus());
+        assertTrue(run.hasCompleted());
+        assertEquals("777", run.getOutput());
+        assertNull(run.getCompletedEvent());
+        assertTrue(run.getFunctionEvents().isEmpty());
+        assertTrue(run.getFunctions().isEmpty());
+    }
+
+    @Test
+    public void testMonthsWithEventsInTheDefaultPartitionAreSkipped() {
+        YearMonth thisMonth = YearMonth.now(ZoneOffset.UTC);
+        // past the months created ahead on start, so the event is written to event_default
+        jdbi.useHandle(handle -> handle.execute("""
+                INSERT INTO event (id, workflow_run_id, seq, function_id, category, status, timestamp)
+                VALUES (aptflow_event_id_at(date_trunc('month', now() AT TIME ZONE 'UTC') + interval '6 months'),
+                        'testMonthsWithEventsInTheDefaultPartitionAreSkipped', 1, 'workflow', 1, 1, now())
+                """));
+
+        maintain(7, null);
+
+        assertFalse(isPartition(thisMonth.plusMonths(6)));
+        assertTrue(isPartition(thisMonth.plusMonths(7)));
+    }
+
+    private static List<String> maintain(int monthsAhead, String retention) {
+        return jdbi.withHandle(handle -> handle.createQuery("""
+                        SELECT aptflow_maintain_event_partitions(:monthsAhead, CAST(:retention AS interval), true)
+                        """)
+                .bind("monthsAhead", monthsAhead)
+                .bind("retention", retention)
+                .mapTo(String.class)
+                .list());
+    }
+
+    private static List<String> partitionsOf(String workflowRunId) {
+        return jdbi.withHandle(handle -> handle.createQuery("""
+                        SELECT DISTINCT CAST(tableoid::regclass AS text)
+                        FROM event
+                        WHERE workflow_run_id = :workflowRunId
+                        """)
+                .bind("workflowRunId", workflowRunId)
+                .mapTo(String.class)
+                .list());
+    }
+
+    private static boolean isPartition(YearMonth month) {
+        String partition = "event_" + month.format(DateTimeFormatter.ofPattern("yyyy_MM"));
+        return jdbi.withHandle(handle -> handle.createQuery("""
+                        SELECT EXISTS (SELECT 1
+                                       FROM pg_inherits
+                                       WHERE inhparent = 'event'::regclass
+                                         AND inhrelid = to_regclass(:partition))
+                        """)
+                .bind("partition", partition)
+                .mapTo(Boolean.class)
+                .one());
+    }
+}
@@ -0,0 +1,92 @@
+package aptvantage.aptflow.engine.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileSystemBlobStoreTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    public void testPutBlobCanBeRead() throws Exception {
+        FileSystemBlobStore blobStore = new FileSystemBlobStore(root);
+        String key = keyOf("payload");
+
+        blobStore.put(key, "payload".getBytes(StandardCharsets.UTF_8));
+
+        try (InputStream blob = blobStore.open(key)) {
+            assertEquals("payload", new String(blob.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        // fanned out by key prefix, with no temporary file left behind
+        try (Stream<Path> files = Files.list(root.resolve(key.substring(0, 2)))) {
+            assertEquals(List.of(key), files.map(path -> path.getFileName().toString()).toList());
+        }
+    }
+
+    @Test
+    public void testKeysStoredBeforeSkipsBlobsPutSince() throws Exception {
+        FileSystemBlobStore blobStore = new FileSystemBlobStore(root);
+        String old = keyOf("old");
+        String recent = keyOf("recent");
+        blobStore.put(old, "old".getBytes(StandardCharsets.UTF_8));
+        blobStore.put(recent, "recent".getBytes(StandardCharsets.UTF_8));
+        age(old, Duration.ofHours(2));
+
+        try (Stream<String> keys = blobStore.keysStoredBefore(Instant.now().minus(Duration.ofHours(1)))) {
+            assertEquals(List.of(old), keys.toList());
+        }
+    }
+
+    @Test
+    public void testPuttingABlobAgainMakesItRecent() throws Exception {
+        FileSystemBlobStore blobStore = new FileSystemBlobStore(root);
+        String key = keyOf("shared");
+        blobStore.put(key, "shared".getBytes(StandardCharsets.UTF_8));
+        age(key, Duration.ofHours(2));
+
+        // e.g. a new payload row refers to it
+        blobStore.put(key, "shared".getBytes(StandardCharsets.UTF_8));
+
+        try (Stream<String> keys = blobStore.keysStoredBefore(Instant.now().minus(Duration.ofHours(1)))) {
+            assertEquals(List.of(), keys.toList());
+        }
+    }
+
+    @Test
+    public void testDeletedBlobIsGone() throws Exception {
+        FileSystemBlobStore blobStore = new FileSystemBlobStore(root);
+        String key = keyOf("deleted");
+        blobStore.put(key, "deleted".getBytes(StandardCharsets.UTF_8));
+
+        blobStore.delete(key);
+        // deleting again is a no-op
+        blobStore.delete(key);
+
+        try (Stream<String> keys = blobStore.keysStoredBefore(Instant.now().plusSeconds(1))) {
+            assertEquals(List.of(), keys.toList());
+        }
+    }
+
+    private void age(String key, Duration age) throws Exception {
+        Files.setLastModifiedTime(root.resolve(key.substring(0, 2)).resolve(key),
+                FileTime.from(Instant.now().minus(age)));
+    }
+
+    private static String keyOf(String data) {
+        return HexFormat.of().formatHex(PayloadStore.hash(data.getBytes(StandardCharsets.UTF_8)));
+    }
+}
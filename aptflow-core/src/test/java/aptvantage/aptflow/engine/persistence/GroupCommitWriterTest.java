@@ -0,0 +1,106 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.engine.persistence.PostgresUnitOfWork.PendingWrite;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Testcontainers
+public class GroupCommitWriterTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> postgresqlContainer = new PostgreSQLContainer<>("postgres")
+            .withDatabaseName("test-database")
+            .withUsername("test-user")
+            .withPassword("test-password");
+
+    private static final String INSERT = "INSERT INTO group_commit_test (id) VALUES (:id)";
+
+    static Jdbi jdbi;
+    GroupCommitWriter writer;
+
+    @BeforeAll
+    static void setup() {
+        jdbi = Jdbi.create(postgresqlContainer.getJdbcUrl(), "test-user", "test-password");
+        jdbi.useHandle(handle -> handle.execute("CREATE TABLE group_commit_test (id INT PRIMARY KEY)"));
+    }
+
+    @BeforeEach
+    void startWriter() {
+        jdbi.useHandle(handle -> handle.execute("TRUNCATE group_commit_test"));
+        // a long delay, so the flushes of a test are committed as one group
+        writer = new GroupCommitWriter(jdbi, Duration.ofMillis(500), 1000);
+        writer.start();
+    }
+
+    @AfterEach
+    void stopWriter() {
+        writer.stop();
+    }
+
+    @Test
+    public void testFlushesAreCommittedTogether() throws Exception {
+        CompletableFuture<Void> first = writer.submit(List.of(insert(1), insert(2)));
+        CompletableFuture<Void> second = writer.submit(List.of(insert(3)));
+
+        CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+
+        assertEquals(3, rowCount());
+    }
+
+    @Test
+    public void testFailedFlushDoesNotFailTheRestOfItsGroup() throws Exception {
+        CompletableFuture<Void> first = writer.submit(List.of(insert(1)));
+        // violates the primary key, failing the group commit
+        CompletableFuture<Void> bad = writer.submit(List.of(insert(2), insert(2)));
+        CompletableFuture<Void> last = writer.submit(List.of(insert(3)));
+
+        first.get(10, TimeUnit.SECONDS);
+        last.get(10, TimeUnit.SECONDS);
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> bad.get(10, TimeUnit.SECONDS));
+        assertNotNull(failure.getCause());
+
+        // the retries committed the good flushes, and nothing of the bad one
+        assertEquals(List.of(1, 3), ids());
+    }
+
+    @Test
+    public void testStopCommitsQueuedFlushes() throws Exception {
+        CompletableFuture<Void> queued = writer.submit(List.of(insert(1)));
+
+        writer.stop();
+
+        assertTrue(queued.isDone());
+        queued.get();
+        assertEquals(1, rowCount());
+        assertThrows(IllegalStateException.class, () -> writer.submit(List.of(insert(2))));
+    }
+
+    private static PendingWrite insert(int id) {
+        return new PendingWrite(INSERT, Map.of("id", id));
+    }
+
+    private static int rowCount() {
+        return ids().size();
+    }
+
+    private static List<Integer> ids() {
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT id FROM group_commit_test ORDER BY id")
+                .mapTo(Integer.class)
+                .list());
+    }
+}
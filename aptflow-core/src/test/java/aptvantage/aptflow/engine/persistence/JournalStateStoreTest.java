@@ -0,0 +1,151 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.AptFlow;
+import aptvantage.aptflow.examples.ExampleSimpleWorkflow;
+import aptvantage.aptflow.examples.ExampleWorkflowWithSignal;
+import aptvantage.aptflow.model.ActivityFunction;
+import aptvantage.aptflow.model.WorkflowRun;
+import aptvantage.aptflow.model.WorkflowRunStatus;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournalStateStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testReplayRebuildsTheRuns() {
+        String workflowRunId;
+        int events;
+        try (JournalStateStore store = new JournalStateStore(directory)) {
+            workflowRunId = store.scheduleRunForNewWorkflow("testReplayRebuildsTheRuns", ExampleSimpleWorkflow.class, 7);
+            store.workflowRunStarted(workflowRunId, Instant.now());
+            store.newActivityStarted(workflowRunId, "convert", Instant.now());
+            store.completeActivity(workflowRunId, "convert", "7", Instant.now());
+            store.newSignalWaiting(workflowRunId, "go", Instant.now());
+            events = store.getStepFunctionEventsForWorkflowRun(workflowRunId).size();
+        }
+
+        try (JournalStateStore store = new JournalStateStore(directory)) {
+            WorkflowRun<Serializable, Serializable> run = store.getWorkflowRun(workflowRunId);
+            assertEquals(WorkflowRunStatus.WAITING_FOR_SIGNAL, run.getStatus());
+            assertEquals("go", run.getBlockedOn());
+            assertEquals(events, store.getStepFunctionEventsForWorkflowRun(workflowRunId).size());
+            ActivityFunction<Serializable, Serializable, String> convert = store.getActivityFunction(workflowRunId, "convert");
+            assertEquals("7", convert.getOutput());
+            assertEquals(7, (Integer) store.getWorkflow("testReplayRebuildsTheRuns", null).getInput());
+            assertEquals(1, store.getUnfinishedRuns().size());
+        }
+    }
+
+    @Test
+    public void testCompactionKeepsTheLiveWorkflows() {
+        String liveRunId;
+        // segments small enough for the records of a few transitions to roll them
+        try (JournalStateStore store = store()) {
+            String expiredRunId = store.scheduleRunForNewWorkflow("expired", ExampleSimpleWorkflow.class, 1);
+            store.workflowRunStarted(expiredRunId, Instant.now().minusSeconds(2));
+            store.workflowRunCompleted(expiredRunId, "1", Instant.now().minusSeconds(1));
+            liveRunId = store.scheduleRunForNewWorkflow("live", ExampleSimpleWorkflow.class, 2);
+            store.workflowRunStarted(liveRunId, Instant.now());
+            for (int i = 0; i < 10; i++) {
+                store.newActivityStarted(liveRunId, "activity-" + i, Instant.now());
+                store.completeActivity(liveRunId, "activity-" + i, "output-" + i, Instant.now());
+            }
+
+            store.compact();
+
+            assertFalse(store.hasWorkflow("expired"));
+        }
+
+        try (JournalStateStore store = store()) {
+            // the records of the expired workflow were dropped, those of the live one kept
+            assertFalse(store.hasWorkflow("expired"));
+            assertEquals(WorkflowRunStatus.RUNNING, store.getWorkflowRun(liveRunId).getStatus());
+            for (int i = 0; i < 10; i++) {
+                ActivityFunction<Serializable, Serializable, String> activity = store.getActivityFunction(liveRunId, "activity-" + i);
+                assertEquals("output-" + i, activity.getOutput());
+            }
+        }
+    }
+
+    @Test
+    public void testChangesTooLargeToJournalAreNotApplied() {
+        String workflowRunId;
+        String tooLarge = "x".repeat(2048);
+        try (JournalStateStore store = store()) {
+            workflowRunId = store.scheduleRunForNewWorkflow("testChangesTooLargeToJournalAreNotApplied", ExampleSimpleWorkflow.class, 7);
+            store.workflowRunStarted(workflowRunId, Instant.now());
+            store.newActivityStarted(workflowRunId, "convert", Instant.now());
+
+            // the output does not fit in a segment of the journal, so the activity stays incomplete
+            assertThrows(IllegalArgumentException.class, () ->
+                    store.completeActivity(workflowRunId, "convert", tooLarge, Instant.now()));
+            assertFalse(store.getActivityFunction(workflowRunId, "convert").hasCompleted());
+        }
+
+        try (JournalStateStore store = store()) {
+            assertFalse(store.getActivityFunction(workflowRunId, "convert").hasCompleted());
+        }
+    }
+
+    @Test
+    public void testSentSignalsAreKeptUntilReceived() {
+        String workflowRunId;
+        try (JournalStateStore store = new JournalStateStore(directory)) {
+            workflowRunId = store.scheduleRunForNewWorkflow("testSentSignalsAreKeptUntilReceived", ExampleWorkflowWithSignal.class, 7);
+            store.workflowRunStarted(workflowRunId, Instant.now());
+            store.newSignalWaiting(workflowRunId, "multiplyBy", Instant.now());
+            store.signalSent(workflowRunId, "multiplyBy", 10);
+        }
+
+        try (JournalStateStore store = new JournalStateStore(directory)) {
+            assertEquals(Map.of("multiplyBy", 10), store.getSentSignals(workflowRunId));
+            store.signalReceived(workflowRunId, "multiplyBy", 10, Instant.now());
+            assertEquals(Map.of(), store.getSentSignals(workflowRunId));
+        }
+
+        try (JournalStateStore store = new JournalStateStore(directory)) {
+            assertEquals(Map.of(), store.getSentSignals(workflowRunId));
+        }
+    }
+
+    @Test
+    public void testSignalsSentBeforeARestartAreDelivered() {
+        String workflowId = "testSignalsSentBeforeARestartAreDelivered";
+        AptFlow aptFlow = AptFlow.builder().journal(directory).start();
+        aptFlow.runWorkflow(ExampleWorkflowWithSignal.class, 7, workflowId);
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                aptFlow.getLatestRun(workflowId).isWaitingForSignal());
+        String workflowRunId = aptFlow.getLatestRun(workflowId).getId();
+        aptFlow.stop();
+        // sent, then the application stopped before delivering it
+        try (JournalStateStore store = new JournalStateStore(directory)) {
+            store.signalSent(workflowRunId, "multiplyBy", 10);
+        }
+
+        AptFlow restarted = AptFlow.builder().journal(directory).start();
+        try {
+            Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                    restarted.getLatestRun(workflowId).hasCompleted());
+            assertEquals("70", restarted.getLatestRun(workflowId).getOutput());
+        } finally {
+            restarted.stop();
+        }
+    }
+
+    private JournalStateStore store() {
+        return new JournalStateStore(directory, 1024, new JavaSerializationCodec(), Duration.ZERO, Map.of(), Duration.ofHours(1));
+    }
+}
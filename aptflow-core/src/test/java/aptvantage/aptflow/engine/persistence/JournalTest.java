@@ -0,0 +1,139 @@
+package aptvantage.aptflow.engine.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournalTest {
+
+    // header, then two frames of a 6 byte record
+    private static final int TWO_RECORD_SEGMENT_BYTES = 16 + 2 * (8 + 6);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testRecordsAreReplayedInOrderAcrossSegments() throws Exception {
+        try (Journal journal = Journal.open(directory, TWO_RECORD_SEGMENT_BYTES, record -> fail("a new journal has no records"))) {
+            append(journal, "rec-01", "rec-02", "rec-03", "rec-04", "rec-05");
+            assertEquals(2, journal.getSealedSegments());
+        }
+
+        assertEquals(List.of("rec-01", "rec-02", "rec-03", "rec-04", "rec-05"), reopen(TWO_RECORD_SEGMENT_BYTES));
+    }
+
+    @Test
+    public void testTornTailIsTruncatedOnReopen() throws Exception {
+        try (Journal journal = Journal.open(directory, 4096, record -> fail("a new journal has no records"))) {
+            append(journal, "one", "two");
+        }
+        // the frame of a record whose bytes did not all reach the segment
+        writeAt(0, 16 + 2 * (8 + 3), ByteBuffer.allocate(12).putInt(4).putInt(0x12345678).put("thr".getBytes(StandardCharsets.UTF_8)).flip());
+
+        assertEquals(List.of("one", "two"), reopen(4096));
+        // zeroed, so no remains of it can follow a record appended there
+        assertArrayEquals(new byte[12], readAt(0, 16 + 2 * (8 + 3), 12));
+
+        try (Journal journal = Journal.open(directory, 4096, record -> { })) {
+            append(journal, "three");
+        }
+
+        assertEquals(List.of("one", "two", "three"), reopen(4096));
+    }
+
+    @Test
+    public void testCorruptLastRecordIsTruncatedOnReopen() throws Exception {
+        try (Journal journal = Journal.open(directory, 4096, record -> fail("a new journal has no records"))) {
+            append(journal, "one", "two");
+        }
+        // a bit flipped in the last record, its CRC no longer checks out
+        writeAt(0, 16 + (8 + 3) + 8, ByteBuffer.wrap("twp".getBytes(StandardCharsets.UTF_8)));
+
+        List<String> records = new ArrayList<>();
+        try (Journal journal = Journal.open(directory, 4096, record -> records.add(string(record)))) {
+            assertEquals(List.of("one"), records);
+            append(journal, "three");
+        }
+
+        assertEquals(List.of("one", "three"), reopen(4096));
+    }
+
+    @Test
+    public void testCompactionKeepsTheAcceptedRecords() throws Exception {
+        try (Journal journal = Journal.open(directory, TWO_RECORD_SEGMENT_BYTES, record -> fail("a new journal has no records"))) {
+            append(journal, "keep-1", "drop-1", "keep-2", "drop-2", "keep-3");
+            assertEquals(2, journal.getSealedSegments());
+
+            long reclaimedBytes = journal.compact(record -> string(record).startsWith("keep"));
+
+            assertTrue(reclaimedBytes > 0);
+            assertEquals(1, journal.getSealedSegments());
+            // appends go on after the compaction
+            append(journal, "keep-4");
+        }
+
+        assertEquals(List.of("keep-1", "keep-2", "keep-3", "keep-4"), reopen(TWO_RECORD_SEGMENT_BYTES));
+    }
+
+    @Test
+    public void testSegmentsReplacedByACompactionAreSkippedOnReopen() throws Exception {
+        try (Journal journal = Journal.open(directory, TWO_RECORD_SEGMENT_BYTES, record -> fail("a new journal has no records"))) {
+            append(journal, "keep-1", "drop-1", "keep-2", "drop-2", "keep-3");
+            journal.compact(record -> string(record).startsWith("keep"));
+        }
+        // as if the application stopped before deleting the replaced segments
+        try (FileChannel segment = FileChannel.open(segmentPath(0), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            segment.write(ByteBuffer.allocate(16).putInt(0x4150464a).putLong(0).flip());
+        }
+
+        assertEquals(List.of("keep-1", "keep-2", "keep-3"), reopen(TWO_RECORD_SEGMENT_BYTES));
+        assertFalse(segmentPath(0).toFile().exists());
+    }
+
+    private List<String> reopen(int segmentBytes) throws IOException {
+        List<String> records = new ArrayList<>();
+        Journal.open(directory, segmentBytes, record -> records.add(string(record))).close();
+        return records;
+    }
+
+    private static void append(Journal journal, String... records) {
+        for (String record : records) {
+            journal.append(record.getBytes(StandardCharsets.UTF_8));
+        }
+        journal.sync();
+    }
+
+    private void writeAt(long segmentId, long position, ByteBuffer bytes) throws IOException {
+        try (FileChannel segment = FileChannel.open(segmentPath(segmentId), StandardOpenOption.WRITE)) {
+            segment.write(bytes, position);
+        }
+    }
+
+    private byte[] readAt(long segmentId, long position, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        try (FileChannel segment = FileChannel.open(segmentPath(segmentId), StandardOpenOption.READ)) {
+            segment.read(bytes, position);
+        }
+        return bytes.array();
+    }
+
+    private Path segmentPath(long segmentId) {
+        return directory.resolve("%016d.journal".formatted(segmentId));
+    }
+
+    private static String string(ByteBuffer record) {
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
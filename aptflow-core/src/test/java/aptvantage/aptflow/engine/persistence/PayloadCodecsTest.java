@@ -0,0 +1,124 @@
+package aptvantage.aptflow.engine.persistence;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PayloadCodecsTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"java", "json", "smile"})
+    public void testPayloadsDecodeToTheTypesTheyWereWrittenFrom(String codecName) {
+        PayloadCodecs codecs = new PayloadCodecs(codecNamed(codecName));
+
+        List<Serializable> payloads = List.of(order(), new ArrayList<>(List.of(order())), "a string", "nul\u0000byte",
+                42, 42L, true, Instant.parse("2025-03-01T12:00:00Z"));
+        for (Serializable payload : payloads) {
+            byte[] encoded = codecs.encode(payload);
+
+            assertEquals(payload, codecs.decode(codecs.writeCodecId(), encoded));
+        }
+    }
+
+    @Test
+    public void testPayloadsWrittenWithAnotherCodecStayReadable() {
+        Order order = order();
+        byte[] javaEncoded = new PayloadCodecs(new JavaSerializationCodec()).encode(order);
+        byte[] jsonEncoded = new PayloadCodecs(JacksonPayloadCodec.json()).encode(order);
+
+        PayloadCodecs smileCodecs = new PayloadCodecs(JacksonPayloadCodec.smile());
+
+        assertEquals(order, smileCodecs.decode(JavaSerializationCodec.ID, javaEncoded));
+        assertEquals(order, smileCodecs.decode(JacksonPayloadCodec.JSON_ID, jsonEncoded));
+    }
+
+    @Test
+    public void testJsonPayloadsAreTypedAtTheRootOnly() throws Exception {
+        byte[] encoded = new PayloadCodecs(JacksonPayloadCodec.json()).encode(order());
+
+        JsonNode document = new ObjectMapper().readTree(encoded);
+        assertEquals(Order.class.getName(), document.get("@class").asText());
+        assertEquals("[\"express\",\"gift\"]", document.get("tags").toString());
+        assertEquals(1, new String(encoded, StandardCharsets.UTF_8).split("@class", -1).length - 1);
+    }
+
+    @Test
+    public void testOnlyTheJsonCodecWritesJson() {
+        assertTrue(new PayloadCodecs(JacksonPayloadCodec.json()).writesJson());
+        assertFalse(new PayloadCodecs(JacksonPayloadCodec.smile()).writesJson());
+        assertFalse(new PayloadCodecs(new JavaSerializationCodec()).writesJson());
+    }
+
+    @Test
+    public void testUnknownCodecIdFailsToDecode() {
+        PayloadCodecs codecs = new PayloadCodecs(new JavaSerializationCodec());
+
+        assertThrows(IllegalStateException.class, () -> codecs.decode((short) 99, new byte[]{1}));
+    }
+
+    @Test
+    public void testConfiguredCodecWinsOverABuiltInOneWithItsId() {
+        PayloadCodec upperCase = new PayloadCodec() {
+            @Override
+            public short id() {
+                return JavaSerializationCodec.ID;
+            }
+
+            @Override
+            public void encode(Object value, OutputStream out) throws IOException {
+                out.write(value.toString().toUpperCase().getBytes());
+            }
+
+            @Override
+            public Serializable decode(InputStream in) throws IOException {
+                return new String(in.readAllBytes());
+            }
+        };
+        PayloadCodecs codecs = new PayloadCodecs(upperCase);
+
+        assertEquals("PAYLOAD", codecs.decode(JavaSerializationCodec.ID, codecs.encode("payload")));
+    }
+
+    @Test
+    public void testUnencodablePayloadFailsWithItsType() {
+        PayloadCodecs codecs = new PayloadCodecs(new JavaSerializationCodec());
+
+        UncheckedIOException failure = assertThrows(UncheckedIOException.class, () -> codecs.encode(new Object()));
+        assertTrue(failure.getMessage().contains("java.lang.Object"));
+    }
+
+    private static PayloadCodec codecNamed(String name) {
+        return switch (name) {
+            case "java" -> new JavaSerializationCodec();
+            case "json" -> JacksonPayloadCodec.json();
+            case "smile" -> JacksonPayloadCodec.smile();
+            default -> throw new IllegalArgumentException(name);
+        };
+    }
+
+    private static Order order() {
+        List<String> tags = new ArrayList<>(List.of("express", "gift"));
+        Map<String, Long> quantities = new HashMap<>(Map.of("sku-1", 2L, "sku-2", 1L));
+        return new Order("order-42", 1234567L, Instant.parse("2025-03-01T12:00:00Z"), tags, quantities);
+    }
+
+    public record Order(String id, long amount, Instant created, List<String> tags,
+                        Map<String, Long> quantities) implements Serializable {
+    }
+}
@@ -0,0 +1,108 @@
+package aptvantage.aptflow.engine.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PayloadCompressionTest {
+
+    private static final byte[] COMPRESSIBLE = "aptflow ".repeat(512).getBytes(StandardCharsets.UTF_8);
+
+    @ParameterizedTest
+    @EnumSource(JdkCompressionCodec.class)
+    public void testCompressedPayloadStartsWithTheCodecId(JdkCompressionCodec codec) throws Exception {
+        PayloadCompression compression = new PayloadCompression(codec, 64);
+
+        byte[] compressed = compression.compress(COMPRESSIBLE);
+
+        assertEquals(codec.id(), compressed[0]);
+        assertTrue(compressed.length < COMPRESSIBLE.length);
+        assertArrayEquals(COMPRESSIBLE, compression.decompress(compressed));
+        try (InputStream decompressed = compression.decompress(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(COMPRESSIBLE, decompressed.readAllBytes());
+        }
+        assertEquals(1, compression.getCompressedPayloads());
+        assertTrue(compression.getCompressionRatio() < 1.0);
+    }
+
+    @Test
+    public void testPayloadsUnderTheThresholdAreStoredAsEncoded() {
+        PayloadCompression compression = new PayloadCompression(JdkCompressionCodec.DEFLATE, COMPRESSIBLE.length + 1);
+
+        assertSame(COMPRESSIBLE, compression.compress(COMPRESSIBLE));
+        assertEquals(0, compression.getCompressedPayloads());
+    }
+
+    @Test
+    public void testPayloadsThatDoNotShrinkAreStoredAsEncoded() {
+        byte[] random = new byte[4096];
+        new Random(42).nextBytes(random);
+        PayloadCompression compression = new PayloadCompression(JdkCompressionCodec.GZIP, 64);
+
+        assertSame(random, compression.compress(random));
+    }
+
+    @Test
+    public void testUncompressedPayloadsAreReadAsTheyAre() throws Exception {
+        // e.g. rows written before compression was enabled
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JavaSerializationCodec().encode("a value", out);
+        byte[] serialized = out.toByteArray();
+        PayloadCompression compression = new PayloadCompression(JdkCompressionCodec.DEFLATE, 0);
+
+        assertArrayEquals(serialized, compression.decompress(serialized));
+        try (InputStream decompressed = compression.decompress(new ByteArrayInputStream(serialized))) {
+            assertArrayEquals(serialized, decompressed.readAllBytes());
+        }
+        assertArrayEquals(new byte[0], compression.decompress(new byte[0]));
+    }
+
+    @Test
+    public void testPayloadsCompressedWithAnotherBuiltInCodecStayReadable() {
+        byte[] gzipped = new PayloadCompression(JdkCompressionCodec.GZIP, 0).compress(COMPRESSIBLE);
+
+        // without a codec payloads are still decompressed
+        assertArrayEquals(COMPRESSIBLE, new PayloadCompression().decompress(gzipped));
+        assertArrayEquals(COMPRESSIBLE, new PayloadCompression(JdkCompressionCodec.DEFLATE, 0).decompress(gzipped));
+    }
+
+    @Test
+    public void testCodecIdsMustBeControlCharacters() {
+        assertThrows(IllegalArgumentException.class, () -> new PayloadCompression(codecWithId((byte) 0), 0));
+        assertThrows(IllegalArgumentException.class, () -> new PayloadCompression(codecWithId((byte) 32), 0));
+    }
+
+    @Test
+    public void testUnknownCodecIdFailsToDecompress() {
+        byte[] payload = {30, 1, 2, 3};
+
+        assertThrows(IllegalStateException.class, () -> new PayloadCompression().decompress(payload));
+    }
+
+    private static CompressionCodec codecWithId(byte id) {
+        return new CompressionCodec() {
+            @Override
+            public byte id() {
+                return id;
+            }
+
+            @Override
+            public byte[] compress(byte[] data) {
+                return data;
+            }
+
+            @Override
+            public InputStream decompress(InputStream compressed) {
+                return compressed;
+            }
+        };
+    }
+}
@@ -0,0 +1,197 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.AptFlow;
+import aptvantage.aptflow.examples.ExampleSimpleWorkflow;
+import org.awaitility.Awaitility;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Testcontainers
+public class PayloadStoreTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> postgresqlContainer = new PostgreSQLContainer<>("postgres")
+            .withDatabaseName("test-database")
+            .withUsername("test-user")
+            .withPassword("test-password");
+
+    static AptFlow aptFlow;
+    static Jdbi jdbi;
+
+    @TempDir
+    Path blobDirectory;
+
+    @BeforeAll
+    static void setup() {
+        // started for its schema, and to write payloads the way workflows do
+        aptFlow = AptFlow.builder()
+                .dataSource("test-user", "test-password", postgresqlContainer.getJdbcUrl())
+                .start();
+        jdbi = Jdbi.create(postgresqlContainer.getJdbcUrl(), "test-user", "test-password");
+    }
+
+    @AfterAll
+    static void destroy() {
+        aptFlow.stop();
+    }
+
+    @Test
+    public void testIdenticalPayloadsAreStoredOnce() {
+        aptFlow.runWorkflow(ExampleSimpleWorkflow.class, 4242, "testIdenticalPayloadsAreStoredOnce-1");
+        aptFlow.runWorkflow(ExampleSimpleWorkflow.class, 4242, "testIdenticalPayloadsAreStoredOnce-2");
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                aptFlow.getLatestRun("testIdenticalPayloadsAreStoredOnce-1").hasCompleted()
+                        && aptFlow.getLatestRun("testIdenticalPayloadsAreStoredOnce-2").hasCompleted());
+
+        // both workflows and both outputs refer to a single row each
+        int inputHashes = jdbi.withHandle(handle -> handle.createQuery("""
+                        SELECT count(DISTINCT input_hash)
+                        FROM workflow
+                        WHERE id LIKE 'testIdenticalPayloadsAreStoredOnce-%'
+                        """)
+                .mapTo(Integer.class)
+                .one());
+        int outputHashes = jdbi.withHandle(handle -> handle.createQuery("""
+                        SELECT count(DISTINCT output_hash)
+                        FROM workflow_run
+                        WHERE workflow_id LIKE 'testIdenticalPayloadsAreStoredOnce-%'
+                        """)
+                .mapTo(Integer.class)
+                .one());
+        assertEquals(1, inputHashes);
+        assertEquals(1, outputHashes);
+    }
+
+    @Test
+    public void testSmallPayloadsAreServedFromTheCache() {
+        PayloadStore payloadStore = new PayloadStore(jdbi);
+        byte[] hash = insertPayload("cached".getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals("cached".getBytes(StandardCharsets.UTF_8), payloadStore.load(hash).data());
+
+        // payloads never change for a hash, so a cached one is not read again
+        updatePayload(hash, "changed".getBytes(StandardCharsets.UTF_8));
+
+        assertArrayEquals("cached".getBytes(StandardCharsets.UTF_8), payloadStore.load(hash).data());
+    }
+
+    @Test
+    public void testLargePayloadsAreNotCached() {
+        PayloadStore payloadStore = new PayloadStore(jdbi);
+        byte[] large = new byte[128 * 1024];
+        byte[] hash = insertPayload(large);
+        assertArrayEquals(large, payloadStore.load(hash).data());
+
+        byte[] changed = large.clone();
+        changed[0] = 1;
+        updatePayload(hash, changed);
+
+        assertArrayEquals(changed, payloadStore.load(hash).data());
+    }
+
+    @Test
+    public void testPayloadsOverTheThresholdAreOffloaded() throws Exception {
+        PayloadStore payloadStore = new PayloadStore(jdbi, new FileSystemBlobStore(blobDirectory), 16);
+        byte[] small = "small".getBytes(StandardCharsets.UTF_8);
+        byte[] large = new byte[1024];
+        Arrays.fill(large, (byte) 7);
+        byte[] largeHash = PayloadStore.hash(large);
+
+        assertArrayEquals(small, payloadStore.offload(PayloadStore.hash(small), small));
+        assertNull(payloadStore.offload(largeHash, large));
+
+        // the row of an offloaded payload holds no data, it is read from the blob store
+        jdbi.useHandle(handle -> handle.createUpdate("INSERT INTO payload (hash, codec, data) VALUES (:hash, 1, NULL)")
+                .bind("hash", largeHash)
+                .execute());
+        assertArrayEquals(large, payloadStore.load(largeHash).data());
+        try (InputStream stream = payloadStore.open(largeHash)) {
+            assertArrayEquals(large, stream.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testUnreferencedBlobsAreDeleted() {
+        FileSystemBlobStore blobStore = new FileSystemBlobStore(blobDirectory);
+        PayloadStore payloadStore = new PayloadStore(jdbi, blobStore, 16);
+        byte[] referenced = "referenced by a payload row".getBytes(StandardCharsets.UTF_8);
+        byte[] unreferenced = "its payload row never committed".getBytes(StandardCharsets.UTF_8);
+        payloadStore.offload(PayloadStore.hash(referenced), referenced);
+        payloadStore.offload(PayloadStore.hash(unreferenced), unreferenced);
+        jdbi.useHandle(handle -> handle.createUpdate("INSERT INTO payload (hash, codec, data) VALUES (:hash, 1, NULL)")
+                .bind("hash", PayloadStore.hash(referenced))
+                .execute());
+
+        // blobs put since are left alone, their payload row may be about to commit
+        assertEquals(0, PayloadStore.deleteUnreferencedBlobs(List.of(payloadStore), Instant.now().minusSeconds(60)));
+
+        assertEquals(1, PayloadStore.deleteUnreferencedBlobs(List.of(payloadStore), Instant.now().plusSeconds(1)));
+        assertArrayEquals(referenced, payloadStore.load(PayloadStore.hash(referenced)).data());
+        try (Stream<String> keys = blobStore.keysStoredBefore(Instant.now().plusSeconds(1))) {
+            assertEquals(List.of(HexFormat.of().formatHex(PayloadStore.hash(referenced))), keys.toList());
+        }
+    }
+
+    @Test
+    public void testJsonPayloadsWithNulCharactersAreKeptAsBytea() {
+        byte[] searchable = "{\"@class\":\"java.util.HashMap\",\"name\":\"plain\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] withNul = "{\"@class\":\"java.util.HashMap\",\"name\":\"nul\\u0000\"}".getBytes(StandardCharsets.UTF_8);
+
+        // jsonb cannot hold \u0000, so that payload is stored as it was encoded
+        storeJsonPayload(searchable);
+        storeJsonPayload(withNul);
+
+        assertTrue(isStoredAsJson(searchable));
+        assertFalse(isStoredAsJson(withNul));
+        assertArrayEquals(withNul, new PayloadStore(jdbi).load(PayloadStore.hash(withNul)).data());
+    }
+
+    private static void storeJsonPayload(byte[] data) {
+        jdbi.useHandle(handle -> handle.createUpdate("CALL aptflow_store_payload(:hash, CAST(2 AS smallint), :data)")
+                .bind("hash", PayloadStore.hash(data))
+                .bind("data", data)
+                .execute());
+    }
+
+    private static boolean isStoredAsJson(byte[] data) {
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT json IS NOT NULL FROM payload WHERE hash = :hash")
+                .bind("hash", PayloadStore.hash(data))
+                .mapTo(Boolean.class)
+                .one());
+    }
+
+    private static byte[] insertPayload(byte[] data) {
+        // a unique hash per test, the rows are not looked up by content here
+        byte[] hash = PayloadStore.hash(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+        jdbi.useHandle(handle -> handle.createUpdate("INSERT INTO payload (hash, codec, data) VALUES (:hash, 1, :data)")
+                .bind("hash", hash)
+                .bind("data", data)
+                .execute());
+        return hash;
+    }
+
+    private static void updatePayload(byte[] hash, byte[] data) {
+        jdbi.useHandle(handle -> handle.createUpdate("UPDATE payload SET data = :data WHERE hash = :hash")
+                .bind("hash", hash)
+                .bind("data", data)
+                .execute());
+    }
+}
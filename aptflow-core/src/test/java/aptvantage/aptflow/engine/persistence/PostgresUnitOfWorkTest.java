@@ -0,0 +1,157 @@
+package aptvantage.aptflow.engine.persistence;
+
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Testcontainers
+public class PostgresUnitOfWorkTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> postgresqlContainer = new PostgreSQLContainer<>("postgres")
+            .withDatabaseName("test-database")
+            .withUsername("test-user")
+            .withPassword("test-password");
+
+    private static final String INSERT = "INSERT INTO unit_of_work_test (id, status) VALUES (:id, :status)";
+    private static final String UPDATE = "UPDATE unit_of_work_test SET status = :status WHERE id = :id";
+    private static final String INSERT_PAYLOAD = """
+            INSERT INTO unit_of_work_test (id, status)
+            VALUES (:id, CASE WHEN CAST(:data AS bytea) IS NULL THEN 'OFFLOADED' ELSE 'INLINE' END)
+            """;
+
+    static Jdbi jdbi;
+
+    @TempDir
+    Path blobDirectory;
+
+    @BeforeAll
+    static void setup() {
+        jdbi = Jdbi.create(postgresqlContainer.getJdbcUrl(), "test-user", "test-password");
+        jdbi.useHandle(handle -> handle.execute("""
+                CREATE TABLE unit_of_work_test (
+                    id INT PRIMARY KEY,
+                    status TEXT NOT NULL
+                )
+                """));
+    }
+
+    @BeforeEach
+    void truncate() {
+        jdbi.useHandle(handle -> handle.execute("TRUNCATE unit_of_work_test"));
+    }
+
+    @Test
+    public void testWritesAreBufferedUntilFlushed() {
+        PostgresUnitOfWork unitOfWork = new PostgresUnitOfWork(jdbi, null, Durability.DURABLE);
+        unitOfWork.add(INSERT, Map.of("id", 1, "status", "STARTED"));
+        unitOfWork.add(INSERT, Map.of("id", 2, "status", "STARTED"));
+
+        assertEquals(0, rowCount());
+
+        unitOfWork.flush();
+
+        assertEquals(2, rowCount());
+    }
+
+    @Test
+    public void testBatchesKeepTheOrderOfTheWrites() {
+        PostgresUnitOfWork unitOfWork = new PostgresUnitOfWork(jdbi, null, Durability.DURABLE);
+        // consecutive writes of the same statement share a batch, a different statement starts a new one
+        unitOfWork.add(INSERT, Map.of("id", 1, "status", "STARTED"));
+        unitOfWork.add(INSERT, Map.of("id", 2, "status", "STARTED"));
+        unitOfWork.add(UPDATE, Map.of("id", 1, "status", "COMPLETED"));
+        unitOfWork.add(INSERT, Map.of("id", 3, "status", "STARTED"));
+        unitOfWork.add(UPDATE, Map.of("id", 3, "status", "FAILED"));
+
+        unitOfWork.flush();
+
+        assertEquals(List.of("COMPLETED", "STARTED", "FAILED"), statuses());
+    }
+
+    @Test
+    public void testFlushWithCommitsTheBufferedWritesWithTheAction() {
+        PostgresUnitOfWork unitOfWork = new PostgresUnitOfWork(jdbi, null, Durability.DURABLE);
+        unitOfWork.add(INSERT, Map.of("id", 1, "status", "STARTED"));
+
+        unitOfWork.flushWith(() -> RunHandle.useTransaction(jdbi, handle ->
+                handle.createUpdate(UPDATE).bind("id", 1).bind("status", "SLEEPING").execute()));
+
+        assertEquals(List.of("SLEEPING"), statuses());
+    }
+
+    @Test
+    public void testClosedUnitOfWorkWritesThrough() {
+        PostgresUnitOfWork unitOfWork = new PostgresUnitOfWork(jdbi, null, Durability.DURABLE);
+        unitOfWork.add(INSERT, Map.of("id", 1, "status", "STARTED"));
+
+        unitOfWork.close();
+        assertEquals(1, rowCount());
+
+        // e.g. an async activity completing after its pass
+        unitOfWork.add(INSERT, Map.of("id", 2, "status", "COMPLETED"));
+        assertEquals(2, rowCount());
+    }
+
+    @Test
+    public void testEphemeralWritesWaitForTheEndOfThePass() {
+        PostgresUnitOfWork unitOfWork = new PostgresUnitOfWork(jdbi, null, Durability.EPHEMERAL);
+        unitOfWork.add(INSERT, Map.of("id", 1, "status", "STARTED"));
+
+        unitOfWork.flush();
+        assertEquals(0, rowCount());
+
+        unitOfWork.close();
+        assertEquals(1, rowCount());
+    }
+
+    @Test
+    public void testPayloadsAreOffloadedWhenFlushed() {
+        FileSystemBlobStore blobStore = new FileSystemBlobStore(blobDirectory);
+        PayloadStore payloadStore = new PayloadStore(jdbi, blobStore, 16);
+        byte[] small = new byte[8];
+        byte[] large = new byte[1024];
+        PostgresUnitOfWork unitOfWork = new PostgresUnitOfWork(jdbi, null, Durability.DURABLE);
+        unitOfWork.add(INSERT_PAYLOAD, Map.of("id", 1, "data", new PayloadStore.PendingPayload(payloadStore, PayloadStore.hash(small), small)));
+        unitOfWork.add(INSERT_PAYLOAD, Map.of("id", 2, "data", new PayloadStore.PendingPayload(payloadStore, PayloadStore.hash(large), large)));
+
+        // a blob put while its write is buffered could be swept before its payload row commits
+        assertEquals(0, blobCount(blobStore));
+
+        unitOfWork.flush();
+
+        assertEquals(1, blobCount(blobStore));
+        assertEquals(List.of("INLINE", "OFFLOADED"), statuses());
+    }
+
+    private static long blobCount(BlobStore blobStore) {
+        try (Stream<String> keys = blobStore.keysStoredBefore(Instant.now().plusSeconds(1))) {
+            return keys.count();
+        }
+    }
+
+    private static int rowCount() {
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT count(*) FROM unit_of_work_test")
+                .mapTo(Integer.class)
+                .one());
+    }
+
+    private static List<String> statuses() {
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT status FROM unit_of_work_test ORDER BY id")
+                .mapTo(String.class)
+                .list());
+    }
+}
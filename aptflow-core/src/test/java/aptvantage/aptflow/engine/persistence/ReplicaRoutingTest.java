@@ -0,0 +1,71 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.model.ReadConsistency;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Testcontainers
+public class ReplicaRoutingTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> postgresqlContainer = new PostgreSQLContainer<>("postgres")
+            .withDatabaseName("test-database")
+            .withUsername("test-user")
+            .withPassword("test-password");
+
+    private final StateReader primary = new InMemoryStateStore();
+    private final StateReader replica = new InMemoryStateStore();
+
+    @Test
+    public void testReadsWithoutAReplicaAreServedByThePrimary() {
+        ReplicaRouting routing = new ReplicaRouting(primary, null, null);
+
+        assertSame(primary, routing.readerFor(ReadConsistency.REPLICA));
+        assertSame(primary, routing.readerFor(ReadConsistency.replicaWithin(Duration.ofSeconds(1))));
+        assertEquals(0, routing.getReplicaReads());
+        assertEquals(0, routing.getPrimaryFallbacks());
+    }
+
+    @Test
+    public void testPrimaryReadsAreNotServedByTheReplica() {
+        ReplicaRouting routing = new ReplicaRouting(primary, replica, replicaJdbi());
+
+        assertSame(primary, routing.readerFor(ReadConsistency.PRIMARY));
+        assertEquals(0, routing.getReplicaReads());
+    }
+
+    @Test
+    public void testReplicaReadsAreServedByTheReplica() {
+        ReplicaRouting routing = new ReplicaRouting(primary, replica, replicaJdbi());
+
+        assertSame(replica, routing.readerFor(ReadConsistency.REPLICA));
+        // a server out of recovery does not lag
+        assertSame(replica, routing.readerFor(ReadConsistency.replicaWithin(Duration.ZERO)));
+        assertEquals(2, routing.getReplicaReads());
+        assertEquals(0, routing.getPrimaryFallbacks());
+    }
+
+    @Test
+    public void testReadsAreServedByThePrimaryWhenTheLagCannotBeMeasured() {
+        // nothing listens on the port
+        Jdbi unreachable = Jdbi.create("jdbc:postgresql://localhost:1/test-database", "test-user", "test-password");
+        ReplicaRouting routing = new ReplicaRouting(primary, replica, unreachable);
+
+        assertSame(primary, routing.readerFor(ReadConsistency.replicaWithin(Duration.ofDays(1))));
+        assertEquals(1, routing.getPrimaryFallbacks());
+        // the lag is not needed without a maximum
+        assertSame(replica, routing.readerFor(ReadConsistency.REPLICA));
+        assertEquals(1, routing.getReplicaReads());
+    }
+
+    private static Jdbi replicaJdbi() {
+        return Jdbi.create(postgresqlContainer.getJdbcUrl(), "test-user", "test-password");
+    }
+}
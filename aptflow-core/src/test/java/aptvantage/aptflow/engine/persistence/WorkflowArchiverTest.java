@@ -0,0 +1,128 @@
+package aptvantage.aptflow.engine.persistence;
+
+import aptvantage.aptflow.AptFlow;
+import aptvantage.aptflow.examples.ExampleSimpleWorkflow;
+import aptvantage.aptflow.examples.ExampleWorkflowWithSignal;
+import org.awaitility.Awaitility;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Testcontainers
+public class WorkflowArchiverTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> postgresqlContainer = new PostgreSQLContainer<>("postgres")
+            .withDatabaseName("test-database")
+            .withUsername("test-user")
+            .withPassword("test-password");
+
+    static AptFlow aptFlow;
+    static Jdbi jdbi;
+
+    @BeforeAll
+    static void setup() {
+        // started without archiving, the tests archive themselves
+        aptFlow = AptFlow.builder()
+                .dataSource("test-user", "test-password", postgresqlContainer.getJdbcUrl())
+                .start();
+        jdbi = Jdbi.create(postgresqlContainer.getJdbcUrl(), "test-user", "test-password");
+    }
+
+    @AfterAll
+    static void destroy() {
+        aptFlow.stop();
+    }
+
+    @Test
+    public void testExpiredWorkflowsAreMovedToTheArchive() throws Exception {
+        String completed = "testExpiredWorkflowsAreMovedToTheArchive-completed";
+        String waiting = "testExpiredWorkflowsAreMovedToTheArchive-waiting";
+        aptFlow.runWorkflow(ExampleSimpleWorkflow.class, 1001, completed);
+        aptFlow.runWorkflow(ExampleWorkflowWithSignal.class, 1002, waiting);
+        awaitCompletion(completed);
+        String runId = aptFlow.getLatestRun(completed).getId();
+
+        archiver(Duration.ZERO, Map.of(), true).archiveExpired("start", "wakeUp", "signal", "reevaluation");
+
+        assertEquals(0, rows("workflow", "id", completed));
+        assertEquals(1, rows("workflow_archive", "id", completed));
+        assertEquals(1, rows("workflow_run_archive", "id", runId));
+        int archivedEvents = rows("event_archive", "workflow_run_id", runId);
+        assertTrue(archivedEvents > 0);
+        assertEquals(0, rows("event", "workflow_run_id", runId));
+        // its run waits for a signal, so it is not expired whatever its time to live
+        assertEquals(1, rows("workflow", "id", waiting));
+    }
+
+    @Test
+    public void testExpiredWorkflowsAreDeletedWithTheirTasks() throws Exception {
+        String workflowId = "testExpiredWorkflowsAreDeletedWithTheirTasks";
+        aptFlow.runWorkflow(ExampleSimpleWorkflow.class, 1003, workflowId);
+        awaitCompletion(workflowId);
+        String runId = aptFlow.getLatestRun(workflowId).getId();
+        byte[] outputHash = jdbi.withHandle(handle -> handle.createQuery("SELECT output_hash FROM workflow_run WHERE id = :id")
+                .bind("id", runId)
+                .mapTo(byte[].class)
+                .one());
+        // e.g. a start task that kept failing after the run completed
+        jdbi.useHandle(handle -> handle.createUpdate("""
+                        INSERT INTO scheduled_tasks (task_name, task_instance, execution_time, picked, version)
+                        VALUES ('start', :taskInstance, now() + interval '1 day', false, 1)
+                        """)
+                .bind("taskInstance", "workflow::" + runId)
+                .execute());
+
+        archiver(Duration.ZERO, Map.of(), false).archiveExpired("start", "wakeUp", "signal", "reevaluation");
+
+        assertEquals(0, rows("workflow", "id", workflowId));
+        assertEquals(0, rows("workflow_archive", "id", workflowId));
+        assertEquals(0, rows("workflow_run", "id", runId));
+        assertEquals(0, rows("event", "workflow_run_id", runId));
+        assertEquals(0, rows("scheduled_tasks", "task_instance", "workflow::" + runId));
+        int outputPayloads = jdbi.withHandle(handle -> handle.createQuery("SELECT count(*) FROM payload WHERE hash = :hash")
+                .bind("hash", outputHash)
+                .mapTo(Integer.class)
+                .one());
+        assertEquals(0, outputPayloads);
+    }
+
+    @Test
+    public void testWorkflowsOfAClassExpireAfterItsTtl() throws Exception {
+        String workflowId = "testWorkflowsOfAClassExpireAfterItsTtl";
+        aptFlow.runWorkflow(ExampleSimpleWorkflow.class, 1004, workflowId);
+        awaitCompletion(workflowId);
+
+        WorkflowArchiver archiver = archiver(Duration.ZERO,
+                Map.of(ExampleSimpleWorkflow.class.getName(), Duration.ofDays(1)), true);
+        archiver.archiveExpired("start", "wakeUp", "signal", "reevaluation");
+
+        assertEquals(1, rows("workflow", "id", workflowId));
+    }
+
+    private static WorkflowArchiver archiver(Duration defaultTtl, Map<String, Duration> ttlByClassName, boolean keepArchive) {
+        return new WorkflowArchiver(jdbi, defaultTtl, ttlByClassName, keepArchive, 100, 1000);
+    }
+
+    private static void awaitCompletion(String workflowId) {
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() ->
+                aptFlow.getLatestRun(workflowId).hasCompleted());
+    }
+
+    private static int rows(String table, String column, String value) {
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT count(*) FROM " + table + " WHERE " + column + " = :value")
+                .bind("value", value)
+                .mapTo(Integer.class)
+                .one());
+    }
+}
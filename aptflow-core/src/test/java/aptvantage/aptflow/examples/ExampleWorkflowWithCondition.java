@@ -4,20 +4,24 @@ import aptvantage.aptflow.api.RunnableWorkflow;
 
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static aptvantage.aptflow.api.WorkflowFunctions.awaitCondition;
 
 public class ExampleWorkflowWithCondition implements RunnableWorkflow<Integer, String> {
 
-    private static final AtomicInteger counter = new AtomicInteger(0);
+    private final TestCounterService testCounterService;
+
+    public ExampleWorkflowWithCondition(TestCounterService testCounterService) {
+        this.testCounterService = testCounterService;
+    }
 
     @Override
     public String execute(Integer howManyTimes) {
-        awaitCondition("run %s times".formatted(howManyTimes),
-                () -> counter.incrementAndGet() >= howManyTimes,
+        String conditionIdentifier = "run %s times".formatted(howManyTimes);
+        awaitCondition(conditionIdentifier,
+                () -> testCounterService.incrementAndGetTestCount(conditionIdentifier) >= howManyTimes,
                 Duration.of(1, ChronoUnit.SECONDS));
 
-        return String.valueOf(counter.get());
+        return String.valueOf(testCounterService.getTestCount(conditionIdentifier));
     }
 }
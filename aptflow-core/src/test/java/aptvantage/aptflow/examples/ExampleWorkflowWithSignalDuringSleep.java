@@ -0,0 +1,32 @@
+package aptvantage.aptflow.examples;
+
+import aptvantage.aptflow.api.RunnableWorkflow;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static aptvantage.aptflow.api.WorkflowFunctions.async;
+import static aptvantage.aptflow.api.WorkflowFunctions.awaitSignal;
+import static aptvantage.aptflow.api.WorkflowFunctions.sleep;
+
+public class ExampleWorkflowWithSignalDuringSleep implements RunnableWorkflow<Integer, String> {
+    @Override
+    public String execute(Integer param) {
+        CompletableFuture<Integer> multiplyBy = async(() -> awaitSignal("multiplyBy", Integer.class));
+        try {
+            multiplyBy.join();
+        } catch (CompletionException e) {
+            // still waiting for the signal, the nap starts regardless
+        }
+
+        sleep("nap while waiting", Duration.ofSeconds(1));
+
+        try {
+            return String.valueOf(param * multiplyBy.join());
+        } catch (CompletionException e) {
+            // pauses the run until the signal is received
+            throw (RuntimeException) e.getCause();
+        }
+    }
+}